@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import com.beust.jcommander.Parameters;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Multiset;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.copybara.config.Config;
+import com.google.copybara.config.ConfigValidator;
+import com.google.copybara.config.Migration;
+import com.google.copybara.config.ValidationResult;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.exception.EmptyChangeException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.monitor.EventMonitor.BatchMigrationFinishedEvent;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.SharedFetches;
+import com.google.copybara.util.TablePrinter;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.PrefixConsole;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs several migrations of a config file, or all of them, in parallel.
+ *
+ * <p>The config file is loaded and validated once, and the loaded migrations are run in a bounded
+ * pool of threads, each one in its own workdir. Migrations that write the same repository are
+ * never run at the same time. Migrations that read the same origin do, sharing its fetches: a
+ * reference is only fetched by the first migration that resolves it, and the others wait for
+ * that fetch. The result of each migration is reported with
+ * {@link com.google.copybara.monitor.EventMonitor#onBatchMigrationFinished}.
+ */
+@Parameters(separators = "=",
+    commandDescription = "Runs several migrations of a config file, or all of them, in parallel.")
+public class BatchCmd implements CopybaraCmd {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /**
+   * Runs a loaded migration of the batch.
+   */
+  @FunctionalInterface
+  interface MigrationRunner {
+    void run(Migration migration, Path workdir)
+        throws RepoException, ValidationException, IOException;
+  }
+
+  private final ConfigValidator configValidator;
+  private final Consumer<Migration> migrationRanConsumer;
+  private final ConfigLoaderProvider configLoaderProvider;
+  private final MigrationRunner runner;
+
+  BatchCmd(ConfigValidator configValidator, Consumer<Migration> migrationRanConsumer,
+      ConfigLoaderProvider configLoaderProvider) {
+    this(configValidator, migrationRanConsumer, configLoaderProvider,
+        (migration, workdir) -> migration.run(workdir, /*sourceRefs=*/ ImmutableList.of()));
+  }
+
+  @VisibleForTesting
+  BatchCmd(ConfigValidator configValidator, Consumer<Migration> migrationRanConsumer,
+      ConfigLoaderProvider configLoaderProvider, MigrationRunner runner) {
+    this.configValidator = Preconditions.checkNotNull(configValidator);
+    this.migrationRanConsumer = Preconditions.checkNotNull(migrationRanConsumer);
+    this.configLoaderProvider = Preconditions.checkNotNull(configLoaderProvider);
+    this.runner = Preconditions.checkNotNull(runner);
+  }
+
+  @Override
+  public ExitCode run(CommandEnv commandEnv)
+      throws ValidationException, IOException, RepoException {
+    ImmutableList<String> args = commandEnv.getArgs();
+    if (args.isEmpty()) {
+      throw new CommandLineException("Configuration file missing for 'batch' subcommand.");
+    }
+    String configPath = args.get(0);
+    if (commandEnv.getOptions().get(WorkflowOptions.class).isReadConfigFromChange()) {
+      throw new CommandLineException(String.format("%s flag is not supported by 'batch'",
+          WorkflowOptions.READ_CONFIG_FROM_CHANGE));
+    }
+    GeneralOptions generalOptions = commandEnv.getOptions().get(GeneralOptions.class);
+    Console console = generalOptions.console();
+
+    Config config = configLoaderProvider.newLoader(configPath, /*sourceRef=*/ null).load(console);
+    ImmutableList<Migration> migrations = selectMigrations(config, args.subList(1, args.size()));
+    validate(config, migrations, console);
+
+    int threads = Math.max(1, commandEnv.getOptions().get(BatchOptions.class).threads);
+    console.infoFmt("Running %d migrations, up to %d at the same time", migrations.size(),
+        threads);
+    Map<String, ExitCode> results = new LinkedHashMap<>();
+    generalOptions.setSharedFetches(new SharedFetches());
+    ExitCode batchResult =
+        runMigrations(commandEnv.getWorkdir(), migrations, threads, generalOptions, results);
+
+    TablePrinter table = new TablePrinter("Migration", "Result");
+    for (Migration migration : migrations) {
+      ExitCode result = results.get(migration.getName());
+      table.addRow(migration.getName(), result == null ? "NOT RUN" : result.name());
+    }
+    for (String line : table.build()) {
+      console.info(line);
+    }
+    return batchResult;
+  }
+
+  private static ImmutableList<Migration> selectMigrations(Config config,
+      List<String> migrationNames) throws ValidationException {
+    if (migrationNames.isEmpty()) {
+      return config.getMigrations().values().stream()
+          .sorted(Comparator.comparing(Migration::getName))
+          .collect(ImmutableList.toImmutableList());
+    }
+    ImmutableList.Builder<Migration> migrations = ImmutableList.builder();
+    for (String name : new LinkedHashSet<>(migrationNames)) {
+      migrations.add(config.getMigration(name));
+    }
+    return migrations.build();
+  }
+
+  private void validate(Config config, ImmutableList<Migration> migrations, Console console)
+      throws ValidationException {
+    console.progress("Validating configuration");
+    boolean hasErrors = false;
+    for (Migration migration : migrations) {
+      ValidationResult result = configValidator.validate(config, migration.getName());
+      if (result.hasErrors()) {
+        result.getErrors().forEach(console::error);
+        hasErrors = true;
+      }
+    }
+    if (hasErrors) {
+      console.error("Configuration is invalid.");
+      throw new ValidationException("Error validating configuration: Configuration is invalid.");
+    }
+  }
+
+  /**
+   * Runs the migrations, starting a new one whenever a thread is free and a pending migration
+   * doesn't write a repository used by the running ones, or read one they write. Returns the exit
+   * code of the batch.
+   */
+  private ExitCode runMigrations(Path workdir, ImmutableList<Migration> migrations,
+      int threads, GeneralOptions generalOptions, Map<String, ExitCode> results) {
+    Console console = generalOptions.console();
+    ExecutorService executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setNameFormat("batch-migration-%d").setDaemon(true).build());
+    CompletionService<MigrationResult> completion = new ExecutorCompletionService<>(executor);
+
+    List<Migration> pending = new ArrayList<>(migrations);
+    Multiset<String> readUrls = HashMultiset.create();
+    Set<String> writtenUrls = new HashSet<>();
+    int running = 0;
+    try {
+      while (!pending.isEmpty() || running > 0) {
+        for (Iterator<Migration> it = pending.iterator(); it.hasNext() && running < threads; ) {
+          Migration migration = it.next();
+          ImmutableSortedSet<String> origins = RepoAdmission.originUrls(migration);
+          ImmutableSortedSet<String> destinations = RepoAdmission.destinationUrls(migration);
+          if (!Collections.disjoint(origins, writtenUrls)
+              || !Collections.disjoint(destinations, writtenUrls)
+              || !Collections.disjoint(destinations, readUrls.elementSet())) {
+            continue;
+          }
+          it.remove();
+          readUrls.addAll(origins);
+          writtenUrls.addAll(destinations);
+          running++;
+          completion.submit(() -> runMigration(workdir, migration, console));
+        }
+        MigrationResult result = completion.take().get();
+        running--;
+        for (String url : RepoAdmission.originUrls(result.migration)) {
+          readUrls.remove(url);
+        }
+        writtenUrls.removeAll(RepoAdmission.destinationUrls(result.migration));
+        String name = result.migration.getName();
+        results.put(name, result.exitCode);
+        console.infoFmt("Migration %s finished with %s in %s", name, result.exitCode,
+            result.elapsed);
+        BatchMigrationFinishedEvent event =
+            new BatchMigrationFinishedEvent(name, result.exitCode, result.elapsed);
+        generalOptions.eventMonitors().dispatchEvent(m -> m.onBatchMigrationFinished(event));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      console.error("Execution was interrupted. Stopping the running migrations.");
+      return ExitCode.INTERRUPTED;
+    } catch (ExecutionException e) {
+      // runMigration handles the exceptions of the migrations
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IllegalStateException("Unexpected error running the batch", e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+
+    ExitCode batchResult = ExitCode.NO_OP;
+    for (Migration migration : migrations) {
+      ExitCode exitCode = results.get(migration.getName());
+      if (exitCode == ExitCode.SUCCESS) {
+        batchResult = ExitCode.SUCCESS;
+      } else if (exitCode != ExitCode.NO_OP) {
+        // Report the first failure
+        return exitCode;
+      }
+    }
+    return batchResult;
+  }
+
+  /**
+   * Runs the loaded migration in a new directory inside {@code workdir} and returns its result.
+   * The exit codes are the ones 'migrate' would return.
+   */
+  private MigrationResult runMigration(Path workdir, Migration migration, Console console) {
+    Console migrationConsole = new PrefixConsole("[" + migration.getName() + "] ", console);
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ExitCode exitCode = ExitCode.SUCCESS;
+    try {
+      Path migrationWorkdir =
+          Files.createTempDirectory(Files.createDirectories(workdir), "migration");
+      migrationRanConsumer.accept(migration);
+      runner.run(migration, migrationWorkdir);
+    } catch (EmptyChangeException e) {
+      migrationConsole.warn(e.getMessage());
+      exitCode = ExitCode.NO_OP;
+    } catch (CommandLineException e) {
+      migrationConsole.error(e.getMessage());
+      exitCode = ExitCode.COMMAND_LINE_ERROR;
+    } catch (RepoException e) {
+      logger.atSevere().withCause(e).log("Migration %s failed", migration.getName());
+      migrationConsole.error(e.getMessage());
+      exitCode = e.getCause() instanceof InterruptedException
+          ? ExitCode.INTERRUPTED
+          : ExitCode.REPOSITORY_ERROR;
+    } catch (ValidationException e) {
+      migrationConsole.error(e.getMessage());
+      exitCode = ExitCode.CONFIGURATION_ERROR;
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Migration %s failed", migration.getName());
+      migrationConsole.error(e.getMessage());
+      exitCode = ExitCode.ENVIRONMENT_ERROR;
+    } catch (RuntimeException e) {
+      logger.atSevere().withCause(e).log("Migration %s failed", migration.getName());
+      migrationConsole.error("Unexpected error: " + e.getMessage());
+      exitCode = ExitCode.INTERNAL_ERROR;
+    }
+    return new MigrationResult(migration, exitCode, stopwatch.elapsed());
+  }
+
+  @Override
+  public String name() {
+    return "batch";
+  }
+
+  private static final class MigrationResult {
+
+    private final Migration migration;
+    private final ExitCode exitCode;
+    private final Duration elapsed;
+
+    private MigrationResult(Migration migration, ExitCode exitCode, Duration elapsed) {
+      this.migration = migration;
+      this.exitCode = exitCode;
+      this.elapsed = elapsed;
+    }
+  }
+}
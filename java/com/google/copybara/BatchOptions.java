@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Arguments for {@link BatchCmd}.
+ */
+@Parameters(separators = "=")
+public class BatchOptions implements Option {
+
+  @Parameter(names = "--batch-threads",
+      description = "Maximum number of migrations that 'batch' runs at the same time. Migrations"
+          + " that use the same repository always run one after the other.")
+  int threads = Runtime.getRuntime().availableProcessors();
+}
@@ -23,6 +23,7 @@ import com.google.common.collect.Maps;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import java.util.Map;
+import java.util.Optional;
 
 import javax.annotation.Nullable;
 
@@ -60,6 +61,14 @@ public interface ChangeVisitable <R extends Revision> {
       return visitor.visit(input, ImmutableMap.copyOf(copy));
     });
   }
+
+  /**
+   * Returns an index of the labels of the changes reachable from the head, if the implementation
+   * keeps one. This allows finding a change by label without visiting the history.
+   */
+  default Optional<LabelIndex> getLabelIndex() throws RepoException, ValidationException {
+    return Optional.empty();
+  }
   
   /**
    * A visitor of changes. An implementation of this interface is provided to {@see
@@ -89,6 +98,20 @@ public interface ChangeVisitable <R extends Revision> {
     VisitResult visit(Change<? extends Revision> input, ImmutableMap<String, String> matchedLabels);
   }
 
+  /**
+   * An index of the label values of the changes. See {@link #getLabelIndex()}.
+   */
+  interface LabelIndex {
+
+    /**
+     * Returns the reference of the newest change that has any of the {@code labels} with {@code
+     * value}, or null if there is no such change. Like {@link #visitChangesWithAnyLabel}, only the
+     * last value of each label in a change is considered.
+     */
+    @Nullable
+    String findChange(ImmutableCollection<String> labels, String value);
+  }
+
   /**
    * The result type for the function passed to
    * {@see visitChanges}.
@@ -1086,6 +1086,7 @@ public class Core implements LabelsAwareModule, StarlarkValue {
         mapping,
         defaultString,
         workflowOptions.parallelizer(),
+        workflowOptions.noopContentIndex(),
         regexIgnorelist);
   }
 
@@ -74,7 +74,9 @@ public interface Destination<R extends Revision> extends ConfigItemDescription,
      * one received in {@code {@link #getDestinationStatus(Glob, String)}} due to read config from
      * change configuration.
      * @param console console to be used for printing messages
-     * @return one or more destination effects
+     * @return one or more destination effects, or none if the change was kept locally to be sent
+     *     together with later ones. Its effects are then returned by the call to {@link #write} or
+     *     {@link #flush} that sends it.
      *
      * @throws ValidationException if an user attributable error happens during the write
      * @throws RepoException if there was an issue with the destination repository
@@ -83,6 +85,26 @@ public interface Destination<R extends Revision> extends ConfigItemDescription,
     ImmutableList<DestinationEffect> write(TransformResult transformResult, Glob destinationFiles,
         Console console) throws ValidationException, RepoException, IOException;
 
+    /**
+     * Sends to the destination the changes that were written but kept locally, for example to
+     * push several of them together. Called once at the end of the migration, even if it failed.
+     *
+     * @param console console to be used for printing messages
+     * @return the effects of the changes sent, that were not returned by {@link #write}
+     */
+    default ImmutableList<DestinationEffect> flush(Console console)
+        throws ValidationException, RepoException {
+      return ImmutableList.of();
+    }
+
+    /**
+     * Returns true if there are changes that were kept locally by {@link #write} and are not sent
+     * yet.
+     */
+    default boolean hasPendingChanges() {
+      return false;
+    }
+
     /**
      * Utility endpoint for accessing and adding feedback data.
      * @param console console to use for reporting information to the user
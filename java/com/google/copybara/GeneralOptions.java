@@ -43,6 +43,7 @@ import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
 import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.DirFactory;
+import com.google.copybara.util.SharedFetches;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.StarlarkMode;
 import com.google.copybara.shell.Command;
@@ -82,6 +83,10 @@ public final class GeneralOptions implements Option {
   private final HashMap<String, EventMonitor> eventMonitors;
   private Path configRootPath;
   private Path outputRootPath;
+  @Nullable private String tempDirName;
+  private SharedFetches sharedFetches = SharedFetches.NONE;
+  private String copybaraVersion = "Unknown version";
+  private ImmutableList<String> commandLineFlags = ImmutableList.of();
 
   private Profiler profiler = new Profiler(Ticker.systemTicker());
 
@@ -108,13 +113,22 @@ public final class GeneralOptions implements Option {
   }
 
   public GeneralOptions withForce(boolean force) throws ValidationException {
-    return new GeneralOptions(environment, fileSystem, verbose, console, getConfigRoot(),
-        getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    return copy(console, force);
   }
 
   public GeneralOptions withConsole(Console console) throws ValidationException {
-    return new GeneralOptions(environment, fileSystem, verbose, console, getConfigRoot(),
-        getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    return copy(console, force);
+  }
+
+  /** Returns a copy of these options that uses {@code console} and {@code force}. */
+  private GeneralOptions copy(Console console, boolean force) throws ValidationException {
+    GeneralOptions options = new GeneralOptions(environment, fileSystem, verbose, console,
+        getConfigRoot(), getOutputRoot(), noCleanup, disableReversibleCheck, force, outputLimit);
+    options.tempDirName = tempDirName;
+    options.sharedFetches = sharedFetches;
+    options.copybaraVersion = copybaraVersion;
+    options.commandLineFlags = commandLineFlags;
+    return options;
   }
 
   public Map<String, String> getEnvironment() {
@@ -240,13 +254,49 @@ public final class GeneralOptions implements Option {
    */
   public DirFactory getDirFactory() {
     if (getOutputRoot() != null) {
-      return new DirFactory(getOutputRoot());
+      return new DirFactory(getOutputRoot(), tempDirName);
     } else {
       String home = checkNotNull(environment.get("HOME"), "$HOME environment var is not set");
-      return new DirFactory(fileSystem.getPath(home).resolve("copybara"));
+      return new DirFactory(fileSystem.getPath(home).resolve("copybara"), tempDirName);
     }
   }
 
+  /**
+   * Uses a temp directory of its own for this execution, so that executions sharing the output
+   * root in the same JVM, like the requests of 'serve', don't delete each other's temp files.
+   */
+  void setTempDirName(String tempDirName) {
+    this.tempDirName = checkNotNull(tempDirName);
+  }
+
+  /**
+   * Returns the fetches shared with the other migrations of the same 'batch' execution. By
+   * default nothing is shared.
+   */
+  public SharedFetches getSharedFetches() {
+    return sharedFetches;
+  }
+
+  void setSharedFetches(SharedFetches sharedFetches) {
+    this.sharedFetches = checkNotNull(sharedFetches);
+  }
+
+  /** Returns the version of the running Copybara binary. */
+  public String getCopybaraVersion() {
+    return copybaraVersion;
+  }
+
+  /** Returns the flags of the command line, without the positional arguments. */
+  public ImmutableList<String> getCommandLineFlags() {
+    return commandLineFlags;
+  }
+
+  @VisibleForTesting
+  void setCommandLine(String copybaraVersion, ImmutableList<String> commandLineFlags) {
+    this.copybaraVersion = checkNotNull(copybaraVersion);
+    this.commandLineFlags = checkNotNull(commandLineFlags);
+  }
+
   @VisibleForTesting
   public void setEnvironmentForTest(Map<String, String> environment) {
     this.environment = environment;
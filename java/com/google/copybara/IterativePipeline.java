@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.copybara.WorkflowRunHelper.ChangeMigrator;
+import com.google.copybara.WorkflowRunHelper.ChangeMigrator.PreparedChange;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.PrefixConsole;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Returns the changes of an {@link WorkflowMode#ITERATIVE} migration in the order they need to be
+ * migrated, skipping the ones that don't need to be migrated.
+ *
+ * <p>If {@code lookahead} is greater than zero, the next {@code lookahead} changes are checked out
+ * and transformed in a background thread, each one in its own workdir, while the current one is
+ * written to the destination. Changes are still prepared and written in order, and an error while
+ * preparing a change is only reported when that change is migrated, so the previous changes are
+ * written like in a serial migration. Only use it for workflows where {@link
+ * WorkflowRunHelper#canPrepareInAdvance()}, since the preparation doesn't see the changes that are
+ * not written yet.
+ */
+final class IterativePipeline<O extends Revision, D extends Revision> implements AutoCloseable {
+
+  private final WorkflowRunHelper<O, D> runHelper;
+  private final Iterator<Change<O>> changes;
+  @Nullable private final O lastRev;
+  private final int total;
+  private final int lookahead;
+  @Nullable private final ExecutorService executor;
+  private final Deque<Change<O>> migrated = new ArrayDeque<>();
+  private final Deque<Step<O, D>> pending = new ArrayDeque<>();
+  private int changeNumber = 1;
+  private int prepared;
+
+  IterativePipeline(WorkflowRunHelper<O, D> runHelper, Iterator<Change<O>> changes,
+      @Nullable O lastRev, int total, int lookahead) {
+    this.runHelper = checkNotNull(runHelper);
+    this.changes = checkNotNull(changes);
+    this.lastRev = lastRev;
+    this.total = total;
+    this.lookahead = Math.max(0, lookahead);
+    this.executor = this.lookahead == 0
+        ? null
+        : Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("iterative-lookahead-%d").setDaemon(true)
+                .build());
+  }
+
+  /**
+   * Returns true if there might be more changes to migrate.
+   */
+  boolean hasNext() {
+    return !pending.isEmpty() || changes.hasNext();
+  }
+
+  /**
+   * Returns the next change to migrate, or null if there are no more changes.
+   */
+  @Nullable
+  Step<O, D> next() {
+    fill();
+    return pending.poll();
+  }
+
+  /**
+   * Adds changes to the pending queue until there are {@code lookahead} changes after the next
+   * one, starting their preparation if they are going to be prepared in advance.
+   */
+  private void fill() {
+    while (pending.size() <= lookahead && changes.hasNext()) {
+      if (!pending.isEmpty() && pending.getLast().error != null) {
+        // Don't look past a change that cannot be migrated
+        return;
+      }
+      Change<O> change = changes.next();
+      ChangeMigrator<O, D> migrator;
+      try {
+        migrator = runHelper.getMigratorForChange(change);
+        if (migrator.skipChange(change)) {
+          continue;
+        }
+      } catch (RepoException | ValidationException e) {
+        pending.add(new Step<>(change, prefix(change), /*migrator=*/ null, /*console=*/ null,
+            /*changesToMigrate=*/ null, /*preparedChange=*/ null, /*future=*/ null, e));
+        return;
+      }
+      pending.add(newStep(change, migrator));
+    }
+  }
+
+  private Step<O, D> newStep(Change<O> change, ChangeMigrator<O, D> migrator) {
+    String prefix = prefix(change);
+    changeNumber++;
+    Console console = new PrefixConsole(prefix, runHelper.getConsole());
+    Metadata metadata = new Metadata(
+        runHelper.getChangeMessage(change.getMessage()),
+        runHelper.getFinalAuthor(change.getAuthor()),
+        ImmutableSetMultimap.of());
+    Changes changesToMigrate = new Changes(ImmutableList.of(change), migrated);
+    migrated.addFirst(change);
+
+    if (executor == null) {
+      Path workdir = runHelper.getWorkdir();
+      return new Step<>(change, prefix, migrator, console, changesToMigrate,
+          () -> prepare(migrator, workdir, change, console, metadata, changesToMigrate),
+          /*future=*/ null, /*error=*/ null);
+    }
+    // There are at most lookahead + 1 changes pending, so the workdir of the change before the
+    // oldest pending one can be reused: It was already written.
+    Path workdir = runHelper.getWorkdir().resolve("lookahead")
+        .resolve(Integer.toString(prepared++ % (lookahead + 1)));
+    Future<TransformResult> future = executor.submit(
+        () -> prepare(migrator, workdir, change, console, metadata, changesToMigrate));
+    return new Step<>(change, prefix, migrator, console, changesToMigrate,
+        () -> getResult(future), future, /*error=*/ null);
+  }
+
+  private String prefix(Change<O> change) {
+    return String.format("Change %d of %d (%s): ",
+        changeNumber, total, change.getRevision().asString());
+  }
+
+  private TransformResult prepare(ChangeMigrator<O, D> migrator, Path workdir, Change<O> change,
+      Console console, Metadata metadata, Changes changesToMigrate)
+      throws IOException, RepoException, ValidationException {
+    return migrator.prepare(workdir, change.getRevision(), lastRev, console, metadata,
+        changesToMigrate,
+        /*destinationBaseline=*/ null,
+        // Use the current change since we might want to create different
+        // reviews in the destination. Will not work if we want to group
+        // all the changes in the same Github PR
+        change.getRevision());
+  }
+
+  private static TransformResult getResult(Future<TransformResult> future)
+      throws IOException, RepoException, ValidationException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while preparing the change", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.propagateIfPossible(cause, IOException.class, ValidationException.class);
+      Throwables.propagateIfInstanceOf(cause, RepoException.class);
+      throw new RuntimeException("Unhandled error", cause);
+    }
+  }
+
+  /**
+   * Stops preparing the pending changes and waits for the current preparation, so that nothing
+   * is written to the workdir after the migration finishes.
+   */
+  @Override
+  public void close() throws RepoException {
+    if (executor == null) {
+      return;
+    }
+    for (Step<O, D> step : pending) {
+      if (step.future != null) {
+        // A running preparation is not interrupted, since it could leave the repositories in a
+        // bad state. We wait for it below.
+        step.future.cancel(/*mayInterruptIfRunning=*/ false);
+      }
+    }
+    executor.shutdown();
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while stopping the preparation of changes", e);
+    }
+  }
+
+  /**
+   * A change to migrate.
+   */
+  static final class Step<O extends Revision, D extends Revision> {
+
+    private final Change<O> change;
+    private final String prefix;
+    @Nullable private final ChangeMigrator<O, D> migrator;
+    @Nullable private final Console console;
+    @Nullable private final Changes changesToMigrate;
+    @Nullable private final PreparedChange preparedChange;
+    @Nullable private final Future<TransformResult> future;
+    @Nullable private final Exception error;
+
+    private Step(Change<O> change, String prefix, @Nullable ChangeMigrator<O, D> migrator,
+        @Nullable Console console, @Nullable Changes changesToMigrate,
+        @Nullable PreparedChange preparedChange, @Nullable Future<TransformResult> future,
+        @Nullable Exception error) {
+      this.change = checkNotNull(change);
+      this.prefix = checkNotNull(prefix);
+      this.migrator = migrator;
+      this.console = console;
+      this.changesToMigrate = changesToMigrate;
+      this.preparedChange = preparedChange;
+      this.future = future;
+      this.error = error;
+    }
+
+    Change<O> getChange() {
+      return change;
+    }
+
+    /**
+     * Prefix used in the console messages of the change, like "Change 1 of 3 (rev): ".
+     */
+    String getPrefix() {
+      return prefix;
+    }
+
+    /**
+     * Writes the change to the destination, waiting for its preparation if needed.
+     */
+    ImmutableList<DestinationEffect> migrate()
+        throws IOException, RepoException, ValidationException {
+      if (error != null) {
+        Throwables.propagateIfPossible(error, RepoException.class, ValidationException.class);
+        throw new IllegalStateException("Unexpected error", error);
+      }
+      return migrator.migrate(changesToMigrate, console, preparedChange);
+    }
+  }
+}
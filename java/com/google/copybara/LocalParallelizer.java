@@ -21,59 +21,174 @@ import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
-import com.google.common.util.concurrent.MoreExecutors;
+import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
 
 /**
  * A class that allows to run a list of things in parallel batches.
+ *
+ * <p>Elements are split in batches of similar estimated cost, more batches than threads, and run
+ * in a work-stealing pool. This way a batch with a few big files doesn't keep the rest of the
+ * threads idle.
  */
 public class LocalParallelizer {
 
+  /** Cost of an element apart from its own estimated cost, like opening a file. */
+  private static final long ELEMENT_COST = 4096;
+  /** Number of batches per thread, so that idle threads can steal work from busy ones. */
+  private static final int BATCHES_PER_THREAD = 4;
+
   private final int threads;
   private final int minSize;
-  private final ListeningExecutorService executor;
+  @Nullable
+  private final ForkJoinPool pool;
 
   public LocalParallelizer(int threads, int minSize) {
     this.threads = threads;
     this.minSize = minSize;
     Preconditions.checkState(threads >= 1, "Threads need to be positive");
     Preconditions.checkState(threads < 1000, "Too many threads (max: 1000)");
-    executor = threads == 1
+    pool = threads == 1
         ? null
-        : MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threads));
+        : new ForkJoinPool(threads);
   }
 
   /**
    * Run a list of things in batches, calling {@code func} for each batch.
    */
   public <K, V> List<V> run(Iterable<K> list, TransformFunc<K, V> func)
-      throws IOException, ValidationException {
+      throws IOException, ValidationException, RepoException {
+    return run(list, e -> 0, func);
+  }
+
+  /**
+   * Run a list of things in batches, calling {@code func} for each batch. Batches are split so
+   * that they have a similar total {@code cost}, for example the size of the files.
+   *
+   * <p>If a batch fails, batches that didn't start yet are skipped. If the current thread is
+   * interrupted, pending batches are skipped, and once the running ones finish a
+   * {@link RepoException} caused by the {@link InterruptedException} is thrown.
+   */
+  public <K, V> List<V> run(Iterable<K> list, ToLongFunction<? super K> cost,
+      TransformFunc<K, V> func) throws IOException, ValidationException, RepoException {
     if (threads == 1 || Iterables.size(list) < minSize) {
       return ImmutableList.of(func.run(list));
     }
-    List<ListenableFuture<V>> results = new ArrayList<>(threads);
-    List<K> newList = Lists.newArrayList(list);
-    for (List<K> batch : Lists.partition(newList, Math.max(1, newList.size() / threads))) {
-      results.add(executor.submit(() -> func.run(batch)));
+    List<K> elements = Lists.newArrayList(list);
+    if (elements.isEmpty()) {
+      return ImmutableList.of();
     }
+    long[] accumulatedCost = new long[elements.size() + 1];
+    for (int i = 0; i < elements.size(); i++) {
+      accumulatedCost[i + 1] = accumulatedCost[i] + ELEMENT_COST
+          + Math.max(0, cost.applyAsLong(elements.get(i)));
+    }
+    long batchCost = Math.max(1,
+        accumulatedCost[elements.size()] / ((long) threads * BATCHES_PER_THREAD));
+    AtomicBoolean cancelled = new AtomicBoolean();
+    ForkJoinTask<List<V>> task = pool.submit(
+        new BatchTask<>(elements, accumulatedCost, 0, elements.size(), batchCost, func,
+            cancelled));
     try {
-      return Futures.allAsList(results).get();
+      return task.get();
     } catch (InterruptedException e) {
+      cancelled.set(true);
+      // ForkJoinTasks cannot be interrupted, so wait for the running batches instead of letting
+      // them modify the files after returning. Pending batches are skipped.
+      task.quietlyJoin();
       Thread.currentThread().interrupt();
-      //TODO We cannot do much here. We might expose InterruptedException all the way up to Main...
-      throw new RuntimeException("Interrupted", e);
+      throw new RepoException("Interrupted while running transformations", e);
     } catch (ExecutionException e) {
-      Throwables.propagateIfPossible(e.getCause(), IOException.class, ValidationException.class);
-      throw new RuntimeException("Unhandled error", e.getCause());
+      Throwable cause = e.getCause();
+      while (cause instanceof BatchException) {
+        cause = cause.getCause();
+      }
+      Throwables.propagateIfPossible(cause, IOException.class, ValidationException.class);
+      throw new RuntimeException("Unhandled error", cause);
+    }
+  }
+
+  /**
+   * Runs a range of elements, splitting it in two halves of similar cost if it is too costly.
+   */
+  private static class BatchTask<K, V> extends RecursiveTask<List<V>> {
+
+    private final List<K> elements;
+    private final long[] accumulatedCost;
+    private final int from;
+    private final int to;
+    private final long batchCost;
+    private final TransformFunc<K, V> func;
+    private final AtomicBoolean cancelled;
+
+    private BatchTask(List<K> elements, long[] accumulatedCost, int from, int to, long batchCost,
+        TransformFunc<K, V> func, AtomicBoolean cancelled) {
+      this.elements = elements;
+      this.accumulatedCost = accumulatedCost;
+      this.from = from;
+      this.to = to;
+      this.batchCost = batchCost;
+      this.func = func;
+      this.cancelled = cancelled;
+    }
+
+    @Override
+    protected List<V> compute() {
+      if (cancelled.get()) {
+        return ImmutableList.of();
+      }
+      if (to - from == 1 || accumulatedCost[to] - accumulatedCost[from] <= batchCost) {
+        try {
+          return ImmutableList.of(func.run(elements.subList(from, to)));
+        } catch (IOException | ValidationException | RuntimeException e) {
+          cancelled.set(true);
+          throw new BatchException(e);
+        }
+      }
+      long half = (accumulatedCost[from] + accumulatedCost[to]) / 2;
+      int middle = Arrays.binarySearch(accumulatedCost, from + 1, to, half);
+      middle = middle < 0 ? -middle - 1 : middle;
+      middle = Math.max(from + 1, Math.min(to - 1, middle));
+
+      BatchTask<K, V> left = newTask(from, middle);
+      BatchTask<K, V> right = newTask(middle, to);
+      left.fork();
+      List<V> rightResult;
+      try {
+        rightResult = right.compute();
+      } catch (BatchException e) {
+        // Don't return while the other half might still be modifying files
+        left.quietlyJoin();
+        throw e;
+      }
+      return ImmutableList.<V>builder()
+          .addAll(left.join())
+          .addAll(rightResult)
+          .build();
+    }
+
+    private BatchTask<K, V> newTask(int from, int to) {
+      return new BatchTask<>(elements, accumulatedCost, from, to, batchCost, func, cancelled);
+    }
+  }
+
+  /**
+   * Wraps the exceptions thrown by {@link TransformFunc}s while they travel across threads.
+   */
+  private static class BatchException extends RuntimeException {
 
+    private BatchException(Exception cause) {
+      super(cause);
     }
   }
 
@@ -20,8 +20,10 @@ import static com.google.copybara.MainArguments.COPYBARA_SKYLARK_CONFIG_FILENAME
 import static com.google.copybara.exception.ValidationException.checkCondition;
 
 import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterDescription;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.StandardSystemProperty;
@@ -50,6 +52,7 @@ import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.FileConsole;
 import com.google.copybara.util.console.LogConsole;
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystem;
@@ -59,6 +62,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -76,6 +80,7 @@ import net.starlark.java.eval.EvalException;
 public class Main {
 
   private static final String COPYBARA_NAMESPACE = "com.google.copybara";
+  private static final String WORK_DIR_FLAG = "--work-dir";
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
   /**
@@ -88,6 +93,8 @@ public class Main {
   protected JCommander jCommander;
 
   private Console console;
+  /** The request being run if this instance was created by {@link ServeCmd}. */
+  @Nullable private ServeCmd.Request request;
 
   public Main() {
     this(System.getenv());
@@ -114,19 +121,78 @@ public class Main {
       handleUnexpectedError(console, e.getMessage(), args, e);
       return ExitCode.ENVIRONMENT_ERROR;
     }
+    return runCommand(args, fs).exitCode;
+  }
+
+  /**
+   * Runs a request of {@link ServeCmd} with its own console. Unlike {@link #run(String[])}, the
+   * logs are already configured and the temp directories of the other requests are kept.
+   */
+  final ExitCode runRequest(String[] args, Console console, ServeCmd.Request request) {
+    this.console = console;
+    this.request = request;
+    CommandResult result;
+    try {
+      result = runCommand(args, FileSystems.getDefault());
+    } finally {
+      request.finish();
+    }
+    if (result.getCommandEnv() != null) {
+      GeneralOptions generalOptions =
+          result.getCommandEnv().getOptions().get(GeneralOptions.class);
+      if (!generalOptions.isNoCleanup()) {
+        try {
+          generalOptions.getDirFactory().cleanupTempDirs();
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot delete the temp directories of request");
+        }
+      }
+    }
+    return result.exitCode;
+  }
+
+  private CommandResult runCommand(String[] args, FileSystem fs) {
     // This is useful when debugging user issues
     logger.atInfo().log("Running: %s", Joiner.on(' ').join(args));
 
     console.startupMessage(getVersion());
 
     CommandResult result = runInternal(args, console, fs);
+    closeOptions(result);
     try {
       shutdown(result);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       handleUnexpectedError(console, "Execution was interrupted.", args, e);
     }
-    return result.exitCode;
+    return result;
+  }
+
+  /**
+   * Closes the options that hold resources for the execution, like the git processes of the
+   * repositories. This matters for the requests of 'serve' and 'batch', that share the JVM.
+   */
+  private void closeOptions(CommandResult result) {
+    if (result.getCommandEnv() == null) {
+      return;
+    }
+    for (Option option : result.getCommandEnv().getOptions().getAll()) {
+      if (option instanceof Closeable) {
+        try {
+          ((Closeable) option).close();
+        } catch (IOException | RuntimeException e) {
+          logger.atWarning().withCause(e).log("Cannot close %s", option.getClass().getName());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a new instance for running a request of {@link ServeCmd}. Subclasses should return an
+   * instance of their own class, so that requests run with the same commands and hooks.
+   */
+  protected Main newRequestInstance(Map<String, String> environment) {
+    return new Main(environment);
   }
 
   /** Helper to find out about verbose output before JCommander has been initialized .*/
@@ -214,13 +280,21 @@ public class Main {
       String version = getVersion();
       logger.atInfo().log("Copybara version: %s", version);
       jCommander.parse(args);
-
+      options.get(GeneralOptions.class)
+          .setCommandLine(version, withoutPositionalArgs(jCommander, args));
+      if (request != null) {
+        options.get(GeneralOptions.class).setTempDirName(request.getTempDirName());
+      }
 
       ConfigLoaderProvider configLoaderProvider = newConfigLoaderProvider(moduleSet);
 
       ImmutableMap<String, CopybaraCmd> commands =
           Maps.uniqueIndex(getCommands(moduleSet, configLoaderProvider, jCommander),
               CopybaraCmd::name);
+      if (request != null) {
+        commands = ImmutableMap.copyOf(
+            Maps.filterKeys(commands, ServeCmd.REQUEST_COMMANDS::contains));
+      }
       // Tell jcommander about the commands; we don't actually use the feature, this is solely for
       // generating the usage info.
       for (Map.Entry<String, CopybaraCmd> cmd : commands.entrySet()) {
@@ -283,12 +357,70 @@ public class Main {
       throws CommandLineException {
     ConfigValidator validator = getConfigValidator(moduleSet.getOptions());
     Consumer<Migration> consumer = getMigrationRanConsumer();
+    if (request != null) {
+      ServeCmd.Request currentRequest = request;
+      Console requestConsole = moduleSet.getOptions().get(GeneralOptions.class).console();
+      consumer = consumer.andThen(migration -> currentRequest.admit(migration, requestConsole));
+    }
     return ImmutableSet.of(
         new MigrateCmd(validator, consumer, configLoaderProvider, moduleSet),
         new InfoCmd(configLoaderProvider, newInfoContextProvider()),
         new ValidateCmd(validator, consumer, configLoaderProvider),
         new HelpCmd(jcommander),
-        new VersionCmd());
+        new VersionCmd(),
+        new ServeCmd((args, environment, console, request) ->
+            newRequestInstance(environment).runRequest(args, console, request)),
+        new BatchCmd(validator, consumer, configLoaderProvider));
+  }
+
+  /**
+   * Returns {@code args} without the positional arguments, in the same order. The work dir is
+   * removed too, as it doesn't change the result of a migration.
+   *
+   * <p>The arguments are walked like {@code jCommander} parses them: a flag takes as many values
+   * as its arity, and the rest of the arguments are positional. So a positional argument is
+   * removed at its own position, even if a flag has the same value.
+   */
+  @VisibleForTesting
+  static ImmutableList<String> withoutPositionalArgs(JCommander jCommander, String[] args) {
+    Map<String, ParameterDescription> flagsByName = new HashMap<>();
+    for (ParameterDescription flag : jCommander.getParameters()) {
+      for (String name : flag.getParameter().names()) {
+        flagsByName.put(name, flag);
+      }
+    }
+    ImmutableList.Builder<String> flags = ImmutableList.builder();
+    int i = 0;
+    while (i < args.length) {
+      String arg = args[i];
+      ParameterDescription flag = flagsByName.get(arg);
+      int values = 0;
+      if (flag == null && arg.contains("=")) {
+        // --flag=value
+        flag = flagsByName.get(arg.substring(0, arg.indexOf('=')));
+      } else if (flag != null) {
+        values = Math.min(arity(flag), args.length - i - 1);
+      }
+      if (flag == null) {
+        // Positional
+        i++;
+        continue;
+      }
+      if (!Arrays.asList(flag.getParameter().names()).contains(WORK_DIR_FLAG)) {
+        flags.addAll(Arrays.asList(args).subList(i, i + values + 1));
+      }
+      i += values + 1;
+    }
+    return flags.build();
+  }
+
+  /** Returns the number of values that follow {@code flag} in the command line. */
+  private static int arity(ParameterDescription flag) {
+    if (flag.getParameter().arity() != -1) {
+      return flag.getParameter().arity();
+    }
+    Class<?> type = flag.getParameterized().getType();
+    return type == boolean.class || type == Boolean.class ? 0 : 1;
   }
 
   /**
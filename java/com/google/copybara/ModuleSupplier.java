@@ -131,7 +131,9 @@ public class ModuleSupplier {
         new PatchingOptions(generalOptions),
         workflowOptions,
         new RemoteFileOptions(),
-        new DebugOptions(generalOptions)));
+        new DebugOptions(generalOptions),
+        new ServerOptions(),
+        new BatchOptions()));
   }
 
   /**
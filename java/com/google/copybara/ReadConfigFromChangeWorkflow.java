@@ -26,6 +26,7 @@ import com.google.common.base.Preconditions;
 import com.google.copybara.Destination.Writer;
 import com.google.copybara.Origin.Reader;
 import com.google.copybara.WorkflowRunHelper.ChangeMigrator;
+import com.google.copybara.WorkflowRunHelper.MigrationEvents;
 import com.google.copybara.config.Config;
 import com.google.copybara.config.ConfigValidator;
 import com.google.copybara.config.Migration;
@@ -177,7 +178,7 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
           writer,
           getResolvedRef(),
           rawSourceRef,
-          getMigrationFinishedMonitor());
+          getMigrationEvents());
     }
   }
 
@@ -189,9 +190,8 @@ public class ReadConfigFromChangeWorkflow<O extends Revision, D extends Revision
     ReloadingChangeMigrator(Workflow<O, D> headWorkflow, Workflow<O, D> changeWorkflow,
         Path workdir, Reader<O> reader,
         Writer<D> writer, O resolvedRef, @Nullable String rawSourceRef,
-        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor) {
-      super(headWorkflow, workdir, reader, writer, resolvedRef, rawSourceRef,
-          migrationFinishedMonitor);
+        MigrationEvents migrationEvents) {
+      super(headWorkflow, workdir, reader, writer, resolvedRef, rawSourceRef, migrationEvents);
       this.changeWorkflow = Preconditions.checkNotNull(changeWorkflow);
     }
 
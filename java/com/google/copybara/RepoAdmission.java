@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.copybara.config.Migration;
+import com.google.copybara.util.console.Console;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Serializes the migrations that write the same repository, so that migrations running in the
+ * same JVM don't push to the same cached repository at the same time.
+ *
+ * <p>A migration writes the repositories of its destination and reads the ones of its origin.
+ * Migrations that only read the same origin run at the same time: its fetches are shared through
+ * {@link com.google.copybara.util.SharedFetches} and the checkouts of its cached repository are
+ * serialized there. A repository being written is not read by other migrations.
+ *
+ * <p>All the locks of a migration are acquired before it runs, always in the same order, so that
+ * two migrations waiting for each other cannot deadlock.
+ */
+final class RepoAdmission {
+
+  private static final String URL_FIELD = "url";
+
+  private final Striped<ReadWriteLock> locks;
+
+  RepoAdmission(int stripes) {
+    this.locks = Striped.lazyWeakReadWriteLock(stripes);
+  }
+
+  /**
+   * Blocks until no other migration is writing the repositories of {@code migration}, or reading
+   * the ones it writes, and returns the locks that were acquired. They need to be released with
+   * {@link #release(List)} by the same thread.
+   */
+  ImmutableList<Lock> admit(Migration migration, Console console) {
+    ImmutableSortedSet<String> origins = originUrls(migration);
+    ImmutableSortedSet<String> destinations = destinationUrls(migration);
+    if (origins.isEmpty() && destinations.isEmpty()) {
+      return ImmutableList.of();
+    }
+    Set<ReadWriteLock> written = new LinkedHashSet<>();
+    for (String url : destinations) {
+      written.add(locks.get(url));
+    }
+    // bulkGet returns the locks in the order they need to be acquired to avoid deadlocks. Urls
+    // can share a stripe, so a lock that is written for any url is only taken for writing: a
+    // thread holding the read lock cannot acquire the write lock.
+    Set<ReadWriteLock> ordered =
+        Sets.newLinkedHashSet(locks.bulkGet(Sets.union(origins, destinations)));
+    ImmutableList.Builder<Lock> acquired = ImmutableList.builder();
+    boolean waiting = false;
+    for (ReadWriteLock readWriteLock : ordered) {
+      Lock lock = written.contains(readWriteLock)
+          ? readWriteLock.writeLock()
+          : readWriteLock.readLock();
+      if (!lock.tryLock()) {
+        if (!waiting) {
+          console.progressFmt("Waiting for other migrations using %s",
+              Sets.union(origins, destinations));
+          waiting = true;
+        }
+        lock.lock();
+      }
+      acquired.add(lock);
+    }
+    return acquired.build();
+  }
+
+  /**
+   * Returns the urls of the repositories read by {@code migration}.
+   */
+  static ImmutableSortedSet<String> originUrls(Migration migration) {
+    return ImmutableSortedSet.copyOf(migration.getOriginDescription().get(URL_FIELD));
+  }
+
+  /**
+   * Returns the urls of the repositories written by {@code migration}.
+   */
+  static ImmutableSortedSet<String> destinationUrls(Migration migration) {
+    return ImmutableSortedSet.copyOf(migration.getDestinationDescription().get(URL_FIELD));
+  }
+
+  /**
+   * Releases locks returned by {@link #admit(Migration, Console)}.
+   */
+  static void release(List<Lock> acquired) {
+    for (Lock lock : Lists.reverse(acquired)) {
+      lock.unlock();
+    }
+  }
+}
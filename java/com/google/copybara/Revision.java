@@ -92,6 +92,15 @@ public interface Revision {
     return null;
   }
 
+  /**
+   * If not null, an identifier of the content of the revision, like a commit hash: Revisions with
+   * the same content id always have the same files. Results derived only from the files of the
+   * revision can be cached by this id.
+   */
+  @Nullable default String contentId() {
+    return null;
+  }
+
   /**
    * Given a list of labels it adds new labels without repeating them
    */
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.beust.jcommander.Parameters;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HostAndPort;
+import com.google.common.net.InetAddresses;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.copybara.config.Migration;
+import com.google.copybara.exception.CommandLineException;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Console;
+import com.google.copybara.util.console.LogConsole;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import javax.annotation.Nullable;
+
+/**
+ * Runs the migrate, info and validate requests received over HTTP in this JVM, so that they don't
+ * pay the startup of the JVM and share the in-memory caches, like the compiled config files.
+ *
+ * <p>A request is a POST to {@code /run} with the arguments of the command, one per line, in the
+ * body. The {@code Copybara-Cwd} header sets the directory for resolving relative paths. The
+ * output of the command is streamed back, and the last line contains the exit code. For example:
+ *
+ * <pre>
+ * curl --data-binary $'migrate\ncopy.bara.sky\ndefault' -H "Copybara-Cwd: $PWD" \
+ *     -H "Copybara-Token: $(cat ~/copybara/cache/serve/token-7878)" http://localhost:7878/run
+ * </pre>
+ *
+ * <p>Requests run with the credentials of the user, so they have to come from the user: the
+ * {@code Copybara-Token} header has to contain the token that the server writes to a file that
+ * only the user can read. Requests from browsers, that have an {@code Origin} header or a
+ * {@code Host} that is not a loopback address (DNS rebinding), are rejected too.
+ *
+ * <p>Each request has its own options, console and temp directories, while the cache directories
+ * are shared. Migrations that use the same repository are run one after the other.
+ */
+@Parameters(separators = "=",
+    commandDescription = "Runs migrate, info and validate requests received on a local port.")
+public class ServeCmd implements CopybaraCmd {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Commands that can be run in a request. */
+  static final ImmutableSet<String> REQUEST_COMMANDS =
+      ImmutableSet.of("migrate", "info", "validate");
+  static final String CWD_HEADER = "Copybara-Cwd";
+  static final String TOKEN_HEADER = "Copybara-Token";
+  static final String EXIT_CODE_PREFIX = "Copybara exit code: ";
+
+  /**
+   * Runs a request in this JVM.
+   */
+  @FunctionalInterface
+  interface RequestRunner {
+    ExitCode run(String[] args, Map<String, String> environment, Console console,
+        Request request);
+  }
+
+  private final RequestRunner runner;
+  private final RepoAdmission admission = new RepoAdmission(/*stripes=*/ 1024);
+  private final AtomicInteger requestIds = new AtomicInteger();
+
+  ServeCmd(RequestRunner runner) {
+    this.runner = Preconditions.checkNotNull(runner);
+  }
+
+  @Override
+  public ExitCode run(CommandEnv commandEnv) throws IOException, CommandLineException {
+    if (!commandEnv.getArgs().isEmpty()) {
+      throw new CommandLineException("'serve' doesn't accept arguments: " + commandEnv.getArgs());
+    }
+    GeneralOptions generalOptions = commandEnv.getOptions().get(GeneralOptions.class);
+    ServerOptions serverOptions = commandEnv.getOptions().get(ServerOptions.class);
+
+    String token = newToken();
+    HttpServer server =
+        start(serverOptions.port, serverOptions.threads, generalOptions.getEnvironment(), token);
+    Path tokenFile;
+    try {
+      tokenFile = serverOptions.tokenFile != null
+          ? generalOptions.getCwd().resolve(serverOptions.tokenFile)
+          : generalOptions.getDirFactory().getCacheDir("serve")
+              .resolve("token-" + server.getAddress().getPort());
+      writeToken(tokenFile, token);
+    } catch (IOException | RuntimeException e) {
+      stop(server, /*delaySeconds=*/ 0);
+      throw e;
+    }
+    generalOptions.console().infoFmt(
+        "Listening for requests on http://%s:%d/run. The token for the requests is in %s",
+        server.getAddress().getHostString(), server.getAddress().getPort(), tokenFile);
+
+    CountDownLatch stopped = new CountDownLatch(1);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      // Stop accepting requests, and give the running ones some time to finish
+      stop(server, /*delaySeconds=*/ 60);
+      try {
+        Files.deleteIfExists(tokenFile);
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Cannot delete %s", tokenFile);
+      }
+      stopped.countDown();
+    }));
+    try {
+      stopped.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      stop(server, /*delaySeconds=*/ 0);
+      return ExitCode.INTERRUPTED;
+    }
+    return ExitCode.SUCCESS;
+  }
+
+  /**
+   * Returns a random token for authenticating the requests.
+   */
+  @VisibleForTesting
+  static String newToken() {
+    byte[] bytes = new byte[32];
+    new SecureRandom().nextBytes(bytes);
+    return BaseEncoding.base16().lowerCase().encode(bytes);
+  }
+
+  /**
+   * Writes {@code token} to a new file that only the user can read.
+   */
+  private static void writeToken(Path tokenFile, String token) throws IOException {
+    Files.createDirectories(tokenFile.getParent());
+    Files.deleteIfExists(tokenFile);
+    // Fails if the file is created again in the meantime, so nobody else can own it
+    Files.createFile(tokenFile,
+        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    Files.write(tokenFile, token.getBytes(UTF_8));
+  }
+
+  /**
+   * Starts serving requests on {@code port} of the loopback address. Requests run with
+   * {@code environment}, and at most {@code threads} of them at the same time. Only requests with
+   * {@code token} are accepted.
+   */
+  @VisibleForTesting
+  HttpServer start(int port, int threads, Map<String, String> environment, String token)
+      throws IOException {
+    HttpServer server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), port), /*backlog=*/ 0);
+    server.setExecutor(Executors.newFixedThreadPool(Math.max(1, threads),
+        new ThreadFactoryBuilder().setNameFormat("serve-request-%d").setDaemon(true).build()));
+    server.createContext("/run", exchange -> handle(exchange, environment, token));
+    server.start();
+    return server;
+  }
+
+  /**
+   * Stops a server returned by {@link #start}, waiting up to {@code delaySeconds} for the running
+   * requests to finish.
+   */
+  @VisibleForTesting
+  static void stop(HttpServer server, int delaySeconds) {
+    server.stop(delaySeconds);
+    ((ExecutorService) server.getExecutor()).shutdownNow();
+  }
+
+  @VisibleForTesting
+  void handle(HttpExchange exchange, Map<String, String> environment, String token)
+      throws IOException {
+    try {
+      Headers headers = exchange.getRequestHeaders();
+      // The server only listens on the loopback address, but double check it before running
+      // commands with the credentials of the user. Browsers always send the Origin header in
+      // cross-origin requests, and DNS rebinding needs a Host that is not a loopback address.
+      if (!exchange.getRemoteAddress().getAddress().isLoopbackAddress()
+          || headers.containsKey("Origin")
+          || !isLoopbackHost(headers.getFirst("Host"))) {
+        logger.atWarning().log("Rejected request from %s (Origin: %s, Host: %s)",
+            exchange.getRemoteAddress(), headers.getFirst("Origin"), headers.getFirst("Host"));
+        // Forbidden
+        exchange.sendResponseHeaders(403, /*responseLength=*/ -1);
+        return;
+      }
+      String requestToken = headers.getFirst(TOKEN_HEADER);
+      if (requestToken == null
+          || !MessageDigest.isEqual(requestToken.getBytes(UTF_8), token.getBytes(UTF_8))) {
+        logger.atWarning().log("Rejected request without a valid token from %s",
+            exchange.getRemoteAddress());
+        // Unauthorized
+        exchange.sendResponseHeaders(401, /*responseLength=*/ -1);
+        return;
+      }
+      if (!exchange.getRequestMethod().equals("POST")) {
+        // Method not allowed
+        exchange.sendResponseHeaders(405, /*responseLength=*/ -1);
+        return;
+      }
+      List<String> args = new ArrayList<>();
+      for (String arg : Splitter.on('\n').omitEmptyStrings()
+          .split(new String(ByteStreams.toByteArray(exchange.getRequestBody()), UTF_8))) {
+        args.add(arg);
+      }
+      Map<String, String> requestEnvironment = new HashMap<>(environment);
+      String cwd = headers.getFirst(CWD_HEADER);
+      if (cwd != null) {
+        requestEnvironment.put("PWD", cwd);
+      }
+
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+      // Stream the output as it is produced
+      exchange.sendResponseHeaders(200, /*responseLength=*/ 0);
+      PrintStream output = new PrintStream(exchange.getResponseBody(), /*autoFlush=*/ true,
+          UTF_8.name());
+      String[] argsArray = args.toArray(new String[0]);
+      Console console = LogConsole.writeOnlyConsole(output, Main.isVerbose(argsArray));
+      Request request = new Request(requestIds.incrementAndGet(), admission);
+      logger.atInfo().log("Running request %d: %s", request.id, args);
+      ExitCode exitCode = runner.run(argsArray, requestEnvironment, console, request);
+      output.println(EXIT_CODE_PREFIX + exitCode.getCode());
+      output.flush();
+    } catch (RuntimeException e) {
+      logger.atSevere().withCause(e).log("Request failed");
+      throw e;
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static boolean isLoopbackHost(@Nullable String host) {
+    if (host == null) {
+      return false;
+    }
+    String hostname;
+    try {
+      hostname = HostAndPort.fromString(host).getHost();
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+    return hostname.equalsIgnoreCase("localhost")
+        || (InetAddresses.isInetAddress(hostname)
+            && InetAddresses.forString(hostname).isLoopbackAddress());
+  }
+
+  @Override
+  public String name() {
+    return "serve";
+  }
+
+  /**
+   * State of a request that is kept for all of its execution.
+   */
+  static final class Request {
+
+    private final int id;
+    private final RepoAdmission admission;
+    private final List<Lock> locks = new ArrayList<>();
+
+    Request(int id, RepoAdmission admission) {
+      this.id = id;
+      this.admission = Preconditions.checkNotNull(admission);
+    }
+
+    /**
+     * Name of the temp directory of the request, inside the regular temp directory.
+     */
+    String getTempDirName() {
+      return "request-" + id;
+    }
+
+    /**
+     * Waits until the repositories of {@code migration} are not used by other requests. They are
+     * reserved for this request until {@link #finish()} is called.
+     */
+    void admit(Migration migration, Console console) {
+      locks.addAll(admission.admit(migration, console));
+    }
+
+    /**
+     * Releases the repositories reserved by the request.
+     */
+    void finish() {
+      RepoAdmission.release(ImmutableList.copyOf(locks));
+      locks.clear();
+    }
+  }
+}
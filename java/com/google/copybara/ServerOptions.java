@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+/**
+ * Arguments for {@link ServeCmd}.
+ */
+@Parameters(separators = "=")
+public class ServerOptions implements Option {
+
+  @Parameter(names = "--server-port",
+      description = "Port where 'serve' listens for requests. Only local connections are accepted."
+          + " 0 uses any free port.")
+  int port = 7878;
+
+  @Parameter(names = "--server-threads",
+      description = "Maximum number of requests that 'serve' runs at the same time. Migrations"
+          + " that use the same repository always run one after the other.")
+  int threads = Runtime.getRuntime().availableProcessors();
+
+  @Parameter(names = "--server-token-file",
+      description = "File where 'serve' writes the token that clients have to send in the"
+          + " Copybara-Token header. Only the user can read it. By default it is written to the"
+          + " cache directory of the output root.")
+  String tokenFile = null;
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.copybara.config.ConfigFile;
+import com.google.copybara.exception.CannotResolveLabel;
+import com.google.copybara.transform.ExplicitReversal;
+import com.google.copybara.transform.Sequence;
+import com.google.copybara.transform.SkylarkTransformation;
+import com.google.copybara.transform.debug.TransformDebug;
+import com.google.copybara.util.FileUtil;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of origin baselines after running the transformations of a workflow, so that
+ * smart_prune doesn't need to checkout and transform the same baseline again for each change.
+ *
+ * <p>Entries are keyed by the workflow, the content id of the origin revision, the content of
+ * the config files, the Copybara version and the command line flags. Only revisions with a {@link
+ * Revision#contentId()} can be cached. Workflows with dynamic transformations are not cached, since
+ * those can also read the metadata, the changes, the last and resolved revisions and the
+ * destination.
+ *
+ * <p>Files are hard linked between the cache and the baseline directory when possible. This is
+ * safe because the baseline directory is only read after the transformations run.
+ */
+final class TransformedBaselineCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final Path storage;
+  private final int maxEntries;
+
+  TransformedBaselineCache(Path storage, int maxEntries) {
+    checkArgument(maxEntries > 0, "maxEntries must be positive: %s", maxEntries);
+    this.storage = checkNotNull(storage);
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * Returns the cache key for the transformed {@code baseline} of {@code workflow}, or null if it
+   * cannot be cached.
+   */
+  @Nullable
+  static String key(Workflow<?, ?> workflow, Revision baseline) {
+    String contentId = baseline.contentId();
+    if (contentId == null || workflow.getWorkflowOptions().isReadConfigFromChange()
+        || !onlyReadsFiles(workflow.getTransformation())) {
+      return null;
+    }
+    GeneralOptions generalOptions = workflow.getGeneralOptions();
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(workflow.getName(), UTF_8)
+        .putChar('\0')
+        .putString(contentId, UTF_8)
+        .putChar('\0')
+        .putBoolean(workflow.isCheckout())
+        .putChar('\0')
+        .putString(generalOptions.getCopybaraVersion(), UTF_8);
+    for (String flag : generalOptions.getCommandLineFlags()) {
+      hasher.putChar('\0')
+          .putInt(flag.length())
+          .putString(flag, UTF_8);
+    }
+    try {
+      Map<String, ConfigFile> configFiles =
+          ImmutableSortedMap.copyOf(workflow.getAllConfigFiles().get());
+      for (Map.Entry<String, ConfigFile> configFile : configFiles.entrySet()) {
+        byte[] content = configFile.getValue().readContentBytes();
+        hasher.putChar('\0')
+            .putString(configFile.getKey(), UTF_8)
+            .putInt(content.length)
+            .putBytes(content);
+      }
+    } catch (IOException | CannotResolveLabel e) {
+      logger.atWarning().withCause(e).log("Cannot read config files. Not caching the baseline.");
+      return null;
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Returns true if the result of {@code transformation} only depends on the files it transforms
+   * and on the config. Dynamic transformations also get the metadata, the changes, the last and
+   * resolved revisions and a reader of the destination, which are not part of the key.
+   */
+  static boolean onlyReadsFiles(Transformation transformation) {
+    if (transformation instanceof Sequence) {
+      return ((Sequence) transformation).getSequence().stream()
+          .allMatch(TransformedBaselineCache::onlyReadsFiles);
+    }
+    if (transformation instanceof ExplicitReversal) {
+      return onlyReadsFiles(((ExplicitReversal) transformation).getForward());
+    }
+    return !(transformation instanceof SkylarkTransformation)
+        && !(transformation instanceof TransformDebug);
+  }
+
+  /**
+   * Fills the empty directory {@code dir} with the cached transformed baseline for {@code key}.
+   * Returns false if it is not cached.
+   */
+  boolean get(String key, Path dir) throws IOException {
+    Path entry = storage.resolve(key);
+    if (!Files.isDirectory(entry)) {
+      return false;
+    }
+    try {
+      // Evicted entries are moved away before deleting them, so a concurrent eviction fails the
+      // walk instead of leaving a partial copy.
+      linkOrCopy(entry, dir);
+      // Keep recently used entries when evicting
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot read cached baseline %s", entry);
+      FileUtil.deleteRecursively(dir);
+      Files.createDirectories(dir);
+      return false;
+    }
+    return true;
+  }
+
+  /** Stores the transformed baseline in {@code dir} for {@code key}. Failures are only logged. */
+  void put(String key, Path dir) {
+    Path entry = storage.resolve(key);
+    Path tmp = null;
+    try {
+      Files.createDirectories(storage);
+      tmp = Files.createTempDirectory(storage, "tmp_" + key);
+      linkOrCopy(dir, tmp);
+      try {
+        Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+        tmp = null;
+      } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+        // Stored by another run at the same time
+        return;
+      }
+      evict();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot cache baseline in %s", entry);
+    } finally {
+      if (tmp != null) {
+        try {
+          FileUtil.deleteRecursively(tmp);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot delete %s", tmp);
+        }
+      }
+    }
+  }
+
+  private void evict() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    try (Stream<Path> files = Files.list(storage)) {
+      files.filter(f -> !f.getFileName().toString().startsWith("tmp_"))
+          .forEach(entries::add);
+    }
+    if (entries.size() <= maxEntries) {
+      return;
+    }
+    Map<Path, FileTime> lastUsed = new HashMap<>();
+    for (Path entry : entries) {
+      lastUsed.put(entry, Files.getLastModifiedTime(entry));
+    }
+    entries.sort(Comparator.comparing(lastUsed::get));
+    for (Path entry : entries.subList(0, entries.size() - maxEntries)) {
+      // Move it away first, so that readers never see an entry that is partially deleted
+      Path evicted = storage.resolve("tmp_evicted_" + UUID.randomUUID());
+      try {
+        Files.move(entry, evicted, StandardCopyOption.ATOMIC_MOVE);
+      } catch (NoSuchFileException e) {
+        // Evicted by another run at the same time
+        continue;
+      }
+      FileUtil.deleteRecursively(evicted);
+    }
+  }
+
+  /**
+   * Recreates the tree {@code from} in {@code to}, hard linking the files if possible and copying
+   * them otherwise, for example if they are in different file systems.
+   */
+  private static void linkOrCopy(Path from, Path to) throws IOException {
+    Files.walkFileTree(from, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+          throws IOException {
+        Files.createDirectories(to.resolve(from.relativize(dir).toString()));
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        Path target = to.resolve(from.relativize(file).toString());
+        if (attrs.isSymbolicLink()) {
+          Files.createSymbolicLink(target, Files.readSymbolicLink(file));
+          return FileVisitResult.CONTINUE;
+        }
+        try {
+          Files.createLink(target, file);
+        } catch (IOException | UnsupportedOperationException e) {
+          Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+}
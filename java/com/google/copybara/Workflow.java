@@ -276,7 +276,14 @@ public class Workflow<O extends Revision, D extends Revision> implements Migrati
             eventMonitors().dispatchEvent(m -> m.onChangeMigrationFinished(event));
           });
       try (ProfilerTask ignored = profiler().start(mode.toString().toLowerCase())) {
-        mode.run(helper);
+        try {
+          mode.run(helper);
+        } catch (RepoException | IOException | ValidationException | RuntimeException e) {
+          // Don't lose the changes that were written before the failure
+          flushAfterError(helper, e);
+          throw e;
+        }
+        helper.flushDestination();
       } finally {
         if (!getGeneralOptions().dryRunMode) {
           try (ProfilerTask ignored = profiler().start("after_all_migration")) {
@@ -324,6 +331,18 @@ public class Workflow<O extends Revision, D extends Revision> implements Migrati
     }
   }
 
+  /**
+   * Flushes the writer after the migration failed with {@code error}. Errors while flushing are
+   * added as suppressed exceptions so that the original error is reported.
+   */
+  private void flushAfterError(WorkflowRunHelper<O, D> helper, Exception error) {
+    try {
+      helper.flushDestination();
+    } catch (RepoException | ValidationException | RuntimeException e) {
+      error.addSuppressed(e);
+    }
+  }
+
   protected WorkflowRunHelper<O, D> newRunHelper(Path workdir, O resolvedRef, String rawSourceRef,
       Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor)
       throws ValidationException {
@@ -45,11 +45,7 @@ import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
-import com.google.copybara.util.console.PrefixConsole;
 import java.io.IOException;
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -143,10 +139,7 @@ public enum WorkflowMode {
         throw new EmptyChangeException(
             "No new changes to import for resolved ref: " + runHelper.getResolvedRef().asString());
       }
-      int changeNumber = 1;
-
       ImmutableList<Change<O>> changes = ImmutableList.copyOf(changesResponse.getChanges());
-      Iterator<Change<O>> changesIterator = changes.iterator();
       int limit = changes.size();
       if (runHelper.workflowOptions().iterativeLimitChanges < changes.size()) {
         runHelper.getConsole().info(String.format("Importing first %d change(s) out of %d",
@@ -156,63 +149,48 @@ public enum WorkflowMode {
 
       runHelper.maybeValidateRepoInLastRevState(/*metadata=*/null);
 
-      Deque<Change<O>> migrated = new ArrayDeque<>();
+      int lookahead = runHelper.canPrepareInAdvance()
+          ? runHelper.workflowOptions().iterativeLookahead
+          : 0;
       int migratedChanges = 0;
-      while (changesIterator.hasNext() && migratedChanges < limit) {
-        Change<O> change = changesIterator.next();
-        String prefix = String.format(
-            "Change %d of %d (%s): ",
-            changeNumber, Math.min(changes.size(), limit), change.getRevision().asString());
-        ImmutableList<DestinationEffect> result;
-
-        boolean errors = false;
-        try (ProfilerTask ignored = runHelper.profiler().start(change.getRef())) {
-          ImmutableList<Change<O>> current = ImmutableList.of(change);
-          ChangeMigrator<O, D> migrator = runHelper.getMigratorForChange(change);
-          if (migrator.skipChange(change)) {
-            continue;
-          }
-          result =
-              migrator.migrate(
-                  change.getRevision(),
-                  lastRev,
-                  new PrefixConsole(prefix, runHelper.getConsole()),
-                  new Metadata(
-                      runHelper.getChangeMessage(change.getMessage()),
-                      runHelper.getFinalAuthor(change.getAuthor()),
-                      ImmutableSetMultimap.of()),
-                  new Changes(current, migrated),
-                  /*destinationBaseline=*/ null,
-                  // Use the current change since we might want to create different
-                  // reviews in the destination. Will not work if we want to group
-                  // all the changes in the same Github PR
-                  change.getRevision());
-          migratedChanges++;
-          for (DestinationEffect effect : result) {
-            if (effect.getType() != Type.NOOP) {
-              errors |= !effect.getErrors().isEmpty();
+      try (IterativePipeline<O, D> pipeline = new IterativePipeline<>(runHelper,
+          changes.iterator(), lastRev, Math.min(changes.size(), limit), lookahead)) {
+        IterativePipeline.Step<O, D> step;
+        while (migratedChanges < limit && (step = pipeline.next()) != null) {
+          Change<O> change = step.getChange();
+          ImmutableList<DestinationEffect> result;
+
+          boolean errors = false;
+          try (ProfilerTask ignored = runHelper.profiler().start(change.getRef())) {
+            result = step.migrate();
+            migratedChanges++;
+            for (DestinationEffect effect : result) {
+              if (effect.getType() != Type.NOOP) {
+                errors |= !effect.getErrors().isEmpty();
+              }
             }
+          } catch (EmptyChangeException e) {
+            runHelper.getConsole().warnFmt("Migration of origin revision '%s' resulted in an empty"
+                + " change in the destination: %s", change.getRevision().asString(),
+                e.getMessage());
+          } catch (ValidationException | RepoException e) {
+            runHelper.getConsole().errorFmt(
+                "Migration of origin revision '%s' failed with error: %s",
+                change.getRevision().asString(), e.getMessage());
+            throw e;
           }
-        } catch (EmptyChangeException e) {
-          runHelper.getConsole().warnFmt("Migration of origin revision '%s' resulted in an empty"
-              + " change in the destination: %s", change.getRevision().asString(), e.getMessage());
-        } catch (ValidationException | RepoException e) {
-          runHelper.getConsole().errorFmt("Migration of origin revision '%s' failed with error: %s",
-              change.getRevision().asString(), e.getMessage());
-          throw e;
-        }
-        migrated.addFirst(change);
-
-        if (errors && changesIterator.hasNext()) {
-          // Use the regular console to log prompt and final message, it will be easier to spot
-          if (!runHelper.getConsole()
-              .promptConfirmation("Continue importing next change?")) {
-            String message = String.format("Iterative workflow aborted by user after: %s", prefix);
-            runHelper.getConsole().warn(message);
-            throw new ChangeRejectedException(message);
+
+          if (errors && pipeline.hasNext()) {
+            // Use the regular console to log prompt and final message, it will be easier to spot
+            if (!runHelper.getConsole()
+                .promptConfirmation("Continue importing next change?")) {
+              String message = String.format("Iterative workflow aborted by user after: %s",
+                  step.getPrefix());
+              runHelper.getConsole().warn(message);
+              throw new ChangeRejectedException(message);
+            }
           }
         }
-        changeNumber++;
       }
       if (migratedChanges == 0) {
         throw new EmptyChangeException(
@@ -27,6 +27,7 @@ import com.google.copybara.exception.VoidOperationException;
 import com.google.copybara.jcommander.AuthorConverter;
 import com.google.copybara.jcommander.GlobConverter;
 import com.google.copybara.jcommander.GreaterThanZeroListValidator;
+import com.google.copybara.treestate.NoopContentIndex;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import java.util.List;
@@ -76,6 +77,15 @@ public class WorkflowOptions implements Option {
       description = "Import just a number of changes instead of all the pending ones")
   public int iterativeLimitChanges = Integer.MAX_VALUE;
 
+  @Parameter(names = "--iterative-lookahead",
+      description = "For 'ITERATIVE' workflows, check out and transform up to this number of"
+          + " upcoming changes in the background while the current one is written to the"
+          + " destination. Changes are still written in order. 0 disables it. Ignored if"
+          + " confirmation prompts are enabled, like with --diff-in-origin or"
+          + " ask_for_confirmation, or if there are dynamic transformations, since they can read"
+          + " the destination")
+  public int iterativeLookahead = 0;
+
   @Parameter(names = "--ignore-noop",
       description = "Only warn about operations/transforms that didn't have any effect."
           + " For example: A transform that didn't modify any file, non-existent origin"
@@ -131,6 +141,18 @@ public class WorkflowOptions implements Option {
           + " is more efficient. This disables the feature.")
   public boolean noTransformationJoin = false;
 
+  @Parameter(names = "--notransformation-noop-cache",
+      description = "By default Copybara remembers which file contents were not modified by a"
+          + " transformation and skips them when the same transformation runs again on the same"
+          + " content, for example for the next change in ITERATIVE mode. This disables the"
+          + " feature.")
+  public boolean noTransformationNoopCache = false;
+
+  @Parameter(names = "--transformation-noop-cache-size",
+      description = "Maximum number of distinct file contents remembered by the transformation"
+          + " no-op cache", hidden = true)
+  public long transformationNoopCacheSize = 1_000_000;
+
   @Parameter(
       names = READ_CONFIG_FROM_CHANGE,
       description = "For each imported origin change, load the workflow's origin_files, "
@@ -152,6 +174,18 @@ public class WorkflowOptions implements Option {
       description = "Disable smart prunning")
   boolean noSmartPrune = false;
 
+  @Parameter(names = "--nosmart-prune-baseline-cache",
+      description = "By default Copybara caches the transformed origin baseline used by"
+          + " smart_prune, keyed by the origin revision and the content of the config files, so"
+          + " that it doesn't need to be checked out and transformed again. This disables the"
+          + " cache.")
+  boolean noSmartPruneBaselineCache = false;
+
+  @Parameter(names = "--smart-prune-baseline-cache-size",
+      description = "Maximum number of transformed baselines kept in the smart_prune cache",
+      hidden = true)
+  int smartPruneBaselineCacheSize = 10;
+
   @Parameter(names = "--to-folder",
   description =  "Sometimes a user wants to test what the outcome would be for a workflow without"
       + " changing the configuration or adding an auxiliary testing workflow. This flags allows"
@@ -162,6 +196,10 @@ public class WorkflowOptions implements Option {
     return !noSmartPrune;
   }
 
+  boolean useSmartPruneBaselineCache() {
+    return !noSmartPruneBaselineCache && smartPruneBaselineCacheSize > 0;
+  }
+
   @Parameter(names = "--change-request-from-sot-retry",
       description = "Number of retries and delay between retries when we cannot find the baseline"
           + " in the destination for CHANGE_REQUEST_FROM_SOT. For example '10,30,60' will retry"
@@ -219,6 +257,18 @@ public class WorkflowOptions implements Option {
     return parallelizerSupplier.get();
   }
 
+  private final Supplier<NoopContentIndex> noopContentIndexSupplier =
+      Suppliers.memoize(() -> noTransformationNoopCache
+          ? NoopContentIndex.DISABLED
+          : new NoopContentIndex(transformationNoopCacheSize));
+
+  /**
+   * Index of file contents that transformations already processed without changes.
+   */
+  public NoopContentIndex noopContentIndex() {
+    return noopContentIndexSupplier.get();
+  }
+
   public boolean joinTransformations() {
     return !noTransformationJoin;
   }
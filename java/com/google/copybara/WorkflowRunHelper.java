@@ -17,6 +17,7 @@
 package com.google.copybara;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableSortedSet.toImmutableSortedSet;
 import static com.google.copybara.GeneralOptions.OUTPUT_ROOT_FLAG;
 import static com.google.copybara.util.FileUtil.CopySymlinkStrategy.FAIL_OUTSIDE_SYMLINKS;
 
@@ -24,7 +25,9 @@ import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Ordering;
 import com.google.copybara.Destination.DestinationStatus;
 import com.google.copybara.Destination.Writer;
 import com.google.copybara.DestinationEffect.Type;
@@ -49,6 +52,7 @@ import com.google.copybara.util.DiffUtil.DiffFile;
 import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.InsideGitDirException;
+import com.google.copybara.util.TreeFingerprint;
 import com.google.copybara.util.console.AnsiColor;
 import com.google.copybara.util.console.Console;
 import com.google.copybara.util.console.PrefixConsole;
@@ -75,6 +79,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   protected final Destination.Writer<D> writer;
   @Nullable final String rawSourceRef;
   private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+  private final MigrationEvents migrationEvents;
 
   WorkflowRunHelper(
       Workflow<O, D> workflow,
@@ -91,12 +96,17 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     this.writer = checkNotNull(destinationWriter);
     this.rawSourceRef = rawSourceRef;
     this.migrationFinishedMonitor = checkNotNull(migrationFinishedMonitor);
+    this.migrationEvents = new MigrationEvents(workflow, migrationFinishedMonitor);
   }
 
   public Consumer<ChangeMigrationFinishedEvent> getMigrationFinishedMonitor() {
     return migrationFinishedMonitor;
   }
 
+  MigrationEvents getMigrationEvents() {
+    return migrationEvents;
+  }
+
   /**
    * origin_files used for this workflow
    */
@@ -112,7 +122,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
   ChangeMigrator<O, D> getMigratorForChangeAndWriter(Change<?> change, Writer<D> writer)
       throws ValidationException, RepoException {
     return new ChangeMigrator<>(workflow, workdir, originReader, writer, resolvedRef, rawSourceRef,
-        migrationFinishedMonitor);
+        migrationEvents);
   }
 
   /**
@@ -120,7 +130,7 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
    */
   ChangeMigrator<O, D> getDefaultMigrator() {
     return new ChangeMigrator<>(workflow, workdir, originReader, writer, resolvedRef, rawSourceRef,
-        migrationFinishedMonitor);
+        migrationEvents);
   }
 
   public Profiler profiler() {
@@ -166,6 +176,28 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     return workflow.getWorkflowOptions();
   }
 
+  /**
+   * Returns true if the user might be asked to confirm a change before it is written, so changes
+   * cannot be prepared in advance.
+   */
+  private boolean promptsBeforeWrite() {
+    return workflow.isAskForConfirmation() || workflow.getWorkflowOptions().diffInOrigin;
+  }
+
+  /**
+   * Returns true if the next changes can be checked out and transformed while the current one is
+   * written. Not if the user needs to confirm the changes before writing them, or if dynamic
+   * transformations could read the destination or the writer: the writer is not thread-safe, and
+   * they would not see the changes that are not written yet.
+   */
+  boolean canPrepareInAdvance() {
+    Transformation reverse = workflow.getReverseTransformForCheck();
+    return !promptsBeforeWrite()
+        && !workflow.getWorkflowOptions().isReadConfigFromChange()
+        && TransformedBaselineCache.onlyReadsFiles(workflow.getTransformation())
+        && (reverse == null || TransformedBaselineCache.onlyReadsFiles(reverse));
+  }
+
   boolean isForce() {
     return workflow.isForce();
   }
@@ -190,6 +222,55 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     return writer;
   }
 
+  /**
+   * Sends the changes that the destination writer kept locally, and reports their effects like
+   * the ones of a migrated change: running the after_migration actions and notifying the monitor.
+   */
+  void flushDestination() throws ValidationException, RepoException {
+    ImmutableList<DestinationEffect> effects = writer.flush(getConsole());
+    if (!effects.isEmpty()) {
+      // Usually sent already, by the first change that the writer kept locally
+      migrationEvents.started();
+      getDefaultMigrator().reportEffects(effects);
+    }
+  }
+
+  /**
+   * Sends the events of the migrated changes to the event monitors. A change that the destination
+   * writer keeps locally doesn't get a finished event until it is sent. The event has the effects
+   * of all the changes sent together, so they share a single started event too.
+   */
+  static final class MigrationEvents {
+
+    private final Workflow<?, ?> workflow;
+    private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+    private boolean started;
+
+    private MigrationEvents(Workflow<?, ?> workflow,
+        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor) {
+      this.workflow = checkNotNull(workflow);
+      this.migrationFinishedMonitor = checkNotNull(migrationFinishedMonitor);
+    }
+
+    /**
+     * Sends the started event, unless it was already sent for changes that are not finished yet.
+     */
+    void started() {
+      if (started) {
+        return;
+      }
+      started = true;
+      workflow.eventMonitors().dispatchEvent(
+          m -> m.onChangeMigrationStarted(new ChangeMigrationStartedEvent()));
+    }
+
+    void finished(ImmutableList<DestinationEffect> effects) {
+      started = false;
+      migrationFinishedMonitor.accept(new ChangeMigrationFinishedEvent(effects,
+          workflow.getOriginDescription(), workflow.getDestinationDescription()));
+    }
+  }
+
   boolean destinationSupportsPreviousRef() {
     return writer.supportsHistory();
   }
@@ -268,6 +349,14 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
    */
   public static class ChangeMigrator<O extends Revision, D extends Revision> {
 
+    /**
+     * Supplies the result of {@link #prepare} for a change that is going to be written.
+     */
+    @FunctionalInterface
+    interface PreparedChange {
+      TransformResult get() throws IOException, RepoException, ValidationException;
+    }
+
     private final Workflow<O, D> workflow;
     private final Path workdir;
     private final O resolvedRef;
@@ -275,18 +364,18 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
     private final Writer<D> writer;
     @Nullable
     private final String rawSourceRef;
-    private final Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor;
+    private final MigrationEvents migrationEvents;
 
     ChangeMigrator(Workflow<O, D> workflow, Path workdir, Reader<O> reader,
         Writer<D> writer, O resolvedRef, @Nullable String rawSourceRef,
-        Consumer<ChangeMigrationFinishedEvent> migrationFinishedMonitor) {
+        MigrationEvents migrationEvents) {
       this.workflow = checkNotNull(workflow);
       this.workdir = checkNotNull(workdir);
       this.resolvedRef = checkNotNull(resolvedRef);
       this.reader = checkNotNull(reader);
       this.writer = checkNotNull(writer);
       this.rawSourceRef = rawSourceRef;
-      this.migrationFinishedMonitor = checkNotNull(migrationFinishedMonitor);
+      this.migrationEvents = checkNotNull(migrationEvents);
     }
 
     /**
@@ -394,14 +483,23 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         @Nullable Baseline<O> destinationBaseline,
         @Nullable O changeIdentityRevision)
         throws IOException, RepoException, ValidationException {
+      return migrate(changes, processConsole,
+          () -> prepare(workdir, rev, lastRev, processConsole, metadata, changes,
+              destinationBaseline, changeIdentityRevision));
+    }
+
+    /**
+     * Like {@link #migrate(Revision, Revision, Console, Metadata, Changes, Baseline, Revision)},
+     * but the files to write are computed by {@code preparedChange}, that can wait for a
+     * preparation that was started earlier with {@link #prepare}.
+     */
+    final ImmutableList<DestinationEffect> migrate(
+        Changes changes, Console processConsole, PreparedChange preparedChange)
+        throws IOException, RepoException, ValidationException {
       ImmutableList<DestinationEffect> effects = ImmutableList.of();
+      migrationEvents.started();
       try {
-        workflow.eventMonitors().dispatchEvent(
-            m -> m.onChangeMigrationStarted(new ChangeMigrationStartedEvent()));
-        effects =
-            doMigrate(
-                rev, lastRev, processConsole, metadata, changes, destinationBaseline,
-                changeIdentityRevision);
+        effects = write(preparedChange.get(), processConsole);
       } catch (EmptyChangeException empty) {
         effects =
             ImmutableList.of(
@@ -429,26 +527,38 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                     ImmutableList.of(e.getMessage() != null ? e.getMessage() : e.toString())));
         throw e;
       } finally {
-        try {
-          if (!workflow.getGeneralOptions().dryRunMode) {
-            try (ProfilerTask ignored = profiler().start("after_migration")) {
-              effects = workflow.runHooks(effects, workflow.getAfterMigrationActions(),
-                  // Only do this once for all the actions
-                  LazyResourceLoader.memoized(reader::getFeedbackEndPoint),
-                  // Only do this once for all the actions
-                  LazyResourceLoader.memoized(writer::getFeedbackEndPoint),
-                  resolvedRef);
-            }
-          } else if (!workflow.getAfterMigrationActions().isEmpty()) {
-            workflow.getConsole()
-                .infoFmt(
-                    "Not calling 'after_migration' actions because of %s mode",
-                    GeneralOptions.DRY_RUN_FLAG);
+        // If the writer kept the change locally, the actions run and the finished event is sent
+        // once it is sent, by a later write or by Writer.flush.
+        if (!effects.isEmpty()) {
+          effects = reportEffects(effects);
+        }
+      }
+      return effects;
+    }
+
+    /**
+     * Runs the after_migration actions for {@code effects} and sends the finished event.
+     */
+    private ImmutableList<DestinationEffect> reportEffects(
+        ImmutableList<DestinationEffect> effects) throws ValidationException, RepoException {
+      try {
+        if (!workflow.getGeneralOptions().dryRunMode) {
+          try (ProfilerTask ignored = profiler().start("after_migration")) {
+            effects = workflow.runHooks(effects, workflow.getAfterMigrationActions(),
+                // Only do this once for all the actions
+                LazyResourceLoader.memoized(reader::getFeedbackEndPoint),
+                // Only do this once for all the actions
+                LazyResourceLoader.memoized(writer::getFeedbackEndPoint),
+                resolvedRef);
           }
-        } finally {
-          migrationFinishedMonitor.accept(new ChangeMigrationFinishedEvent(effects,
-              workflow.getOriginDescription(), workflow.getDestinationDescription()));
+        } else if (!workflow.getAfterMigrationActions().isEmpty()) {
+          workflow.getConsole()
+              .infoFmt(
+                  "Not calling 'after_migration' actions because of %s mode",
+                  GeneralOptions.DRY_RUN_FLAG);
         }
+      } finally {
+        migrationEvents.finished(effects);
       }
       return effects;
     }
@@ -458,10 +568,8 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
      * @param effects The destination effect of the migration
      */
     final void finishedMigrate(ImmutableList<DestinationEffect> effects) {
-      workflow.eventMonitors().dispatchEvent(
-          m -> m.onChangeMigrationStarted(new ChangeMigrationStartedEvent()));
-      migrationFinishedMonitor.accept(new ChangeMigrationFinishedEvent(effects,
-          workflow.getOriginDescription(), workflow.getDestinationDescription()));
+      migrationEvents.started();
+      migrationEvents.finished(effects);
     }
 
     private boolean showDiffInOrigin(O rev, @Nullable O lastRev, Console processConsole)
@@ -510,6 +618,29 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
         @Nullable Baseline<O> destinationBaseline,
         @Nullable O changeIdentityRevision)
         throws IOException, RepoException, ValidationException {
+      return write(
+          prepare(workdir, rev, lastRev, processConsole, metadata, changes, destinationBaseline,
+              changeIdentityRevision),
+          processConsole);
+    }
+
+    /**
+     * Checks out {@code rev} in {@code workdir} and transforms it, returning the result to be
+     * written to the destination. Nothing is written to the destination.
+     *
+     * <p>The contents of {@code workdir} are deleted, and the result files are kept there until
+     * they are written.
+     */
+    final TransformResult prepare(
+        Path workdir,
+        O rev,
+        @Nullable O lastRev,
+        Console processConsole,
+        Metadata metadata,
+        Changes changes,
+        @Nullable Baseline<O> destinationBaseline,
+        @Nullable O changeIdentityRevision)
+        throws IOException, RepoException, ValidationException {
       Path checkoutDir = workdir.resolve("checkout");
       try (ProfilerTask ignored = profiler().start("prepare_workdir")) {
         processConsole.progress("Cleaning working directory");
@@ -523,13 +654,14 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
 
       checkout(rev, processConsole, checkoutDir, "origin.checkout");
 
-      Path originCopy = null;
+      // Instead of a copy of the checkout, keep only the hashes of the files. The original files
+      // are only needed for showing the diff if the check fails.
+      TreeFingerprint originFingerprint = null;
       if (getReverseTransformForCheck() != null) {
-        try (ProfilerTask ignored = profiler().start("reverse_copy")) {
-          workflow.getConsole().progress("Making a copy or the workdir for reverse checking");
-          originCopy = Files.createDirectories(workdir.resolve("origin"));
+        try (ProfilerTask ignored = profiler().start("reverse_fingerprint")) {
+          workflow.getConsole().progress("Hashing the workdir for reverse checking");
           try {
-            FileUtil.copyFilesRecursively(checkoutDir, originCopy, FAIL_OUTSIDE_SYMLINKS);
+            originFingerprint = TreeFingerprint.of(checkoutDir, /*failOutsideSymlinks=*/ true);
           } catch (NoSuchFileException e) {
             throw new ValidationException(String.format(""
                 + "Failed to perform reversible check of transformations due to symlink '%s' "
@@ -596,29 +728,20 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
                       originApi,
                       () -> DestinationReader.NOT_IMPLEMENTED));
         }
-        String diff;
-        try {
-          byte[] byteDiff =
-              DiffUtil.diff(
-                  originCopy,
-                  reverse,
-                  workflow.isVerbose(),
-                  workflow.getGeneralOptions().getEnvironment());
-
-          // This should be more optimal than parsing a potential huge diff file.
-          if (getReversibleCheckIgnoreFiles() != null) {
-            PathMatcher pathMatcher =
-                getReversibleCheckIgnoreFiles().relativeTo(Paths.get("origin"));
-            diff = DiffUtil.filterDiff(byteDiff, (s -> !pathMatcher.matches(Paths.get(s))));
-          } else {
-            diff = new String(byteDiff, StandardCharsets.UTF_8);
-          }
-        } catch (InsideGitDirException e) {
-          throw new ValidationException(String.format(
-              "Cannot use 'reversible_check = True' because Copybara temporary directory (%s) is"
-                  + " inside a git directory (%s). Please remove the git repository or use %s"
-                  + " flag.", e.getPath(), e.getGitDirPath(), OUTPUT_ROOT_FLAG));
+        ImmutableSortedSet<String> changedFiles;
+        try (ProfilerTask ignored = profiler().start("reverse_compare")) {
+          changedFiles = originFingerprint.changedFiles(
+              TreeFingerprint.of(reverse, /*failOutsideSymlinks=*/ false));
+        }
+        if (getReversibleCheckIgnoreFiles() != null) {
+          PathMatcher pathMatcher = getReversibleCheckIgnoreFiles().relativeTo(reverse);
+          changedFiles = changedFiles.stream()
+              .filter(f -> !pathMatcher.matches(reverse.resolve(f)))
+              .collect(toImmutableSortedSet(Ordering.natural()));
         }
+        String diff = changedFiles.isEmpty()
+            ? ""
+            : reversibleCheckDiff(workdir, rev, processConsole, reverse, changedFiles);
         if (!diff.trim().isEmpty()) {
           workflow.getConsole().error("Non reversible transformations:\n"
               + DiffUtil.colorize(workflow.getConsole(), diff));
@@ -657,31 +780,48 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
 
           PrefixConsole baselineConsole = new PrefixConsole("Migrating baseline for diff: ",
               workflow.getConsole());
-          checkout(destinationBaseline.getOriginRevision(), baselineConsole, baselineWorkdir,
-              "origin.baseline.checkout");
-
-          TransformWork baselineTransformWork =
-              new TransformWork(
-                  baselineWorkdir,
-                  // We don't care about the message or author and this guarantees that it will
-                  // work with the transformations
-                  metadata,
-                  // We don't care about the changes that are imported.
-                  changes,
-                  baselineConsole,
-                  new MigrationInfo(workflow.getRevIdLabel(), writer),
-                  resolvedRef,
-                  // Doesn't guarantee that we will not run a ignore_noop = False core.transform but
-                  // reduces the chances.
-                  /*ignoreNoop=*/true,
-                  originApi,
-                  destinationApi,
-                  destinationReader)
-                  // Again, we don't care about this
-                  .withLastRev(lastRev)
-                  .withCurrentRev(destinationBaseline.getOriginRevision());
-          try (ProfilerTask ignored = profiler().start("baseline_transforms")) {
-            getTransformation().transform(baselineTransformWork);
+          TransformedBaselineCache baselineCache = baselineCache();
+          String baselineKey = baselineCache == null
+              ? null
+              : TransformedBaselineCache.key(workflow, destinationBaseline.getOriginRevision());
+          boolean cached;
+          try (ProfilerTask ignored = profiler().start("baseline_cache_read")) {
+            cached = baselineKey != null && baselineCache.get(baselineKey, baselineWorkdir);
+          }
+          if (cached) {
+            baselineConsole.info("Using cached transformed baseline");
+          } else {
+            checkout(destinationBaseline.getOriginRevision(), baselineConsole, baselineWorkdir,
+                "origin.baseline.checkout");
+
+            TransformWork baselineTransformWork =
+                new TransformWork(
+                    baselineWorkdir,
+                    // We don't care about the message or author and this guarantees that it will
+                    // work with the transformations
+                    metadata,
+                    // We don't care about the changes that are imported.
+                    changes,
+                    baselineConsole,
+                    new MigrationInfo(workflow.getRevIdLabel(), writer),
+                    resolvedRef,
+                    // Doesn't guarantee that we will not run a ignore_noop = False core.transform
+                    // but reduces the chances.
+                    /*ignoreNoop=*/true,
+                    originApi,
+                    destinationApi,
+                    destinationReader)
+                    // Again, we don't care about this
+                    .withLastRev(lastRev)
+                    .withCurrentRev(destinationBaseline.getOriginRevision());
+            try (ProfilerTask ignored = profiler().start("baseline_transforms")) {
+              getTransformation().transform(baselineTransformWork);
+            }
+            if (baselineKey != null) {
+              try (ProfilerTask ignored = profiler().start("baseline_cache_write")) {
+                baselineCache.put(baselineKey, baselineWorkdir);
+              }
+            }
           }
           try {
             ImmutableList<DiffFile> affectedFiles = DiffUtil
@@ -694,22 +834,61 @@ public class WorkflowRunHelper<O extends Revision, D extends Revision> {
           }
         }
       }
-      transformResult = transformResult
+      return transformResult
           .withAskForConfirmation(workflow.isAskForConfirmation())
           .withDiffInOrigin(isShowDiffInOrigin)
           .withIdentity(workflow.getMigrationIdentity(changeIdentityRevision, transformWork));
+    }
 
+    private ImmutableList<DestinationEffect> write(
+        TransformResult transformResult, Console processConsole)
+        throws IOException, RepoException, ValidationException {
       ImmutableList<DestinationEffect> result;
       try (ProfilerTask ignored = profiler().start(
           "destination.write", profiler().taskType(workflow.getDestination().getType()))) {
         result = writer.write(transformResult, getDestinationFiles(), processConsole);
       }
       Verify.verifyNotNull(result, "Destination returned a null result.");
-      Verify
-          .verify(!result.isEmpty(), "Destination " + writer + " returned an empty set of effects");
+      // Empty if the writer kept the change locally. See Destination.Writer#write.
+      Verify.verify(!result.isEmpty() || writer.hasPendingChanges(),
+          "Destination %s returned an empty set of effects", writer);
       return result;
     }
 
+    @Nullable
+    private TransformedBaselineCache baselineCache() throws IOException {
+      WorkflowOptions options = workflow.getWorkflowOptions();
+      if (!options.useSmartPruneBaselineCache()) {
+        return null;
+      }
+      return new TransformedBaselineCache(
+          workflow.getGeneralOptions().getDirFactory().getCacheDir("smart_prune_baselines"),
+          options.smartPruneBaselineCacheSize);
+    }
+
+    /**
+     * Returns the diff of {@code changedFiles} between the origin checkout and the result of the
+     * reverse transformations. The origin is checked out again, since no copy of it is kept.
+     */
+    private String reversibleCheckDiff(Path workdir, O rev, Console processConsole,
+        Path reverse, ImmutableSortedSet<String> changedFiles)
+        throws IOException, RepoException, ValidationException {
+      try (ProfilerTask ignored = profiler().start("reverse_diff")) {
+        // A sibling of 'reverse', so that the paths are the same as in a diff of the full trees
+        Path origin = Files.createDirectories(workdir.resolve("origin"));
+        checkout(rev, processConsole, origin, "origin.checkout");
+        return new String(
+            DiffUtil.diffChangedFiles(origin, reverse, changedFiles, workflow.isVerbose(),
+                workflow.getGeneralOptions().getEnvironment()),
+            StandardCharsets.UTF_8);
+      } catch (InsideGitDirException e) {
+        throw new ValidationException(String.format(
+            "Cannot use 'reversible_check = True' because Copybara temporary directory (%s) is"
+                + " inside a git directory (%s). Please remove the git repository or use %s"
+                + " flag.", e.getPath(), e.getGitDirPath(), OUTPUT_ROOT_FLAG));
+      }
+    }
+
     private void checkout(
         O rev, Console processConsole, Path checkoutDir, String profileDescription)
         throws RepoException, ValidationException, IOException {
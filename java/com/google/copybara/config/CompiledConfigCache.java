@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.config;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import net.starlark.java.eval.Module;
+import net.starlark.java.syntax.FileOptions;
+import net.starlark.java.syntax.ParserInput;
+import net.starlark.java.syntax.Program;
+import net.starlark.java.syntax.StarlarkFile;
+import net.starlark.java.syntax.SyntaxError;
+
+/**
+ * Caches the compiled Starlark programs of the config files, so that a file is parsed and
+ * resolved only once per JVM, even if the config is loaded several times, for example to validate
+ * and then migrate it, or to run several migrations in a batch.
+ *
+ * <p>Compiling a file only depends on its path and content, the file options and the names of
+ * the predeclared bindings of the module. The resulting {@link Program} is immutable and can be
+ * executed in any module with the same predeclared names, so those are the key of the cache.
+ */
+final class CompiledConfigCache {
+
+  private static final int MAX_PROGRAMS = 1000;
+
+  /** Cache shared by all the parsers of the JVM. */
+  static final CompiledConfigCache INSTANCE = new CompiledConfigCache(MAX_PROGRAMS);
+
+  private final Cache<String, Program> programs;
+
+  @VisibleForTesting
+  CompiledConfigCache(int maxPrograms) {
+    this.programs = CacheBuilder.newBuilder().maximumSize(maxPrograms).recordStats().build();
+  }
+
+  /**
+   * Returns the program for the file at {@code path} with {@code content}, compiling it for
+   * {@code module} if it is not cached.
+   */
+  Program compile(String path, byte[] content, FileOptions options, Module module)
+      throws SyntaxError.Exception {
+    String key = key(path, content, options, module);
+    Program program = programs.getIfPresent(key);
+    if (program == null) {
+      // Syntax errors are not cached, since they are reported every time the file is loaded
+      program = Program.compileFile(
+          StarlarkFile.parse(ParserInput.fromUTF8(content, path), options), module);
+      programs.put(key, program);
+    }
+    return program;
+  }
+
+  @VisibleForTesting
+  long hitCount() {
+    return programs.stats().hitCount();
+  }
+
+  private static String key(String path, byte[] content, FileOptions options, Module module) {
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(path, UTF_8)
+        .putInt(content.length)
+        .putBytes(content)
+        .putString(options.toString(), UTF_8);
+    for (String name : ImmutableSortedSet.copyOf(module.getPredeclaredBindings().keySet())) {
+      hasher.putString(name, UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+}
@@ -46,9 +46,7 @@ import net.starlark.java.eval.Starlark;
 import net.starlark.java.eval.StarlarkSemantics;
 import net.starlark.java.eval.StarlarkThread;
 import net.starlark.java.syntax.FileOptions;
-import net.starlark.java.syntax.ParserInput;
 import net.starlark.java.syntax.Program;
-import net.starlark.java.syntax.StarlarkFile;
 import net.starlark.java.syntax.SyntaxError;
 
 /**
@@ -207,15 +205,15 @@ public class SkylarkParser {
       StarlarkSemantics semantics = StarlarkSemantics.DEFAULT;
       module = Module.withPredeclared(semantics, environment);
 
-      // parse & compile
-      ParserInput input = ParserInput.fromUTF8(content.readContentBytes(), content.path());
+      // parse & compile, unless the same file was already compiled in this JVM
       FileOptions options =
           validation == StarlarkMode.STRICT
               ? STARLARK_STRICT_FILE_OPTIONS
               : STARLARK_LOOSE_FILE_OPTIONS;
       Program prog;
       try {
-        prog = Program.compileFile(StarlarkFile.parse(input, options), module);
+        prog = CompiledConfigCache.INSTANCE.compile(
+            content.path(), content.readContentBytes(), options, module);
       } catch (SyntaxError.Exception ex) {
         for (SyntaxError error : ex.errors()) {
           console.error(error.toString());
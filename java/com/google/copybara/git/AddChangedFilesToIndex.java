@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitRepository.IndexEntry;
+import com.google.copybara.util.FileUtil;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Stages the files of a directory in the index of a Git repo by only staging the files that are
+ * different from the ones in the index, instead of running {@code git add --all} on the whole
+ * directory. The work tree is then updated to contain the staged files.
+ *
+ * <p>This requires the work tree to have the same content as {@code HEAD} and no untracked files,
+ * since the work tree is used as the previous state of the files. Files not matching the glob are
+ * not modified in the index nor in the work tree.
+ *
+ * <p>The changed files are found by comparing the hashes of the new files with the ones stored in
+ * the index, so every new file is read once and the files of the work tree are not read. The stat
+ * data of the index cannot be used instead: the new files come from a fresh checkout, so all of
+ * them are newer than the work tree. The {@code TreeState} of the transformations cannot be used
+ * either: It only tracks the files modified by the transformations after the checkout, and the
+ * checkout itself writes every file of the change again.
+ */
+final class AddChangedFilesToIndex {
+
+  private final GitRepository repo;
+  private final PathMatcher pathMatcher;
+
+  AddChangedFilesToIndex(GitRepository repo, PathMatcher pathMatcher) {
+    this.repo = Preconditions.checkNotNull(repo);
+    this.pathMatcher = Preconditions.checkNotNull(pathMatcher);
+  }
+
+  /**
+   * Returns true if the repo layout is supported: The git directory must be outside of the work
+   * tree and there cannot be submodules.
+   */
+  boolean isSupported() {
+    Path workTree = repo.getWorkTree();
+    return workTree != null
+        && !repo.getGitDir().startsWith(workTree)
+        && !Files.exists(workTree.resolve(".gitmodules"), LinkOption.NOFOLLOW_LINKS);
+  }
+
+  /**
+   * Stages the files in {@code files} that changed, and updates the work tree with them.
+   *
+   * <p>Returns false, without modifying the index or the work tree, if there is a change that
+   * cannot be staged this way, like a nested git repository. In that case the files need to be
+   * added with {@code git add}.
+   */
+  boolean add(Path files) throws RepoException, IOException {
+    Path workTree = repo.getWorkTree();
+    Map<String, IndexEntry> staged = new HashMap<>();
+    for (IndexEntry entry : repo.lsFiles()) {
+      if (pathMatcher.matches(workTree.resolve(entry.getPath()))) {
+        staged.put(entry.getPath(), entry);
+      }
+    }
+
+    List<String> symlinks = new ArrayList<>();
+    List<String> regularFiles = new ArrayList<>();
+    List<Boolean> executable = new ArrayList<>();
+    boolean[] supported = {true};
+    Files.walkFileTree(files, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String path = files.relativize(file).toString();
+        if (!pathMatcher.matches(workTree.resolve(path))) {
+          return FileVisitResult.CONTINUE;
+        }
+        if (!isSupportedPath(path)) {
+          supported[0] = false;
+          return FileVisitResult.TERMINATE;
+        }
+        if (attrs.isSymbolicLink()) {
+          symlinks.add(path);
+        } else if (attrs.isRegularFile()) {
+          // Like git, ignore other special files
+          regularFiles.add(path);
+          executable.add(FileUtil.isExecutable(file));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    if (!supported[0]) {
+      return false;
+    }
+    // Content filters are applied relative to the files being added, like in 'git add'
+    ImmutableList<String> sha1s = repo.withWorkTree(files).hashObjects(regularFiles);
+
+    List<IndexEntry> added = new ArrayList<>();
+    for (String path : symlinks) {
+      byte[] target = Files.readSymbolicLink(files.resolve(path)).toString().getBytes(UTF_8);
+      IndexEntry previous = staged.remove(path);
+      // Symlinks are small, so they are only written to the object database if they changed
+      if (previous == null || !previous.sameObject(IndexEntry.symlink(path, blobSha1(target)))) {
+        added.add(IndexEntry.symlink(path, repo.hashObject(target)));
+      }
+    }
+    for (int i = 0; i < regularFiles.size(); i++) {
+      addIfChanged(IndexEntry.file(regularFiles.get(i), sha1s.get(i), executable.get(i)), staged,
+          added);
+    }
+    // The entries left are not in the new files
+    List<IndexEntry> removed = new ArrayList<>();
+    for (String path : staged.keySet()) {
+      removed.add(IndexEntry.removed(path));
+    }
+
+    // Removals first, so that a file can replace a directory and the other way around.
+    repo.updateIndex(ImmutableList.<IndexEntry>builder().addAll(removed).addAll(added).build());
+
+    for (IndexEntry entry : removed) {
+      Path file = workTree.resolve(entry.getPath());
+      Files.deleteIfExists(file);
+      deleteEmptyParents(workTree, file);
+    }
+    for (IndexEntry entry : added) {
+      Path file = workTree.resolve(entry.getPath());
+      Files.createDirectories(file.getParent());
+      Files.copy(files.resolve(entry.getPath()), file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.COPY_ATTRIBUTES, LinkOption.NOFOLLOW_LINKS);
+    }
+    return true;
+  }
+
+  private static void addIfChanged(IndexEntry entry, Map<String, IndexEntry> staged,
+      List<IndexEntry> added) {
+    IndexEntry previous = staged.remove(entry.getPath());
+    if (previous == null || !previous.sameObject(entry)) {
+      added.add(entry);
+    }
+  }
+
+  /** Returns the SHA-1 that git gives to a blob with {@code content}. */
+  @SuppressWarnings("deprecation") // SHA-1 is the hash of the git objects
+  private static String blobSha1(byte[] content) {
+    return Hashing.sha1().newHasher()
+        .putBytes(String.format("blob %d\0", content.length).getBytes(UTF_8))
+        .putBytes(content)
+        .hash()
+        .toString();
+  }
+
+  /**
+   * Paths inside nested git repositories are handled by 'git add' as submodules, and paths with
+   * new lines cannot be passed to 'git hash-object --stdin-paths'.
+   */
+  private static boolean isSupportedPath(String path) {
+    return path.indexOf('\n') == -1
+        && !Splitter.on('/').splitToList(path).contains(".git");
+  }
+
+  private static void deleteEmptyParents(Path workTree, Path file) throws IOException {
+    Path dir = file.getParent();
+    while (!dir.equals(workTree) && Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+      try (Stream<Path> entries = Files.list(dir)) {
+        if (entries.findAny().isPresent()) {
+          return;
+        }
+      }
+      Files.delete(dir);
+      dir = dir.getParent();
+    }
+  }
+}
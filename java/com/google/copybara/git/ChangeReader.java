@@ -21,8 +21,12 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.copybara.Change;
 import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable.ChangesVisitor;
+import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.Authoring;
 import com.google.copybara.exception.RepoException;
@@ -31,7 +35,14 @@ import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.LogCmd;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 
@@ -40,6 +51,12 @@ import javax.annotation.Nullable;
  */
 class ChangeReader {
 
+  /**
+   * Number of changes whose branch commit logs are read together. Only these changes are kept in
+   * memory while reading the log.
+   */
+  private static final int BRANCH_COMMIT_LOG_BATCH_SIZE = 200;
+
   @Nullable private final Authoring authoring;
   private final GitRepository repository;
   private final int limit;
@@ -68,6 +85,29 @@ class ChangeReader {
 
   ImmutableList<Change<GitRevision>> run(String refExpression)
       throws RepoException, ValidationException {
+    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
+    read(refExpression, change -> {
+      result.add(change);
+      return true;
+    });
+    return result.build().reverse();
+  }
+
+  /**
+   * Visits the changes of {@code refExpression}, newest first, while 'git log' runs. Unlike {@link
+   * #run(String)}, the history is not held in memory.
+   */
+  void visit(String refExpression, ChangesVisitor visitor)
+      throws RepoException, ValidationException {
+    read(refExpression, change -> visitor.visit(change) != VisitResult.TERMINATE);
+  }
+
+  /**
+   * Reads the changes of {@code refExpression}, newest first, until {@code consumer} returns
+   * false.
+   */
+  private void read(String refExpression, Predicate<Change<GitRevision>> consumer)
+      throws RepoException, ValidationException {
     LogCmd logCmd = repository
         .log(refExpression)
         .firstParent(firstParent);
@@ -90,31 +130,95 @@ class ChangeReader {
     // Log command does not filter by roots here because of how git log works. Some commits (e.g.
     // fake merges) might not include the files in the log, and filtering here would return
     // incorrect results. We do filter later on the changes to match the actual glob.
-    return parseChanges(logCmd.includeFiles(true).includeMergeDiff(true).run());
+    AtomicReference<GitRevision> last = new AtomicReference<>();
+    List<GitLogEntry> batch = new ArrayList<>();
+    logCmd.includeFiles(true).includeMergeDiff(true).run(e -> {
+      // Keep the first commit if repeated (merge commits).
+      if (e.getCommit().equals(last.get())) {
+        return true;
+      }
+      last.set(e.getCommit());
+      batch.add(e);
+      return (includeBranchCommitLogs && batch.size() < BRANCH_COMMIT_LOG_BATCH_SIZE)
+          || flush(batch, consumer);
+    });
+    flush(batch, consumer);
   }
 
-  static final String BRANCH_COMMIT_LOG_HEADING = "-- Branch commit log --";
-
-  private CharSequence branchCommitLog(GitRevision ref, List<GitRevision> parents)
+  /**
+   * Passes the changes in {@code batch} to {@code consumer} and clears the batch. Returns false if
+   * the consumer doesn't want more changes.
+   */
+  private boolean flush(List<GitLogEntry> batch, Predicate<Change<GitRevision>> consumer)
       throws RepoException {
-    if (parents.size() <= 1) {
-      // Not a merge commit, so don't bother showing full log of branch commits. This would only
-      // contain the raw commit of 'ref', which will be redundant.
-      return "";
+    Map<String, String> branchCommitLogs = branchCommitLogs(batch);
+    try {
+      for (GitLogEntry e : batch) {
+        if (!consumer.test(toChange(e,
+            branchCommitLogs.getOrDefault(e.getCommit().getSha1(), "")))) {
+          return false;
+        }
+      }
+      return true;
+    } finally {
+      batch.clear();
     }
+  }
+
+  static final String BRANCH_COMMIT_LOG_HEADING = "-- Branch commit log --";
+
+  /**
+   * Returns the branch commit log of the merges in {@code entries}, by merge SHA-1.
+   *
+   * <p>The branch commit log of a merge is the log of {@code firstParent..merge}, without the
+   * merge. Instead of running 'git log' for each merge, the graph and the log of all the branches
+   * are read once and each branch is extracted from them.
+   */
+  private Map<String, String> branchCommitLogs(List<GitLogEntry> entries) throws RepoException {
     if (!includeBranchCommitLogs) {
-      return "";
+      return ImmutableMap.of();
     }
-
-    ImmutableList<GitLogEntry> entries =
+    // Only merges have a branch commit log. For other commits it would only contain the commit
+    // itself, which is redundant.
+    List<GitLogEntry> merges = entries.stream()
+        .filter(e -> e.getParents().size() > 1)
+        .collect(Collectors.toList());
+    if (merges.isEmpty()) {
+      return ImmutableMap.of();
+    }
+    Set<String> tips = new LinkedHashSet<>();
+    Set<String> firstParents = new LinkedHashSet<>();
+    for (GitLogEntry merge : merges) {
+      tips.add(merge.getCommit().getSha1());
+      firstParents.add(merge.getParents().get(0).getSha1());
+    }
+    // Nothing reachable from the common ancestor of the first parents can be part of a branch.
+    ImmutableList<String> exclude = repository.mergeBaseOctopus(firstParents)
+        .map(ImmutableList::of)
+        .orElse(ImmutableList.of());
+    CommitGraph graph = repository.commitGraph(tips, exclude);
+    ImmutableList<GitLogEntry> log =
         repository
-            .log(parents.get(0).getSha1() + ".." + ref.getSha1())
+            .log(Iterables.concat(tips, Iterables.transform(exclude, c -> "^" + c)))
             // This might give incorrect results but several migrations rely on this behavior.
             // and first_parent = False doesn't work for ITERATIVE
             .withPaths(Glob.isEmptyRoot(roots) ? ImmutableList.of() : roots)
             .firstParent(false)
             .run();
 
+    Map<String, String> result = new HashMap<>();
+    for (GitLogEntry merge : merges) {
+      Set<String> branch = graph.reachableOnlyFrom(
+          merge.getCommit().getSha1(), merge.getParents().get(0).getSha1());
+      // Same order as 'git log firstParent..merge'
+      result.put(merge.getCommit().getSha1(), formatBranchCommitLog(log.stream()
+          .filter(e -> branch.contains(e.getCommit().getSha1()))
+          .collect(ImmutableList.toImmutableList())));
+    }
+    return result;
+  }
+
+  private String formatBranchCommitLog(ImmutableList<GitLogEntry> entries) {
     if (entries.isEmpty()) {
       return "";
     }
@@ -132,26 +236,14 @@ class ChangeReader {
             .collect(Collectors.toList()));
   }
 
-  private ImmutableList<Change<GitRevision>> parseChanges(ImmutableList<GitLogEntry> logEntries)
-      throws RepoException {
-
-    ImmutableList.Builder<Change<GitRevision>> result = ImmutableList.builder();
-    GitRevision last = null;
-    for (GitLogEntry e : logEntries) {
-      // Keep the first commit if repeated (merge commits).
-      if (last != null && last.equals(e.getCommit())) {
-        continue;
-      }
-      last = e.getCommit();
-      result.add(new Change<>(
-          e.getCommit().withUrl(url),
-          filterAuthor(e.getAuthor())
-          , e.getBody() + branchCommitLog(e.getCommit(), e.getParents()),
-          e.getAuthorDate(),
-          ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
-          e.getFiles(), e.getParents().size() > 1, e.getParents()));
-    }
-    return result.build().reverse();
+  private Change<GitRevision> toChange(GitLogEntry e, String branchCommitLog) {
+    return new Change<>(
+        e.getCommit().withUrl(url),
+        filterAuthor(e.getAuthor())
+        , e.getBody() + branchCommitLog,
+        e.getAuthorDate(),
+        ChangeMessage.parseAllAsLabels(e.getBody()).labelsAsMultimap(),
+        e.getFiles(), e.getParents().size() > 1, e.getParents());
   }
 
   private Author filterAuthor(Author author) {
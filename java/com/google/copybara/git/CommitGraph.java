@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * An in-memory graph of commits, like the output of {@code git rev-list --topo-order --parents}.
+ *
+ * <p>Parents that are not part of the graph are ignored.
+ */
+final class CommitGraph {
+
+  private static final byte INCLUDED = 1;
+  private static final byte EXCLUDED = 2;
+
+  /** Position of each commit. Commits are sorted so that children go before their parents. */
+  private final Map<String, Integer> positions;
+  private final ImmutableList<String> commits;
+  private final ImmutableList<int[]> parents;
+
+  private CommitGraph(Map<String, Integer> positions, ImmutableList<String> commits,
+      ImmutableList<int[]> parents) {
+    this.positions = positions;
+    this.commits = commits;
+    this.parents = parents;
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Returns the commits of the graph that are reachable from {@code include} but not from {@code
+   * exclude}, like {@code git rev-list exclude..include}. The result is empty if {@code include} is
+   * not part of the graph. If {@code exclude} is not part of the graph, it is assumed that none of
+   * the commits of the graph are reachable from it.
+   */
+  ImmutableSet<String> reachableOnlyFrom(String include, String exclude) {
+    Integer start = positions.get(include);
+    if (start == null) {
+      return ImmutableSet.of();
+    }
+    // Walk in topological order, so that all the children of a commit are visited before it, and
+    // its flags are final. Stop once the pending commits are all reachable from 'exclude'.
+    Map<Integer, Byte> flags = new HashMap<>();
+    PriorityQueue<Integer> pending = new PriorityQueue<>();
+    int pendingIncluded = 0;
+    flags.put(start, INCLUDED);
+    pending.add(start);
+    pendingIncluded++;
+    Integer end = positions.get(exclude);
+    if (end != null) {
+      if (end.equals(start)) {
+        return ImmutableSet.of();
+      }
+      flags.put(end, EXCLUDED);
+      pending.add(end);
+    }
+    ImmutableSet.Builder<String> result = ImmutableSet.builder();
+    while (pendingIncluded > 0) {
+      int current = pending.poll();
+      byte flag = flags.get(current);
+      if (flag == INCLUDED) {
+        pendingIncluded--;
+        result.add(commits.get(current));
+      }
+      for (int parent : parents.get(current)) {
+        Byte old = flags.get(parent);
+        if (old == null) {
+          flags.put(parent, flag);
+          pending.add(parent);
+          if (flag == INCLUDED) {
+            pendingIncluded++;
+          }
+        } else if ((old | flag) != old) {
+          flags.put(parent, (byte) (old | flag));
+          if (old == INCLUDED) {
+            // Now also reachable from 'exclude'
+            pendingIncluded--;
+          }
+        }
+      }
+    }
+    return result.build();
+  }
+
+  /** Builds a {@link CommitGraph}. Commits need to be added after all their children. */
+  static final class Builder {
+
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final List<String> commits = new ArrayList<>();
+    private final List<List<String>> parents = new ArrayList<>();
+
+    private Builder() {}
+
+    Builder add(String commit, List<String> commitParents) {
+      checkArgument(!positions.containsKey(commit), "Duplicate commit %s", commit);
+      positions.put(commit, commits.size());
+      commits.add(commit);
+      parents.add(ImmutableList.copyOf(commitParents));
+      return this;
+    }
+
+    CommitGraph build() {
+      ImmutableList.Builder<int[]> parentPositions = ImmutableList.builder();
+      for (int i = 0; i < commits.size(); i++) {
+        List<Integer> known = new ArrayList<>();
+        for (String parent : parents.get(i)) {
+          Integer position = positions.get(parent);
+          if (position != null) {
+            checkArgument(position > i, "Parent %s of %s added before it", parent, commits.get(i));
+            known.add(position);
+          }
+        }
+        parentPositions.add(Ints.toArray(known));
+      }
+      return new CommitGraph(positions, ImmutableList.copyOf(commits), parentPositions.build());
+    }
+  }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hashing;
+import com.google.copybara.ChangeMessage;
+import com.google.copybara.ChangeVisitable.LabelIndex;
+import com.google.copybara.LabelFinder;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitRepository.GitLogEntry;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk index of the labels in the history of a destination branch, like {@code
+ * GitOrigin-RevId: 1234abcd}, so that finding the change that migrated an origin revision doesn't
+ * need to read the history on every run.
+ *
+ * <p>The index is stored in a file that is updated with the commits that were added to the branch
+ * since the last update. If the branch was rewritten, the index is created again. The file is
+ * always replaced atomically with a complete index, so concurrent updates, from other processes or
+ * from other migrations in the same JVM, never leave a corrupt file. The last one wins.
+ *
+ * <p>Each line of the file is either the label of a commit, as {@code
+ * <sha1>\t<name>\t<separator>\t<value>}, or {@code tip\t<sha1>}, the commit up to which the
+ * previous lines index the history. The labels of newer commits go after the labels of older
+ * commits.
+ */
+final class DestinationLabelIndex implements LabelIndex {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String HEADER = "copybara-destination-label-index 1";
+  private static final String TIP = "tip";
+
+  private final Path file;
+  private final GitRepository repository;
+  private final boolean firstParent;
+
+  @Nullable private String tip;
+  /** Label lines of the file, oldest commit first. */
+  private final List<String> lines = new ArrayList<>();
+  /** Indexed commits, oldest first. */
+  private final List<String> commits = new ArrayList<>();
+  /** Position of the newest commit for each label name and value. */
+  private final Map<String, Map<String, Integer>> newestByValue = new HashMap<>();
+  /** Positions of the commits that have a label, by label name and separator, oldest first. */
+  private final Map<String, List<Integer>> bySeparator = new HashMap<>();
+
+  private DestinationLabelIndex(Path file, GitRepository repository, boolean firstParent) {
+    this.file = checkNotNull(file);
+    this.repository = checkNotNull(repository);
+    this.firstParent = firstParent;
+  }
+
+  /**
+   * Loads the index for the branch {@code ref} of the repository {@code url}, stored in {@code
+   * storage}. The index is empty if it doesn't exist yet or cannot be read.
+   *
+   * @param firstParent if only the first parent of merges should be followed, like 'git log
+   *     --first-parent'
+   */
+  static DestinationLabelIndex load(Path storage, String url, String ref,
+      GitRepository repository, boolean firstParent) {
+    String key = url + "\n" + ref + "\n" + (firstParent ? "first-parent" : "all-parents");
+    Path file = storage.resolve(Hashing.sha256().hashString(key, UTF_8) + ".txt");
+    DestinationLabelIndex index = new DestinationLabelIndex(file, repository, firstParent);
+    try {
+      index.read();
+    } catch (IOException | RuntimeException e) {
+      logger.atWarning().withCause(e).log("Ignoring invalid label index %s", file);
+      index.clear();
+    }
+    return index;
+  }
+
+  /**
+   * Updates the index to cover the history of {@code newTip}. Only the commits that are not
+   * already indexed are read, unless the history was rewritten.
+   */
+  void update(String newTip) throws RepoException {
+    if (newTip.equals(tip)) {
+      return;
+    }
+    if (tip != null && isAncestor(tip, newTip)) {
+      LogReader log = readLog(ImmutableList.of(newTip, "^" + tip));
+      // With --first-parent, the old tip might be a second parent of a new commit. In that case
+      // the indexed commits are not part of the first-parent history anymore.
+      if (!firstParent || tip.equals(log.oldestFirstParent)) {
+        write(log.labels, newTip);
+        return;
+      }
+    }
+    logger.atInfo().log("Creating label index for %s in %s", newTip, file);
+    clear();
+    write(readLog(ImmutableList.of(newTip)).labels, newTip);
+  }
+
+  @Nullable
+  @Override
+  public String findChange(ImmutableCollection<String> labels, String value) {
+    int newest = -1;
+    for (String label : labels) {
+      Map<String, Integer> values = newestByValue.get(label);
+      Integer position = values == null ? null : values.get(value);
+      if (position != null && position > newest) {
+        newest = position;
+      }
+    }
+    return newest == -1 ? null : commits.get(newest);
+  }
+
+  /**
+   * Returns the commits that have a {@code label} line with the given {@code separator}, like
+   * {@code ": "}, newest first.
+   */
+  ImmutableList<String> findChanges(String label, String separator) {
+    List<Integer> positions = bySeparator.getOrDefault(key(label, separator), ImmutableList.of());
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (int i = positions.size() - 1; i >= 0; i--) {
+      result.add(commits.get(positions.get(i)));
+    }
+    return result.build();
+  }
+
+  private boolean isAncestor(String ancestor, String commit) {
+    try {
+      return repository.isAncestor(ancestor, commit);
+    } catch (RepoException e) {
+      // For example if the old tip doesn't exist anymore
+      logger.atInfo().withCause(e).log("Cannot check if %s is an ancestor of %s", ancestor,
+          commit);
+      return false;
+    }
+  }
+
+  private LogReader readLog(ImmutableList<String> refs) throws RepoException {
+    LogReader reader = new LogReader();
+    repository.log(refs)
+        .firstParent(firstParent)
+        .run(reader::add);
+    return reader;
+  }
+
+  /** Keeps the labels of the commits of a 'git log', newest commit first. */
+  private static final class LogReader {
+
+    private final List<CommitLabels> labels = new ArrayList<>();
+    @Nullable private String oldestFirstParent;
+
+    private boolean add(GitLogEntry entry) {
+      oldestFirstParent = entry.getParents().isEmpty()
+          ? null
+          : entry.getParents().get(0).getSha1();
+      String commit = entry.getCommit().getSha1();
+      List<String[]> found = new ArrayList<>();
+      for (LabelFinder label : ChangeMessage.parseAllAsLabels(entry.getBody()).getLabels()) {
+        if (label.isLabel()) {
+          found.add(new String[] {commit, label.getName(), label.getSeparator(), label.getValue()});
+        }
+      }
+      if (!found.isEmpty()) {
+        labels.add(new CommitLabels(commit, found));
+      }
+      return true;
+    }
+  }
+
+  private static final class CommitLabels {
+
+    private final String commit;
+    /** The commit, name, separator and value of each label. */
+    private final List<String[]> labels;
+
+    private CommitLabels(String commit, List<String[]> labels) {
+      this.commit = commit;
+      this.labels = labels;
+    }
+  }
+
+  private void read() throws IOException {
+    List<String> fileLines;
+    try {
+      fileLines = Files.readAllLines(file, UTF_8);
+    } catch (NoSuchFileException e) {
+      return;
+    }
+    if (fileLines.isEmpty() || !fileLines.get(0).equals(HEADER)) {
+      throw new IOException("Unknown format");
+    }
+    Map<String, List<String[]>> pending = new LinkedHashMap<>();
+    List<String> pendingLines = new ArrayList<>();
+    for (String line : fileLines.subList(1, fileLines.size())) {
+      String[] fields = line.split("\t", -1);
+      if (fields.length == 2 && fields[0].equals(TIP)) {
+        for (Map.Entry<String, List<String[]>> commit : pending.entrySet()) {
+          add(commit.getKey(), commit.getValue());
+        }
+        pending.clear();
+        lines.addAll(pendingLines);
+        pendingLines.clear();
+        tip = fields[1];
+      } else if (fields.length == 4) {
+        pendingLines.add(line);
+        fields[3] = unescape(fields[3]);
+        pending.computeIfAbsent(fields[0], k -> new ArrayList<>()).add(fields);
+      } else {
+        throw new IOException("Invalid line: " + line);
+      }
+    }
+    if (!pending.isEmpty()) {
+      throw new IOException("Incomplete update");
+    }
+  }
+
+  /**
+   * Adds the labels of the new commits to the index and replaces the file with the complete
+   * index up to {@code newTip}.
+   */
+  private void write(List<CommitLabels> labels, String newTip) throws RepoException {
+    List<String> newLines = new ArrayList<>();
+    // Oldest first, so that newer commits are added later
+    for (CommitLabels commit : Lists.reverse(labels)) {
+      for (String[] label : commit.labels) {
+        newLines.add(label[0] + "\t" + label[1] + "\t" + label[2] + "\t" + escape(label[3]));
+      }
+    }
+    try {
+      Files.createDirectories(file.getParent());
+      Path temp = Files.createTempFile(file.getParent(), "index", ".tmp");
+      try {
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, UTF_8)) {
+          writer.write(HEADER + "\n");
+          for (String line : Iterables.concat(lines, newLines)) {
+            writer.write(line + "\n");
+          }
+          writer.write(TIP + "\t" + newTip + "\n");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    } catch (IOException e) {
+      // The history will be read again next time
+      clear();
+      throw new RepoException("Cannot write label index " + file, e);
+    }
+    for (CommitLabels commit : Lists.reverse(labels)) {
+      add(commit.commit, commit.labels);
+    }
+    lines.addAll(newLines);
+    tip = newTip;
+  }
+
+  private void add(String commit, List<String[]> labels) {
+    int position = commits.size();
+    commits.add(commit);
+    // Like visitChangesWithAnyLabel, use the last value of each label
+    Map<String, String> lastValues = new HashMap<>();
+    for (String[] label : labels) {
+      lastValues.put(label[1], label[3]);
+      List<Integer> positions =
+          bySeparator.computeIfAbsent(key(label[1], label[2]), k -> new ArrayList<>());
+      if (positions.isEmpty() || positions.get(positions.size() - 1) != position) {
+        positions.add(position);
+      }
+    }
+    for (Map.Entry<String, String> label : lastValues.entrySet()) {
+      newestByValue.computeIfAbsent(label.getKey(), k -> new HashMap<>())
+          .put(label.getValue(), position);
+    }
+  }
+
+  private void clear() {
+    tip = null;
+    lines.clear();
+    commits.clear();
+    newestByValue.clear();
+    bySeparator.clear();
+  }
+
+  private static String key(String label, String separator) {
+    return label + "\t" + separator;
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\r", "\\r");
+  }
+
+  private static String unescape(String value) {
+    StringBuilder result = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length()) {
+        char next = value.charAt(++i);
+        result.append(next == 't' ? '\t' : next == 'r' ? '\r' : next);
+      } else {
+        result.append(c);
+      }
+    }
+    return result.toString();
+  }
+}
@@ -26,6 +26,8 @@ import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.LazyResourceLoader;
 import com.google.copybara.Option;
@@ -37,6 +39,7 @@ import com.google.copybara.git.gerritapi.GerritApi;
 import com.google.copybara.git.gerritapi.GerritApiTransport;
 import com.google.copybara.git.gerritapi.GerritApiTransportImpl;
 import com.google.copybara.git.gerritapi.GerritApiTransportWithChecker;
+import com.google.copybara.http.RequestScheduler;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.regex.Pattern;
@@ -86,6 +89,9 @@ public class GerritOptions implements Option {
   @Deprecated
   protected boolean noRevIdDEPRECATED = false;
 
+  private final Supplier<RequestScheduler> requestScheduler = Suppliers.memoize(
+      () -> RequestScheduler.create(generalOptions.profiler(), generalOptions.eventMonitors()));
+
   /**
    * Returns a lazy supplier of {@link GerritApi}.
    */
@@ -157,7 +163,8 @@ public class GerritOptions implements Option {
    */
   protected GerritApiTransport newGerritApiTransport(URI uri)
       throws RepoException, ValidationException {
-    return new GerritApiTransportImpl(getCredentialsRepo(), uri, getHttpTransport());
+    return new GerritApiTransportImpl(getCredentialsRepo(), uri, getHttpTransport(),
+        requestScheduler.get());
   }
 
   /**
@@ -27,12 +27,16 @@ import static java.lang.String.format;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
 import com.google.copybara.Change;
+import com.google.copybara.ChangeVisitable.LabelIndex;
+import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.ChangeMessage;
 import com.google.copybara.Destination;
 import com.google.copybara.DestinationEffect;
@@ -63,8 +67,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import javax.annotation.Nullable;
 import net.starlark.java.eval.Sequence;
 
@@ -172,8 +183,21 @@ public final class GitDestination implements Destination<GitRevision> {
         destinationOptions.committerName,
         destinationOptions.committerEmail,
         destinationOptions.rebaseWhenBaseline(),
-        gitOptions.visitChangePageSize,
-        gitOptions.gitTagOverwrite);
+        gitOptions.gitTagOverwrite,
+        labelIndexStorage(gitOptions),
+        writerHook.canBatchPushes() ? destinationOptions.pushBatchSize : 1,
+        destinationOptions.pushBatchTime);
+  }
+
+  /** Returns the directory for the label indexes, or null if they cannot be used. */
+  @Nullable
+  static Path labelIndexStorage(GitOptions gitOptions) {
+    try {
+      return gitOptions.getDestinationLabelIndexStorage();
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot use label indexes");
+      return null;
+    }
   }
 
   /**
@@ -183,6 +207,17 @@ public final class GitDestination implements Destination<GitRevision> {
 
     boolean alreadyFetched;
     boolean firstWrite = true;
+    /**
+     * True if the scratch work tree has the same content as HEAD and no untracked files, so that
+     * only the files that changed need to be staged in the next write.
+     */
+    boolean workTreeMatchesHead;
+    /** Local commits that were written but not pushed yet, in the order they were created. */
+    final List<PendingPush> pendingPushes = new ArrayList<>();
+    /** Time since the oldest commit in {@code pendingPushes} was created. */
+    final Stopwatch pendingPushTime = Stopwatch.createUnstarted();
+    /** Effects of the commits that were pushed, but not returned by the writer yet. */
+    final List<DestinationEffect> pushedEffects = new ArrayList<>();
     final LazyResourceLoader<GitRepository> localRepo;
     final String localBranch;
 
@@ -192,6 +227,30 @@ public final class GitDestination implements Destination<GitRevision> {
     }
   }
 
+  /**
+   * A local commit that needs to be pushed to the destination.
+   */
+  static class PendingPush {
+
+    private final GitRevision commit;
+    private final String pushReference;
+    private final MessageInfo messageInfo;
+    private final List<? extends Change<?>> originChanges;
+
+    PendingPush(GitRevision commit, String pushReference, MessageInfo messageInfo,
+        List<? extends Change<?>> originChanges) {
+      this.commit = checkNotNull(commit);
+      this.pushReference = checkNotNull(pushReference);
+      this.messageInfo = checkNotNull(messageInfo);
+      this.originChanges = checkNotNull(originChanges);
+    }
+
+    /** Returns the same push for {@code commit}, that replaces this one after a rebase. */
+    PendingPush withCommit(GitRevision commit) {
+      return new PendingPush(commit, pushReference, messageInfo, originChanges);
+    }
+  }
+
   /**
    * A writer for git.*destination destinations. Note that this is not a public interface and
    * shouldn't be used directly.
@@ -221,8 +280,12 @@ public final class GitDestination implements Destination<GitRevision> {
     private final String committerName;
     private final String committerEmail;
     private final boolean rebase;
-    private final int visitChangePageSize;
     private final boolean gitTagOverwrite;
+    @Nullable private final Path labelIndexStorage;
+    private final int pushBatchSize;
+    private final Duration pushBatchTime;
+    /** Label indexes of the destination branch, by first-parent setting. */
+    private final Map<Boolean, DestinationLabelIndex> labelIndexes = new HashMap<>();
 
     /**
      * Create a new git.destination writer
@@ -232,8 +295,8 @@ public final class GitDestination implements Destination<GitRevision> {
         GeneralOptions generalOptions, WriteHook writeHook, S state,
         boolean nonFastForwardPush, Iterable<GitIntegrateChanges> integrates,
         boolean lastRevFirstParent, boolean ignoreIntegrationErrors, String localRepoPath,
-        String committerName, String committerEmail, boolean rebase, int visitChangePageSize,
-        boolean gitTagOverwrite) {
+        String committerName, String committerEmail, boolean rebase, boolean gitTagOverwrite,
+        @Nullable Path labelIndexStorage, int pushBatchSize, Duration pushBatchTime) {
       this.skipPush = skipPush;
       this.repoUrl = checkNotNull(repoUrl);
       this.remoteFetch = checkNotNull(remoteFetch);
@@ -254,8 +317,10 @@ public final class GitDestination implements Destination<GitRevision> {
       this.committerName = committerName;
       this.committerEmail = committerEmail;
       this.rebase = rebase;
-      this.visitChangePageSize = visitChangePageSize;
       this.gitTagOverwrite = gitTagOverwrite;
+      this.labelIndexStorage = labelIndexStorage;
+      this.pushBatchSize = pushBatchSize;
+      this.pushBatchTime = checkNotNull(pushBatchTime);
     }
 
     @Override
@@ -281,8 +346,7 @@ public final class GitDestination implements Destination<GitRevision> {
           visitor,
           queryChanges,
           generalOptions,
-          "destination",
-          visitChangePageSize);
+          "destination");
     }
 
     /**
@@ -319,20 +383,34 @@ public final class GitDestination implements Destination<GitRevision> {
 
       PathMatcher pathMatcher = destinationFiles.relativeTo(Paths.get(""));
       DestinationStatusVisitor visitor = new DestinationStatusVisitor(pathMatcher, labelName);
+      DestinationLabelIndex labelIndex = getLabelIndex(repo, startRef, lastRevFirstParent);
+      if (labelIndex != null) {
+        // Same changes as the 'git log --grep' below, but without reading the whole history.
+        ChangeReader changeReader = ChangeReader.Builder.forDestination(repo, baseConsole)
+            .setVerbose(generalOptions.isVerbose())
+            .setFirstParent(lastRevFirstParent)
+            .setLimit(1)
+            .build();
+        for (String commit : labelIndex.findChanges(labelName, ORIGIN_LABEL_SEPARATOR)) {
+          Change<GitRevision> change = Iterables.getOnlyElement(changeReader.run(commit));
+          if (visitor.visit(change) == VisitResult.TERMINATE) {
+            break;
+          }
+        }
+        return visitor.getDestinationStatus();
+      }
       ChangeReader.Builder changeReader =
           ChangeReader.Builder.forDestination(repo, baseConsole)
               .setVerbose(generalOptions.isVerbose())
               .setFirstParent(lastRevFirstParent)
               .grep("^" + labelName + ORIGIN_LABEL_SEPARATOR);
       try {
-        // Using same visitChangePageSize for now
         GitVisitorUtil.visitChanges(
             startRef,
             visitor,
             changeReader,
             generalOptions,
-            "get_destination_status",
-            visitChangePageSize);
+            "get_destination_status");
       } catch (CannotResolveRevisionException e) {
         // TODO: handle
         return null;
@@ -358,6 +436,45 @@ public final class GitDestination implements Destination<GitRevision> {
       }
     }
 
+    @Override
+    public Optional<LabelIndex> getLabelIndex() throws RepoException, ValidationException {
+      GitRepository repository = getRepository(baseConsole);
+      try {
+        fetchIfNeeded(repository, baseConsole);
+      } catch (ValidationException e) {
+        throw new CannotResolveRevisionException(
+            "Cannot visit changes because fetch failed. Does the destination branch exist?", e);
+      }
+      GitRevision startRef = getLocalBranchRevision(repository);
+      if (startRef == null) {
+        return Optional.empty();
+      }
+      // Same history as visitChanges, that doesn't use --first-parent
+      return Optional.ofNullable(getLabelIndex(repository, startRef, /*firstParent=*/ false));
+    }
+
+    /**
+     * Returns the label index of the destination branch, updated to {@code startRef}, or null if
+     * label indexes are disabled.
+     */
+    @Nullable
+    private DestinationLabelIndex getLabelIndex(GitRepository repo, GitRevision startRef,
+        boolean firstParent) throws RepoException {
+      if (labelIndexStorage == null) {
+        return null;
+      }
+      DestinationLabelIndex index = labelIndexes.get(firstParent);
+      if (index == null) {
+        index = DestinationLabelIndex.load(
+            labelIndexStorage, repoUrl, getCompleteRef(remoteFetch), repo, firstParent);
+        labelIndexes.put(firstParent, index);
+      }
+      try (ProfilerTask ignore = generalOptions.profiler().start("update_label_index")) {
+        index.update(startRef.getSha1());
+      }
+      return index;
+    }
+
     @Override
     public boolean supportsHistory() {
       return true;
@@ -405,6 +522,15 @@ public final class GitDestination implements Destination<GitRevision> {
       default ImmutableSetMultimap<String, String> describe() {
         return ImmutableSetMultimap.of();
       }
+
+      /**
+       * Returns true if the push of a commit can be delayed to push several commits together. In
+       * that case {@link #beforePush} is called when the commit is created, and {@link #afterPush}
+       * once it is pushed, possibly with a different SHA-1 if it had to be rebased.
+       */
+      default boolean canBatchPushes() {
+        return false;
+      }
     }
 
     /**
@@ -439,6 +565,11 @@ public final class GitDestination implements Destination<GitRevision> {
       public String getPushReference(String pushToRefsFor, TransformResult transformResult) {
         return pushToRefsFor;
       }
+
+      @Override
+      public boolean canBatchPushes() {
+        return true;
+      }
     }
 
     @Override
@@ -455,6 +586,10 @@ public final class GitDestination implements Destination<GitRevision> {
 
       console.progress("Git Destination: Checking out " + remoteFetch);
 
+      if (baseline != null) {
+        // The local branch is going to be moved to the baseline
+        pushPendingCommits(scratchClone, console);
+      }
       GitRevision localBranchRevision = getLocalBranchRevision(scratchClone);
       updateLocalBranchToBaseline(scratchClone, baseline);
 
@@ -475,29 +610,46 @@ public final class GitDestination implements Destination<GitRevision> {
           scratchClone.simpleCommand("symbolic-ref", "HEAD", getCompleteRef(state.localBranch));
         }
         state.firstWrite = false;
-      } else if (!skipPush) {
+      } else if (!skipPush && state.pendingPushes.isEmpty()) {
         // Should be a no-op, but an iterative migration could take several minutes between
-        // migrations so lets fetch the latest first.
+        // migrations so lets fetch the latest first. Not needed if the previous commit is still
+        // local, since it will be pushed together with this one.
         fetchFromRemote(console, scratchClone, repoUrl, remoteFetch);
       }
 
       PathMatcher pathMatcher = destinationFiles.relativeTo(scratchClone.getWorkTree());
-      // Get the submodules before we stage them for deletion with
-      // repo.simpleCommand(add --all)
-      AddExcludedFilesToIndex excludedAdder =
-          new AddExcludedFilesToIndex(scratchClone, pathMatcher);
-      excludedAdder.findSubmodules(console);
-
       GitRepository alternate = scratchClone.withWorkTree(transformResult.getPath());
 
-      console.progress("Git Destination: Adding all files");
-      try (ProfilerTask ignored = generalOptions.profiler().start("add_files")) {
-        alternate.add().force().all().run();
+      // Integrates and rebases need the changes in the transform work-tree, and a baseline moves
+      // HEAD without updating the scratch work-tree.
+      boolean stageChangedFiles = false;
+      AddChangedFilesToIndex changedAdder =
+          new AddChangedFilesToIndex(scratchClone, pathMatcher);
+      if (state.workTreeMatchesHead && baseline == null && Iterables.isEmpty(integrates)
+          && changedAdder.isSupported()) {
+        console.progress("Git Destination: Adding changed files");
+        try (ProfilerTask ignored = generalOptions.profiler().start("add_changed_files")) {
+          stageChangedFiles = changedAdder.add(transformResult.getPath());
+        }
       }
+      state.workTreeMatchesHead = false;
+
+      if (!stageChangedFiles) {
+        // Get the submodules before we stage them for deletion with
+        // repo.simpleCommand(add --all)
+        AddExcludedFilesToIndex excludedAdder =
+            new AddExcludedFilesToIndex(scratchClone, pathMatcher);
+        excludedAdder.findSubmodules(console);
+
+        console.progress("Git Destination: Adding all files");
+        try (ProfilerTask ignored = generalOptions.profiler().start("add_files")) {
+          alternate.add().force().all().run();
+        }
 
-      console.progress("Git Destination: Excluding files");
-      try (ProfilerTask ignored = generalOptions.profiler().start("exclude_files")) {
-        excludedAdder.add();
+        console.progress("Git Destination: Excluding files");
+        try (ProfilerTask ignored = generalOptions.profiler().start("exclude_files")) {
+          excludedAdder.add();
+        }
       }
 
       console.progress("Git Destination: Creating a local commit");
@@ -509,10 +661,25 @@ public final class GitDestination implements Destination<GitRevision> {
       }
 
       String commitMessage = msg.toString();
-      alternate.commit(
-          transformResult.getAuthor().toString(),
-          transformResult.getTimestamp(),
-          commitMessage);
+      if (stageChangedFiles) {
+        // The scratch work-tree already contains the changed files, and its index has the right
+        // stat information for the rest of the files.
+        try {
+          scratchClone.commit(
+              transformResult.getAuthor().toString(),
+              transformResult.getTimestamp(),
+              commitMessage);
+        } catch (EmptyChangeException e) {
+          // Nothing was staged, so the work-tree still matches HEAD
+          state.workTreeMatchesHead = true;
+          throw e;
+        }
+      } else {
+        alternate.commit(
+            transformResult.getAuthor().toString(),
+            transformResult.getTimestamp(),
+            commitMessage);
+      }
 
       // Don't remove. Used internally in test
       console.verboseFmt("Integrates for %s: %s", repoUrl, Iterables.size(integrates));
@@ -523,12 +690,15 @@ public final class GitDestination implements Destination<GitRevision> {
             transformResult, ignoreIntegrationErrors);
       }
 
-      // Don't leave unstaged/untracked files in the work-tree. This is a problem for rebase
-      // and in general any inspection of the directory after Copybara execution.
-      // Clean unstaged:
-      scratchClone.simpleCommand("reset", "--hard");
-      // ...and untracked ones:
-      scratchClone.forceClean();
+      if (!stageChangedFiles) {
+        // Don't leave unstaged/untracked files in the work-tree. This is a problem for rebase
+        // and in general any inspection of the directory after Copybara execution.
+        // Clean unstaged:
+        scratchClone.simpleCommand("reset", "--hard");
+        // ...and untracked ones:
+        scratchClone.forceClean();
+      }
+      state.workTreeMatchesHead = true;
 
       GitRevision afterRebaseRev = null;
       if (baseline != null && rebase) {
@@ -545,6 +715,7 @@ public final class GitDestination implements Destination<GitRevision> {
         alternate.simpleCommand("reset", "--hard");
         alternate.rebase(localBranchRevision.getSha1());
         afterRebaseRev = alternate.resolveReference("HEAD");
+        state.workTreeMatchesHead = false;
         if (afterRebaseRev.getSha1().equals(localBranchRevision.getSha1())) {
           throw new EmptyChangeException("Empty change after rebase. The only affected"
               + " paths were already applied in main branch. This usually happens if"
@@ -598,11 +769,27 @@ public final class GitDestination implements Destination<GitRevision> {
                 new DestinationEffect.DestinationRef(head.getSha1(), "commit", /*url=*/ null)));
       }
       String push = writeHook.getPushReference(getCompleteRef(remotePush), transformResult);
-      console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, push));
       checkCondition(!nonFastForwardPush
           || !Objects.equals(remoteFetch, remotePush), "non fast-forward push is only"
           + " allowed when fetch != push");
 
+      if (tagName == null && baseline == null && pushBatchSize > 1) {
+        if (state.pendingPushes.isEmpty()) {
+          state.pendingPushTime.reset().start();
+        }
+        state.pendingPushes.add(new PendingPush(head, push, messageInfo, originChanges));
+        if (state.pendingPushes.size() < pushBatchSize
+            && state.pendingPushTime.elapsed(TimeUnit.MILLISECONDS) < pushBatchTime.toMillis()) {
+          console.verboseFmt("Git Destination: Delaying the push of %s", head.getSha1());
+        } else {
+          pushPendingCommits(scratchClone, console);
+        }
+        // Empty if the commit is still local. Its effect is returned once it is pushed.
+        return takePushedEffects();
+      }
+
+      console.progress(String.format("Git Destination: Pushing to %s %s", repoUrl, push));
+
       String serverResponse = generalOptions.repoTask(
           "push",
           () -> scratchClone.push()
@@ -616,7 +803,137 @@ public final class GitDestination implements Destination<GitRevision> {
                   (nonFastForwardPush ? "+" : "") + "HEAD:" + push)))
               .run()
       );
-      return writeHook.afterPush(serverResponse, messageInfo, head, originChanges);
+      // HEAD contains the commits that were not pushed yet
+      for (PendingPush commit : state.pendingPushes) {
+        state.pushedEffects.addAll(writeHook.afterPush(
+            serverResponse, commit.messageInfo, commit.commit, commit.originChanges));
+      }
+      state.pendingPushes.clear();
+      state.pushedEffects.addAll(
+          writeHook.afterPush(serverResponse, messageInfo, head, originChanges));
+      return takePushedEffects();
+    }
+
+    @Override
+    public ImmutableList<DestinationEffect> flush(Console console)
+        throws ValidationException, RepoException {
+      if (!state.pendingPushes.isEmpty()) {
+        pushPendingCommits(getRepository(console), console);
+      }
+      return takePushedEffects();
+    }
+
+    @Override
+    public boolean hasPendingChanges() {
+      return !state.pendingPushes.isEmpty();
+    }
+
+    private ImmutableList<DestinationEffect> takePushedEffects() {
+      ImmutableList<DestinationEffect> effects = ImmutableList.copyOf(state.pushedEffects);
+      state.pushedEffects.clear();
+      return effects;
+    }
+
+    /**
+     * Pushes the local commits that were not pushed yet as a single fast-forward, and records
+     * their effects. If that fails, for example because the destination changed, they are rebased
+     * on the destination and pushed one by one, so that the error is reported for the commit that
+     * cannot be pushed.
+     */
+    private void pushPendingCommits(GitRepository repo, Console console)
+        throws ValidationException, RepoException {
+      if (state.pendingPushes.isEmpty()) {
+        return;
+      }
+      ImmutableList<PendingPush> pending = ImmutableList.copyOf(state.pendingPushes);
+      state.pendingPushes.clear();
+      PendingPush last = Iterables.getLast(pending);
+      console.progressFmt("Git Destination: Pushing %d commit(s) to %s %s", pending.size(),
+          repoUrl, last.pushReference);
+      try {
+        String serverResponse = pushCommit(repo, last);
+        for (PendingPush commit : pending) {
+          recordPushed(commit, serverResponse);
+        }
+        return;
+      } catch (RepoException e) {
+        console.warnFmt("Git Destination: Cannot push %d commit(s), rebasing them and pushing them"
+            + " one by one: %s", pending.size(), e.getMessage());
+      }
+      for (PendingPush commit : rebaseOnDestination(repo, console, pending)) {
+        console.progressFmt("Git Destination: Pushing %s to %s %s", commit.commit.getSha1(),
+            repoUrl, commit.pushReference);
+        String serverResponse;
+        try {
+          serverResponse = pushCommit(repo, commit);
+        } catch (RepoException e) {
+          throw new RepoException(String.format(
+              "Cannot push commit %s for origin change(s) %s",
+              commit.commit.getSha1(), originRefs(commit)), e);
+        }
+        recordPushed(commit, serverResponse);
+      }
+    }
+
+    /**
+     * Rebases the {@code pending} commits on the current state of the destination, like the
+     * unbatched writes that fetch before creating their commit. Returns the rebased commits.
+     */
+    private ImmutableList<PendingPush> rebaseOnDestination(GitRepository repo, Console console,
+        ImmutableList<PendingPush> pending) throws ValidationException, RepoException {
+      GitRevision remote = fetchFromRemote(console, repo, repoUrl, remoteFetch);
+      if (remote == null) {
+        return pending;
+      }
+      console.progressFmt("Git Destination: Rebasing %d commit(s) on %s", pending.size(),
+          remote.getSha1());
+      // The rebase updates the scratch work tree, so it cannot have changes
+      repo.simpleCommand("reset", "--hard");
+      repo.forceClean();
+      try {
+        repo.rebase(remote.getSha1());
+      } catch (RebaseConflictException e) {
+        repo.simpleCommand("rebase", "--abort");
+        throw new RebaseConflictException(String.format(
+            "Cannot rebase the commits for origin change(s) %s on the destination: %s",
+            pending.stream().flatMap(c -> originRefs(c).stream()).collect(Collectors.toList()),
+            e.getMessage()));
+      }
+      state.workTreeMatchesHead = true;
+      List<String> rebased = Splitter.on('\n').omitEmptyStrings().splitToList(repo.simpleCommand(
+          "rev-list", "--reverse", remote.getSha1() + "..HEAD").getStdout());
+      // A commit whose change is already in the destination is dropped by the rebase
+      if (rebased.size() != pending.size()) {
+        throw new RepoException(String.format(
+            "Rebasing %d commit(s) on the destination resulted in %d commit(s). Cannot match the"
+                + " rebased commits with their origin changes.", pending.size(), rebased.size()));
+      }
+      ImmutableList.Builder<PendingPush> result = ImmutableList.builder();
+      for (int i = 0; i < pending.size(); i++) {
+        result.add(pending.get(i).withCommit(repo.resolveReference(rebased.get(i))));
+      }
+      return result.build();
+    }
+
+    private void recordPushed(PendingPush commit, String serverResponse)
+        throws ValidationException, RepoException {
+      state.pushedEffects.addAll(writeHook.afterPush(
+          serverResponse, commit.messageInfo, commit.commit, commit.originChanges));
+    }
+
+    private static List<String> originRefs(PendingPush commit) {
+      return commit.originChanges.stream().map(Change::getRef).collect(Collectors.toList());
+    }
+
+    private String pushCommit(GitRepository repo, PendingPush commit)
+        throws ValidationException, RepoException {
+      return generalOptions.repoTask(
+          "push",
+          () -> repo.push()
+              .withRefspecs(repoUrl, ImmutableList.of(repo.createRefSpec(
+                  (nonFastForwardPush ? "+" : "")
+                      + commit.commit.getSha1() + ":" + commit.pushReference)))
+              .run());
     }
 
     @Nullable
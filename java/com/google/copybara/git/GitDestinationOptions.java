@@ -25,10 +25,12 @@ import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.exception.RepoException;
+import com.google.copybara.jcommander.DurationConverter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.UUID;
 import java.util.stream.Stream;
 import javax.annotation.Nullable;
@@ -97,6 +99,19 @@ public final class GitDestinationOptions implements Option {
           + " used with different push != fetch references.")
   boolean nonFastForwardPush = false;
 
+  @Parameter(names = "--git-destination-push-batch-size",
+      description = "Keep up to this number of commits locally and push them together to the"
+          + " destination, instead of pushing after every commit of an ITERATIVE migration. If"
+          + " pushing them together fails, they are rebased on the destination and pushed one by"
+          + " one. The effects of a commit are reported once it is pushed. 1 disables it.")
+  public int pushBatchSize = 1;
+
+  @Parameter(names = "--git-destination-push-batch-time",
+      description = "Maximum time that a commit is kept locally when"
+          + " --git-destination-push-batch-size is used. Examples: 30s, 5m",
+      converter = DurationConverter.class)
+  public Duration pushBatchTime = Duration.ofMinutes(5);
+
   @Parameter(names = "--git-destination-ignore-integration-errors",
       description = "If an integration error occurs, ignore it and continue without the integrate")
   boolean ignoreIntegrationErrors = false;
@@ -21,6 +21,8 @@ import com.google.api.client.http.HttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.LazyResourceLoader;
 import com.google.copybara.Option;
@@ -28,12 +30,18 @@ import com.google.copybara.checks.ApiChecker;
 import com.google.copybara.checks.Checker;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.github.api.CredentialCache;
 import com.google.copybara.git.github.api.GitHubApi;
+import com.google.copybara.git.github.api.GitHubApiResponseCache;
 import com.google.copybara.git.github.api.GitHubApiTransport;
 import com.google.copybara.git.github.api.GitHubApiTransportImpl;
 import com.google.copybara.git.github.api.GitHubApiTransportWithChecker;
 import com.google.copybara.git.github.util.GitHubHost;
+import com.google.copybara.http.RequestScheduler;
+import com.google.copybara.jcommander.DurationConverter;
 import com.google.copybara.util.console.Console;
+import java.io.IOException;
+import java.time.Duration;
 import javax.annotation.Nullable;
 
 /**
@@ -88,6 +96,30 @@ public class GitHubOptions implements Option {
     return new GitHubApi(transport, generalOptions.profiler());
   }
 
+  @Parameter(names = "--github-credentials-cache-expiry",
+      description = "How long the GitHub credentials returned by the git credential helper are"
+          + " reused for API requests before asking the helper again. 0s disables the cache.",
+      converter = DurationConverter.class, hidden = true)
+  Duration credentialsCacheExpiry = Duration.ofMinutes(5);
+
+  private final Supplier<CredentialCache> credentialCache =
+      Suppliers.memoize(() -> new CredentialCache(credentialsCacheExpiry));
+
+  private final Supplier<RequestScheduler> requestScheduler = Suppliers.memoize(
+      () -> RequestScheduler.create(generalOptions.profiler(), generalOptions.eventMonitors()));
+
+  @Nullable private GitHubApiResponseCache responseCache;
+
+  @Parameter(names = "--nogithub-api-response-cache",
+      description = "By default Copybara caches GitHub API GET responses on disk and revalidates"
+          + " them with conditional requests, that don't count against the GitHub rate limit."
+          + " This disables the cache.")
+  boolean noGitHubApiResponseCache = false;
+
+  @Parameter(names = "--github-api-response-cache-size",
+      description = "Maximum number of GitHub API responses kept in the cache", hidden = true)
+  int gitHubApiResponseCacheSize = 10000;
+
   @Parameter(names = "--github-destination-delete-pr-branch",
       description = "Overwrite git.github_destination delete_pr_branch field", arity = 1)
   Boolean gitHubDeletePrBranch = null;
@@ -103,8 +135,27 @@ public class GitHubOptions implements Option {
   }
 
   private GitHubApiTransport newTransport(
-      GitRepository repo, String storePath, Console console) {
-    return new GitHubApiTransportImpl(repo, newHttpTransport(), storePath, console);
+      GitRepository repo, String storePath, Console console) throws RepoException {
+    return new GitHubApiTransportImpl(repo, newHttpTransport(), storePath, console,
+        credentialCache.get(), responseCache(), requestScheduler.get());
+  }
+
+  @Nullable
+  private synchronized GitHubApiResponseCache responseCache() throws RepoException {
+    if (noGitHubApiResponseCache) {
+      return null;
+    }
+    // One instance for all the transports, since it counts the entries in memory
+    if (responseCache == null) {
+      try {
+        responseCache = new GitHubApiResponseCache(
+            generalOptions.getDirFactory().getCacheDir("github_api_responses"),
+            gitHubApiResponseCacheSize);
+      } catch (IOException e) {
+        throw new RepoException("Cannot create the GitHub API response cache", e);
+      }
+    }
+    return responseCache;
   }
 
   protected HttpTransport newHttpTransport() {
@@ -33,6 +33,10 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.copybara.BaselinesWithoutLabelVisitor;
 import com.google.copybara.Change;
@@ -48,6 +52,7 @@ import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitOrigin.ReaderImpl;
 import com.google.copybara.git.GitOrigin.SubmoduleStrategy;
 import com.google.copybara.git.GitRepository.GitLogEntry;
+import com.google.copybara.git.github.api.AsyncGitHubApi;
 import com.google.copybara.git.github.api.AuthorAssociation;
 import com.google.copybara.git.github.api.CheckRun;
 import com.google.copybara.git.github.api.CheckRuns;
@@ -68,12 +73,15 @@ import com.google.copybara.transform.patch.PatchTransformation;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.stream.Collectors;
@@ -85,6 +93,8 @@ import javax.annotation.Nullable;
 public class GitHubPROrigin implements Origin<GitRevision> {
 
   static final int RETRY_COUNT = 3;
+  // The PR checks do at most four GitHub API requests, and there is also the git fetch
+  private static final int CONCURRENT_REQUESTS = 5;
 
   public static final String GITHUB_PR_NUMBER_LABEL = "GITHUB_PR_NUMBER";
   public static final String GITHUB_BASE_BRANCH = "GITHUB_BASE_BRANCH";
@@ -268,46 +278,39 @@ public class GitHubPROrigin implements Origin<GitRevision> {
   private GitRevision getRevisionForPR(String project, PullRequest prData)
       throws RepoException, ValidationException {
     GitHubApi api = gitHubOptions.newGitHubApi(project);
+    ListeningExecutorService executor = MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(CONCURRENT_REQUESTS,
+            new ThreadFactoryBuilder().setNameFormat("github-pr-origin-%d").setDaemon(true)
+                .build()));
+    try {
+      return getRevisionForPR(project, prData, api, executor);
+    } finally {
+      // The requests and the fetch that are still running are cancelled by
+      // getRevisionForPR, so there is nothing to wait for.
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Resolves the revision for the PR. The checks that only need the PR data are done first, so
+   * that rejected PRs are not fetched. The GitHub API requests needed for the other checks are
+   * independent, so they are done concurrently and at the same time as the git fetch. Their
+   * results are checked in order, so the first failing check is the one reported, and the
+   * outstanding requests and the fetch are cancelled if one fails.
+   */
+  private GitRevision getRevisionForPR(String project, PullRequest prData, GitHubApi api,
+      ListeningExecutorService executor) throws RepoException, ValidationException {
+    AsyncGitHubApi asyncApi = new AsyncGitHubApi(api, executor);
     Set<String> requiredLabels = gitHubPrOriginOptions.getRequiredLabels(requiredLabelsField);
     Set<String> retryableLabels = gitHubPrOriginOptions.getRetryableLabels(retryableLabelsField);
     int prNumber = (int)prData.getNumber();
+    String headSha = prData.getHead().getSha();
+    boolean checkLabels = !gitHubPrOriginOptions.forceImport && !requiredLabels.isEmpty();
+    boolean checkStatuses =
+        !gitHubPrOriginOptions.forceImport && !requiredStatusContextNames.isEmpty();
+    boolean checkCheckRuns = !gitHubPrOriginOptions.forceImport && !requiredCheckRuns.isEmpty();
 
-    if (!gitHubPrOriginOptions.forceImport && !requiredLabels.isEmpty()) {
-      int retryCount = 0;
-      Set<String> requiredButNotPresent;
-      do {
-        Issue issue;
-        try (ProfilerTask ignore = generalOptions.profiler().start("github_api_get_issue")) {
-          issue = api.getIssue(project, prNumber);
-        }
-
-        requiredButNotPresent = Sets.newHashSet(requiredLabels);
-        requiredButNotPresent.removeAll(Collections2.transform(issue.getLabels(), Label::getName));
-        // If we got all the labels we want or none of the ones we didn't get are retryable, return.
-        if (requiredButNotPresent.isEmpty()
-            || Collections.disjoint(requiredButNotPresent, retryableLabels)) {
-          break;
-        }
-        Uninterruptibles.sleepUninterruptibly(2, TimeUnit.SECONDS);
-        retryCount++;
-      } while (retryCount < RETRY_COUNT);
-      if (!requiredButNotPresent.isEmpty()) {
-        throw new EmptyChangeException(String.format(
-            "Cannot migrate http://github.com/%s/pull/%d because it is missing the following"
-                + " labels: %s",
-            project,
-            prNumber,
-            requiredButNotPresent));
-      }
-    }
-
-    ImmutableListMultimap.Builder<String, String> labels = ImmutableListMultimap.builder();
-
-    // check if status context names are ready if applicable
-    checkRequiredStatusContextNames(api, project, prData);
-
-    // check if check runs are ready if applicable
-    checkRequiredCheckRuns(api, project, prData);
+    // These checks only need the PR data, so a PR rejected by them is not fetched.
     if (!gitHubPrOriginOptions.forceImport
         && branch != null && !Objects.equals(prData.getBase().getRef(), branch)) {
       throw new EmptyChangeException(String.format(
@@ -318,28 +321,6 @@ public class GitHubPROrigin implements Origin<GitRevision> {
           prData.getBase().getRef(),
           branch));
     }
-    if (reviewState != null) {
-      ImmutableList<Review> reviews = api.getReviews(project, prNumber);
-      if (!gitHubPrOriginOptions.forceImport
-          && !reviewState.shouldMigrate(reviews, reviewApprovers, prData.getHead().getSha())) {
-        throw new EmptyChangeException(String.format(
-            "Cannot migrate http://github.com/%s/pull/%d because it is missing the required"
-                + " approvals (origin is configured as %s)",
-            project, prNumber, reviewState));
-      }
-      Set<String> approvers = new HashSet<>();
-      Set<String> others = new HashSet<>();
-      for (Review review : reviews) {
-        if (reviewApprovers.contains(review.getAuthorAssociation())) {
-          approvers.add(review.getUser().getLogin());
-        } else {
-          others.add(review.getUser().getLogin());
-        }
-      }
-      labels.putAll(GITHUB_PR_REVIEWER_APPROVER, approvers);
-      labels.putAll(GITHUB_PR_REVIEWER_OTHER, others);
-    }
-
     if (!gitHubPrOriginOptions.forceImport
         && requiredState == StateFilter.OPEN && !prData.isOpen()) {
       throw new EmptyChangeException(String.format("Pull Request %d is not open", prNumber));
@@ -350,35 +331,105 @@ public class GitHubPROrigin implements Origin<GitRevision> {
       throw new EmptyChangeException(String.format("Pull Request %d is open", prNumber));
     }
 
+    ListenableFuture<Issue> firstIssue =
+        checkLabels ? asyncApi.getIssue(project, prNumber) : null;
+    ListenableFuture<CombinedStatus> combinedStatus =
+        checkStatuses ? asyncApi.getCombinedStatus(project, headSha) : null;
+    ListenableFuture<CheckRuns> checkRuns =
+        checkCheckRuns ? asyncApi.getCheckRuns(project, headSha) : null;
+    ListenableFuture<ImmutableList<Review>> reviewsFuture =
+        reviewState != null ? asyncApi.getReviews(project, prNumber) : null;
     // Fetch also the baseline branch. It is almost free and doing a roundtrip later would hurt
     // latency.
     console.progressFmt("Fetching Pull Request %d and branch '%s'",
         prNumber, prData.getBase().getRef());
-    try(ProfilerTask ignore = generalOptions.profiler().start("fetch")) {
-      ImmutableList.Builder<String> refSpecBuilder = ImmutableList.<String>builder()
-          .add(String.format("%s:%s", asHeadRef(prNumber), LOCAL_PR_HEAD_REF))
-          // Prefix the branch name with 'refs/heads/' since some implementations of
-          // GitRepository need the whole reference name.
-          .add(String.format("refs/heads/%s:" + LOCAL_PR_BASE_BRANCH, prData.getBase().getRef()));
-      if (useMerge) {
-        refSpecBuilder.add(String.format("%s:%s", asMergeRef(prNumber), LOCAL_PR_MERGE_REF));
+    GitRepository repository = getRepository();
+    ListenableFuture<?> fetch = executor.submit(() -> {
+      fetchPr(repository, project, prNumber, prData);
+      return null;
+    });
+    List<ListenableFuture<?>> pending = new ArrayList<>();
+    for (ListenableFuture<?> future :
+        Arrays.asList(firstIssue, combinedStatus, checkRuns, reviewsFuture, fetch)) {
+      if (future != null) {
+        pending.add(future);
       }
-      ImmutableList<String> refspec = refSpecBuilder.build();
-      getRepository()
-          .fetch(
-              ghHost.projectAsUrl(project),
-              /*prune=*/ false,
-              /*force=*/ true,
-              refspec,
-              partialFetch);
-    } catch (CannotResolveRevisionException e) {
-      if (useMerge) {
-        throw new CannotResolveRevisionException(
-            String.format("Cannot find a merge reference for Pull Request %d."
-                + " It might have a conflict with head.", prNumber), e);
-      } else {
-        throw new CannotResolveRevisionException(
-            String.format("Cannot find Pull Request %d.", prNumber), e);
+    }
+
+    ImmutableListMultimap.Builder<String, String> labels = ImmutableListMultimap.builder();
+
+    try {
+      if (checkLabels) {
+        int retryCount = 0;
+        Set<String> requiredButNotPresent;
+        do {
+          // GitHubApi already profiles the request, wherever it runs
+          Issue issue = retryCount == 0
+              ? AsyncGitHubApi.getResult(firstIssue)
+              : api.getIssue(project, prNumber);
+
+          requiredButNotPresent = Sets.newHashSet(requiredLabels);
+          requiredButNotPresent.removeAll(
+              Collections2.transform(issue.getLabels(), Label::getName));
+          // If we got all the labels we want or none of the ones we didn't get are retryable,
+          // return.
+          if (requiredButNotPresent.isEmpty()
+              || Collections.disjoint(requiredButNotPresent, retryableLabels)) {
+            break;
+          }
+          Uninterruptibles.sleepUninterruptibly(2, TimeUnit.SECONDS);
+          retryCount++;
+        } while (retryCount < RETRY_COUNT);
+        if (!requiredButNotPresent.isEmpty()) {
+          throw new EmptyChangeException(String.format(
+              "Cannot migrate http://github.com/%s/pull/%d because it is missing the following"
+                  + " labels: %s",
+              project,
+              prNumber,
+              requiredButNotPresent));
+        }
+      }
+
+      // check if status context names are ready if applicable
+      if (checkStatuses) {
+        checkRequiredStatusContextNames(combinedStatus, project, prData);
+      }
+
+      // check if check runs are ready if applicable
+      if (checkCheckRuns) {
+        checkRequiredCheckRuns(checkRuns, project, prData);
+      }
+      if (reviewState != null) {
+        ImmutableList<Review> reviews = AsyncGitHubApi.getResult(reviewsFuture);
+        if (!gitHubPrOriginOptions.forceImport
+            && !reviewState.shouldMigrate(reviews, reviewApprovers, prData.getHead().getSha())) {
+          throw new EmptyChangeException(String.format(
+              "Cannot migrate http://github.com/%s/pull/%d because it is missing the required"
+                  + " approvals (origin is configured as %s)",
+              project, prNumber, reviewState));
+        }
+        Set<String> approvers = new HashSet<>();
+        Set<String> others = new HashSet<>();
+        for (Review review : reviews) {
+          if (reviewApprovers.contains(review.getAuthorAssociation())) {
+            approvers.add(review.getUser().getLogin());
+          } else {
+            others.add(review.getUser().getLogin());
+          }
+        }
+        labels.putAll(GITHUB_PR_REVIEWER_APPROVER, approvers);
+        labels.putAll(GITHUB_PR_REVIEWER_OTHER, others);
+      }
+
+      // Only the time spent waiting for the fetch, since the checks above run meanwhile
+      try (ProfilerTask ignore = generalOptions.profiler().start("fetch")) {
+        AsyncGitHubApi.getResult(fetch);
+      }
+    } finally {
+      // Don't keep requesting or fetching a PR that is not going to be migrated. No-op for the
+      // ones that are done.
+      for (ListenableFuture<?> future : pending) {
+        future.cancel(/*mayInterruptIfRunning=*/ true);
       }
     }
 
@@ -424,14 +475,42 @@ public class GitHubPROrigin implements Origin<GitRevision> {
     return describeVersion ? getRepository().addDescribeVersion(result) : result;
   }
 
-  private void checkRequiredCheckRuns(GitHubApi api, String project, PullRequest prData)
-      throws ValidationException, RepoException {
-    if (gitHubPrOriginOptions.forceImport || requiredCheckRuns.isEmpty()) {
-      return;
+  private void fetchPr(GitRepository repository, String project, int prNumber,
+      PullRequest prData) throws RepoException, ValidationException {
+    try {
+      ImmutableList.Builder<String> refSpecBuilder = ImmutableList.<String>builder()
+          .add(String.format("%s:%s", asHeadRef(prNumber), LOCAL_PR_HEAD_REF))
+          // Prefix the branch name with 'refs/heads/' since some implementations of
+          // GitRepository need the whole reference name.
+          .add(String.format("refs/heads/%s:" + LOCAL_PR_BASE_BRANCH, prData.getBase().getRef()));
+      if (useMerge) {
+        refSpecBuilder.add(String.format("%s:%s", asMergeRef(prNumber), LOCAL_PR_MERGE_REF));
+      }
+      ImmutableList<String> refspec = refSpecBuilder.build();
+      repository
+          .fetch(
+              ghHost.projectAsUrl(project),
+              /*prune=*/ false,
+              /*force=*/ true,
+              refspec,
+              partialFetch);
+    } catch (CannotResolveRevisionException e) {
+      if (useMerge) {
+        throw new CannotResolveRevisionException(
+            String.format("Cannot find a merge reference for Pull Request %d."
+                + " It might have a conflict with head.", prNumber), e);
+      } else {
+        throw new CannotResolveRevisionException(
+            String.format("Cannot find Pull Request %d.", prNumber), e);
+      }
     }
+  }
+
+  private void checkRequiredCheckRuns(ListenableFuture<CheckRuns> checkRunsFuture, String project,
+      PullRequest prData) throws ValidationException, RepoException {
     try (ProfilerTask ignore = generalOptions.profiler()
         .start("github_api_get_combined_status")) {
-      CheckRuns checkRuns = api.getCheckRuns(project, prData.getHead().getSha());
+      CheckRuns checkRuns = AsyncGitHubApi.getResult(checkRunsFuture);
       Set<String> requiredButNotPresent = Sets.newHashSet(requiredCheckRuns);
       List<CheckRun> passedCheckRuns = checkRuns.getCheckRuns().stream()
           .filter(e -> e.getConclusion().equals("success")).collect(Collectors.toList());
@@ -448,14 +527,12 @@ public class GitHubPROrigin implements Origin<GitRevision> {
     }
   }
 
-  private void checkRequiredStatusContextNames(GitHubApi api, String project, PullRequest prData)
+  private void checkRequiredStatusContextNames(
+      ListenableFuture<CombinedStatus> combinedStatusFuture, String project, PullRequest prData)
       throws ValidationException, RepoException {
-    if (gitHubPrOriginOptions.forceImport || requiredStatusContextNames.isEmpty()) {
-      return;
-    }
     try (ProfilerTask ignore = generalOptions.profiler()
         .start("github_api_get_combined_status")) {
-      CombinedStatus combinedStatus = api.getCombinedStatus(project, prData.getHead().getSha());
+      CombinedStatus combinedStatus = AsyncGitHubApi.getResult(combinedStatusFuture);
       Set<String> requiredButNotPresent = Sets.newHashSet(requiredStatusContextNames);
       List<Status> successStatuses = combinedStatus.getStatuses().stream()
           .filter(e -> e.getState() == State.SUCCESS).collect(Collectors.toList());
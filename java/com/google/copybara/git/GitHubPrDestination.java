@@ -44,6 +44,7 @@ import com.google.copybara.git.GitDestination.WriterState;
 import com.google.copybara.git.github.api.CreatePullRequest;
 import com.google.copybara.git.github.api.GitHubApi;
 import com.google.copybara.git.github.api.GitHubApi.PullRequestListParams;
+import com.google.copybara.git.github.api.PageIterator;
 import com.google.copybara.git.github.api.PullRequest;
 import com.google.copybara.git.github.api.UpdatePullRequest;
 import com.google.copybara.git.github.util.GitHubHost;
@@ -54,6 +55,7 @@ import com.google.copybara.util.Glob;
 import com.google.copybara.util.Identity;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.UUID;
 import javax.annotation.Nullable;
 
@@ -174,8 +176,10 @@ public class GitHubPrDestination implements Destination<GitRevision> {
         destinationOptions.committerName,
         destinationOptions.committerEmail,
         destinationOptions.rebaseWhenBaseline(),
-        gitOptions.visitChangePageSize,
-        gitOptions.gitTagOverwrite) {
+        gitOptions.gitTagOverwrite,
+        GitDestination.labelIndexStorage(gitOptions),
+        /*pushBatchSize=*/ 1,
+        /*pushBatchTime=*/ Duration.ZERO) {
       @Override
       public ImmutableList<DestinationEffect> write(
           TransformResult transformResult, Glob destinationFiles, Console console)
@@ -198,12 +202,6 @@ public class GitHubPrDestination implements Destination<GitRevision> {
 
         GitHubApi api = gitHubOptions.newGitHubApi(getProjectName());
 
-        ImmutableList<PullRequest> pullRequests =
-            api.getPullRequests(
-                getProjectName(),
-                PullRequestListParams.DEFAULT.withHead(
-                    String.format("%s:%s", ghHost.getUserNameFromUrl(url), prBranch)));
-
         ChangeMessage msg = ChangeMessage.parseMessage(transformResult.getSummary().trim());
 
         String title =
@@ -218,44 +216,52 @@ public class GitHubPrDestination implements Destination<GitRevision> {
                 : SkylarkUtil.mapLabels(
                     transformResult.getLabelFinder(), GitHubPrDestination.this.body, "body");
 
-        for (PullRequest pr : pullRequests) {
-          if (pr.getHead().getRef().equals(prBranch)) {
-            if (!pr.isOpen()) {
-              console.warnFmt(
-                  "Pull request for branch %s already exists as %s/pull/%s, but is closed - "
-                      + "reopening.",
-                  prBranch, asHttpsUrl(), pr.getNumber());
-              api.updatePullRequest(
-                  getProjectName(), pr.getNumber(), new UpdatePullRequest(null, null, OPEN));
-            } else {
-              console.infoFmt(
-                  "Pull request for branch %s already exists as %s/pull/%s",
-                  prBranch, asHttpsUrl(), pr.getNumber());
-            }
-            if (!pr.getBase().getRef().equals(destinationRef)) {
-              // TODO(malcon): Update PR or create a new one?
-              console.warnFmt(
-                  "Current base branch '%s' is different from the PR base branch '%s'",
-                  destinationRef, pr.getBase().getRef());
-            }
-            if (updateDescription) {
-              checkCondition(
-                  !Strings.isNullOrEmpty(title),
-                  "Pull Request title cannot be empty. Either use 'title' field in"
-                      + " git.github_pr_destination or modify the message to not be empty");
-              api.updatePullRequest(
-                  getProjectName(),
-                  pr.getNumber(),
-                  new UpdatePullRequest(title, prBody, /*state=*/ null));
+        // Stop fetching pages once the pull request for the branch is found
+        try (PageIterator<PullRequest> pullRequests =
+            api.iteratePullRequests(
+                getProjectName(),
+                PullRequestListParams.DEFAULT.withHead(
+                    String.format("%s:%s", ghHost.getUserNameFromUrl(url), prBranch)))) {
+          while (pullRequests.hasNext()) {
+            PullRequest pr = pullRequests.next();
+            if (pr.getHead().getRef().equals(prBranch)) {
+              if (!pr.isOpen()) {
+                console.warnFmt(
+                    "Pull request for branch %s already exists as %s/pull/%s, but is closed - "
+                        + "reopening.",
+                    prBranch, asHttpsUrl(), pr.getNumber());
+                api.updatePullRequest(
+                    getProjectName(), pr.getNumber(), new UpdatePullRequest(null, null, OPEN));
+              } else {
+                console.infoFmt(
+                    "Pull request for branch %s already exists as %s/pull/%s",
+                    prBranch, asHttpsUrl(), pr.getNumber());
+              }
+              if (!pr.getBase().getRef().equals(destinationRef)) {
+                // TODO(malcon): Update PR or create a new one?
+                console.warnFmt(
+                    "Current base branch '%s' is different from the PR base branch '%s'",
+                    destinationRef, pr.getBase().getRef());
+              }
+              if (updateDescription) {
+                checkCondition(
+                    !Strings.isNullOrEmpty(title),
+                    "Pull Request title cannot be empty. Either use 'title' field in"
+                        + " git.github_pr_destination or modify the message to not be empty");
+                api.updatePullRequest(
+                    getProjectName(),
+                    pr.getNumber(),
+                    new UpdatePullRequest(title, prBody, /*state=*/ null));
+              }
+              result.add(
+                  new DestinationEffect(
+                      DestinationEffect.Type.UPDATED,
+                      String.format("Pull Request %s updated", pr.getHtmlUrl()),
+                      transformResult.getChanges().getCurrent(),
+                      new DestinationEffect.DestinationRef(
+                          Long.toString(pr.getNumber()), "pull_request", pr.getHtmlUrl())));
+              return result.build();
             }
-            result.add(
-                new DestinationEffect(
-                    DestinationEffect.Type.UPDATED,
-                    String.format("Pull Request %s updated", pr.getHtmlUrl()),
-                    transformResult.getChanges().getCurrent(),
-                    new DestinationEffect.DestinationRef(
-                        Long.toString(pr.getNumber()), "pull_request", pr.getHtmlUrl())));
-            return result.build();
           }
         }
 
@@ -174,6 +174,12 @@ public class GitHubWriteHook extends DefaultWriteHook {
         : ImmutableSetMultimap.of("pr_branch_to_update", prBranchToUpdate);
   }
 
+  @Override
+  public boolean canBatchPushes() {
+    // The PR branches are updated and deleted based on the pushed commit
+    return prBranchToUpdate == null;
+  }
+
   private String getUpdatedPrBranch(Dict<String, String> labelDict) throws ValidationException {
     try {
       return GitHubUtil.getValidBranchName(
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.git.GitObjectReader.Mode;
+import com.google.copybara.git.GitObjectReader.ObjectInfo;
+import java.io.Closeable;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nullable;
+
+/**
+ * Object lookups for a repository, backed by pools of long-lived {@code git cat-file --batch} and
+ * {@code git cat-file --batch-check} processes.
+ *
+ * <p>Each process serves one request at a time, so concurrent lookups use up to {@code
+ * maxProcesses} processes of each kind. Processes are started on demand and kept for later
+ * lookups.
+ */
+final class GitObjectLookup implements Closeable {
+
+  private final Pool contents;
+  private final Pool checks;
+
+  /**
+   * Creates a new lookup.
+   *
+   * @param gitCommand the git binary and global flags, like {@code --git-dir}
+   */
+  GitObjectLookup(List<String> gitCommand, Map<String, String> environment, Path cwd,
+      int maxProcesses) {
+    checkArgument(maxProcesses > 0, "maxProcesses needs to be positive: %s", maxProcesses);
+    ImmutableList<String> command = ImmutableList.copyOf(gitCommand);
+    this.contents = new Pool(
+        () -> new GitObjectReader(command, Mode.BATCH, environment, cwd), maxProcesses);
+    this.checks = new Pool(
+        () -> new GitObjectReader(command, Mode.BATCH_CHECK, environment, cwd), maxProcesses);
+  }
+
+  /**
+   * Returns the information of {@code objectName}, like a SHA-1, {@code ref^{commit}} or {@code
+   * rev:path}, or null if it doesn't exist.
+   */
+  @Nullable
+  ObjectInfo lookup(String objectName) throws RepoException {
+    return checks.run(reader -> reader.read(objectName, /*out=*/ null));
+  }
+
+  /**
+   * Writes the content of {@code objectName} to {@code out}.
+   *
+   * @return the information of the object, or null if it doesn't exist, in which case nothing is
+   *     written
+   */
+  @Nullable
+  ObjectInfo copyTo(String objectName, OutputStream out) throws RepoException {
+    return contents.run(reader -> reader.read(objectName, out));
+  }
+
+  @Override
+  public void close() {
+    contents.close();
+    checks.close();
+  }
+
+  /** Returns the git processes that are currently running for this lookup. */
+  @VisibleForTesting
+  ImmutableList<Process> runningProcesses() {
+    ImmutableList.Builder<Process> result = ImmutableList.builder();
+    contents.addRunningProcesses(result);
+    checks.addRunningProcesses(result);
+    return result.build();
+  }
+
+  private interface ReaderFunction<T> {
+
+    T apply(GitObjectReader reader) throws RepoException;
+  }
+
+  private interface ReaderFactory {
+
+    GitObjectReader create();
+  }
+
+  private static final class Pool {
+
+    private final ReaderFactory factory;
+    private final Semaphore permits;
+    private final Deque<GitObjectReader> idle = new ArrayDeque<>();
+    private final List<GitObjectReader> all = new ArrayList<>();
+
+    private Pool(ReaderFactory factory, int maxProcesses) {
+      this.factory = factory;
+      this.permits = new Semaphore(maxProcesses);
+    }
+
+    private <T> T run(ReaderFunction<T> function) throws RepoException {
+      // Lookups are quick, so waiting for a reader is not interruptible.
+      permits.acquireUninterruptibly();
+      GitObjectReader reader = null;
+      try {
+        reader = borrow();
+        return function.apply(reader);
+      } finally {
+        if (reader != null) {
+          giveBack(reader);
+        }
+        permits.release();
+      }
+    }
+
+    private synchronized GitObjectReader borrow() {
+      GitObjectReader reader = idle.pollFirst();
+      if (reader == null) {
+        reader = factory.create();
+        all.add(reader);
+      }
+      return reader;
+    }
+
+    private synchronized void giveBack(GitObjectReader reader) {
+      idle.addFirst(reader);
+    }
+
+    private synchronized void close() {
+      for (GitObjectReader reader : all) {
+        reader.close();
+      }
+    }
+
+    private synchronized void addRunningProcesses(ImmutableList.Builder<Process> result) {
+      for (GitObjectReader reader : all) {
+        Process process = reader.getProcess();
+        if (process != null) {
+          result.add(process);
+        }
+      }
+    }
+  }
+}
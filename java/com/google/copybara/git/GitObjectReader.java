@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
+import com.google.copybara.exception.RepoException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Reads objects from a git repository using a long-lived {@code git cat-file --batch} or {@code
+ * git cat-file --batch-check} process, instead of forking a git process for each object.
+ *
+ * <p>The process is started on the first request and restarted if it dies. Requests are
+ * serialized. See {@link GitObjectLookup} for a pool of readers.
+ */
+final class GitObjectReader implements Closeable {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** What cat-file prints for each object. */
+  enum Mode {
+    /** The information and the content of the object. */
+    BATCH("--batch"),
+    /** Only the information of the object. */
+    BATCH_CHECK("--batch-check");
+
+    private final String flag;
+
+    Mode(String flag) {
+      this.flag = flag;
+    }
+  }
+
+  private final List<String> command;
+  private final Mode mode;
+  private final Map<String, String> environment;
+  private final Path cwd;
+
+  @Nullable private Process process;
+  @Nullable private OutputStream stdin;
+  @Nullable private InputStream stdout;
+
+  /**
+   * Creates a new reader.
+   *
+   * @param gitCommand the git binary and global flags, like {@code --git-dir}
+   */
+  GitObjectReader(List<String> gitCommand, Mode mode, Map<String, String> environment, Path cwd) {
+    this.command = ImmutableList.<String>builder()
+        .addAll(gitCommand)
+        .add("cat-file", mode.flag)
+        .build();
+    this.mode = checkNotNull(mode);
+    this.environment = checkNotNull(environment);
+    this.cwd = checkNotNull(cwd);
+  }
+
+  /**
+   * Returns true if the object names can be sent to {@code git cat-file}. Names with new lines,
+   * like a path with a new line, cannot.
+   */
+  static boolean canRead(String objectName) {
+    return !objectName.isEmpty() && objectName.indexOf('\n') == -1;
+  }
+
+  /**
+   * Looks up {@code objectName}, like {@code sha1} or {@code rev:path}, and in {@link Mode#BATCH}
+   * mode writes its content to {@code out}.
+   *
+   * @return the information of the object, or null if the object doesn't exist, in which case
+   *     nothing is written
+   */
+  @Nullable
+  synchronized ObjectInfo read(String objectName, @Nullable OutputStream out)
+      throws RepoException {
+    checkArgument(canRead(objectName), "Invalid object name: %s", objectName);
+    checkArgument(mode == Mode.BATCH || out == null, "Cannot read content in %s mode", mode);
+    try {
+      ensureStarted();
+      stdin.write((objectName + "\n").getBytes(UTF_8));
+      stdin.flush();
+      String header = readLine();
+      // The object name might contain spaces, so check the suffix instead of splitting
+      if (header.endsWith(" missing") || header.endsWith(" ambiguous")) {
+        return null;
+      }
+      // "<sha1> <type> <size>"
+      List<String> fields = Splitter.on(' ').splitToList(header);
+      if (fields.size() != 3) {
+        throw new IOException("Unexpected git cat-file header: " + header);
+      }
+      ObjectInfo info = new ObjectInfo(fields.get(0), fields.get(1), Long.parseLong(fields.get(2)));
+      if (mode == Mode.BATCH) {
+        copy(info.getSize(), out != null ? out : ByteStreams.nullOutputStream());
+        if (stdout.read() != '\n') {
+          throw new IOException("Missing new line after the content of " + objectName);
+        }
+      }
+      return info;
+    } catch (IOException | NumberFormatException e) {
+      // The state of the process is unknown, so it is not reused
+      close();
+      throw new RepoException("Error reading '" + objectName + "' with git cat-file", e);
+    }
+  }
+
+  private void ensureStarted() throws IOException {
+    if (process != null && process.isAlive()) {
+      return;
+    }
+    close();
+    ProcessBuilder builder = new ProcessBuilder(command).directory(cwd.toFile());
+    builder.environment().clear();
+    builder.environment().putAll(environment);
+    logger.atInfo().log("Starting %s", command);
+    process = builder.start();
+    stdin = new BufferedOutputStream(process.getOutputStream());
+    stdout = new BufferedInputStream(process.getInputStream());
+    drainStderr(process);
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = stdout.read()) != '\n') {
+      if (b == -1) {
+        throw new IOException("git cat-file exited unexpectedly");
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), UTF_8);
+  }
+
+  private void copy(long size, OutputStream out) throws IOException {
+    byte[] buffer = new byte[8192];
+    long remaining = size;
+    while (remaining > 0) {
+      int read = stdout.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read == -1) {
+        throw new IOException("git cat-file exited unexpectedly");
+      }
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+  /**
+   * Logs stderr, so that the process doesn't block if it fills the pipe.
+   */
+  private static void drainStderr(Process process) {
+    Thread thread = new Thread(() -> {
+      try (BufferedReader reader =
+          new BufferedReader(new InputStreamReader(process.getErrorStream(), UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          logger.atWarning().log("git cat-file: %s", line);
+        }
+      } catch (IOException e) {
+        logger.atFine().withCause(e).log("Cannot read git cat-file stderr");
+      }
+    }, "git-cat-file-stderr");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** The type, SHA-1 and size of a git object. */
+  static final class ObjectInfo {
+
+    private final String sha1;
+    private final String type;
+    private final long size;
+
+    private ObjectInfo(String sha1, String type, long size) {
+      this.sha1 = checkNotNull(sha1);
+      this.type = checkNotNull(type);
+      this.size = size;
+    }
+
+    String getSha1() {
+      return sha1;
+    }
+
+    /** The type of the object, like "blob", "tree" or "commit". */
+    String getType() {
+      return type;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("sha1", sha1)
+          .add("type", type)
+          .add("size", size)
+          .toString();
+    }
+  }
+
+  /** Returns the running {@code git cat-file} process, or null if it is not started. */
+  @VisibleForTesting
+  @Nullable
+  synchronized Process getProcess() {
+    return process;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (process == null) {
+      return;
+    }
+    try {
+      // cat-file exits when stdin is closed
+      stdin.close();
+    } catch (IOException e) {
+      logger.atFine().withCause(e).log("Cannot close git cat-file stdin");
+    }
+    process.destroy();
+    process = null;
+    stdin = null;
+    stdout = null;
+  }
+}
@@ -25,19 +25,26 @@ import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.jcommander.GreaterThanZeroValidator;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 
 /**
  * Common arguments for {@link GitDestination}, {@link GitOrigin}, and other Git components.
  */
 @Parameters(separators = "=")
-public class GitOptions implements Option {
+public class GitOptions implements Option, Closeable {
 
   private final GeneralOptions generalOptions;
   private String partialCacheFilePrefix;
+  /** Repositories created by these options, closed at the end of the execution. */
+  private final Set<GitRepository> openRepos;
 
   @Nullable
   public String getCredentialHelperStorePath() {
@@ -64,10 +71,18 @@ public class GitOptions implements Option {
   boolean noGitPrompt = false;
 
   @Parameter(names = "--git-visit-changes-page-size",
-      description = "Size of the git log page used for visiting changes.", hidden = true,
+      description = "DEPRECATED. No longer used. Changes are visited with a single 'git log' that"
+          + " is stopped once the visit is done.", hidden = true,
       validateWith = GreaterThanZeroValidator.class)
+  @Deprecated
   int visitChangePageSize = 200;
 
+  @Parameter(names = "--git-destination-label-index",
+      description = "Keep an index of the labels in the history of git destinations, next to the"
+          + " cached repositories, to find the last migrated change without reading the history"
+          + " on every run.", arity = 1, hidden = true)
+  boolean destinationLabelIndex = true;
+
   @Parameter(names = "--git-tag-overwrite",
       description = "If set, copybara will force update existing git tag")
   boolean gitTagOverwrite = false;
@@ -83,17 +98,31 @@ public class GitOptions implements Option {
 
   public GitOptions(GeneralOptions generalOptions) {
     this.generalOptions = Preconditions.checkNotNull(generalOptions);
+    this.openRepos = ConcurrentHashMap.newKeySet();
   }
 
-  private GitOptions(GeneralOptions generalOptions, @Nullable String partialCacheFilePrefix) {
+  private GitOptions(GeneralOptions generalOptions, @Nullable String partialCacheFilePrefix,
+      Set<GitRepository> openRepos) {
     this.generalOptions = Preconditions.checkNotNull(generalOptions);
     this.partialCacheFilePrefix = partialCacheFilePrefix;
+    this.openRepos = openRepos;
   }
 
   public Path getRepoStorage() throws IOException {
     return generalOptions.getDirFactory().getCacheDir("git_repos");
   }
 
+  /**
+   * Returns the directory for the label indexes of git destinations, or null if they are
+   * disabled.
+   */
+  @Nullable
+  Path getDestinationLabelIndexStorage() throws IOException {
+    return destinationLabelIndex
+        ? generalOptions.getDirFactory().getCacheDir("git_label_index")
+        : null;
+  }
+
   public GitRepository cachedBareRepoForUrl(String url) throws RepoException {
     return cachedBareRepoForUrlWithPrefix(url, null);
   }
@@ -129,6 +158,7 @@ public class GitOptions implements Option {
   }
 
   protected GitRepository initRepo(GitRepository repo) throws RepoException {
+    openRepos.add(repo);
     repo.init();
     if (noCredentialHelperStore) {
       return repo;
@@ -145,6 +175,19 @@ public class GitOptions implements Option {
   }
 
   public GitOptions setPartialCacheFilePrefix(String partialCacheFilePrefix) {
-    return new GitOptions(generalOptions, partialCacheFilePrefix);
+    return new GitOptions(generalOptions, partialCacheFilePrefix, openRepos);
+  }
+
+  /**
+   * Stops the git processes kept by the repositories created by these options. Called when the
+   * execution finishes, so that executions in a long-lived JVM don't leave them running.
+   */
+  @Override
+  public void close() {
+    List<GitRepository> repos = new ArrayList<>(openRepos);
+    openRepos.removeAll(repos);
+    for (GitRepository repo : repos) {
+      repo.close();
+    }
   }
 }
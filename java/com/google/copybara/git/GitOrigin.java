@@ -43,6 +43,7 @@ import com.google.copybara.git.GitRepository.TreeElement;
 import com.google.copybara.transform.patch.PatchTransformation;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.InsideGitDirException;
+import com.google.copybara.util.SharedFetches;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -169,9 +170,15 @@ public class GitOrigin implements Origin<GitRevision> {
   }
 
   private GitRevision resolveStringRef(String ref) throws RepoException, ValidationException {
-    GitRevision gitRevision = repoType.resolveRef(getRepository(), repoUrl, ref, generalOptions,
-        describeVersion, partialFetch);
-    return describeVersion ? getRepository().addDescribeVersion(gitRevision) : gitRevision;
+    GitRepository repository = getRepository();
+    // Migrations run together by 'batch' resolve each reference of the cached repo only once
+    GitRevision gitRevision = generalOptions.getSharedFetches().fetch(
+        String.format("%s %s %s describe=%s partial=%s",
+            repository.getGitDir(), repoUrl, ref, describeVersion, partialFetch),
+        () -> SharedFetches.exclusive(repository.getGitDir(),
+            () -> repoType.resolveRef(repository, repoUrl, ref, generalOptions, describeVersion,
+                partialFetch)));
+    return describeVersion ? repository.addDescribeVersion(gitRevision) : gitRevision;
   }
 
   @Override
@@ -306,10 +313,15 @@ public class GitOrigin implements Origin<GitRevision> {
             + " first_parent = False instead. metadata.squash_notes and metadata.use_last_change"
             + " don't include merge commits by default");
       }
-      GitRepository repo = checkout(repository, workdir, ref);
-      if (topLevelCheckout) {
-        maybeRebase(repo, ref, workdir);
-      }
+      // The checkout writes the index of the cached repository, that other migrations of the
+      // JVM might be reading at the same time
+      GitRepository repo = SharedFetches.exclusive(repository.getGitDir(), () -> {
+        GitRepository checkedOut = checkout(repository, workdir, ref);
+        if (topLevelCheckout) {
+          maybeRebase(checkedOut, ref, workdir);
+        }
+        return checkedOut;
+      });
 
       if (submoduleStrategy == SubmoduleStrategy.NO) {
         return;
@@ -452,7 +464,7 @@ public class GitOrigin implements Origin<GitRevision> {
           start, input -> affectsRoots(roots, input.getChangeFiles())
               ? visitor.visit(input)
               : VisitResult.CONTINUE,
-          queryChanges, generalOptions, "origin", gitOptions.visitChangePageSize);
+          queryChanges, generalOptions, "origin");
     }
   }
 
@@ -20,6 +20,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.copybara.exception.ValidationException.checkCondition;
 import static com.google.copybara.util.CommandRunner.DEFAULT_TIMEOUT;
 import static com.google.copybara.util.CommandRunner.NO_INPUT;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
@@ -28,6 +29,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Verify;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -48,18 +51,24 @@ import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
+import com.google.copybara.git.GitObjectReader.ObjectInfo;
 import com.google.copybara.util.BadExitStatusWithOutputException;
 import com.google.copybara.util.CommandOutput;
 import com.google.copybara.util.CommandOutputWithStatus;
 import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
+import com.google.copybara.util.OutputConsumer;
 import com.google.copybara.util.RepositoryUtil;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
@@ -82,6 +91,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.annotation.CheckReturnValue;
@@ -90,7 +100,7 @@ import javax.annotation.Nullable;
 /**
  * A class for manipulating Git repositories
  */
-public class GitRepository {
+public class GitRepository implements Closeable {
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
@@ -102,6 +112,8 @@ public class GitRepository {
 
   private static final Pattern LS_TREE_ELEMENT = Pattern.compile(
       "([0-9]{6}) (commit|tag|tree|blob) ([a-f0-9]{40})\t(.*)");
+  private static final Pattern LS_FILES_ENTRY = Pattern.compile(
+      "([0-9]{6}) ([a-f0-9]{40}) ([0-3])\t(.*)", Pattern.DOTALL);
 
   private static final Pattern LS_REMOTE_OUTPUT_LINE = Pattern.compile("([a-f0-9]{40})\t(.+)");
 
@@ -152,6 +164,8 @@ public class GitRepository {
    * repo folder name.
    */
   private static final int DEFAULT_MAX_LOG_LINES = 4_000;
+  /** Maximum number of cat-file processes of each kind kept for object lookups. */
+  private static final int MAX_OBJECT_LOOKUP_PROCESSES = 4;
   public static final String GIT_DESCRIBE_REQUESTED_VERSION = "GIT_DESCRIBE_REQUESTED_VERSION";
   public static final String GIT_DESCRIBE_CHANGE_VERSION = "GIT_DESCRIBE_CHANGE_VERSION";
   public static final String GIT_DESCRIBE_FIRST_PARENT = "GIT_DESCRIBE_FIRST_PARENT";
@@ -170,6 +184,9 @@ public class GitRepository {
   private final Duration fetchTimeout;
   protected final boolean noVerify;
 
+  /** Shared by the instances with the same git directory, like the ones from withWorkTree. */
+  private final Supplier<GitObjectLookup> objectLookup;
+
   private static final Map<Character, StatusCode> CHAR_TO_STATUS_CODE =
       Arrays.stream(StatusCode.values())
           .collect(Collectors.toMap(StatusCode::getCode, Function.identity()));
@@ -177,12 +194,22 @@ public class GitRepository {
   protected GitRepository(
       Path gitDir, @Nullable Path workTree, boolean verbose, GitEnvironment gitEnv,
       Duration fetchTimeout, boolean noVerify) {
+    this(gitDir, workTree, verbose, gitEnv, fetchTimeout, noVerify,
+        Suppliers.memoize(() -> new GitObjectLookup(
+            ImmutableList.of(gitEnv.resolveGitBinary(), "--git-dir=" + gitDir),
+            gitEnv.getEnvironment(), gitDir, MAX_OBJECT_LOOKUP_PROCESSES)));
+  }
+
+  private GitRepository(
+      Path gitDir, @Nullable Path workTree, boolean verbose, GitEnvironment gitEnv,
+      Duration fetchTimeout, boolean noVerify, Supplier<GitObjectLookup> objectLookup) {
     this.gitDir = checkNotNull(gitDir);
     this.workTree = workTree;
     this.verbose = verbose;
     this.gitEnv = checkNotNull(gitEnv);
     this.fetchTimeout = checkNotNull(fetchTimeout);
     this.noVerify = noVerify;
+    this.objectLookup = checkNotNull(objectLookup);
   }
 
   /** Creates a new repository in the given directory. The new repo is not bare. */
@@ -416,7 +443,15 @@ public class GitRepository {
 
   @CheckReturnValue
   public LogCmd log(String referenceExpr) {
-    return LogCmd.create(this, referenceExpr);
+    return LogCmd.create(this, ImmutableList.of(referenceExpr));
+  }
+
+  /**
+   * Like {@link #log(String)} but for several references, like {@code ["foo", "bar", "^baz"]}.
+   */
+  @CheckReturnValue
+  LogCmd log(Iterable<String> referenceExprs) {
+    return LogCmd.create(this, ImmutableList.copyOf(referenceExprs));
   }
 
   @CheckReturnValue
@@ -570,6 +605,47 @@ public class GitRepository {
     return simpleCommand("merge-base", commit1, commit2).getStdout().trim();
   }
 
+  /**
+   * Returns the best common ancestor of all the {@code commits}, or empty if they don't have a
+   * common ancestor.
+   */
+  Optional<String> mergeBaseOctopus(Collection<String> commits) throws RepoException {
+    CommandOutputWithStatus result =
+        gitAllowNonZeroExit(
+            NO_INPUT,
+            ImmutableList.<String>builder().add("merge-base", "--octopus").addAll(commits).build(),
+            DEFAULT_TIMEOUT);
+    if (result.getTerminationStatus().success()) {
+      return Optional.of(result.getStdout().trim());
+    }
+    if (result.getTerminationStatus().getExitCode() == 1) {
+      return Optional.empty();
+    }
+    throw new RepoException("Error executing git merge-base --octopus:\n" + result.getStderr());
+  }
+
+  /**
+   * Returns the graph of the commits reachable from {@code include} but not from {@code
+   * exclude}.
+   */
+  CommitGraph commitGraph(Collection<String> include, Collection<String> exclude)
+      throws RepoException {
+    List<String> params = Lists.newArrayList("rev-list", "--topo-order", "--parents");
+    params.addAll(include);
+    if (!exclude.isEmpty()) {
+      params.add("--not");
+      params.addAll(exclude);
+    }
+    params.add("--");
+    CommitGraph.Builder graph = CommitGraph.builder();
+    streamGit(params, "\n", line -> {
+      List<String> shas = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+      graph.add(shas.get(0), shas.subList(1, shas.size()));
+      return true;
+    });
+    return graph.build();
+  }
+
   boolean isAncestor(String ancestor, String commit) throws RepoException {
     CommandOutputWithStatus result =
         gitAllowNonZeroExit(
@@ -591,7 +667,23 @@ public class GitRepository {
    */
   public GitRepository withWorkTree(Path newWorkTree) {
     return new GitRepository(
-        this.gitDir, newWorkTree, this.verbose, this.gitEnv, fetchTimeout, this.noVerify);
+        this.gitDir, newWorkTree, this.verbose, this.gitEnv, fetchTimeout, this.noVerify,
+        objectLookup);
+  }
+
+  /**
+   * Stops the {@code git cat-file} processes used for object lookups. They are shared with the
+   * instances returned by {@link #withWorkTree(Path)}. The repository can still be used after
+   * closing it: the processes are started again when needed.
+   */
+  @Override
+  public void close() {
+    objectLookup.get().close();
+  }
+
+  @VisibleForTesting
+  GitObjectLookup getObjectLookup() {
+    return objectLookup.get();
   }
 
   /**
@@ -752,6 +844,13 @@ public class GitRepository {
    * Resolves a git reference to the SHA-1 reference
    */
   public String parseRef(String ref) throws RepoException, CannotResolveRevisionException {
+    if (isSingleRevision(ref)) {
+      ObjectInfo info = objectLookup.get().lookup(ref + "^{commit}");
+      if (info == null) {
+        throw new CannotResolveRevisionException("Cannot find reference '" + ref + "'");
+      }
+      return info.getSha1();
+    }
     // Runs rev-list on the reference and remove the extra newline from the output.
     CommandOutputWithStatus result = gitAllowNonZeroExit(
         NO_INPUT, ImmutableList.of("rev-list", "-1", ref, "--"), DEFAULT_TIMEOUT);
@@ -763,6 +862,17 @@ public class GitRepository {
     return sha1;
   }
 
+  /**
+   * Returns true if {@code ref} names a single revision that can be resolved with {@code git
+   * cat-file}, as opposed to ranges, like {@code a..b}, or flags.
+   */
+  private static boolean isSingleRevision(String ref) {
+    return GitObjectReader.canRead(ref)
+        && !ref.startsWith("-")
+        && !ref.startsWith("^")
+        && !ref.contains("..");
+  }
+
   boolean refExists(String ref) throws RepoException {
     try {
       parseRef(ref);
@@ -825,15 +935,22 @@ public class GitRepository {
   /** Check whether the remote sha1's tree is the same as repo's HEAD */
   public boolean hasSameTree(String remoteCommit)
       throws RepoException {
-    GitLogEntry newChange = Iterables.getLast(this.log("HEAD").withLimit(1).run());
+    String newTree = headTree();
     this.simpleCommand("checkout", "-b", "cherry_pick" + UUID.randomUUID(), "HEAD~1");
     if (tryToCherryPick(remoteCommit)) {
-      GitLogEntry oldWithCherryPick = Iterables.getLast(this.log("HEAD").withLimit(1).run());
-      return oldWithCherryPick.getTree().equals(newChange.getTree());
+      return headTree().equals(newTree);
     }
     return false;
   }
 
+  private String headTree() throws RepoException {
+    ObjectInfo info = objectLookup.get().lookup("HEAD^{tree}");
+    if (info == null) {
+      throw new RepoException("Cannot resolve the tree of HEAD");
+    }
+    return info.getSha1();
+  }
+
   /**
    * Checks out the given ref in the repo, quietly and throwing away local changes. If checkoutPath
    * is empty, it will checkout all files. If not, it will only checkout checkoutPaths
@@ -1025,10 +1142,9 @@ public class GitRepository {
       args.add("--");
       args.add(treeish);
     }
-    String stdout = simpleCommand(args).getStdout();
-    for (String line : Splitter.on('\n').split(stdout)) {
+    streamGit(args, "\n", line -> {
       if (line.isEmpty()) {
-        continue;
+        return true;
       }
       Matcher matcher = LS_TREE_ELEMENT.matcher(line);
       if (!matcher.matches()) {
@@ -1042,7 +1158,8 @@ public class GitRepository {
           .replace("\\\\", "\\").replace("\\t", "\t").replace("\\n", "\n");
 
       result.add(new TreeElement(objectType, sha1, path));
-    }
+      return true;
+    });
     return result.build();
   }
 
@@ -1150,18 +1267,79 @@ public class GitRepository {
       return executeGit(getCwd(), params, gitEnv, /*verbose*/ false, /*maxLoglines*/ 0);
     } catch (BadExitStatusWithOutputException e) {
       CommandOutputWithStatus output = e.getOutput();
+      throw gitError(params, output.getTerminationStatus().getExitCode(), output.getStderr());
+    } catch (CommandException e) {
+      throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    }
+  }
 
-      for (Pattern error : REF_NOT_FOUND_ERRORS) {
-        Matcher matcher = error.matcher(output.getStderr());
-        if (matcher.find()) {
-          throw new RepoException(
-              "Cannot find reference '" + matcher.group(1) + "'");
-        }
+  private static RepoException gitError(Iterable<String> params, int exitCode, String stderr) {
+    for (Pattern error : REF_NOT_FOUND_ERRORS) {
+      Matcher matcher = error.matcher(stderr);
+      if (matcher.find()) {
+        return new RepoException(
+            "Cannot find reference '" + matcher.group(1) + "'");
       }
+    }
+    return new RepoException(
+        String.format(
+            "Error executing 'git %s'(exit code %d). Stderr: %s\n",
+            Joiner.on(' ').join(params), exitCode, stderr));
+  }
 
-      throw throwUnknownGitError(output, params);
+  /**
+   * Runs git and passes its stdout, split in records separated by {@code separator}, to {@code
+   * consumer} while git is running, instead of buffering the whole output. If the consumer returns
+   * false before consuming all the output, git is killed.
+   */
+  private void streamGit(Iterable<String> argv, String separator, RecordConsumer consumer)
+      throws RepoException {
+    List<String> params = addGitDirAndWorkTreeParams(argv);
+    List<String> allParams = new ArrayList<>();
+    allParams.add(gitEnv.resolveGitBinary());
+    allParams.addAll(params);
+    Command cmd = new Command(
+        Iterables.toArray(allParams, String.class), gitEnv.getEnvironment(), getCwd().toFile());
+    try {
+      new CommandRunner(cmd)
+          .withVerbose(verbose)
+          .executeStreaming(OutputConsumer.records(separator, record -> {
+            try {
+              return consumer.accept(record);
+            } catch (RepoException e) {
+              throw new ConsumerException(e);
+            }
+          }));
+    } catch (BadExitStatusWithOutputException e) {
+      CommandOutputWithStatus output = e.getOutput();
+      throw gitError(params, output.getTerminationStatus().getExitCode(), output.getStderr());
     } catch (CommandException e) {
       throw new RepoException("Error executing 'git': " + e.getMessage(), e);
+    } catch (ConsumerException e) {
+      throw e.getCause();
+    } catch (IOException e) {
+      throw new RepoException("Error reading the output of 'git': " + e.getMessage(), e);
+    }
+  }
+
+  /** Receives the records of the output of a git command while it runs. */
+  @FunctionalInterface
+  private interface RecordConsumer {
+
+    /** Returns false to stop the command. */
+    boolean accept(String record) throws RepoException;
+  }
+
+  /** Passes a {@link RepoException} of a {@link RecordConsumer} through the command runner. */
+  private static final class ConsumerException extends IOException {
+
+    private ConsumerException(RepoException cause) {
+      super(cause);
+    }
+
+    @Override
+    public synchronized RepoException getCause() {
+      return (RepoException) super.getCause();
     }
   }
 
@@ -1171,6 +1349,86 @@ public class GitRepository {
     simpleCommand("clean", "-f", "-d");
   }
 
+  /**
+   * Writes the files at {@code paths}, relative to the work tree, as blobs in the object database
+   * and returns their SHA-1s in the same order. Content filters are applied like in {@code git
+   * add}. All the files are hashed by a single {@code git hash-object} invocation.
+   */
+  ImmutableList<String> hashObjects(List<String> paths) throws RepoException {
+    if (paths.isEmpty()) {
+      return ImmutableList.of();
+    }
+    for (String path : paths) {
+      Preconditions.checkArgument(path.indexOf('\n') == -1, "Invalid path: '%s'", path);
+    }
+    ImmutableList<String> params = ImmutableList.of("hash-object", "-w", "--stdin-paths");
+    CommandOutputWithStatus output = gitAllowNonZeroExit(
+        (Joiner.on('\n').join(paths) + "\n").getBytes(UTF_8), params, DEFAULT_TIMEOUT);
+    if (!output.getTerminationStatus().success()) {
+      throw throwUnknownGitError(output, params);
+    }
+    ImmutableList<String> sha1s =
+        ImmutableList.copyOf(Splitter.on('\n').omitEmptyStrings().split(output.getStdout()));
+    Verify.verify(sha1s.size() == paths.size(),
+        "Expected %s objects but got %s", paths.size(), sha1s.size());
+    return sha1s;
+  }
+
+  /**
+   * Returns the entries of the index, like {@code git ls-files --stage}. The SHA-1s are the ones
+   * stored in the index, so the files of the work tree are not read.
+   */
+  ImmutableList<IndexEntry> lsFiles() throws RepoException {
+    ImmutableList.Builder<IndexEntry> result = ImmutableList.builder();
+    streamGit(ImmutableList.of("ls-files", "--stage", "-z"), "\0", record -> {
+      if (record.isEmpty()) {
+        return true;
+      }
+      Matcher matcher = LS_FILES_ENTRY.matcher(record);
+      if (!matcher.matches()) {
+        throw new RepoException("Unexpected format for ls-files output: " + record);
+      }
+      result.add(new IndexEntry(matcher.group(1), matcher.group(2), matcher.group(4)));
+      return true;
+    });
+    return result.build();
+  }
+
+  /**
+   * Writes {@code content} as a blob in the object database, without applying any filter, and
+   * returns its SHA-1.
+   */
+  String hashObject(byte[] content) throws RepoException {
+    ImmutableList<String> params = ImmutableList.of("hash-object", "-w", "--no-filters", "--stdin");
+    CommandOutputWithStatus output = gitAllowNonZeroExit(content, params, DEFAULT_TIMEOUT);
+    if (!output.getTerminationStatus().success()) {
+      throw throwUnknownGitError(output, params);
+    }
+    return output.getStdout().trim();
+  }
+
+  /**
+   * Sets the index entries of the given paths to the given blobs, without looking at the work
+   * tree. Paths that are mapped to {@link IndexEntry#removed} are removed from the index.
+   */
+  void updateIndex(List<IndexEntry> entries) throws RepoException {
+    if (entries.isEmpty()) {
+      return;
+    }
+    ByteArrayOutputStream input = new ByteArrayOutputStream();
+    for (IndexEntry entry : entries) {
+      byte[] line = String.format("%s %s\t%s", entry.mode, entry.sha1, entry.path).getBytes(UTF_8);
+      input.write(line, 0, line.length);
+      input.write(0);
+    }
+    ImmutableList<String> params = ImmutableList.of("update-index", "-z", "--index-info");
+    CommandOutputWithStatus output =
+        gitAllowNonZeroExit(input.toByteArray(), params, DEFAULT_TIMEOUT);
+    if (!output.getTerminationStatus().success()) {
+      throw throwUnknownGitError(output, params);
+    }
+  }
+
   /**
    * Execute git apply.
    *
@@ -1223,16 +1481,7 @@ public class GitRepository {
       return executeGit(cwd, params, gitEnv, verbose);
     } catch (BadExitStatusWithOutputException e) {
       CommandOutputWithStatus output = e.getOutput();
-
-      for (Pattern error : REF_NOT_FOUND_ERRORS) {
-        Matcher matcher = error.matcher(output.getStderr());
-        if (matcher.find()) {
-          throw new RepoException(
-              "Cannot find reference '" + matcher.group(1) + "'");
-        }
-      }
-
-      throw throwUnknownGitError(output, params);
+      throw gitError(params, output.getTerminationStatus().getExitCode(), output.getStderr());
     } catch (CommandException e) {
       throw new RepoException("Error executing 'git': " + e.getMessage(), e);
     }
@@ -1354,6 +1603,9 @@ public class GitRepository {
    * Checks if a SHA-1 object exist in the repository
    */
   private boolean checkSha1Exists(String reference) throws RepoException {
+    if (GitObjectReader.canRead(reference)) {
+      return objectLookup.get().lookup(reference) != null;
+    }
     ImmutableList<String> params = ImmutableList.of("cat-file", "-e", reference);
     CommandOutputWithStatus output = gitAllowNonZeroExit(NO_INPUT, params,
         DEFAULT_TIMEOUT);
@@ -1370,6 +1622,18 @@ public class GitRepository {
    * Resolves a git reference to the SHA-1 reference
    */
   public String readFile(String revision, String path) throws RepoException {
+    String objectName = String.format("%s:%s", revision, path);
+    if (GitObjectReader.canRead(objectName)) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream();
+      ObjectInfo info = objectLookup.get().copyTo(objectName, content);
+      if (info == null) {
+        throw new RepoException(String.format("Cannot read file '%s' in '%s'", path, revision));
+      }
+      if (info.getType().equals("blob")) {
+        return new String(content.toByteArray(), StandardCharsets.UTF_8);
+      }
+      // For other objects, like trees, 'git show' prints a human readable version.
+    }
     CommandOutputWithStatus result = gitAllowNonZeroExit(NO_INPUT,
         ImmutableList.of("--no-pager", "show", String.format("%s:%s", revision, path)),
         DEFAULT_TIMEOUT);
@@ -1386,8 +1650,14 @@ public class GitRepository {
       Path path = destRoot.resolve(file.getPath());
       if (pathMatcher.matches(path)) {
         try {
-          Files.write(
-              path, readFile(rev.getSha1(), file.getPath()).getBytes(StandardCharsets.UTF_8));
+          Files.createDirectories(path.getParent());
+          // Write the raw bytes of the blob, so that binary files are not corrupted.
+          try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            if (objectLookup.get().copyTo(file.getRef(), out) == null) {
+              throw new RepoException(
+                  String.format("Cannot read file '%s' in '%s'", file.getPath(), rev.getSha1()));
+            }
+          }
         } catch (IOException e) {
           throw new RepoException(String
               .format("Cannot write '%s' from reference '%s' into '%s'", file.getPath(), rev,
@@ -1510,6 +1780,58 @@ public class GitRepository {
     }
   }
 
+  /**
+   * An entry of the index to be written by {@link #updateIndex(List)}.
+   */
+  static class IndexEntry {
+
+    private static final String REGULAR_FILE_MODE = "100644";
+    private static final String EXECUTABLE_FILE_MODE = "100755";
+    private static final String SYMLINK_MODE = "120000";
+    private static final String REMOVED_MODE = "0";
+    private static final String NULL_SHA1 = Strings.repeat("0", 40);
+
+    private final String mode;
+    private final String sha1;
+    private final String path;
+
+    private IndexEntry(String mode, String sha1, String path) {
+      this.mode = checkNotNull(mode);
+      this.sha1 = checkNotNull(sha1);
+      this.path = checkNotNull(path);
+    }
+
+    static IndexEntry file(String path, String sha1, boolean executable) {
+      return new IndexEntry(executable ? EXECUTABLE_FILE_MODE : REGULAR_FILE_MODE, sha1, path);
+    }
+
+    static IndexEntry symlink(String path, String sha1) {
+      return new IndexEntry(SYMLINK_MODE, sha1, path);
+    }
+
+    static IndexEntry removed(String path) {
+      return new IndexEntry(REMOVED_MODE, NULL_SHA1, path);
+    }
+
+    String getPath() {
+      return path;
+    }
+
+    /** Returns true if both entries point to the same blob with the same mode. */
+    boolean sameObject(IndexEntry other) {
+      return mode.equals(other.mode) && sha1.equals(other.sha1);
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("mode", mode)
+          .add("sha1", sha1)
+          .add("path", path)
+          .toString();
+    }
+  }
+
   enum GitObjectType {
     BLOB,
     COMMIT,
@@ -1689,7 +2011,7 @@ public class GitRepository {
     private static final String GROUP = "--\n";
     private final int limit;
     private final ImmutableCollection<String> paths;
-    private final String refExpr;
+    private final ImmutableList<String> refExprs;
 
     private final boolean includeStat;
     private final boolean includeBody;
@@ -1703,12 +2025,12 @@ public class GitRepository {
     private final String grepString;
 
     @CheckReturnValue
-    LogCmd(GitRepository repo, String refExpr, int limit, ImmutableCollection<String> paths,
-        boolean firstParent, boolean includeStat, boolean includeBody,
-        @Nullable String grepString, boolean includeMergeDiff, int skip) {
+    LogCmd(GitRepository repo, ImmutableList<String> refExprs, int limit,
+        ImmutableCollection<String> paths, boolean firstParent, boolean includeStat,
+        boolean includeBody, @Nullable String grepString, boolean includeMergeDiff, int skip) {
       this.limit = limit;
       this.paths = paths;
-      this.refExpr = refExpr;
+      this.refExprs = refExprs;
       this.firstParent = firstParent;
       this.includeStat = includeStat;
       this.includeMergeDiff = includeMergeDiff;
@@ -1718,10 +2040,11 @@ public class GitRepository {
       this.skip = skip;
     }
 
-    static LogCmd create(GitRepository repository, String refExpr) {
+    static LogCmd create(GitRepository repository, ImmutableList<String> refExprs) {
+      Preconditions.checkArgument(!refExprs.isEmpty(), "No references");
       return new LogCmd(
           checkNotNull(repository),
-          checkNotNull(refExpr),
+          refExprs,
           0,
           ImmutableList.of(), /*firstParent*/
           true,
@@ -1737,7 +2060,7 @@ public class GitRepository {
     @CheckReturnValue
     public LogCmd withLimit(int limit) {
       Preconditions.checkArgument(limit > 0);
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1747,7 +2070,7 @@ public class GitRepository {
     @CheckReturnValue
     LogCmd withSkip(int skip) {
       Preconditions.checkArgument(skip >= 0);
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1757,7 +2080,7 @@ public class GitRepository {
     @CheckReturnValue
     LogCmd withPaths(ImmutableCollection<String> paths) {
       Preconditions.checkArgument(paths.stream().noneMatch(s -> s.trim().equals("")));
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1766,7 +2089,7 @@ public class GitRepository {
      */
     @CheckReturnValue
     LogCmd firstParent(boolean firstParent) {
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1775,7 +2098,7 @@ public class GitRepository {
      */
     @CheckReturnValue
     LogCmd includeFiles(boolean includeStat) {
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1784,7 +2107,7 @@ public class GitRepository {
      */
     @CheckReturnValue
     LogCmd includeMergeDiff(boolean includeMergeDiff) {
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1793,7 +2116,7 @@ public class GitRepository {
      */
     @CheckReturnValue
     LogCmd includeBody(boolean includeBody) {
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1802,7 +2125,7 @@ public class GitRepository {
      */
     @CheckReturnValue
     public LogCmd grep(@Nullable String grepString) {
-      return new LogCmd(repo, refExpr, limit, paths, firstParent, includeStat, includeBody,
+      return new LogCmd(repo, refExprs, limit, paths, firstParent, includeStat, includeBody,
           grepString, includeMergeDiff, skip);
     }
 
@@ -1810,6 +2133,20 @@ public class GitRepository {
      * Run 'git log' and returns zero or more {@link GitLogEntry}.
      */
     public ImmutableList<GitLogEntry> run() throws RepoException {
+      ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
+      run(entry -> {
+        commits.add(entry);
+        return true;
+      });
+      return commits.build();
+    }
+
+    /**
+     * Run 'git log' and passes the {@link GitLogEntry}s to {@code consumer} while 'git log' is
+     * running, newest first, without holding the whole log in memory. If the consumer returns
+     * false, no more entries are read and 'git log' is stopped.
+     */
+    public void run(LogConsumer consumer) throws RepoException {
       List<String> cmd = Lists.newArrayList("log", "--no-color", createFormat(includeBody));
 
       if (limit > 0) {
@@ -1842,72 +2179,72 @@ public class GitRepository {
         cmd.add(grepString);
       }
 
-      cmd.add(refExpr);
+      cmd.addAll(refExprs);
 
       if (!paths.isEmpty()) {
         cmd.add("--");
         cmd.addAll(paths);
       }
 
-      CommandOutput output = repo.simpleCommand(cmd.toArray(new String[0]));
-      return parseLog(output.getStdout(), includeBody);
+      // The output starts with COMMIT_SEPARATOR and the commits are separated by
+      // "\0" + COMMIT_SEPARATOR. The separator is ASCII, so it cannot be part of a multi-byte
+      // UTF-8 character.
+      AtomicBoolean first = new AtomicBoolean(true);
+      repo.streamGit(cmd, "\0" + COMMIT_SEPARATOR, msg -> {
+        if (first.getAndSet(false)) {
+          if (!msg.startsWith(COMMIT_SEPARATOR)) {
+            throw new RepoException("Unexpected output of 'git log': "
+                + msg.substring(0, Math.min(msg.length(), 100)));
+          }
+          msg = msg.substring(COMMIT_SEPARATOR.length());
+        }
+        return consumer.accept(parseEntry(msg));
+      });
     }
 
-    private ImmutableList<GitLogEntry> parseLog(String log, boolean includeBody)
-        throws RepoException {
-      // No changes. We cannot know until we run git log since fromRef can be null (HEAD)
-      if (log.isEmpty()) {
-        return ImmutableList.of();
-      }
+    private GitLogEntry parseEntry(String msg) throws RepoException {
+      List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
 
-      ImmutableList.Builder<GitLogEntry> commits = ImmutableList.builder();
-      for (String msg : Splitter.on("\0" + COMMIT_SEPARATOR).
-          split(log.substring(COMMIT_SEPARATOR.length()))) {
+      Map<String, String> fields = Splitter.on("\n")
+          .withKeyValueSeparator(Splitter.on("=").limit(2))
+          .split(groups.get(0));
 
-        List<String> groups = Splitter.on("\n" + GROUP).splitToList(msg);
-
-        Map<String, String> fields = Splitter.on("\n")
-            .withKeyValueSeparator(Splitter.on("=").limit(2))
-            .split(groups.get(0));
-
-        String body = null;
-        if (includeBody) {
-          body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
-          body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
-          // Copybara assumes \n as a separator in many places.
-          body = body.replace("\r\n", "\n");
-        }
+      String body = null;
+      if (includeBody) {
+        body = UNINDENT.matcher(groups.get(1)).replaceAll("\n");
+        body = body.substring(BEGIN_BODY.length() + 1, body.length() - END_BODY.length() - 1);
+        // Copybara assumes \n as a separator in many places.
+        body = body.replace("\r\n", "\n");
+      }
 
-        ImmutableSet<String> files = null;
-        if (includeStat) {
-          String fileString = groups.get(2);
-          if (fileString.startsWith("\0\n")) {
-            fileString = fileString.substring(2);
-          }
-          files = ImmutableSet.copyOf(Splitter.on("\0").omitEmptyStrings().split(fileString));
-        }
-        ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
-        for (String parent : Splitter.on(" ").omitEmptyStrings()
-            .split(getField(fields, PARENTS_FIELD))) {
-          parents.add(repo.createReferenceFromCompleteSha1(parent));
+      ImmutableSet<String> files = null;
+      if (includeStat) {
+        String fileString = groups.get(2);
+        if (fileString.startsWith("\0\n")) {
+          fileString = fileString.substring(2);
         }
+        files = ImmutableSet.copyOf(Splitter.on("\0").omitEmptyStrings().split(fileString));
+      }
+      ImmutableList.Builder<GitRevision> parents = ImmutableList.builder();
+      for (String parent : Splitter.on(" ").omitEmptyStrings()
+          .split(getField(fields, PARENTS_FIELD))) {
+        parents.add(repo.createReferenceFromCompleteSha1(parent));
+      }
 
-        String tree = getField(fields, TREE_FIELD);
-        String commit = getField(fields, COMMIT_FIELD);
-        try {
-          commits.add(new GitLogEntry(
-              repo.createReferenceFromCompleteSha1(commit), parents.build(),
-              tree,
-              AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
-              AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
-              tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
-              tryParseDate(fields, COMMITTER_DATE, commit),
-              body, files));
-        } catch (InvalidAuthorException e) {
-          throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
-        }
+      String tree = getField(fields, TREE_FIELD);
+      String commit = getField(fields, COMMIT_FIELD);
+      try {
+        return new GitLogEntry(
+            repo.createReferenceFromCompleteSha1(commit), parents.build(),
+            tree,
+            AuthorParser.parse(getField(fields, AUTHOR_FIELD)),
+            AuthorParser.parse(getField(fields, COMMITTER_FIELD)),
+            tryParseDate(fields, AUTHOR_DATE_FIELD, commit),
+            tryParseDate(fields, COMMITTER_DATE, commit),
+            body, files);
+      } catch (InvalidAuthorException e) {
+        throw new RepoException("Error in commit '" + commit + "'. Invalid author.", e);
       }
-      return commits.build();
     }
 
     private ZonedDateTime tryParseDate(Map<String, String> fields, String dateField,
@@ -1949,6 +2286,14 @@ public class GitRepository {
     }
   }
 
+  /** Receives the entries of 'git log' while it runs. */
+  @FunctionalInterface
+  public interface LogConsumer {
+
+    /** Returns false to stop reading the log. */
+    boolean accept(GitLogEntry entry) throws RepoException;
+  }
+
   /**
    * An object that represent a commit as returned by 'git log'.
    */
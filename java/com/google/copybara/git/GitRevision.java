@@ -120,6 +120,11 @@ public final class GitRevision implements Revision {
     return Iterables.getOnlyElement(entry).getAuthorDate();
   }
 
+  @Override
+  public String contentId() {
+    return sha1;
+  }
+
   @Override
   public String asString() {
     return sha1 + (reviewReference == null ? "" : " " + reviewReference);
@@ -17,8 +17,6 @@
 package com.google.copybara.git;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
-import com.google.copybara.Change;
 import com.google.copybara.ChangeVisitable.ChangesVisitor;
 import com.google.copybara.ChangeVisitable.VisitResult;
 import com.google.copybara.GeneralOptions;
@@ -26,50 +24,39 @@ import com.google.copybara.exception.CannotResolveRevisionException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /** Utility methods for visiting Git repos. */
 public class GitVisitorUtil {
 
   private GitVisitorUtil() {}
 
-  /** Visits */
+  /**
+   * Visits the changes of {@code start}, newest first, until the visitor returns {@link
+   * VisitResult#TERMINATE}.
+   *
+   * <p>A single 'git log' is read while the visitor runs, and stopped once the visitor is done,
+   * instead of paging with {@code --skip}. This way the cost is linear in the number of visited
+   * changes.
+   */
   static void visitChanges(
       GitRevision start,
       ChangesVisitor visitor,
       ChangeReader.Builder queryChanges,
       GeneralOptions generalOptions,
-      String type,
-      int visitChangePageSize)
+      String type)
       throws RepoException, ValidationException {
     Preconditions.checkNotNull(start);
-    int skip = 0;
-    boolean finished = false;
+    AtomicBoolean visited = new AtomicBoolean();
     try (ProfilerTask ignore = generalOptions.profiler().start(type + "/visit_changes")) {
-      while (!finished) {
-        ImmutableList<Change<GitRevision>> result;
-        try (ProfilerTask ignore2 =
-            generalOptions.profiler().start("git_log_" + skip + "_" + visitChangePageSize)) {
-          result =
-              queryChanges
-                  .setSkip(skip)
-                  .setLimit(visitChangePageSize)
-                  .build()
-                  .run(start.getSha1())
-                  .reverse();
-        }
-        if (result.isEmpty()) {
-          break;
-        }
-        skip += result.size();
-        for (Change<GitRevision> current : result) {
-          if (visitor.visit(current) == VisitResult.TERMINATE) {
-            finished = true;
-            break;
-          }
-        }
-      }
+      queryChanges
+          .build()
+          .visit(start.getSha1(), change -> {
+            visited.set(true);
+            return visitor.visit(change);
+          });
     }
-    if (skip == 0) {
+    if (!visited.get()) {
       throw new CannotResolveRevisionException("Cannot resolve reference " + start.getSha1());
     }
   }
@@ -32,6 +32,7 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.git.GitRepository;
+import com.google.copybara.http.RequestScheduler;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
@@ -51,11 +52,18 @@ public class GerritApiTransportImpl implements GerritApiTransport {
   private final GitRepository repo;
   private final URI uri;
   private final HttpTransport httpTransport;
+  private final RequestScheduler scheduler;
 
-  public GerritApiTransportImpl(GitRepository repo, URI uri, HttpTransport httpTransport) {
+  /**
+   * Creates a transport that sends the requests through {@code scheduler}, which is shared by the
+   * transports of an execution and reports to its profiler and event monitors.
+   */
+  public GerritApiTransportImpl(GitRepository repo, URI uri, HttpTransport httpTransport,
+      RequestScheduler scheduler) {
     this.repo = repo;
     this.uri = Preconditions.checkNotNull(uri);
     this.httpTransport = Preconditions.checkNotNull(httpTransport);
+    this.scheduler = Preconditions.checkNotNull(scheduler);
   }
 
   @Override
@@ -103,11 +111,11 @@ public class GerritApiTransportImpl implements GerritApiTransport {
   }
 
   @SuppressWarnings("unchecked")
-  public static <T> T execute(Type responseType, HttpRequest httpRequest)
+  private <T> T execute(Type responseType, HttpRequest httpRequest)
       throws IOException, GerritApiException {
     HttpResponse response;
     try {
-      response = httpRequest.execute();
+      response = scheduler.execute(httpRequest);
     } catch (HttpResponseException e) {
       throw new GerritApiException(e.getStatusCode(), e.getContent(), e.getContent());
     }
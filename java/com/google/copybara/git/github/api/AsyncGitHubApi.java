@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A variant of {@link GitHubApi} that runs the requests in an executor, so that independent
+ * requests can be done concurrently.
+ *
+ * <p>Use {@link #getResult(Future)} to wait for the responses.
+ */
+public class AsyncGitHubApi {
+
+  private final GitHubApi api;
+  private final ListeningExecutorService executor;
+
+  public AsyncGitHubApi(GitHubApi api, ListeningExecutorService executor) {
+    this.api = Preconditions.checkNotNull(api);
+    this.executor = Preconditions.checkNotNull(executor);
+  }
+
+  /** See {@link GitHubApi#getPullRequest(String, long)}. */
+  public ListenableFuture<PullRequest> getPullRequest(String projectId, long number) {
+    return executor.submit(() -> api.getPullRequest(projectId, number));
+  }
+
+  /** See {@link GitHubApi#getIssue(String, long)}. */
+  public ListenableFuture<Issue> getIssue(String projectId, long number) {
+    return executor.submit(() -> api.getIssue(projectId, number));
+  }
+
+  /** See {@link GitHubApi#getReviews(String, long)}. */
+  public ListenableFuture<ImmutableList<Review>> getReviews(String projectId, long number) {
+    return executor.submit(() -> api.getReviews(projectId, number));
+  }
+
+  /** See {@link GitHubApi#getCombinedStatus(String, String)}. */
+  public ListenableFuture<CombinedStatus> getCombinedStatus(String projectId, String ref) {
+    return executor.submit(() -> api.getCombinedStatus(projectId, ref));
+  }
+
+  /** See {@link GitHubApi#getCheckRuns(String, String)}. */
+  public ListenableFuture<CheckRuns> getCheckRuns(String projectId, String ref) {
+    return executor.submit(() -> api.getCheckRuns(projectId, ref));
+  }
+
+  /**
+   * Waits for {@code future} and returns its result, rethrowing the {@link RepoException} or
+   * {@link ValidationException} thrown by the request.
+   */
+  public static <T> T getResult(Future<T> future) throws RepoException, ValidationException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while waiting for GitHub API", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.propagateIfPossible(cause, RepoException.class, ValidationException.class);
+      throw new RuntimeException("Unhandled error", cause);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.git.GitCredential.UserPassword;
+import com.google.copybara.git.GitRepository;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Caches the credentials returned by the git credential helper for some time, so that API requests
+ * don't need to run 'git credential fill' each time.
+ *
+ * <p>Only found credentials are cached: a missing credential is asked again next time, and
+ * credentials rejected by the server can be dropped with {@link #invalidate(String)}.
+ */
+public final class CredentialCache {
+
+  /** A cache that always asks the credential helper. */
+  public static final CredentialCache DISABLED = new CredentialCache(Duration.ZERO);
+
+  private final long expiryNanos;
+  private final Ticker ticker;
+  private final Map<String, Entry> entries = new HashMap<>();
+
+  public CredentialCache(Duration expiry) {
+    this(expiry, Ticker.systemTicker());
+  }
+
+  CredentialCache(Duration expiry, Ticker ticker) {
+    Preconditions.checkArgument(!expiry.isNegative(), "Negative expiry: %s", expiry);
+    this.expiryNanos = expiry.toNanos();
+    this.ticker = Preconditions.checkNotNull(ticker);
+  }
+
+  /**
+   * Returns the credentials for {@code url}, like {@link GitRepository#credentialFill(String)}.
+   *
+   * @throws ValidationException if the credential helper doesn't have credentials for the url
+   */
+  public UserPassword fill(GitRepository repo, String url)
+      throws RepoException, ValidationException {
+    if (expiryNanos == 0) {
+      return repo.credentialFill(url);
+    }
+    synchronized (entries) {
+      long now = ticker.read();
+      Entry entry = entries.get(url);
+      if (entry == null || now - entry.created >= expiryNanos) {
+        entries.remove(url);
+        // Throws if the credentials are not found, so that failures are not cached
+        entry = new Entry(now, repo.credentialFill(url));
+        entries.put(url, entry);
+      }
+      return entry.credentials;
+    }
+  }
+
+  /** Drops the cached credentials for {@code url}, for example if the server rejected them. */
+  public void invalidate(String url) {
+    synchronized (entries) {
+      entries.remove(url);
+    }
+  }
+
+  private static final class Entry {
+
+    private final long created;
+    private final UserPassword credentials;
+
+    private Entry(long created, UserPassword credentials) {
+      this.created = created;
+      this.credentials = Preconditions.checkNotNull(credentials);
+    }
+  }
+}
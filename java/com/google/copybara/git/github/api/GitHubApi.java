@@ -25,6 +25,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.github.api.GitHubApiException.ResponseCode;
@@ -32,6 +35,9 @@ import com.google.copybara.profiler.Profiler;
 import com.google.copybara.profiler.Profiler.ProfilerTask;
 import java.lang.reflect.Type;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -44,6 +50,23 @@ public class GitHubApi {
 
   public static final int MAX_PER_PAGE = 100;
   private static final int MAX_PAGES = 5;
+  // Same as the concurrent requests per host of the request scheduler
+  private static final int MAX_PREFETCH_THREADS = 8;
+  // Fetches the next page of the lists returned by the iterate methods. Bounded, so that many
+  // open iterators queue their prefetches instead of starting a thread each. Idle threads exit.
+  private static final ListeningExecutorService PAGE_PREFETCHER = MoreExecutors.listeningDecorator(
+      newPagePrefetcher());
+
+  private static ThreadPoolExecutor newPagePrefetcher() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PREFETCH_THREADS,
+        MAX_PREFETCH_THREADS, /*keepAliveTime=*/ 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+        new ThreadFactoryBuilder()
+            .setNameFormat("github-api-pages-%d")
+            .setDaemon(true)
+            .build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
 
   public GitHubApi(GitHubApiTransport transport, Profiler profiler) {
     this.transport = Preconditions.checkNotNull(transport);
@@ -66,6 +89,23 @@ public class GitHubApi {
         ImmutableListMultimap.of());
   }
 
+  /**
+   * Iterates the pull requests of a project, fetching the pages as they are needed. Unlike {@link
+   * #getPullRequests}, there is no limit on the number of pages, so close the iterator when done.
+   *
+   * @param projectId a project in the form of "google/copybara"
+   */
+  public PageIterator<PullRequest> iteratePullRequests(
+      String projectId, PullRequestListParams params) {
+    Preconditions.checkNotNull(params);
+    return paginatedIterator(String.format("repos/%s/pulls?per_page=%d%s",
+        projectId, MAX_PER_PAGE, params.toParams()),
+        "github_api_list_pulls",
+        new TypeToken<PaginatedList<PullRequest>>() {
+        }.getType(), "Project",
+        ImmutableListMultimap.of(), Integer.MAX_VALUE, PAGE_PREFETCHER);
+  }
+
   public static class PullRequestListParams {
 
     public enum StateFilter {OPEN, CLOSED, ALL}
@@ -203,22 +243,42 @@ public class GitHubApi {
         ImmutableListMultimap.of());
   }
 
+  /**
+   * Iterates the reviews of a pull request, fetching the pages as they are needed.
+   *
+   * @param projectId a project in the form of "google/copybara"
+   * @param number the pull request number
+   */
+  public PageIterator<Review> iterateReviews(String projectId, long number) {
+    return paginatedIterator(String.format("repos/%s/pulls/%d/reviews?per_page=%d",
+        projectId, number, MAX_PER_PAGE),
+        "github_api_get_reviews",
+        new TypeToken<PaginatedList<Review>>() {
+        }.getType(),
+        "Pull Request or project",
+        ImmutableListMultimap.of(), Integer.MAX_VALUE, PAGE_PREFETCHER);
+  }
+
   private <T> ImmutableList<T> paginatedGet(String path, String profilerName, Type type,
       String entity, ImmutableListMultimap<String, String> headers)
       throws RepoException, ValidationException {
-    ImmutableList.Builder<T> builder = ImmutableList.builder();
-    int pages = 0;
-    while (path != null && pages < MAX_PAGES) {
-      try (ProfilerTask ignore = profiler.start(String.format("%s_page_%d", profilerName, pages))) {
-        PaginatedList<T> page = transport.get(path, type, headers);
-        builder.addAll(page);
-        path = page.getNextUrl();
-        pages++;
+    // All the pages are needed, so there is no point in prefetching them in the background
+    try (PageIterator<T> pages = paginatedIterator(path, profilerName, type, entity, headers,
+        MAX_PAGES, MoreExecutors.newDirectExecutorService())) {
+      return pages.toList();
+    }
+  }
+
+  private <T> PageIterator<T> paginatedIterator(String path, String profilerName, Type type,
+      String entity, ImmutableListMultimap<String, String> headers, int maxPages,
+      ListeningExecutorService executor) {
+    return new PageIterator<T>(path, maxPages, (pagePath, page) -> {
+      try (ProfilerTask ignore = profiler.start(String.format("%s_page_%d", profilerName, page))) {
+        return transport.get(pagePath, type, headers);
       } catch (GitHubApiException e) {
         throw treatGitHubException(e, entity);
       }
-    }
-    return builder.build();
+    }, executor);
   }
 
   /**
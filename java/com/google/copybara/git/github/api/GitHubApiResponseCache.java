@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.gson.GsonFactory;
+import com.google.api.client.util.Key;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of GitHub API GET responses, so that they can be revalidated with conditional
+ * requests ('If-None-Match' and 'If-Modified-Since'). GitHub doesn't count '304 Not Modified'
+ * responses against the rate limit.
+ *
+ * <p>The cache is shared between Copybara invocations. Entries are keyed by the url, the user and
+ * the request headers, since GitHub returns different content for different users. Responses can
+ * contain private data, so the cache directory is only accessible by the user. Failures to read or
+ * write the cache are only logged.
+ */
+public final class GitHubApiResponseCache {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final JsonFactory JSON_FACTORY = new GsonFactory();
+  private static final String TMP_PREFIX = "tmp_";
+
+  private static final Set<PosixFilePermission> STORAGE_PERMISSIONS =
+      PosixFilePermissions.fromString("rwx------");
+
+  private final Path storage;
+  private final int maxEntries;
+
+  private boolean storageChecked = false;
+  /**
+   * Approximate number of entries, so that the storage is only listed when it might be full.
+   * Other runs can add entries too, so the real number is counted again when evicting. -1 until
+   * the storage is listed for the first time.
+   */
+  private int entryCount = -1;
+
+  public GitHubApiResponseCache(Path storage, int maxEntries) {
+    checkArgument(maxEntries > 0, "maxEntries must be positive: %s", maxEntries);
+    this.storage = checkNotNull(storage);
+    this.maxEntries = maxEntries;
+  }
+
+  /** Returns the cache key for a GET request. */
+  static String key(String url, @Nullable String user,
+      ImmutableListMultimap<String, String> headers) {
+    Hasher hasher = Hashing.sha256().newHasher()
+        .putString(url, UTF_8)
+        .putChar('\0')
+        .putString(user == null ? "" : user, UTF_8);
+    for (Map.Entry<String, String> header : headers.entries()) {
+      hasher.putChar('\0')
+          .putString(header.getKey(), UTF_8)
+          .putChar('\0')
+          .putString(header.getValue(), UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /** Returns the cached response for {@code key}, or null if it is not cached. */
+  @Nullable
+  CachedResponse get(String key) {
+    Path entry = storage.resolve(key);
+    try {
+      checkStorage();
+      CachedResponse response;
+      try (InputStream in = Files.newInputStream(entry)) {
+        response = JSON_FACTORY.createJsonParser(in, UTF_8).parse(CachedResponse.class);
+      }
+      // Keep recently used entries when evicting
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+      return response;
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | IllegalArgumentException e) {
+      logger.atWarning().withCause(e).log("Cannot read cached GitHub API response %s", entry);
+      return null;
+    }
+  }
+
+  /** Stores {@code response} for {@code key}. */
+  void put(String key, CachedResponse response) {
+    Path entry = storage.resolve(key);
+    Path tmp = null;
+    try {
+      checkStorage();
+      tmp = Files.createTempFile(storage, TMP_PREFIX + key, "");
+      Files.write(tmp, JSON_FACTORY.toByteArray(response));
+      boolean added = !Files.exists(entry);
+      Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      tmp = null;
+      if (added) {
+        maybeEvict();
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Cannot cache GitHub API response in %s", entry);
+    } finally {
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+          logger.atWarning().withCause(e).log("Cannot delete %s", tmp);
+        }
+      }
+    }
+  }
+
+  /** Creates the storage directory if needed, and makes it only accessible by the user. */
+  private synchronized void checkStorage() throws IOException {
+    if (storageChecked) {
+      return;
+    }
+    if (storage.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      Files.createDirectories(storage,
+          PosixFilePermissions.asFileAttribute(STORAGE_PERMISSIONS));
+      // It might have been created by a version that didn't restrict the permissions
+      Files.setPosixFilePermissions(storage, STORAGE_PERMISSIONS);
+    } else {
+      Files.createDirectories(storage);
+    }
+    storageChecked = true;
+  }
+
+  /** Counts a new entry, and evicts the least recently used ones if the cache might be full. */
+  private synchronized void maybeEvict() throws IOException {
+    if (entryCount >= 0 && ++entryCount <= maxEntries) {
+      return;
+    }
+    List<Path> entries = new ArrayList<>();
+    try (Stream<Path> files = Files.list(storage)) {
+      files.filter(f -> !f.getFileName().toString().startsWith(TMP_PREFIX))
+          .forEach(entries::add);
+    }
+    entryCount = entries.size();
+    if (entries.size() <= maxEntries) {
+      return;
+    }
+    Map<Path, FileTime> lastUsed = new HashMap<>();
+    for (Path entry : entries) {
+      try {
+        lastUsed.put(entry, Files.getLastModifiedTime(entry));
+      } catch (NoSuchFileException e) {
+        // Evicted by another run at the same time
+        lastUsed.put(entry, FileTime.fromMillis(0));
+      }
+    }
+    entries.sort(Comparator.comparing(lastUsed::get));
+    // Evict a tenth of the entries at once, so that the cache is not listed again until a tenth
+    // of the entries are added
+    int keep = maxEntries - maxEntries / 10;
+    for (Path entry : entries.subList(0, entries.size() - keep)) {
+      Files.deleteIfExists(entry);
+    }
+    entryCount = keep;
+  }
+
+  /** A cached response body, with the headers needed to revalidate and paginate it. */
+  public static class CachedResponse {
+
+    @Key @Nullable private String etag;
+    @Key @Nullable private String lastModified;
+    @Key @Nullable private String link;
+    @Key private String body;
+
+    public CachedResponse() {}
+
+    CachedResponse(@Nullable String etag, @Nullable String lastModified, @Nullable String link,
+        String body) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.link = link;
+      this.body = checkNotNull(body);
+    }
+
+    @Nullable
+    String getEtag() {
+      return etag;
+    }
+
+    @Nullable
+    String getLastModified() {
+      return lastModified;
+    }
+
+    @Nullable
+    String getLink() {
+      return link;
+    }
+
+    String getBody() {
+      return body;
+    }
+  }
+}
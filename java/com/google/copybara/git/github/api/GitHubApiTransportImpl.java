@@ -27,7 +27,10 @@ import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.gson.GsonFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.flogger.FluentLogger;
@@ -35,8 +38,13 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
 import com.google.copybara.git.GitRepository;
+import com.google.copybara.git.github.api.GitHubApiResponseCache.CachedResponse;
+import com.google.copybara.http.RequestScheduler;
+import com.google.copybara.monitor.EventMonitor.EventMonitors;
+import com.google.copybara.profiler.Profiler;
 import com.google.copybara.util.console.Console;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.net.URI;
 import java.time.Duration;
@@ -57,37 +65,92 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
   private static final String API_URL = "https://api.github.com";
   private static final String API_PREFIX = API_URL + "/";
   private static final String GITHUB_WEB_URL = "https://github.com";
+  private static final int HTTP_NOT_MODIFIED = 304;
+  private static final int HTTP_UNAUTHORIZED = 401;
+  private static final int HTTP_FORBIDDEN = 403;
 
   private final GitRepository repo;
-  private final HttpTransport httpTransport;
   private final String storePath;
   private final Console console;
+  private final CredentialCache credentialCache;
+  // Reused for all the requests, so that the transport can keep the connections alive
+  private final HttpRequestFactory requestFactory;
+  @Nullable private final GitHubApiResponseCache responseCache;
+  private final RequestScheduler scheduler;
 
+  @VisibleForTesting
   public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
       String storePath, Console console) {
+    this(repo, httpTransport, storePath, console, CredentialCache.DISABLED,
+        /*responseCache=*/ null,
+        RequestScheduler.direct(new Profiler(Ticker.systemTicker()),
+            new EventMonitors(ImmutableList.of())));
+  }
+
+  /**
+   * Creates a transport that reuses credentials from {@code credentialCache} and, if {@code
+   * responseCache} is not null, revalidates GET responses cached there. Requests are sent through
+   * {@code scheduler}.
+   */
+  public GitHubApiTransportImpl(GitRepository repo, HttpTransport httpTransport,
+      String storePath, Console console, CredentialCache credentialCache,
+      @Nullable GitHubApiResponseCache responseCache, RequestScheduler scheduler) {
     this.repo = Preconditions.checkNotNull(repo);
-    this.httpTransport = Preconditions.checkNotNull(httpTransport);
     this.storePath = storePath;
     this.console = Preconditions.checkNotNull(console);
+    this.credentialCache = Preconditions.checkNotNull(credentialCache);
+    this.responseCache = responseCache;
+    this.scheduler = Preconditions.checkNotNull(scheduler);
+    this.requestFactory = httpTransport.createRequestFactory(
+        request -> {
+          request.setConnectTimeout((int) Duration.ofMinutes(1).toMillis());
+          request.setReadTimeout((int) Duration.ofMinutes(1).toMillis());
+          request.setParser(new JsonObjectParser(JSON_FACTORY));
+        });
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public <T> T get(String path, Type responseType, ImmutableListMultimap<String, String> headers)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory = getHttpRequestFactory(getCredentialsIfPresent(), headers);
+    UserPassword userPassword = getCredentialsIfPresent();
+    HttpHeaders httpHeaders = httpHeaders(userPassword, headers);
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
 
+    String cacheKey = null;
+    CachedResponse cached = null;
+    if (responseCache != null) {
+      cacheKey = GitHubApiResponseCache.key(
+          path, userPassword == null ? null : userPassword.getUsername(), headers);
+      cached = responseCache.get(cacheKey);
+      if (cached != null) {
+        httpHeaders.setIfNoneMatch(cached.getEtag());
+        httpHeaders.setIfModifiedSince(cached.getLastModified());
+      }
+    }
+
     try {
-      HttpRequest httpRequest = requestFactory.buildGetRequest(url);
-      HttpResponse response = httpRequest.execute();
-      Object responseObj = response.parseAs(responseType);
-      if (responseObj instanceof PaginatedList) {
-        return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX,
-            maybeGetLinkHeader(response));
+      HttpRequest httpRequest = requestFactory.buildGetRequest(url).setHeaders(httpHeaders);
+      HttpResponse response = scheduler.execute(httpRequest);
+      String etag = response.getHeaders().getETag();
+      String lastModified = response.getHeaders().getLastModified();
+      if (cacheKey == null || (etag == null && lastModified == null)) {
+        return withPaginationInfo(response.parseAs(responseType), maybeGetLinkHeader(response));
       }
-      return (T) responseObj;
+      String body = response.parseAsString();
+      String link = maybeGetLinkHeader(response);
+      responseCache.put(cacheKey, new CachedResponse(etag, lastModified, link, body));
+      return withPaginationInfo(parse(body, responseType), link);
     } catch (HttpResponseException e) {
+      if (e.getStatusCode() == HTTP_NOT_MODIFIED && cached != null) {
+        logger.atFine().log("Using cached GitHub API response for %s", path);
+        try {
+          return withPaginationInfo(parse(cached.getBody(), responseType), cached.getLink());
+        } catch (IOException | IllegalArgumentException parseError) {
+          throw new RepoException("Invalid cached response for GitHub API operation " + path,
+              parseError);
+        }
+      }
+      invalidateCredentialsIfRejected(e);
       throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
                                    "GET", path, null, e.getContent());
     } catch (IOException e) {
@@ -95,6 +158,18 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
+  private static Object parse(String body, Type responseType) throws IOException {
+    return new JsonObjectParser(JSON_FACTORY).parseAndClose(new StringReader(body), responseType);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T withPaginationInfo(Object responseObj, @Nullable String link) {
+    if (responseObj instanceof PaginatedList) {
+      return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX, link);
+    }
+    return (T) responseObj;
+  }
+
   @SuppressWarnings("unchecked")
   @Nullable
   private static String maybeGetLinkHeader(HttpResponse response) {
@@ -118,6 +193,17 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
+  /**
+   * Drops the cached credentials if the server rejected them, so that the next request asks the
+   * credential helper again.
+   */
+  private void invalidateCredentialsIfRejected(HttpResponseException e) {
+    if (e.getStatusCode() == HTTP_UNAUTHORIZED || e.getStatusCode() == HTTP_FORBIDDEN) {
+      credentialCache.invalidate(API_URL);
+      credentialCache.invalidate(GITHUB_WEB_URL);
+    }
+  }
+
   /** Credentials for API should be optional for any read operation (GET). */
   @Nullable
   private UserPassword getCredentialsIfPresent() throws RepoException {
@@ -133,26 +219,19 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
-  @SuppressWarnings("unchecked")
   @Override
   public <T> T post(String path, Object request, Type responseType)
       throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory =
-        getHttpRequestFactory(getCredentials(), ImmutableListMultimap.of());
+    HttpHeaders httpHeaders = httpHeaders(getCredentials(), ImmutableListMultimap.of());
 
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
     try {
       HttpRequest httpRequest = requestFactory.buildPostRequest(url,
-          new JsonHttpContent(JSON_FACTORY, request));
-      HttpResponse response = httpRequest.execute();
-      Object responseObj = response.parseAs(responseType);
-      if (responseObj instanceof PaginatedList) {
-        return (T) ((PaginatedList) responseObj).withPaginationInfo(API_PREFIX,
-            maybeGetLinkHeader(response));
-      }
-      return (T) responseObj;
-
+          new JsonHttpContent(JSON_FACTORY, request)).setHeaders(httpHeaders);
+      HttpResponse response = scheduler.execute(httpRequest);
+      return withPaginationInfo(response.parseAs(responseType), maybeGetLinkHeader(response));
     } catch (HttpResponseException e) {
+      invalidateCredentialsIfRejected(e);
       try {
         throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
             "POST", path, JSON_FACTORY.toPrettyString(request), e.getContent());
@@ -168,13 +247,14 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
 
   @Override
   public void delete(String path) throws RepoException, ValidationException {
-    HttpRequestFactory requestFactory =
-        getHttpRequestFactory(getCredentials(), ImmutableListMultimap.of());
+    HttpHeaders httpHeaders = httpHeaders(getCredentials(), ImmutableListMultimap.of());
 
     GenericUrl url = new GenericUrl(URI.create(API_PREFIX + path));
     try {
-      requestFactory.buildDeleteRequest(url).execute();
+      // Read the (empty) response so that the connection can be reused
+      scheduler.execute(requestFactory.buildDeleteRequest(url).setHeaders(httpHeaders)).ignore();
     } catch (HttpResponseException e) {
+      invalidateCredentialsIfRejected(e);
       throw new GitHubApiException(e.getStatusCode(), parseErrorOrIgnore(e),
           "DELETE", path, /*request=*/ null, e.getContent());
     } catch (IOException e) {
@@ -182,36 +262,30 @@ public class GitHubApiTransportImpl implements GitHubApiTransport {
     }
   }
 
-  private HttpRequestFactory getHttpRequestFactory(
+  private static HttpHeaders httpHeaders(
       @Nullable UserPassword userPassword, ImmutableListMultimap<String, String> headers) {
-    return httpTransport.createRequestFactory(
-        request -> {
-          request.setConnectTimeout((int) Duration.ofMinutes(1).toMillis());
-          request.setReadTimeout((int) Duration.ofMinutes(1).toMillis());
-          HttpHeaders httpHeaders = new HttpHeaders();
-          if (userPassword != null) {
-            httpHeaders.setBasicAuthentication(userPassword.getUsername(),
-                userPassword.getPassword_BeCareful());
-          }
-          for (Map.Entry<String, Collection<String>> header : headers.asMap().entrySet()) {
-            httpHeaders.put(header.getKey(), header.getValue());
-          }
-          request.setHeaders(httpHeaders);
-          request.setParser(new JsonObjectParser(JSON_FACTORY));
-        });
+    HttpHeaders httpHeaders = new HttpHeaders();
+    if (userPassword != null) {
+      httpHeaders.setBasicAuthentication(userPassword.getUsername(),
+          userPassword.getPassword_BeCareful());
+    }
+    for (Map.Entry<String, Collection<String>> header : headers.asMap().entrySet()) {
+      httpHeaders.put(header.getKey(), header.getValue());
+    }
+    return httpHeaders;
   }
 
   /**
-   * Gets the credentials from git credential helper. First we try
+   * Gets the credentials from git credential helper, or the cache. First we try
    * to get it for the api.github.com host, just in case the user has an specific token for that
    * url, otherwise we use the github.com host one.
    */
   private UserPassword getCredentials() throws RepoException, ValidationException {
     try {
-      return repo.credentialFill(API_URL);
+      return credentialCache.fill(repo, API_URL);
     } catch (ValidationException e) {
       try {
-        return repo.credentialFill(GITHUB_WEB_URL);
+        return credentialCache.fill(repo, GITHUB_WEB_URL);
       } catch (ValidationException e1) {
         // Ugly, but helpful...
         throw new ValidationException(String.format(
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * Iterates the elements of a paginated GitHub list, fetching the pages lazily. While the elements
+ * of a page are consumed, the next page is fetched in the background.
+ *
+ * <p>Close the iterator to stop early. A page that is being prefetched is discarded, so at most
+ * one page more than the consumed ones is requested.
+ */
+public class PageIterator<T> implements AutoCloseable {
+
+  /** Fetches a page of the list. */
+  interface PageFetcher<T> {
+
+    /**
+     * Fetches the page at {@code path}, that is the number {@code page} of the list, starting
+     * from 0.
+     */
+    PaginatedList<T> fetch(String path, int page) throws RepoException, ValidationException;
+  }
+
+  private final PageFetcher<T> fetcher;
+  private final int maxPages;
+  private final ListeningExecutorService executor;
+  private Iterator<T> current = Collections.emptyIterator();
+  @Nullable private ListenableFuture<PaginatedList<T>> nextPage;
+  private int pages;
+
+  /**
+   * Creates an iterator that starts fetching the first page, at {@code path}, right away. At most
+   * {@code maxPages} pages are fetched.
+   */
+  PageIterator(String path, int maxPages, PageFetcher<T> fetcher,
+      ListeningExecutorService executor) {
+    Preconditions.checkArgument(maxPages > 0, "maxPages must be positive: %s", maxPages);
+    this.fetcher = Preconditions.checkNotNull(fetcher);
+    this.maxPages = maxPages;
+    this.executor = Preconditions.checkNotNull(executor);
+    fetch(path);
+  }
+
+  /** Returns true if there are more elements, waiting for the next page if needed. */
+  public boolean hasNext() throws RepoException, ValidationException {
+    while (!current.hasNext()) {
+      if (nextPage == null) {
+        return false;
+      }
+      PaginatedList<T> page;
+      try {
+        page = AsyncGitHubApi.getResult(nextPage);
+      } finally {
+        nextPage = null;
+      }
+      if (page.getNextUrl() != null && pages < maxPages) {
+        fetch(page.getNextUrl());
+      }
+      current = page.iterator();
+    }
+    return true;
+  }
+
+  public T next() throws RepoException, ValidationException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  /** Returns the remaining elements, fetching all the pages left. */
+  public ImmutableList<T> toList() throws RepoException, ValidationException {
+    ImmutableList.Builder<T> result = ImmutableList.builder();
+    while (hasNext()) {
+      result.add(current.next());
+    }
+    return result.build();
+  }
+
+  /** Stops fetching pages. */
+  @Override
+  public void close() {
+    if (nextPage != null) {
+      // Don't interrupt a running request, since its connection might be reused
+      nextPage.cancel(/*mayInterruptIfRunning=*/ false);
+      nextPage = null;
+    }
+    current = Collections.emptyIterator();
+  }
+
+  private void fetch(String path) {
+    int page = pages++;
+    nextPage = executor.submit(() -> fetcher.fetch(path, page));
+  }
+}
@@ -19,13 +19,13 @@ package com.google.copybara.hg;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.copybara.util.CommandRunner.DEFAULT_TIMEOUT;
 import static com.google.copybara.util.RepositoryUtil.validateNotHttp;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
-import com.google.common.reflect.TypeToken;
 import com.google.copybara.exception.CannotResolveRevisionException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
@@ -33,14 +33,20 @@ import com.google.copybara.util.BadExitStatusWithOutputException;
 import com.google.copybara.util.CommandOutput;
 import com.google.copybara.util.CommandOutputWithStatus;
 import com.google.copybara.util.CommandRunner;
+import com.google.copybara.util.CommandRunner.StdoutReader;
 import com.google.gson.Gson;
 import com.google.gson.JsonParseException;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
 import com.google.re2j.Pattern;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
@@ -235,17 +241,38 @@ public class HgRepository {
     return hgDir;
   }
 
+  /**
+   * Runs hg and lets {@code reader} read its stdout while hg is running, instead of buffering the
+   * whole output.
+   */
+  private void streamHg(Path cwd, Iterable<String> params, Duration timeout,
+      StdoutReader reader) throws RepoException {
+    try {
+      createRunner(cwd, params, timeout).executeReading(reader);
+    } catch (BadExitStatusWithOutputException e) {
+      throw new RepoException(String.format("Error executing hg: %s", e.getOutput().getStderr()));
+    } catch (CommandException e) {
+      throw new RepoException(String.format("Error executing hg: %s", e.getMessage()));
+    } catch (IOException e) {
+      throw new RepoException(e.getMessage(), e);
+    }
+  }
+
   private CommandOutputWithStatus executeHg(Path cwd, Iterable<String> params,
       int maxLogLines, Duration timeout) throws CommandException {
+    CommandRunner runner = createRunner(cwd, params, timeout);
+    return
+        maxLogLines >= 0 ? runner.withMaxStdOutLogLines(maxLogLines).execute() : runner.execute();
+  }
+
+  private CommandRunner createRunner(Path cwd, Iterable<String> params, Duration timeout) {
     List<String> allParams = new ArrayList<>(Iterables.size(params) + 1);
     allParams.add("hg"); //TODO(jlliu): resolve Hg binary here
     Iterables.addAll(allParams, params);
     Command cmd = new Command(
         Iterables.toArray(allParams, String.class), null, cwd.toFile());
         //TODO(jlliu): have environment vars
-    CommandRunner runner = new CommandRunner(cmd, timeout).withVerbose(verbose);
-    return
-        maxLogLines >= 0 ? runner.withMaxStdOutLogLines(maxLogLines).execute() : runner.execute();
+    return new CommandRunner(cmd, timeout).withVerbose(verbose);
   }
 
   /**
@@ -254,6 +281,8 @@ public class HgRepository {
    */
   public static class LogCmd {
 
+    private static final Gson GSON = new Gson();
+
     private final HgRepository repo;
 
     private final int limit;
@@ -352,8 +381,10 @@ public class HgRepository {
 
       builder.add("-Tjson");
       try {
-        CommandOutput output = repo.hg(repo.getHgDir(), builder.build(), DEFAULT_TIMEOUT);
-        return parseLog(output.getStdout());
+        ImmutableList.Builder<HgLogEntry> entries = ImmutableList.builder();
+        repo.streamHg(repo.getHgDir(), builder.build(), DEFAULT_TIMEOUT,
+            stdout -> parseLog(stdout, entries));
+        return entries.build();
       } catch (RepoException e) {
         if (UNKNOWN_REVISION.matcher(e.getMessage()).find()) {
           throw new ValidationException("Unknown revision: " + e.getMessage());
@@ -365,20 +396,30 @@ public class HgRepository {
       }
     }
 
-    private ImmutableList<HgLogEntry> parseLog(String log) throws RepoException {
-      if (log.isEmpty()) {
-        return ImmutableList.of();
+    /**
+     * Parses the JSON array printed by 'hg log -Tjson' while it is read, so that only the current
+     * entry is kept in memory.
+     */
+    private static boolean parseLog(InputStream stdout, ImmutableList.Builder<HgLogEntry> entries)
+        throws IOException {
+      Reader reader = new BufferedReader(new InputStreamReader(stdout, UTF_8));
+      reader.mark(1);
+      if (reader.read() == -1) {
+        return true;
       }
-
-      Gson gson = new Gson();
-      Type logListType = new TypeToken<List<HgLogEntry>>() {}.getType();
-
+      reader.reset();
+      JsonReader json = new JsonReader(reader);
       try {
-        List<HgLogEntry> logEntries = gson.fromJson(log.trim(), logListType);
-        return ImmutableList.copyOf(logEntries);
-      } catch (JsonParseException e) {
-        throw new RepoException(String.format("Cannot parse log output: %s", e.getMessage()));
+        json.beginArray();
+        while (json.hasNext()) {
+          HgLogEntry entry = GSON.fromJson(json, HgLogEntry.class);
+          entries.add(entry);
+        }
+        json.endArray();
+      } catch (JsonParseException | IllegalStateException | MalformedJsonException e) {
+        throw new IOException(String.format("Cannot parse log output: %s", e.getMessage()), e);
       }
+      return true;
     }
   }
 
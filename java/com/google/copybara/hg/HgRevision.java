@@ -53,6 +53,11 @@ public class HgRevision implements Revision {
     this.reference = Preconditions.checkNotNull(reference);
   }
 
+  @Override
+  public String contentId() {
+    return globalId;
+  }
+
   @Override
   public String asString() {
     return globalId;
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.http;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpMethods;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.util.Clock;
+import com.google.api.client.util.Sleeper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ascii;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.monitor.EventMonitor.ApiRateLimitEvent;
+import com.google.copybara.monitor.EventMonitor.EventMonitors;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.profiler.Profiler.ProfilerTask;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.Nullable;
+
+/**
+ * Schedules the HTTP requests of the API transports, so that they stay within the rate limits of
+ * the API hosts:
+ *
+ * <ul>
+ *   <li>Limits the number of concurrent requests to each host.
+ *   <li>Reads the 'X-RateLimit-*' headers of the responses. When the remaining quota is low, the
+ *       remaining requests are spread until the quota resets. When it is exhausted, requests wait
+ *       for the reset.
+ *   <li>Retries rate limited responses (429, or 403 with 'Retry-After' or an exhausted quota)
+ *       and, for idempotent requests, server errors, with exponential backoff and jitter.
+ * </ul>
+ *
+ * <p>Waits longer than {@code maxWait} are not done: the request is sent or the error is returned
+ * instead. Waits are recorded in the profiler and the rate limits are reported to the {@link
+ * EventMonitors}.
+ *
+ * <p>The options create one scheduler that all their API transports share, so that the limits are
+ * tracked across the transports of a run.
+ */
+public final class RequestScheduler {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final String RATE_LIMIT_LIMIT = "X-RateLimit-Limit";
+  private static final String RATE_LIMIT_REMAINING = "X-RateLimit-Remaining";
+  private static final String RATE_LIMIT_RESET = "X-RateLimit-Reset";
+  private static final String RETRY_AFTER = "Retry-After";
+
+  private static final int DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST = 8;
+  private static final int DEFAULT_MAX_RETRIES = 3;
+  private static final Duration DEFAULT_INITIAL_BACKOFF = Duration.ofSeconds(1);
+  private static final Duration DEFAULT_MAX_WAIT = Duration.ofMinutes(1);
+  private static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+  /** Below this remaining quota, requests are spread until the quota resets. */
+  private static final int LOW_QUOTA = 100;
+
+  private final int maxConcurrentRequestsPerHost;
+  private final int maxRetries;
+  private final Duration initialBackoff;
+  private final long maxWaitMillis;
+  private final Profiler profiler;
+  private final EventMonitors eventMonitors;
+  private final Sleeper sleeper;
+  private final Clock clock;
+  private final Map<String, HostState> hosts = new ConcurrentHashMap<>();
+
+  /** Creates a scheduler with the default limits. */
+  public static RequestScheduler create(Profiler profiler, EventMonitors eventMonitors) {
+    return new RequestScheduler(DEFAULT_MAX_CONCURRENT_REQUESTS_PER_HOST, DEFAULT_MAX_RETRIES,
+        DEFAULT_INITIAL_BACKOFF, DEFAULT_MAX_WAIT, profiler, eventMonitors, Sleeper.DEFAULT,
+        Clock.SYSTEM);
+  }
+
+  /** Creates a scheduler that sends the requests right away and doesn't retry them. */
+  public static RequestScheduler direct(Profiler profiler, EventMonitors eventMonitors) {
+    return new RequestScheduler(Integer.MAX_VALUE, /*maxRetries=*/ 0, Duration.ZERO,
+        Duration.ZERO, profiler, eventMonitors, Sleeper.DEFAULT, Clock.SYSTEM);
+  }
+
+  @VisibleForTesting
+  RequestScheduler(int maxConcurrentRequestsPerHost, int maxRetries, Duration initialBackoff,
+      Duration maxWait, Profiler profiler, EventMonitors eventMonitors, Sleeper sleeper,
+      Clock clock) {
+    checkArgument(maxConcurrentRequestsPerHost > 0, "maxConcurrentRequestsPerHost must be"
+        + " positive: %s", maxConcurrentRequestsPerHost);
+    checkArgument(maxRetries >= 0, "maxRetries cannot be negative: %s", maxRetries);
+    this.maxConcurrentRequestsPerHost = maxConcurrentRequestsPerHost;
+    this.maxRetries = maxRetries;
+    this.initialBackoff = checkNotNull(initialBackoff);
+    this.maxWaitMillis = maxWait.toMillis();
+    this.profiler = checkNotNull(profiler);
+    this.eventMonitors = checkNotNull(eventMonitors);
+    this.sleeper = checkNotNull(sleeper);
+    this.clock = checkNotNull(clock);
+  }
+
+  /**
+   * Executes {@code request} like {@link HttpRequest#execute()}, waiting and retrying as needed.
+   *
+   * @throws HttpResponseException for error responses that were not retried, or the last one
+   */
+  public HttpResponse execute(HttpRequest request) throws IOException {
+    HostState host = hosts.computeIfAbsent(request.getUrl().getHost(), HostState::new);
+    for (int attempt = 0; ; attempt++) {
+      long throttle = host.reserve();
+      if (throttle > 0) {
+        logger.atInfo().log("Delaying request to %s %dms because of the rate limit", host.name,
+            throttle);
+        sleep("api_rate_limit_wait", throttle);
+        host.reportRateLimit();
+      }
+      try {
+        HttpResponse response = host.send(request);
+        if (host.update(response.getHeaders())) {
+          host.reportRateLimit();
+        }
+        return response;
+      } catch (HttpResponseException e) {
+        boolean hasRateLimit = host.update(e.getHeaders());
+        long retryDelay = attempt < maxRetries ? retryDelayMillis(request, e, attempt) : -1;
+        if (retryDelay < 0) {
+          if (hasRateLimit) {
+            host.reportRateLimit();
+          }
+          throw e;
+        }
+        logger.atWarning().log("Retrying %s %s in %dms. Response: %d %s",
+            request.getRequestMethod(), request.getUrl(), retryDelay, e.getStatusCode(),
+            e.getStatusMessage());
+        host.retried();
+        host.reportRateLimit();
+        sleep("api_retry_backoff", retryDelay);
+      }
+    }
+  }
+
+  /** Returns how long to wait before retrying the failed request, or -1 to not retry it. */
+  private long retryDelayMillis(HttpRequest request, HttpResponseException e, int attempt) {
+    HttpHeaders headers = e.getHeaders();
+    Long retryAfter = parseLong(headers, RETRY_AFTER);
+    long delay;
+    if (e.getStatusCode() == 429 || (e.getStatusCode() == 403 && isRateLimited(e))) {
+      // Not processed by the server, so any request can be retried
+      Long reset = parseLong(headers, RATE_LIMIT_RESET);
+      if (retryAfter != null) {
+        delay = retryAfter * 1000;
+      } else if ("0".equals(headers.getFirstHeaderStringValue(RATE_LIMIT_REMAINING))
+          && reset != null) {
+        delay = Math.max(0, reset * 1000 - clock.currentTimeMillis());
+      } else {
+        delay = backoffMillis(attempt);
+      }
+    } else if (e.getStatusCode() >= 500 && isIdempotent(request)) {
+      delay = retryAfter != null ? retryAfter * 1000 : backoffMillis(attempt);
+    } else {
+      return -1;
+    }
+    return delay <= maxWaitMillis ? delay : -1;
+  }
+
+  private static boolean isRateLimited(HttpResponseException e) {
+    HttpHeaders headers = e.getHeaders();
+    if (headers.getFirstHeaderStringValue(RETRY_AFTER) != null
+        || "0".equals(headers.getFirstHeaderStringValue(RATE_LIMIT_REMAINING))) {
+      return true;
+    }
+    // GitHub secondary rate limits
+    String content = e.getContent() == null ? "" : Ascii.toLowerCase(e.getContent());
+    return content.contains("rate limit") || content.contains("abuse");
+  }
+
+  private static boolean isIdempotent(HttpRequest request) {
+    return request.getRequestMethod().equals(HttpMethods.GET)
+        || request.getRequestMethod().equals(HttpMethods.HEAD);
+  }
+
+  /** Exponential backoff with jitter, so that concurrent clients don't retry at the same time. */
+  private long backoffMillis(int attempt) {
+    long max = Math.min(MAX_BACKOFF.toMillis(), initialBackoff.toMillis() << Math.min(attempt, 20));
+    return max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+  }
+
+  private void sleep(String profilerName, long millis) throws IOException {
+    try (ProfilerTask ignore = profiler.start(profilerName)) {
+      sleeper.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the API rate limit");
+    }
+  }
+
+  @Nullable
+  private static Long parseLong(HttpHeaders headers, String name) {
+    String value = headers.getFirstHeaderStringValue(name);
+    if (value == null) {
+      return null;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      // For example a 'Retry-After' HTTP date
+      return null;
+    }
+  }
+
+  /** The rate limit of a host, as reported by its last response, and the requests done to it. */
+  private final class HostState {
+
+    private final String name;
+    private final Semaphore permits = new Semaphore(maxConcurrentRequestsPerHost);
+    // Guarded by this
+    private int limit = -1;
+    private int remaining = -1;
+    private long resetMillis = -1;
+    private long nextRequestMillis;
+    private long requests;
+    private long retries;
+    private long throttledRequests;
+
+    private HostState(String name) {
+      this.name = name;
+    }
+
+    /**
+     * Reserves a request in the current rate limit period, and returns how long to wait before
+     * sending it.
+     */
+    private synchronized long reserve() {
+      long now = clock.currentTimeMillis();
+      if (remaining < 0 || remaining >= LOW_QUOTA || resetMillis <= now) {
+        return 0;
+      }
+      long wait;
+      if (remaining == 0) {
+        wait = resetMillis - now;
+      } else {
+        // Spread the remaining requests evenly until the reset
+        long start = Math.max(now, nextRequestMillis);
+        nextRequestMillis = start + (resetMillis - now) / remaining;
+        remaining--;
+        wait = start - now;
+      }
+      if (wait > maxWaitMillis) {
+        logger.atWarning().log("Rate limit of %s exhausted until %s. Not waiting for it.", name,
+            Instant.ofEpochMilli(resetMillis));
+        return 0;
+      }
+      if (wait > 0) {
+        throttledRequests++;
+      }
+      return wait;
+    }
+
+    private HttpResponse send(HttpRequest request) throws IOException {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting to send a request to " + name);
+      }
+      try {
+        synchronized (this) {
+          requests++;
+        }
+        return request.execute();
+      } finally {
+        permits.release();
+      }
+    }
+
+    /** Updates the rate limit from the response headers. Returns false if they don't have it. */
+    private boolean update(HttpHeaders headers) {
+      Long newRemaining = parseLong(headers, RATE_LIMIT_REMAINING);
+      if (newRemaining == null) {
+        return false;
+      }
+      Long newLimit = parseLong(headers, RATE_LIMIT_LIMIT);
+      Long newReset = parseLong(headers, RATE_LIMIT_RESET);
+      synchronized (this) {
+        remaining = (int) Math.min(Integer.MAX_VALUE, newRemaining);
+        limit = newLimit == null ? -1 : (int) Math.min(Integer.MAX_VALUE, newLimit);
+        resetMillis = newReset == null ? -1 : newReset * 1000;
+      }
+      return true;
+    }
+
+    private synchronized void retried() {
+      retries++;
+    }
+
+    private void reportRateLimit() {
+      ApiRateLimitEvent event;
+      synchronized (this) {
+        event = new ApiRateLimitEvent(name, limit, remaining,
+            resetMillis < 0 ? null : Instant.ofEpochMilli(resetMillis), requests, retries,
+            throttledRequests);
+      }
+      eventMonitors.dispatchEvent(m -> m.onApiRateLimit(event));
+    }
+  }
+}
@@ -58,4 +58,16 @@ public class ConsoleEventMonitor implements EventMonitor {
     console.verboseFmt("onInfoFinished(): %s", event);
     delegate.onInfoFinished(event);
   }
+
+  @Override
+  public void onBatchMigrationFinished(BatchMigrationFinishedEvent event) {
+    console.verboseFmt("onBatchMigrationFinished(): %s", event);
+    delegate.onBatchMigrationFinished(event);
+  }
+
+  @Override
+  public void onApiRateLimit(ApiRateLimitEvent event) {
+    console.verboseFmt("onApiRateLimit(): %s", event);
+    delegate.onApiRateLimit(event);
+  }
 }
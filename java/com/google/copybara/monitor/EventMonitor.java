@@ -26,6 +26,8 @@ import com.google.copybara.Info;
 import com.google.copybara.Revision;
 import com.google.copybara.profiler.Task;
 import com.google.copybara.util.ExitCode;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import javax.annotation.Nullable;
@@ -54,6 +56,15 @@ public interface EventMonitor {
   /** Invoked when an info subcommand finishes, only once at the end of the execution */
   default void onInfoFinished(InfoFinishedEvent event) {};
 
+  /** Invoked when each of the migrations run by the batch subcommand finishes */
+  default void onBatchMigrationFinished(BatchMigrationFinishedEvent event) {}
+
+  /**
+   * Invoked when an API request reports the rate limit of its host, or when it is throttled or
+   * retried because of it.
+   */
+  default void onApiRateLimit(ApiRateLimitEvent event) {}
+
   /** Event that happens for every migration that is started. */
   class MigrationStartedEvent {
     @Override
@@ -169,6 +180,112 @@ public interface EventMonitor {
 
   }
 
+  /** Event that happens for every migration of a batch that is finished. */
+  class BatchMigrationFinishedEvent {
+
+    private final String migrationName;
+    private final ExitCode exitCode;
+    private final Duration elapsed;
+
+    public BatchMigrationFinishedEvent(String migrationName, ExitCode exitCode,
+        Duration elapsed) {
+      this.migrationName = Preconditions.checkNotNull(migrationName);
+      this.exitCode = Preconditions.checkNotNull(exitCode);
+      this.elapsed = Preconditions.checkNotNull(elapsed);
+    }
+
+    public String getMigrationName() {
+      return migrationName;
+    }
+
+    public ExitCode getExitCode() {
+      return exitCode;
+    }
+
+    /** Time spent running the migration, not including the time waiting to be run. */
+    public Duration getElapsed() {
+      return elapsed;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("migrationName", migrationName)
+          .add("exitCode", exitCode)
+          .add("elapsed", elapsed)
+          .toString();
+    }
+  }
+
+  /** Event with the rate limit of an API host and the requests done to it. */
+  class ApiRateLimitEvent {
+
+    private final String host;
+    private final int limit;
+    private final int remaining;
+    @Nullable private final Instant reset;
+    private final long requests;
+    private final long retries;
+    private final long throttledRequests;
+
+    public ApiRateLimitEvent(String host, int limit, int remaining, @Nullable Instant reset,
+        long requests, long retries, long throttledRequests) {
+      this.host = Preconditions.checkNotNull(host);
+      this.limit = limit;
+      this.remaining = remaining;
+      this.reset = reset;
+      this.requests = requests;
+      this.retries = retries;
+      this.throttledRequests = throttledRequests;
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    /** Requests allowed per period, or -1 if unknown. */
+    public int getLimit() {
+      return limit;
+    }
+
+    /** Requests remaining in the current period, or -1 if unknown. */
+    public int getRemaining() {
+      return remaining;
+    }
+
+    /** When the current period ends, if known. */
+    public Optional<Instant> getReset() {
+      return Optional.ofNullable(reset);
+    }
+
+    /** Requests sent to the host, including retries. */
+    public long getRequests() {
+      return requests;
+    }
+
+    public long getRetries() {
+      return retries;
+    }
+
+    /** Requests that were delayed to stay within the rate limit. */
+    public long getThrottledRequests() {
+      return throttledRequests;
+    }
+
+    @Override
+    public String toString() {
+      return MoreObjects.toStringHelper(this)
+          .add("host", host)
+          .add("limit", limit)
+          .add("remaining", remaining)
+          .add("reset", reset)
+          .add("requests", requests)
+          .add("retries", retries)
+          .add("throttledRequests", throttledRequests)
+          .toString();
+    }
+  }
+
   /**
    * Holder for all active event monitors
    */
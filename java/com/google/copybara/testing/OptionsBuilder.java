@@ -21,6 +21,7 @@ import com.google.common.base.StandardSystemProperty;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.jimfs.Jimfs;
+import com.google.copybara.BatchOptions;
 import com.google.copybara.GeneralOptions;
 import com.google.copybara.Option;
 import com.google.copybara.Options;
@@ -99,6 +100,8 @@ public class OptionsBuilder {
 
   public TestingOptions testingOptions = new TestingOptions();
 
+  public BatchOptions batch = new BatchOptions();
+
   public final OptionsBuilder setWorkdirToRealTempDir() {
     return setWorkdirToRealTempDir(StandardSystemProperty.USER_DIR.value());
   }
@@ -156,7 +159,8 @@ public class OptionsBuilder {
     return ImmutableList
         .of(general, folderDestination, folderOrigin, git, gitOrigin, githubPrOrigin,
             gitDestination, gitMirrorOptions, gerrit, github, githubDestination, hg, hgOrigin,
-            workflowOptions, testingOptions, patch, debug, remoteFile, buildifier, buildozer);
+            workflowOptions, testingOptions, patch, debug, remoteFile, buildifier, buildozer,
+            batch);
   }
 
   public final Options build() {
@@ -26,6 +26,8 @@ public class TestingEventMonitor implements EventMonitor {
   public List<ChangeMigrationStartedEvent> changeMigrationStartedEvents = new ArrayList<>();
   public List<ChangeMigrationFinishedEvent> changeMigrationFinishedEvents = new ArrayList<>();
   public InfoFinishedEvent infoFinishedEvent;
+  public List<ApiRateLimitEvent> apiRateLimitEvents = new ArrayList<>();
+  public List<BatchMigrationFinishedEvent> batchMigrationFinishedEvents = new ArrayList<>();
 
   @Override
   public void onChangeMigrationStarted(ChangeMigrationStartedEvent event) {
@@ -43,6 +45,16 @@ public class TestingEventMonitor implements EventMonitor {
     infoFinishedEvent = event;
   }
 
+  @Override
+  public void onBatchMigrationFinished(BatchMigrationFinishedEvent event) {
+    batchMigrationFinishedEvents.add(event);
+  }
+
+  @Override
+  public synchronized void onApiRateLimit(ApiRateLimitEvent event) {
+    apiRateLimitEvents.add(event);
+  }
+
   public int changeMigrationStartedEventCount() {
     return changeMigrationStartedEvents.size();
   }
@@ -26,6 +26,8 @@ import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nullable;
 
 /**
@@ -38,6 +40,7 @@ final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
   private final PathMatcher pathMatcher;
   private final boolean isCopy;
   private final CopyOption[] moveMode;
+  private final List<Path> processed = new ArrayList<>();
 
   CopyMoveVisitor(Path before, Path after, @Nullable PathMatcher pathMatcher, boolean overwrite, boolean isCopy) {
     this.before = before;
@@ -69,7 +72,15 @@ final class CopyMoveVisitor extends SimpleFileVisitor<Path> {
       } else {
         Files.move(source, dest, moveMode);
       }
+      processed.add(source);
     }
     return FileVisitResult.CONTINUE;
   }
+
+  /**
+   * Returns the source files that were copied or moved.
+   */
+  List<Path> getProcessed() {
+    return processed;
+  }
 }
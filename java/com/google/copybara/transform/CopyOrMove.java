@@ -26,6 +26,8 @@ import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.treestate.TreeState;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.FileUtil;
 import com.google.copybara.util.Glob;
 import java.io.IOException;
@@ -38,6 +40,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -116,6 +119,7 @@ public class CopyOrMove implements Transformation {
           work.getConsole(),
           String.format("Error moving '%s'. It doesn't exist in the workdir", this.before),
           work.getIgnoreNoop());
+        work.getTreeState().notifyNoChange();
         return;
       }
     Path after = work.getCheckoutDir().resolve(this.after).normalize();
@@ -141,25 +145,59 @@ public class CopyOrMove implements Transformation {
 
         // Simple move of all the contents of a directory
         if (beforeIsDir && !isCopy && paths.equals(Glob.ALL_FILES)) {
+          List<Path> moved = listFilesRecursively(before);
           moveAllFilesInDir(before, after, work.getCheckoutDir());
+          notifyTreeState(work.getTreeState(), before, after, moved);
           return;
         }
 
-        Files.walkFileTree(before,
-            new CopyMoveVisitor(before, after, beforeIsDir ? paths.relativeTo(before) : null,
-                overwrite, isCopy));
+        CopyMoveVisitor visitor = new CopyMoveVisitor(before, after,
+            beforeIsDir ? paths.relativeTo(before) : null, overwrite, isCopy);
+        Files.walkFileTree(before, visitor);
 
         // Delete 'before' folder if we moved all the files. We don't traverse to check emptyness
         // recursively but it should be good enough for now.
         if (beforeIsDir && !isCopy) {
           recursiveDeleteIfEmpty(before);
         }
+        notifyTreeState(work.getTreeState(), before, after, visitor.getProcessed());
       } catch (FileAlreadyExistsException e) {
         throw new ValidationException(
             String.format("Cannot move file to '%s' because it already exists", e.getFile()), e);
       }
   }
 
+  /**
+   * Notify the {@link TreeState} of the files created in {@code after} and, for moves, the files
+   * deleted from {@code before}, so that the next transformation doesn't need to read the
+   * filesystem again.
+   */
+  private void notifyTreeState(TreeState treeState, Path before, Path after, List<Path> sources) {
+    List<FileState> added = new ArrayList<>(sources.size());
+    List<FileState> deleted = new ArrayList<>(isCopy ? 0 : sources.size());
+    for (Path source : sources) {
+      added.add(new FileState(after.resolve(before.relativize(source))));
+      if (!isCopy) {
+        deleted.add(new FileState(source));
+      }
+    }
+    treeState.notifyDelete(deleted);
+    treeState.notifyAdd(added);
+  }
+
+  /** Returns all the files, including symlinks, inside a directory */
+  private static List<Path> listFilesRecursively(Path dir) throws IOException {
+    List<Path> result = new ArrayList<>();
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        result.add(file);
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return result;
+  }
+
   /** Traverse a directory files/folders recursively and delete any empty folder */
   private void recursiveDeleteIfEmpty(Path dir) throws IOException {
     Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
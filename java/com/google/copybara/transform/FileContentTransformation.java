@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.Glob;
+import javax.annotation.Nullable;
+
+/**
+ * A transformation that rewrites the content of each file matching {@link #getPaths()},
+ * independently of any other file.
+ *
+ * <p>Consecutive transformations of this kind are joined in a {@link ReplaceBatch}, so that each
+ * file is read and written only once.
+ */
+interface FileContentTransformation extends Transformation {
+
+  /**
+   * Files that this transformation applies to.
+   */
+  Glob getPaths();
+
+  /**
+   * Called once before processing any file, for example for printing warnings.
+   */
+  default void beforeRun(TransformWork work) {}
+
+  /**
+   * A prefilter for files that this transformation cannot change. Files are only checked against
+   * it while they have their original content.
+   */
+  default LiteralPrefilter getPrefilter() {
+    return LiteralPrefilter.NONE;
+  }
+
+  /**
+   * Returns a function for transforming the content of files. Each batch of files, that might be
+   * processed in parallel with other batches, gets its own instance.
+   */
+  ContentFunction newContentFunction();
+
+  /**
+   * Transforms the content of a file.
+   */
+  interface ContentFunction {
+
+    /**
+     * Returns the new content of the file, or null if the transformation didn't change it.
+     */
+    @Nullable
+    String apply(String content) throws ValidationException;
+  }
+}
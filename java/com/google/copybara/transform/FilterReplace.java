@@ -16,26 +16,18 @@
 
 package com.google.copybara.transform;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Iterables;
-import com.google.common.flogger.FluentLogger;
-import com.google.copybara.LocalParallelizer.TransformFunc;
+import com.google.common.collect.ImmutableList;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.WorkflowOptions;
+import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
-import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
 import javax.annotation.Nullable;
 import net.starlark.java.annot.StarlarkBuiltin;
 import net.starlark.java.syntax.Location;
@@ -44,12 +36,12 @@ import net.starlark.java.syntax.Location;
 // neither of them extend each other
 @StarlarkBuiltin(name = "filter_replace",
     doc = "A core.filter_replace transformation")
-public class FilterReplace implements Transformation, ReversibleFunction<String, String>{
-
-  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+public class FilterReplace implements FileContentTransformation,
+    ReversibleFunction<String, String> {
 
   private final WorkflowOptions workflowOptions;
   private final Pattern before;
+  private final LiteralPrefilter prefilter;
   @Nullable private final Pattern after;
   private final int group;
   private final int reverseGroup;
@@ -62,6 +54,7 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
       ReversibleFunction<String, String> mapping, Glob glob, Location location) {
     this.workflowOptions = workflowOptions;
     this.before = before;
+    this.prefilter = LiteralPrefilter.fromRegex(before.pattern());
     this.after = after;
     this.group = group;
     this.reverseGroup = reverseGroup;
@@ -71,25 +64,40 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
   }
 
   @Override
-  public void transform(TransformWork work) throws IOException, ValidationException {
-    Path checkoutDir = work.getCheckoutDir();
-
-    Iterable<FileState> files = work.getTreeState().find(glob.relativeTo(checkoutDir));
-    BatchReplace batchReplace = new BatchReplace();
-    workflowOptions.parallelizer().run(files, batchReplace);
-    List<FileState> changed = batchReplace.getChanged();
-    boolean matchedFile = batchReplace.matchedFile;
-    logger.atInfo().log("Applied %s to %d files. %d changed.",
-        this, Iterables.size(files), changed.size());
-
-    work.getTreeState().notifyModify(changed);
-    if (changed.isEmpty()) {
-      workflowOptions.reportNoop(
-          work.getConsole(),
-          "Transformation '" + toString() + "' was a no-op because it didn't "
-              + (matchedFile ? "change any of the matching files" : "match any file"),
-          work.getIgnoreNoop());
-    }
+  public void transform(TransformWork work)
+      throws IOException, ValidationException, RepoException {
+    new ReplaceBatch(workflowOptions, ImmutableList.of(this)).transform(work);
+  }
+
+  @Override
+  public Glob getPaths() {
+    return glob;
+  }
+
+  @Override
+  public LiteralPrefilter getPrefilter() {
+    return prefilter;
+  }
+
+  @Override
+  public ContentFunction newContentFunction() {
+    return originalContent -> {
+      String transformed = replaceString(originalContent);
+      // replaceString returns the same instance if not replacement happens. This avoid comparing
+      // the whole file content.
+      //noinspection StringEquality
+      return transformed == originalContent ? null : transformed;
+    };
+  }
+
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return ReplaceBatch.isJoinable(transformation);
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return ReplaceBatch.join(workflowOptions, this, next);
   }
 
   @Override
@@ -127,47 +135,10 @@ public class FilterReplace implements Transformation, ReversibleFunction<String,
     return internalReverse();
   }
 
-  private class BatchReplace implements TransformFunc<FileState, Boolean> {
-
-    private final List<FileState> changed = new ArrayList<>();
-    private boolean matchedFile = false;
-
-    public List<FileState> getChanged() {
-      return changed;
-    }
-
-
-    @Override
-    public Boolean run(Iterable<FileState> elements) throws IOException {
-      List<FileState> changed = new ArrayList<>();
-      boolean matchedFile = false;
-      for (FileState file : elements) {
-        if (Files.isSymbolicLink(file.getPath())) {
-          continue;
-        }
-        matchedFile = true;
-        String originalContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        String transformed = replaceString(originalContent);
-        // replaceString returns the same instance if not replacement happens. This avoid comparing
-        // the whole file content.
-        //noinspection StringEquality
-        if (transformed == originalContent) {
-          continue;
-        }
-        changed.add(file);
-        Files.write(file.getPath(), transformed.getBytes(UTF_8));
-      }
-
-      synchronized (this) {
-        this.matchedFile |= matchedFile;
-        this.changed.addAll(changed);
-      }
-      // We cannot return null here.
-      return true;
-    }
-  }
-
   private String replaceString(String originalContent) {
+    if (!prefilter.mayMatch(originalContent)) {
+      return originalContent;
+    }
     Pattern pattern = Pattern.compile(before.pattern());
     Matcher matcher = pattern.matcher(originalContent);
 
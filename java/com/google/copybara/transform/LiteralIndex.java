@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.primitives.Ints;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An Aho-Corasick automaton over the literals of several {@link LiteralPrefilter}s, that finds in
+ * a single pass over a text which of the prefilters might match it.
+ */
+final class LiteralIndex {
+
+  private static final int ROOT = 0;
+
+  private final int size;
+  private final BitSet alwaysMatch = new BitSet();
+  /**
+   * Transitions from the root, indexed by char. Most text chars are resolved here. Sized to the
+   * greatest first char of the literals, usually ASCII, so chars past the end go to the root.
+   */
+  private final int[] rootTransitions;
+  /** Sorted transition labels and targets for each non-root state. */
+  private final char[][] labels;
+  private final int[][] targets;
+  private final int[] failure;
+  /** Prefilters that match when the automaton reaches a state. Null if none. */
+  private final int[][] outputs;
+
+  LiteralIndex(List<LiteralPrefilter> prefilters) {
+    this.size = prefilters.size();
+    List<Map<Character, Integer>> trie = new ArrayList<>();
+    List<Set<Integer>> stateOutputs = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    stateOutputs.add(new TreeSet<>());
+    for (int i = 0; i < prefilters.size(); i++) {
+      LiteralPrefilter prefilter = prefilters.get(i);
+      if (prefilter.isNone()) {
+        alwaysMatch.set(i);
+        continue;
+      }
+      for (String literal : prefilter.getLiterals()) {
+        int state = ROOT;
+        for (int j = 0; j < literal.length(); j++) {
+          Integer next = trie.get(state).get(literal.charAt(j));
+          if (next == null) {
+            next = trie.size();
+            trie.add(new TreeMap<>());
+            stateOutputs.add(new TreeSet<>());
+            trie.get(state).put(literal.charAt(j), next);
+          }
+          state = next;
+        }
+        stateOutputs.get(state).add(i);
+      }
+    }
+
+    int states = trie.size();
+    labels = new char[states][];
+    targets = new int[states][];
+    failure = new int[states];
+    outputs = new int[states][];
+    for (int state = 0; state < states; state++) {
+      Map<Character, Integer> transitions = trie.get(state);
+      labels[state] = new char[transitions.size()];
+      targets[state] = new int[transitions.size()];
+      int j = 0;
+      for (Map.Entry<Character, Integer> e : transitions.entrySet()) {
+        labels[state][j] = e.getKey();
+        targets[state][j] = e.getValue();
+        j++;
+      }
+    }
+    rootTransitions = new int[labels[ROOT].length == 0
+        ? 0
+        : labels[ROOT][labels[ROOT].length - 1] + 1];
+    for (int j = 0; j < labels[ROOT].length; j++) {
+      rootTransitions[labels[ROOT][j]] = targets[ROOT][j];
+    }
+
+    // Breadth-first, so that the failure state of a state is always computed before it is used.
+    Queue<Integer> queue = new ArrayDeque<>();
+    for (int target : targets[ROOT]) {
+      failure[target] = ROOT;
+      queue.add(target);
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      for (int j = 0; j < labels[state].length; j++) {
+        int target = targets[state][j];
+        failure[target] = next(failure[state], labels[state][j]);
+        stateOutputs.get(target).addAll(stateOutputs.get(failure[target]));
+        queue.add(target);
+      }
+      if (!stateOutputs.get(state).isEmpty()) {
+        outputs[state] = Ints.toArray(stateOutputs.get(state));
+      }
+    }
+  }
+
+  /**
+   * Returns the indexes of the prefilters that might match {@code text}.
+   */
+  BitSet mayMatch(CharSequence text) {
+    BitSet result = (BitSet) alwaysMatch.clone();
+    int remaining = size - result.cardinality();
+    int state = ROOT;
+    for (int i = 0; i < text.length() && remaining > 0; i++) {
+      state = next(state, text.charAt(i));
+      int[] matches = outputs[state];
+      if (matches != null) {
+        for (int match : matches) {
+          if (!result.get(match)) {
+            result.set(match);
+            remaining--;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  private int next(int state, char c) {
+    while (state != ROOT) {
+      int j = Arrays.binarySearch(labels[state], c);
+      if (j >= 0) {
+        return targets[state][j];
+      }
+      state = failure[state];
+    }
+    return c < rootTransitions.length ? rootTransitions[c] : ROOT;
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A cheap check that tells if a regex cannot match a text, because the text doesn't contain any of
+ * the literals that a match requires.
+ *
+ * <p>A prefilter without literals ({@link #NONE}) doesn't filter anything.
+ */
+final class LiteralPrefilter {
+
+  /** A prefilter that considers that any text might match. */
+  static final LiteralPrefilter NONE = new LiteralPrefilter(ImmutableSet.of());
+
+  private final ImmutableSet<String> literals;
+
+  private LiteralPrefilter(ImmutableSet<String> literals) {
+    this.literals = Preconditions.checkNotNull(literals);
+  }
+
+  /**
+   * Creates a prefilter for a regex that cannot match unless the text contains at least one of
+   * {@code literals}.
+   */
+  static LiteralPrefilter anyOf(Iterable<String> literals) {
+    ImmutableSet<String> set = ImmutableSet.copyOf(literals);
+    // An empty literal is always contained, so it doesn't filter anything.
+    if (set.isEmpty() || set.contains("")) {
+      return NONE;
+    }
+    return new LiteralPrefilter(set);
+  }
+
+  /**
+   * Creates a prefilter for a RE2 regex by finding the longest literal that every match contains.
+   *
+   * <p>The analysis is conservative: it only looks at top-level literal characters, and returns
+   * {@link #NONE} for anything it doesn't understand, like alternations or flags.
+   */
+  static LiteralPrefilter fromRegex(String regex) {
+    String longest = "";
+    StringBuilder current = new StringBuilder();
+    int i = 0;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '|':
+          return NONE;
+        case '(':
+          if (regex.startsWith("(?", i)
+              && !regex.startsWith("(?:", i) && !regex.startsWith("(?P<", i)) {
+            // Flags, like (?i), change how the rest of the regex matches.
+            return NONE;
+          }
+          longest = longest(longest, current);
+          int end = skipGroup(regex, i);
+          if (end == -1) {
+            return NONE;
+          }
+          i = end;
+          continue;
+        case '[':
+          longest = longest(longest, current);
+          end = skipClass(regex, i);
+          if (end == -1) {
+            return NONE;
+          }
+          i = end;
+          continue;
+        case '.':
+        case '^':
+        case '$':
+          longest = longest(longest, current);
+          break;
+        case '*':
+        case '?':
+          // The previous character is optional
+          dropLastChar(current);
+          longest = longest(longest, current);
+          break;
+        case '+':
+          // The previous character is required but might be repeated
+          longest = longest(longest, current);
+          break;
+        case '{':
+          end = skipRepetition(regex, i);
+          if (end == -1) {
+            return NONE;
+          }
+          dropLastChar(current);
+          longest = longest(longest, current);
+          i = end;
+          continue;
+        case '\\':
+          if (i + 1 >= regex.length()) {
+            return NONE;
+          }
+          char escaped = regex.charAt(i + 1);
+          if (escaped == 'Q') {
+            int quoteEnd = regex.indexOf("\\E", i + 2);
+            current.append(regex, i + 2, quoteEnd == -1 ? regex.length() : quoteEnd);
+            i = quoteEnd == -1 ? regex.length() : quoteEnd + 2;
+            continue;
+          }
+          if (!Character.isLetterOrDigit(escaped)) {
+            current.append(escaped);
+          } else if ("ntrfv".indexOf(escaped) != -1) {
+            current.append(escaped == 'n' ? '\n'
+                : escaped == 't' ? '\t'
+                : escaped == 'r' ? '\r'
+                : escaped == 'f' ? '\f'
+                : '\u000B');
+          } else if ("dDsSwWbBAz".indexOf(escaped) != -1) {
+            longest = longest(longest, current);
+          } else {
+            // Unicode classes, hex or octal escapes, etc.
+            return NONE;
+          }
+          i += 2;
+          continue;
+        default:
+          current.append(c);
+      }
+      i++;
+    }
+    longest = longest(longest, current);
+    return longest.isEmpty() ? NONE : new LiteralPrefilter(ImmutableSet.of(longest));
+  }
+
+  /**
+   * Returns true if the prefilter doesn't filter anything.
+   */
+  boolean isNone() {
+    return literals.isEmpty();
+  }
+
+  /**
+   * The literals that a matching text contains at least one of. Empty for {@link #NONE}.
+   */
+  ImmutableSet<String> getLiterals() {
+    return literals;
+  }
+
+  /**
+   * Returns false if the regex cannot match {@code text}.
+   */
+  boolean mayMatch(String text) {
+    if (literals.isEmpty()) {
+      return true;
+    }
+    for (String literal : literals) {
+      if (text.contains(literal)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("literals", literals)
+        .toString();
+  }
+
+  private static String longest(String longest, StringBuilder current) {
+    String result = current.length() > longest.length() ? current.toString() : longest;
+    current.setLength(0);
+    return result;
+  }
+
+  private static void dropLastChar(StringBuilder current) {
+    if (current.length() == 0) {
+      return;
+    }
+    current.setLength(current.length() - 1);
+    // Don't leave half of a surrogate pair
+    if (current.length() > 0 && Character.isHighSurrogate(current.charAt(current.length() - 1))) {
+      current.setLength(current.length() - 1);
+    }
+  }
+
+  /** Returns the index after the group that starts at {@code start}, or -1 if not closed. */
+  private static int skipGroup(String regex, int start) {
+    int depth = 0;
+    int i = start;
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[') {
+        i = skipClass(regex, i);
+        if (i == -1) {
+          return -1;
+        }
+        continue;
+      }
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+        if (depth == 0) {
+          return i + 1;
+        }
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /** Returns the index after the class that starts at {@code start}, or -1 if not closed. */
+  private static int skipClass(String regex, int start) {
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      i++;
+    }
+    // A ']' just after the opening is part of the class
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      i++;
+    }
+    while (i < regex.length()) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == '[' && regex.startsWith("[:", i)) {
+        int end = regex.indexOf(":]", i + 2);
+        if (end == -1) {
+          return -1;
+        }
+        i = end + 2;
+        continue;
+      }
+      if (c == ']') {
+        return i + 1;
+      }
+      i++;
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the index after a repetition like {2} or {1,3} that starts at {@code start}, or -1 if
+   * it is not a repetition.
+   */
+  private static int skipRepetition(String regex, int start) {
+    int i = start + 1;
+    int digits = 0;
+    while (i < regex.length() && (Character.isDigit(regex.charAt(i)) || regex.charAt(i) == ',')) {
+      digits++;
+      i++;
+    }
+    if (digits == 0 || i >= regex.length() || regex.charAt(i) != '}') {
+      return -1;
+    }
+    return i + 1;
+  }
+}
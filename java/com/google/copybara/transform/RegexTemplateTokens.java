@@ -30,6 +30,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.google.copybara.templatetoken.Parser;
 import com.google.copybara.templatetoken.Token;
+import com.google.copybara.templatetoken.Token.TokenType;
 import com.google.re2j.Matcher;
 import com.google.re2j.Pattern;
 import java.util.ArrayList;
@@ -55,6 +56,7 @@ public final class RegexTemplateTokens {
   private final ImmutableList<Token> tokens;
   private final Set<String> unusedGroups;
   private final Location location;
+  private final LiteralPrefilter prefilter;
 
   public RegexTemplateTokens(
       String template, Map<String, Pattern> regexGroups, boolean repeatedGroups,
@@ -67,6 +69,7 @@ public final class RegexTemplateTokens {
     this.before = buildBefore(regexGroups, repeatedGroups);
 
     this.unusedGroups = Sets.difference(regexGroups.keySet(), groupIndexes.keySet());
+    this.prefilter = buildPrefilter();
   }
 
   /**
@@ -77,6 +80,14 @@ public final class RegexTemplateTokens {
     return before;
   }
 
+  /**
+   * A prefilter for the "before" regex, based on the longest literal token of the template, that
+   * every match contains.
+   */
+  LiteralPrefilter getPrefilter() {
+    return prefilter;
+  }
+
   public ImmutableListMultimap<String, Integer> getGroupIndexes() {
     return ImmutableListMultimap.copyOf(groupIndexes);
   }
@@ -136,6 +147,9 @@ public final class RegexTemplateTokens {
     }
 
     public String replace(String content) {
+      if (!prefilter.mayMatch(content)) {
+        return content;
+      }
       List<String> originalRanges = multiline
           ? ImmutableList.of(content)
           : Splitter.on('\n').splitToList(content);
@@ -148,6 +162,9 @@ public final class RegexTemplateTokens {
     }
 
     private String replaceLine(String line) {
+      if (!multiline && !prefilter.mayMatch(line)) {
+        return line;
+      }
       if (patternsToIgnore != null) {
         for (Pattern patternToIgnore : patternsToIgnore) {
           if (patternToIgnore.matches(line)) {
@@ -256,6 +273,16 @@ public final class RegexTemplateTokens {
     return Objects.hashCode(before, tokens);
   }
 
+  private LiteralPrefilter buildPrefilter() {
+    String longest = "";
+    for (Token token : tokens) {
+      if (token.getType() == TokenType.LITERAL && token.getValue().length() > longest.length()) {
+        longest = token.getValue();
+      }
+    }
+    return LiteralPrefilter.anyOf(ImmutableList.of(longest));
+  }
+
   /**
    * Converts this sequence of tokens into a regex which can be used to search a string. It
    * automatically quotes literals and represents interpolations as named groups.
@@ -25,9 +25,12 @@ import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.WorkflowOptions;
 import com.google.copybara.exception.ValidationException;
-import com.google.copybara.util.FileUtil;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import net.starlark.java.syntax.Location;
 
 /**
@@ -56,8 +59,16 @@ public class Remove implements Transformation {
             + " transformations like core.copy(). Please use origin_files exclude for"
             + " filtering out files.");
 
-    int numDeletes = FileUtil.deleteFilesRecursively(work.getCheckoutDir(),
-        glob.relativeTo(work.getCheckoutDir()));
+    // Use the TreeState for finding the files, so that the filesystem is not read again if a
+    // previous transformation already did it.
+    List<FileState> deleted = new ArrayList<>();
+    for (FileState file : work.getTreeState().find(glob.relativeTo(work.getCheckoutDir()))) {
+      if (Files.deleteIfExists(file.getPath())) {
+        deleted.add(file);
+      }
+    }
+    work.getTreeState().notifyDelete(deleted);
+    int numDeletes = deleted.size();
     logger.atInfo().log("Deleted %d files for glob: %s", numDeletes, glob);
     if (numDeletes  == 0) {
       workflowOptions.reportNoop(
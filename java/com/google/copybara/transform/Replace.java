@@ -17,33 +17,26 @@
 package com.google.copybara.transform;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
-import com.google.common.flogger.FluentLogger;
-import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.WorkflowOptions;
+import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.transform.RegexTemplateTokens.Replacer;
-import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.re2j.Pattern;
 import com.google.re2j.PatternSyntaxException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.function.Supplier;
 import net.starlark.java.eval.EvalException;
 import net.starlark.java.eval.Starlark;
 import net.starlark.java.syntax.Location;
@@ -68,9 +61,7 @@ import net.starlark.java.syntax.Location;
  *
  * TODO(copybara-team): Consider making this configurable to replace multiple matches.
  */
-public final class Replace implements Transformation {
-
-  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+public final class Replace implements FileContentTransformation {
 
   private final RegexTemplateTokens before;
   private final RegexTemplateTokens after;
@@ -117,33 +108,56 @@ public final class Replace implements Transformation {
 
   @Override
   public void transform(TransformWork work)
-      throws IOException, ValidationException {
+      throws IOException, ValidationException, RepoException {
+    new ReplaceBatch(workflowOptions, ImmutableList.of(this)).transform(work);
+  }
 
+  @Override
+  public void beforeRun(TransformWork work) {
     work.getConsole().verboseFmt("Running Replace %s", this);
     if (before.getBefore().matches("") && !firstOnly) {
       work.getConsole().warnFmt("Replace %s matches the empty String, this is likely to cause"
           + " unintended behavior, unless it is a no-op.", this);
     }
-    Path checkoutDir = work.getCheckoutDir();
+  }
 
-    Iterable<FileState> files = work.getTreeState().find(
-        paths.relativeTo(checkoutDir));
-    BatchReplace batchReplace = new BatchReplace(this::createReplacer,
-        before.getBefore().toString());
-    workflowOptions.parallelizer().run(files, batchReplace);
-    List<FileState> changed = batchReplace.getChanged();
-    boolean matchedFile = batchReplace.isMatchedFile();
-    logger.atInfo().log( "Applied %s to %d files. %d changed.",
-        this, Iterables.size(files), changed.size());
+  @Override
+  public LiteralPrefilter getPrefilter() {
+    return before.getPrefilter();
+  }
 
-    work.getTreeState().notifyModify(changed);
-    if (changed.isEmpty()) {
-      workflowOptions.reportNoop(
-          work.getConsole(),
-          "Transformation '" + toString() + "' was a no-op because it didn't "
-              + (matchedFile ? "change any of the matching files" : "match any file"),
-          work.getIgnoreNoop());
-    }
+  @Override
+  public ContentFunction newContentFunction() {
+    Replacer replacer = createReplacer();
+    boolean emptyBefore = before.getBefore().toString().equals("");
+    return originalFileContent -> {
+      if (!replacer.isFirstOnly() && emptyBefore && originalFileContent.length() > 10_000) {
+        throw new ValidationException(
+            "Error trying to replace empty string with text on a big file, this usually"
+                + " happens if you use the transform"
+                + " core.replace(before = '', after = 'some text') or, more commonly, when"
+                + " a you have a transform like core.replace(before = 'some text', after = '')"
+                + " and is reversed in another workflow. The effect of this transform is not"
+                + " what you want, as it will replace every single character with 'some text'."
+                + " In the case of the reverse, the fix is to either wrap the core.replace in:"
+                + " core.transform([core.replace(...)], reversal =[]) so that it doesn't do"
+                + " anything on the reversal or, even better, to use a reversible scrubber like"
+                + " core.replace(before = 'confidential text', after = 'some text that is safe"
+                + " to be public'): " + replacer.getLocation());
+      }
+      String transformed = replacer.replace(originalFileContent);
+      return originalFileContent.equals(transformed) ? null : transformed;
+    };
+  }
+
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return ReplaceBatch.isJoinable(transformation);
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return ReplaceBatch.join(workflowOptions, this, next);
   }
 
   @Override
@@ -217,77 +231,11 @@ public final class Replace implements Transformation {
     return parsedGroups;
   }
 
-  private final static class BatchReplace
-      implements LocalParallelizer.TransformFunc<FileState, Boolean> {
-
-
-    private final Supplier<Replacer> replacerSupplier;
-
-    private final List<FileState> changed = new ArrayList<>();
-    private boolean matchedFile = false;
-    private final boolean emptyBefore;
-
-    BatchReplace(Supplier<Replacer> replacerSupplier, String before) {
-      this.replacerSupplier = checkNotNull(replacerSupplier);
-      emptyBefore = before.equals("");
-    }
-
-    public List<FileState> getChanged() {
-      return changed;
-    }
-
-    boolean isMatchedFile() {
-      return matchedFile;
-    }
-
-    @Override
-    public Boolean run(Iterable<FileState> elements) throws IOException, ValidationException {
-      Replacer replacer = replacerSupplier.get();
-      List<FileState> changed = new ArrayList<>();
-      boolean matchedFile = false;
-      for (FileState file : elements) {
-        if (Files.isSymbolicLink(file.getPath())) {
-          continue;
-        }
-        matchedFile = true;
-        String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-
-        if (!replacer.isFirstOnly() && emptyBefore && originalFileContent.length() > 10_000) {
-          throw new ValidationException(
-              "Error trying to replace empty string with text on a big file, this usually"
-                  + " happens if you use the transform"
-                  + " core.replace(before = '', after = 'some text') or, more commonly, when"
-                  + " a you have a transform like core.replace(before = 'some text', after = '')"
-                  + " and is reversed in another workflow. The effect of this transform is not"
-                  + " what you want, as it will replace every single character with 'some text'."
-                  + " In the case of the reverse, the fix is to either wrap the core.replace in:"
-                  + " core.transform([core.replace(...)], reversal =[]) so that it doesn't do"
-                  + " anything on the reversal or, even better, to use a reversible scrubber like"
-                  + " core.replace(before = 'confidential text', after = 'some text that is safe"
-                  + " to be public'): " + replacer.getLocation());
-        }
-        String transformed = replacer.replace(originalFileContent);
-        if (!originalFileContent.equals(transformed)) {
-          synchronized (this) {
-            changed.add(file);
-          }
-          Files.write(file.getPath(), transformed.getBytes(UTF_8));
-        }
-      }
-      synchronized (this) {
-        this.matchedFile |= matchedFile;
-        this.changed.addAll(changed);
-      }
-      // We cannot return null here.
-      return true;
-    }
-
-  }
-
   public Replacer createReplacer() {
     return before.replacer(after, firstOnly, multiline, patternsToIgnore);
   }
 
+  @Override
   public Glob getPaths() {
     return paths;
   }
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.copybara.LocalParallelizer.TransformFunc;
+import com.google.copybara.NonReversibleValidationException;
+import com.google.copybara.TransformWork;
+import com.google.copybara.Transformation;
+import com.google.copybara.WorkflowOptions;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.transform.FileContentTransformation.ContentFunction;
+import com.google.copybara.treestate.NoopContentIndex;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.Glob;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import net.starlark.java.syntax.Location;
+
+/**
+ * A transformation that runs a list of {@link FileContentTransformation}s, like core.replace,
+ * reading and writing each file only once.
+ *
+ * <p>The transformations are applied in order to the in-memory content of each file, and a file is
+ * written if any of them changed it, so the result is the same as running them one after the
+ * other.
+ */
+final class ReplaceBatch implements Transformation {
+
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private final WorkflowOptions workflowOptions;
+  private final ImmutableList<FileContentTransformation> transformations;
+
+  ReplaceBatch(WorkflowOptions workflowOptions,
+      ImmutableList<FileContentTransformation> transformations) {
+    this.workflowOptions = Preconditions.checkNotNull(workflowOptions);
+    Preconditions.checkArgument(!transformations.isEmpty());
+    this.transformations = transformations;
+  }
+
+  static boolean isJoinable(Transformation transformation) {
+    return transformation instanceof FileContentTransformation;
+  }
+
+  static ReplaceBatch join(WorkflowOptions workflowOptions, Transformation current,
+      Transformation next) {
+    ImmutableList.Builder<FileContentTransformation> transformationBuilder =
+        ImmutableList.builder();
+    for (Transformation transformation : ImmutableList.of(current, next)) {
+      if (transformation instanceof ReplaceBatch) {
+        transformationBuilder.addAll(((ReplaceBatch) transformation).transformations);
+      } else {
+        transformationBuilder.add((FileContentTransformation) transformation);
+      }
+    }
+    return new ReplaceBatch(workflowOptions, transformationBuilder.build());
+  }
+
+  @Override
+  public void transform(TransformWork work)
+      throws IOException, ValidationException, RepoException {
+    for (FileContentTransformation transformation : transformations) {
+      transformation.beforeRun(work);
+    }
+    Path checkoutDir = work.getCheckoutDir();
+
+    // Transformations usually share the same paths, so each distinct glob is only matched once
+    // and every file records the globs that matched it.
+    List<Glob> globs = new ArrayList<>();
+    int[] globIndexes = new int[transformations.size()];
+    int[] matchingFiles = new int[transformations.size()];
+    Map<FileState, BitSet> files = new LinkedHashMap<>();
+    for (int i = 0; i < transformations.size(); i++) {
+      Glob paths = transformations.get(i).getPaths();
+      int globIndex = globs.indexOf(paths);
+      if (globIndex == -1) {
+        globIndex = globs.size();
+        globs.add(paths);
+        for (FileState file : work.getTreeState().find(paths.relativeTo(checkoutDir))) {
+          files.computeIfAbsent(file, k -> new BitSet()).set(globIndex);
+        }
+      }
+      globIndexes[i] = globIndex;
+    }
+    for (BitSet fileGlobs : files.values()) {
+      for (int i = 0; i < transformations.size(); i++) {
+        if (fileGlobs.get(globIndexes[i])) {
+          matchingFiles[i]++;
+        }
+      }
+    }
+
+    List<LiteralPrefilter> prefilters = new ArrayList<>(transformations.size());
+    for (FileContentTransformation transformation : transformations) {
+      prefilters.add(transformation.getPrefilter());
+    }
+    BatchRun batchRun = new BatchRun(globIndexes, new LiteralIndex(prefilters));
+    workflowOptions.parallelizer().run(files.entrySet(), e -> e.getKey().getSize(), batchRun);
+    work.getTreeState().notifyModify(batchRun.changedFiles);
+
+    for (int i = 0; i < transformations.size(); i++) {
+      FileContentTransformation transformation = transformations.get(i);
+      logger.atInfo().log("Applied %s to %d files. %d changed.",
+          transformation, matchingFiles[i], batchRun.changed[i]);
+      if (batchRun.changed[i] == 0) {
+        workflowOptions.reportNoop(
+            work.getConsole(),
+            "Transformation '" + transformation + "' was a no-op because it didn't "
+                + (batchRun.matched[i] ? "change any of the matching files" : "match any file"),
+            work.getIgnoreNoop());
+      }
+    }
+  }
+
+  private class BatchRun implements TransformFunc<Entry<FileState, BitSet>, Boolean> {
+
+    private final int[] globIndexes;
+    private final LiteralIndex literalIndex;
+    private final List<FileState> changedFiles = new ArrayList<>();
+    private final int[] changed = new int[transformations.size()];
+    private final boolean[] matched = new boolean[transformations.size()];
+
+    private BatchRun(int[] globIndexes, LiteralIndex literalIndex) {
+      this.globIndexes = globIndexes;
+      this.literalIndex = literalIndex;
+    }
+
+    @Override
+    public Boolean run(Iterable<Entry<FileState, BitSet>> elements)
+        throws IOException, ValidationException {
+      NoopContentIndex noopContentIndex = workflowOptions.noopContentIndex();
+      ContentFunction[] functions = new ContentFunction[transformations.size()];
+      List<FileState> changedFiles = new ArrayList<>();
+      int[] changed = new int[transformations.size()];
+      boolean[] matched = new boolean[transformations.size()];
+      List<Integer> applicable = new ArrayList<>(transformations.size());
+
+      for (Entry<FileState, BitSet> entry : elements) {
+        FileState file = entry.getKey();
+        if (Files.isSymbolicLink(file.getPath())) {
+          continue;
+        }
+        applicable.clear();
+        boolean allNoop = true;
+        for (int i = 0; i < transformations.size(); i++) {
+          if (entry.getValue().get(globIndexes[i])) {
+            applicable.add(i);
+            matched[i] = true;
+            allNoop &= noopContentIndex.isNoop(transformations.get(i), file);
+          }
+        }
+        if (allNoop) {
+          continue;
+        }
+        byte[] bytes = Files.readAllBytes(file.getPath());
+        if (noopContentIndex.isEnabled()) {
+          file.hashContent(bytes);
+        }
+        String content = new String(bytes, UTF_8);
+        // A single pass over the original content finds the transformations that cannot change
+        // it, instead of each transformation searching for its own literals.
+        BitSet mayMatch = literalIndex.mayMatch(content);
+        // Until a transformation modifies the content, the hash of the file is valid for looking
+        // up and recording no-ops.
+        boolean modified = false;
+        for (int i : applicable) {
+          FileContentTransformation transformation = transformations.get(i);
+          if (!modified && noopContentIndex.isNoop(transformation, file)) {
+            continue;
+          }
+          if (!modified && !mayMatch.get(i)) {
+            noopContentIndex.recordNoop(transformation, file);
+            continue;
+          }
+          if (functions[i] == null) {
+            functions[i] = transformation.newContentFunction();
+          }
+          String transformed = functions[i].apply(content);
+          if (transformed == null) {
+            if (!modified) {
+              noopContentIndex.recordNoop(transformation, file);
+            }
+            continue;
+          }
+          changed[i]++;
+          content = transformed;
+          modified = true;
+        }
+        if (modified) {
+          changedFiles.add(file);
+          Files.write(file.getPath(), content.getBytes(UTF_8));
+        }
+      }
+      synchronized (this) {
+        this.changedFiles.addAll(changedFiles);
+        for (int i = 0; i < transformations.size(); i++) {
+          this.changed[i] += changed[i];
+          this.matched[i] |= matched[i];
+        }
+      }
+      // We cannot return null here.
+      return true;
+    }
+  }
+
+  @Override
+  public Transformation reverse() throws NonReversibleValidationException {
+    throw new IllegalStateException("Reverse should never be called for join transformations");
+  }
+
+  @Override
+  public String describe() {
+    return transformations.size() == 1
+        ? transformations.get(0).describe()
+        : "replace batch of " + transformations.size() + " transformations";
+  }
+
+  @Override
+  public Location location() {
+    return transformations.get(0).location();
+  }
+
+  @Override
+  public boolean canJoin(Transformation transformation) {
+    return isJoinable(transformation);
+  }
+
+  @Override
+  public Transformation join(Transformation next) {
+    return join(workflowOptions, this, next);
+  }
+
+  @Override
+  public String toString() {
+    return "ReplaceBatch" + transformations;
+  }
+}
@@ -32,7 +32,9 @@ import com.google.copybara.LocalParallelizer;
 import com.google.copybara.NonReversibleValidationException;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
+import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
+import com.google.copybara.treestate.NoopContentIndex;
 import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Console;
@@ -58,10 +60,12 @@ public class TodoReplace implements Transformation {
   private static final Pattern SINGLE_USER_PATTERN = Pattern.compile("([ \t]*)([^ \t]*)([ \t]*)");
 
   private final Pattern pattern;
+  private final LiteralPrefilter prefilter;
   private final Location location;
   private final Glob glob;
   private final ImmutableList<String> todoTags;
   private final LocalParallelizer parallelizer;
+  private final NoopContentIndex noopContentIndex;
   private final Mode mode;
   private final ImmutableMap<String, String> mapping;
   @Nullable
@@ -77,11 +81,13 @@ public class TodoReplace implements Transformation {
       Map<String, String> mapping,
       @Nullable String defaultString,
       LocalParallelizer parallelizer,
+      NoopContentIndex noopContentIndex,
       @Nullable Pattern regexIgnorelist) {
     this.location = Preconditions.checkNotNull(location);
     this.glob = Preconditions.checkNotNull(glob);
     this.todoTags = Preconditions.checkNotNull(todoTags);
     this.parallelizer = parallelizer;
+    this.noopContentIndex = Preconditions.checkNotNull(noopContentIndex);
     Preconditions.checkArgument(!todoTags.isEmpty());
     this.mode = Preconditions.checkNotNull(mode);
     this.mapping = Preconditions.checkNotNull(ImmutableMap.copyOf(mapping));
@@ -91,6 +97,8 @@ public class TodoReplace implements Transformation {
     }
     this.regexIgnorelist = regexIgnorelist;
     pattern = createPattern(todoTags);
+    // Every match contains one of the tags, so most files can skip the regex.
+    prefilter = LiteralPrefilter.anyOf(todoTags);
   }
 
   private Pattern createPattern(ImmutableList<String> todoTags) {
@@ -100,11 +108,13 @@ public class TodoReplace implements Transformation {
   }
 
   @Override
-  public void transform(TransformWork work) throws IOException, ValidationException {
+  public void transform(TransformWork work)
+      throws IOException, ValidationException, RepoException {
     work.getTreeState().notifyModify(
         Iterables.concat(
             parallelizer.run(
                 work.getTreeState().find(glob.relativeTo(work.getCheckoutDir())),
+                FileState::getSize,
                 files -> run(files, work.getConsole()))));
   }
 
@@ -117,11 +127,27 @@ public class TodoReplace implements Transformation {
       if (Files.isSymbolicLink(file.getPath())) {
         continue;
       }
-      String content = new String(Files.readAllBytes(file.getPath()), UTF_8);
+      if (noopContentIndex.isNoop(this, file)) {
+        continue;
+      }
+      byte[] bytes = Files.readAllBytes(file.getPath());
+      if (noopContentIndex.isEnabled()) {
+        file.hashContent(bytes);
+        if (noopContentIndex.isNoop(this, file)) {
+          continue;
+        }
+      }
+      String content = new String(bytes, UTF_8);
+      if (!prefilter.mayMatch(content)) {
+        noopContentIndex.recordNoop(this, file);
+        continue;
+      }
       Matcher matcher = batchPattern.matcher(content);
       StringBuffer sb = new StringBuffer();
       boolean modified = false;
+      boolean found = false;
       while (matcher.find()) {
+        found = true;
         if (matcher.group(2).trim().isEmpty()){
           matcher.appendReplacement(sb, matcher.group(0));
           continue;
@@ -140,6 +166,9 @@ public class TodoReplace implements Transformation {
       if (modified) {
         modifiedFiles.add(file);
         Files.write(file.getPath(), sb.toString().getBytes(UTF_8));
+      } else if (!found) {
+        // Only files without TODOs are recorded, since mapping users might print warnings.
+        noopContentIndex.recordNoop(this, file);
       }
     }
     return modifiedFiles;
@@ -217,6 +246,7 @@ public class TodoReplace implements Transformation {
         mapping.inverse(),
         defaultString,
         parallelizer,
+        noopContentIndex,
         regexIgnorelist);
   }
 
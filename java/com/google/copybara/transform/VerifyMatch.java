@@ -25,6 +25,7 @@ import com.google.copybara.LocalParallelizer;
 import com.google.copybara.LocalParallelizer.TransformFunc;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
+import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
@@ -46,6 +47,7 @@ import net.starlark.java.syntax.Location;
 public final class VerifyMatch implements Transformation {
 
   private final Pattern pattern;
+  private final LiteralPrefilter prefilter;
   private final boolean verifyNoMatch;
   private final boolean alsoOnReversal;
   private final Glob fileMatcherBuilder;
@@ -55,6 +57,7 @@ public final class VerifyMatch implements Transformation {
   private VerifyMatch(Pattern pattern, boolean verifyNoMatch, boolean alsoOnReversal,
       Glob fileMatcherBuilder, LocalParallelizer parallelizer, Location location) {
     this.pattern = checkNotNull(pattern);
+    this.prefilter = LiteralPrefilter.fromRegex(pattern.pattern());
     this.verifyNoMatch = verifyNoMatch;
     this.alsoOnReversal = alsoOnReversal;
     this.fileMatcherBuilder = checkNotNull(fileMatcherBuilder);
@@ -74,13 +77,13 @@ public final class VerifyMatch implements Transformation {
 
   @Override
   public void transform(TransformWork work)
-      throws IOException, ValidationException {
+      throws IOException, ValidationException, RepoException {
     Path checkoutDir = work.getCheckoutDir();
     Iterable<FileState> files = work.getTreeState().find(
         fileMatcherBuilder.relativeTo(checkoutDir));
 
     Iterable<String> errors = Iterables.concat(
-        parallelizer.run(files, new BatchRun(work.getCheckoutDir())));
+        parallelizer.run(files, FileState::getSize, new BatchRun(work.getCheckoutDir())));
 
     int size = 0;
     for (String error : errors) {
@@ -111,7 +114,9 @@ public final class VerifyMatch implements Transformation {
       Pattern batchPattern = Pattern.compile(pattern.pattern(), pattern.flags());
       for (FileState file : files) {
         String originalFileContent = new String(Files.readAllBytes(file.getPath()), UTF_8);
-        if (verifyNoMatch == batchPattern.matcher(originalFileContent).find()) {
+        boolean found = prefilter.mayMatch(originalFileContent)
+            && batchPattern.matcher(originalFileContent).find();
+        if (verifyNoMatch == found) {
           errors.add(checkoutDir.relativize(file.getPath()).toString());
         }
       }
@@ -27,6 +27,7 @@ import com.google.common.base.Objects;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.ChangeVisitable;
+import com.google.copybara.ChangeVisitable.LabelIndex;
 import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.RepoException;
@@ -38,6 +39,7 @@ import com.google.copybara.transform.RegexTemplateTokens.Replacer;
 import com.google.re2j.Pattern;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
@@ -148,15 +150,24 @@ public class ReferenceMigrator implements Transformation {
       return knownChanges.get(refBeingMigrated);
     }
     try {
-      destinationReader.visitChangesWithAnyLabel(null, originLabels, (input, labels) -> {
-        for (String labelValue : labels.values()) {
-          knownChanges.putIfAbsent(labelValue, input.getRef());
-          if (labelValue.equals(refBeingMigrated)) {
-            return TERMINATE;
-          }
+      Optional<LabelIndex> labelIndex = destinationReader.getLabelIndex();
+      if (labelIndex.isPresent()) {
+        // No need to visit the history, nor to limit the number of changes visited
+        String found = labelIndex.get().findChange(originLabels, refBeingMigrated);
+        if (found != null) {
+          knownChanges.put(refBeingMigrated, found);
         }
-        return changesVisited.incrementAndGet() > MAX_CHANGES_TO_VISIT ? TERMINATE : CONTINUE;
-      });
+      } else {
+        destinationReader.visitChangesWithAnyLabel(null, originLabels, (input, labels) -> {
+          for (String labelValue : labels.values()) {
+            knownChanges.putIfAbsent(labelValue, input.getRef());
+            if (labelValue.equals(refBeingMigrated)) {
+              return TERMINATE;
+            }
+          }
+          return changesVisited.incrementAndGet() > MAX_CHANGES_TO_VISIT ? TERMINATE : CONTINUE;
+        });
+      }
       String retVal = knownChanges.get(refBeingMigrated);
       if (reversePattern != null && retVal != null && !reversePattern.matches(retVal)) {
         throw new ValidationException(
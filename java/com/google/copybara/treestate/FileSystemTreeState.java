@@ -16,7 +16,11 @@
 
 package com.google.copybara.treestate;
 
+import static com.google.copybara.treestate.TreeStateUtil.MAX_CACHED_MATCHERS;
+import static com.google.copybara.treestate.TreeStateUtil.add;
+import static com.google.copybara.treestate.TreeStateUtil.delete;
 import static com.google.copybara.treestate.TreeStateUtil.filter;
+import static com.google.copybara.treestate.TreeStateUtil.modify;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -44,7 +48,7 @@ public class FileSystemTreeState implements TreeState {
   private Map<Path, FileState> files = new HashMap<>();
 
   private final LoadingCache<PathMatcher, List<FileState>> cachedMatches =
-      CacheBuilder.newBuilder().maximumSize(5).build(
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_MATCHERS).build(
           new CacheLoader<PathMatcher, List<FileState>>() {
             @Override
             public List<FileState> load(PathMatcher pathMatcher) throws Exception {
@@ -71,7 +75,7 @@ public class FileSystemTreeState implements TreeState {
       @Override
       public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
           throws IOException {
-        result.put(file, new FileState(file));
+        result.put(file, new FileState(file, attrs));
         return FileVisitResult.CONTINUE;
       }
     });
@@ -81,19 +85,23 @@ public class FileSystemTreeState implements TreeState {
   @Override
   public void notifyModify(Iterable<FileState> paths) {
     notified = true;
-    for (FileState path : paths) {
-      files.put(path.getPath(), path);
+    if (modify(files, paths)) {
+      cachedMatches.invalidateAll();
     }
   }
 
   @Override
-  public void notifyAdd(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyAdd(Iterable<FileState> paths) {
+    notified = true;
+    add(files, paths);
+    cachedMatches.invalidateAll();
   }
 
   @Override
-  public void notifyDelete(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyDelete(Iterable<FileState> paths) {
+    notified = true;
+    delete(files, paths);
+    cachedMatches.invalidateAll();
   }
 
   @Override
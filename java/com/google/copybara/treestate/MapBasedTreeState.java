@@ -16,7 +16,11 @@
 
 package com.google.copybara.treestate;
 
+import static com.google.copybara.treestate.TreeStateUtil.MAX_CACHED_MATCHERS;
+import static com.google.copybara.treestate.TreeStateUtil.add;
+import static com.google.copybara.treestate.TreeStateUtil.delete;
 import static com.google.copybara.treestate.TreeStateUtil.filter;
+import static com.google.copybara.treestate.TreeStateUtil.modify;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -39,7 +43,7 @@ public class MapBasedTreeState implements TreeState {
   private final Map<Path, FileState> files;
 
   private final LoadingCache<PathMatcher, List<FileState>> cachedMatches =
-      CacheBuilder.newBuilder().maximumSize(10).build(
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_MATCHERS).build(
           new CacheLoader<PathMatcher, List<FileState>>() {
             @Override
             public List<FileState> load(PathMatcher pathMatcher) throws Exception {
@@ -62,19 +66,23 @@ public class MapBasedTreeState implements TreeState {
   @Override
   public void notifyModify(Iterable<FileState> paths) {
     notified = true;
-    for (FileState fileState : paths) {
-      files.put(fileState.getPath(), fileState);
+    if (modify(files, paths)) {
+      cachedMatches.invalidateAll();
     }
   }
 
   @Override
-  public void notifyAdd(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyAdd(Iterable<FileState> paths) {
+    notified = true;
+    add(files, paths);
+    cachedMatches.invalidateAll();
   }
 
   @Override
-  public void notifyDelete(Iterable<FileState> path) {
-    throw new UnsupportedOperationException("Not supported. Don't notify!");
+  public void notifyDelete(Iterable<FileState> paths) {
+    notified = true;
+    delete(files, paths);
+    cachedMatches.invalidateAll();
   }
 
   @Override
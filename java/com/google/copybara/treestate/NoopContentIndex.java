@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.copybara.treestate.TreeState.FileState;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers which file contents a transformation already processed without changing them.
+ *
+ * <p>Transformations are reused for every change of an ITERATIVE migration, and most of the files
+ * are the same between consecutive changes. A transformation can skip reading and matching a file
+ * if its content hash was already recorded as a no-op for that transformation.
+ *
+ * <p>Contents are identified by {@link FileState#getContentHash()}, so entries don't depend on the
+ * checkout directory or on modification times. For each content we keep a bit per
+ * transformation, so that memory usage is bounded by the number of distinct contents.
+ */
+public final class NoopContentIndex {
+
+  /** An index that doesn't remember anything. */
+  public static final NoopContentIndex DISABLED = new NoopContentIndex(0);
+
+  private final boolean enabled;
+  private final ConcurrentMap<Object, Integer> transformationIds = new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final Cache<HashCode, BitSet> noops;
+
+  /**
+   * Creates an index that remembers at most {@code maxContents} distinct file contents.
+   */
+  public NoopContentIndex(long maxContents) {
+    this.enabled = maxContents > 0;
+    this.noops = CacheBuilder.newBuilder().maximumSize(maxContents).build();
+  }
+
+  /**
+   * Returns false if the index doesn't remember anything, so that callers can avoid computing
+   * content hashes.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns true if {@code transformation} already processed the current content of {@code file}
+   * without changing it. Only files whose content hash is already known are considered.
+   */
+  public boolean isNoop(Object transformation, FileState file) {
+    HashCode hash = file.getContentHashIfPresent();
+    if (!enabled || hash == null) {
+      return false;
+    }
+    BitSet bits = noops.getIfPresent(hash);
+    if (bits == null) {
+      return false;
+    }
+    int id = idFor(transformation);
+    synchronized (bits) {
+      return bits.get(id);
+    }
+  }
+
+  /**
+   * Records that {@code transformation} didn't change the current content of {@code file}. Does
+   * nothing if the content hash of the file is not known.
+   */
+  public void recordNoop(Object transformation, FileState file) {
+    HashCode hash = file.getContentHashIfPresent();
+    if (!enabled || hash == null) {
+      return;
+    }
+    BitSet bits = noops.asMap().computeIfAbsent(hash, k -> new BitSet());
+    int id = idFor(transformation);
+    synchronized (bits) {
+      bits.set(id);
+    }
+  }
+
+  private int idFor(Object transformation) {
+    return transformationIds.computeIfAbsent(transformation, k -> nextId.getAndIncrement());
+  }
+}
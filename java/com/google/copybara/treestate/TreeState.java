@@ -16,11 +16,16 @@
 
 package com.google.copybara.treestate;
 
-import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import javax.annotation.Nullable;
 
 /**
  * An object that allows to do potentially cached filesystem lookups.
@@ -33,19 +38,95 @@ public interface TreeState {
   /**
    * An object that contains a path found in the {@link TreeState}.
    *
-   * <p>Wrapped so that we can include things like the hash of the file in the future.
+   * <p>Besides the path, it keeps the size and modification time of the file as recorded when the
+   * tree was read, and a lazily computed hash of its content. The size and modification time are
+   * only an estimate once the file has been modified by a transformation. The content hash is
+   * invalidated when the {@link TreeState} is notified of a modification.
    */
   class FileState {
+
+    /**
+     * Value returned by {@link #getSize()} and {@link #getLastModifiedMillis()} when they are not
+     * known.
+     */
+    public static final long UNKNOWN = -1;
+
+    private static final HashFunction CONTENT_HASH = Hashing.murmur3_128();
+
     private final Path path;
+    private final long size;
+    private final long lastModifiedMillis;
+    @Nullable
+    private volatile HashCode contentHash;
+
+    public FileState(Path path) {
+      this(path, UNKNOWN, UNKNOWN);
+    }
 
-    FileState(Path path) {
+    FileState(Path path, BasicFileAttributes attrs) {
+      this(path, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    private FileState(Path path, long size, long lastModifiedMillis) {
       this.path = Preconditions.checkNotNull(path);
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
     }
 
     public Path getPath() {
       return path;
     }
 
+    /**
+     * Size in bytes of the file when the tree was read, or {@link #UNKNOWN}.
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Last modification time of the file when the tree was read, or {@link #UNKNOWN}.
+     */
+    public long getLastModifiedMillis() {
+      return lastModifiedMillis;
+    }
+
+    /**
+     * Returns the hash of the content of the file, reading the file if it was not computed yet.
+     */
+    public HashCode getContentHash() throws IOException {
+      HashCode result = contentHash;
+      if (result == null) {
+        result = hashContent(Files.readAllBytes(path));
+      }
+      return result;
+    }
+
+    /**
+     * Returns the hash of the content of the file if it was already computed, or null otherwise.
+     */
+    @Nullable
+    public HashCode getContentHashIfPresent() {
+      return contentHash;
+    }
+
+    /**
+     * Records the hash of {@code content}, that has just been read from the file, so that later
+     * transformations don't need to read the file again for computing it.
+     */
+    public HashCode hashContent(byte[] content) {
+      HashCode result = CONTENT_HASH.hashBytes(content);
+      contentHash = result;
+      return result;
+    }
+
+    /**
+     * Forget the content hash because the file has been modified.
+     */
+    void invalidate() {
+      contentHash = null;
+    }
+
     @Override
     public boolean equals(Object o) {
       if (this == o) {
@@ -80,14 +161,15 @@ public interface TreeState {
   void notifyModify(Iterable<FileState> paths);
 
   /**
-   * Not implemented for now.
+   * Notify the {@link TreeState} that {@code paths} have been created. If any of them already
+   * existed, it is considered modified.
    */
-  void notifyAdd(Iterable<FileState> path);
+  void notifyAdd(Iterable<FileState> paths);
 
   /**
-   * Not implemented for now.
+   * Notify the {@link TreeState} that {@code paths} have been deleted.
    */
-  void notifyDelete(Iterable<FileState> path);
+  void notifyDelete(Iterable<FileState> paths);
 
   void notifyNoChange();
 
@@ -18,9 +18,11 @@ package com.google.copybara.treestate;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.copybara.treestate.TreeState.FileState;
+import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +30,11 @@ import java.util.stream.Collectors;
  */
 public final class TreeStateUtil {
 
+  /**
+   * Maximum number of {@link PathMatcher} results cached by a {@link TreeState}.
+   */
+  static final int MAX_CACHED_MATCHERS = 20;
+
   private TreeStateUtil() {
   }
 
@@ -40,6 +47,53 @@ public final class TreeStateUtil {
         .collect(Collectors.toList());
   }
 
+  /**
+   * Records in {@code files} that {@code modified} files have new content.
+   *
+   * <p>Existing entries are kept, so that results cached for a {@link PathMatcher} still point to
+   * the same instances, but their content hash is invalidated.
+   *
+   * @return true if any of the files was not known, and therefore cached matches are stale
+   */
+  static boolean modify(Map<Path, FileState> files, Iterable<FileState> modified) {
+    boolean unknownFile = false;
+    for (FileState fileState : modified) {
+      fileState.invalidate();
+      FileState previous = files.putIfAbsent(fileState.getPath(), fileState);
+      if (previous == null) {
+        unknownFile = true;
+      } else {
+        previous.invalidate();
+      }
+    }
+    return unknownFile;
+  }
+
+  /**
+   * Records in {@code files} that {@code added} files have been created or overwritten.
+   */
+  static void add(Map<Path, FileState> files, Iterable<FileState> added) {
+    for (FileState fileState : added) {
+      fileState.invalidate();
+      FileState previous = files.put(fileState.getPath(), fileState);
+      if (previous != null) {
+        previous.invalidate();
+      }
+    }
+  }
+
+  /**
+   * Records in {@code files} that {@code deleted} files don't exist anymore.
+   */
+  static void delete(Map<Path, FileState> files, Iterable<FileState> deleted) {
+    for (FileState fileState : deleted) {
+      FileState previous = files.remove(fileState.getPath());
+      if (previous != null) {
+        previous.invalidate();
+      }
+    }
+  }
+
   @VisibleForTesting
   public static boolean isCachedTreeState(TreeState treeState) {
     return treeState instanceof MapBasedTreeState;
@@ -21,8 +21,12 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Stopwatch;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.flogger.FluentLogger;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.copybara.shell.AbnormalTerminationException;
 import com.google.copybara.shell.BadExitStatusException;
 import com.google.copybara.shell.Command;
@@ -34,14 +38,25 @@ import com.google.copybara.shell.TerminationStatus;
 import com.google.copybara.shell.TimeoutKillableObserver;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.time.Duration;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
 
 /**
  * Allows running a {@link Command} with easier stderr/stdout and logging management.
@@ -58,6 +73,12 @@ public final class CommandRunner {
   public static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(15);
   public static final int MAX_COMMAND_LENGTH = 40000;
 
+  private static final int STREAMING_BUFFER_SIZE = 8 * 1024;
+
+  /** Runs the commands whose output is consumed by the calling thread. */
+  private static final ExecutorService STREAMING_EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("command-runner-%d").setDaemon(true).build());
+
   private final Command cmd;
   private final boolean verbose;
   private final byte[] input;
@@ -262,6 +283,94 @@ public final class CommandRunner {
     }
   }
 
+  /**
+   * Executes the command like {@link #execute()}, but passes its stdout to {@code consumer} while
+   * the command runs, instead of keeping it in memory. The consumer runs in the calling thread and
+   * the command is blocked while the consumer falls behind, so only a few chunks of the output are
+   * buffered.
+   *
+   * <p>If the consumer returns false, the rest of the output is discarded and the command is
+   * killed. In that case the status of the command is returned, even if it didn't succeed. If the
+   * consumer throws an exception, the command is killed too and the exception is propagated.
+   *
+   * <p>The stdout of the returned output, or of the output of a {@link
+   * BadExitStatusWithOutputException}, doesn't contain the output passed to the consumer.
+   */
+  public CommandOutputWithStatus executeStreaming(OutputConsumer consumer)
+      throws CommandException, IOException {
+    AtomicBoolean completed = new AtomicBoolean();
+    CommandOutputWithStatus output = executeReading(stdout -> {
+      byte[] buffer = new byte[STREAMING_BUFFER_SIZE];
+      int read;
+      while ((read = stdout.read(buffer)) != -1) {
+        if (!consumer.consume(buffer, 0, read)) {
+          return false;
+        }
+      }
+      completed.set(true);
+      return true;
+    });
+    if (completed.get()) {
+      consumer.finish();
+    }
+    return output;
+  }
+
+  /**
+   * Executes the command like {@link #executeStreaming(OutputConsumer)}, but lets {@code reader}
+   * pull the stdout from an {@link InputStream}, for parsers that read from a stream. If the reader
+   * returns true without reading the whole stream, the rest of the output is discarded.
+   */
+  public CommandOutputWithStatus executeReading(StdoutReader reader)
+      throws CommandException, IOException {
+    OutputPipe pipe = new OutputPipe();
+    CommandRunner runner = withStdOutStream(pipe).withObserver(pipe);
+    Future<CommandOutputWithStatus> result = STREAMING_EXECUTOR.submit(() -> {
+      try {
+        return runner.execute();
+      } finally {
+        pipe.close();
+      }
+    });
+    IOException failure = null;
+    boolean completed = false;
+    try {
+      completed = pipe.readWith(reader);
+    } catch (IOException e) {
+      failure = e;
+    }
+    CommandOutputWithStatus output;
+    try {
+      output = Uninterruptibles.getUninterruptibly(result);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (failure != null) {
+        failure.addSuppressed(cause);
+        throw failure;
+      }
+      if (!completed && cause instanceof AbnormalTerminationException) {
+        // Killed because the reader didn't want more output
+        return new CommandOutputWithStatus(
+            ((AbnormalTerminationException) cause).getResult().getTerminationStatus(),
+            NO_INPUT, NO_INPUT);
+      }
+      Throwables.propagateIfPossible(cause, CommandException.class);
+      throw new IllegalStateException("Unexpected error executing command", cause);
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return output;
+  }
+
+  /** Reads the stdout of a command while it runs. See {@link #executeReading(StdoutReader)}. */
+  @FunctionalInterface
+  public interface StdoutReader {
+
+    /** Returns false to discard the rest of the output and stop the command. */
+    boolean read(InputStream stdout) throws IOException;
+  }
+
   /**
    * Format a duration to a human-readable string. This assumes that the duration is less than
    * 24 hours, which should always be true for a command (usually takes from a few ms to a few
@@ -380,6 +489,144 @@ private static class DefaultExecutor implements CommandExecutor {
     }
   }
 
+  /**
+   * Hands the stdout of a command over from the thread that reads it to the thread that consumes
+   * it. Writes block while the consumer is {@link #CAPACITY} chunks behind, so a slow consumer
+   * stops the command instead of making the output accumulate in memory.
+   */
+  private static class OutputPipe extends OutputStream implements KillableObserver {
+
+    private static final int CAPACITY = 16;
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CAPACITY);
+    private volatile boolean stopped;
+    @Nullable private Killable killable;
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (stopped || len == 0) {
+        return;
+      }
+      try {
+        chunks.put(Arrays.copyOfRange(b, off, off + len));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while passing the output of the command");
+      }
+    }
+
+    /** Called once the command finished and all its output was written. */
+    @Override
+    public void close() {
+      try {
+        // The consumer might be stopped in the meantime, so don't block forever on a full queue
+        while (!stopped && !chunks.offer(END, 100, TimeUnit.MILLISECONDS)) {
+          // Keep waiting
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Passes the output to {@code reader} as a stream. Returns false if the reader stopped the
+     * command.
+     */
+    private boolean readWith(StdoutReader reader) throws IOException {
+      try {
+        InputStream stdout = new PipeInputStream();
+        if (!reader.read(stdout)) {
+          stop();
+          return false;
+        }
+        // Let the command finish, even if the reader didn't need the rest of the output
+        ByteStreams.exhaust(stdout);
+        return true;
+      } catch (IOException | RuntimeException e) {
+        stop();
+        throw e;
+      }
+    }
+
+    private byte[] take() throws InterruptedIOException {
+      try {
+        return chunks.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading the output of the command");
+      }
+    }
+
+    /** Discards the rest of the output and kills the command. */
+    private void stop() {
+      Killable toKill;
+      synchronized (this) {
+        stopped = true;
+        toKill = killable;
+      }
+      // Unblock the writer, if it is waiting for space in the queue
+      chunks.clear();
+      if (toKill != null) {
+        toKill.kill();
+      }
+    }
+
+    /** Reads the chunks written by the command, until it finishes. */
+    private class PipeInputStream extends InputStream {
+
+      private byte[] chunk = new byte[0];
+      private int position;
+
+      @Override
+      public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+      }
+
+      @Override
+      public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+          return 0;
+        }
+        while (position == chunk.length) {
+          if (chunk == END) {
+            return -1;
+          }
+          chunk = take();
+          position = 0;
+        }
+        int read = Math.min(len, chunk.length - position);
+        System.arraycopy(chunk, position, b, off, read);
+        position += read;
+        return read;
+      }
+    }
+
+    @Override
+    public void startObserving(Killable killable) {
+      boolean kill;
+      synchronized (this) {
+        this.killable = killable;
+        kill = stopped;
+      }
+      // The output might be stopped before the command is observed
+      if (kill) {
+        killable.kill();
+      }
+    }
+
+    @Override
+    public synchronized void stopObserving(Killable killable) {
+      this.killable = null;
+    }
+  }
+
   /**
    * Multiplex KillableObserver to allow monitoring processes
    */
@@ -17,6 +17,7 @@
 package com.google.copybara.util;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
@@ -24,10 +25,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.copybara.git.GitEnvironment;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
@@ -36,9 +34,9 @@ import com.google.copybara.util.console.AnsiColor;
 import com.google.copybara.util.console.Console;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Predicate;
@@ -57,11 +55,46 @@ public class DiffUtil {
    * Calculates the diff between two sibling directory trees.
    *
    * <p>Returns the diff as an encoding-independent {@code byte[]}.
+   *
+   * <p>The changed files are found without running git, so that nothing is run if the trees are
+   * equal. Otherwise 'git diff' is only run for the files that changed.
    */
   public static byte[] diff(Path one, Path other, boolean verbose, Map<String, String> environment)
       throws IOException, InsideGitDirException {
-    return new FoldersDiff(verbose, environment)
-        .run(one, other);
+    checkSiblings(one, other);
+    ImmutableList<DiffFile> changedFiles = TreeDiffer.diffFiles(one, other);
+    if (changedFiles.isEmpty()) {
+      return EMPTY_DIFF;
+    }
+    return diffChangedFiles(one, other,
+        changedFiles.stream().map(DiffFile::getName).collect(toImmutableList()),
+        verbose, environment);
+  }
+
+  /**
+   * Like {@link #diff(Path, Path, boolean, Map)} but only for {@code changedFiles}, relative to
+   * both trees, when the caller already knows which files changed.
+   */
+  public static byte[] diffChangedFiles(Path one, Path other, Collection<String> changedFiles,
+      boolean verbose, Map<String, String> environment)
+      throws IOException, InsideGitDirException {
+    checkSiblings(one, other);
+    if (changedFiles.isEmpty()) {
+      return EMPTY_DIFF;
+    }
+    // Copy the changed files to directories with the same names, so that the paths in the diff
+    // are the same as in a diff of the full trees.
+    Path root = Files.createTempDirectory(one.getParent(), ".changed_files");
+    try {
+      Path oneChanged = Files.createDirectory(root.resolve(one.getFileName().toString()));
+      Path otherChanged = Files.createDirectory(root.resolve(other.getFileName().toString()));
+      FileUtil.copyFiles(one, oneChanged, changedFiles);
+      FileUtil.copyFiles(other, otherChanged, changedFiles);
+      return new FoldersDiff(verbose, environment)
+          .run(oneChanged, otherChanged);
+    } finally {
+      FileUtil.deleteRecursively(root);
+    }
   }
 
   /**
@@ -93,42 +126,24 @@ public class DiffUtil {
   /**
    * Return the changed files without computing renames/copies.
    *
-   * <p>Each file name is relative to one/other paths.
+   * <p>Each file name is relative to one/other paths. The trees are compared without running git.
    */
   public static ImmutableList<DiffFile> diffFiles(
       Path one, Path other, boolean verbose, @Nullable Map<String, String> environment)
       throws IOException, InsideGitDirException {
-    String cmdResult = new String(new FoldersDiff(verbose, environment)
-        .withZOption()
-        .withNameStatus()
-        .withNoRenames()
-        .run(one, other), StandardCharsets.UTF_8);
-
-    ImmutableList.Builder<DiffFile> result = ImmutableList.builder();
-    for (Iterator<String> iterator = Splitter.on((char) 0).split(cmdResult).iterator();
-        iterator.hasNext(); ) {
-      String strOp = iterator.next();
-      if (Strings.isNullOrEmpty(strOp)) {
-        continue;
-      }
-      Operation op = DiffFile.OP_BY_CHAR.get(strOp);
-      if (op == null) {
-        throw new IllegalStateException(
-            String.format("Unknown type '%s'. Text:\n%s", strOp, cmdResult));
-      }
-      String file = iterator.next();
-      Preconditions.checkState(file.contains("/"));
-      result.add(new DiffFile(file.substring(file.indexOf("/") + 1), op));
-    }
-    return result.build();
+    checkSiblings(one, other);
+    return TreeDiffer.diffFiles(one, other);
+  }
+
+  private static void checkSiblings(Path one, Path other) {
+    Preconditions.checkArgument(one.getParent().equals(other.getParent()),
+        "Paths 'one' and 'other' must be sibling directories.");
   }
 
   public static class DiffFile {
 
     private final String name;
     private final Operation operation;
-    private static final ImmutableMap<String, Operation> OP_BY_CHAR =
-        Maps.uniqueIndex(Iterators.forArray(Operation.values()), e -> e.charType);
 
     @VisibleForTesting
     public DiffFile(String name, Operation operation) {
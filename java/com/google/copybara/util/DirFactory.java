@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import javax.annotation.Nullable;
 
 /**
  * A supplier of output directories under a given root.
@@ -34,9 +35,20 @@ public class DirFactory {
   private static final String CACHE = "cache";
 
   private final Path rootPath;
+  @Nullable private final String tmpName;
 
   public DirFactory(Path rootPath) {
+    this(rootPath, /*tmpName=*/ null);
+  }
+
+  /**
+   * Creates a factory whose temp directories are created in {@code tmpName} inside the usual temp
+   * root, so that {@link #cleanupTempDirs()} doesn't delete the ones of other factories sharing
+   * the same root. Cache directories are shared.
+   */
+  public DirFactory(Path rootPath, @Nullable String tmpName) {
     this.rootPath = Preconditions.checkNotNull(rootPath);
+    this.tmpName = tmpName;
   }
 
   /** Get the cache directory for {@code name} */
@@ -60,6 +72,6 @@ public class DirFactory {
   }
 
   public Path getTmpRoot() {
-    return rootPath.resolve(TMP);
+    return tmpName == null ? rootPath.resolve(TMP) : rootPath.resolve(TMP).resolve(tmpName);
   }
 }
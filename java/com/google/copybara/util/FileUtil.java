@@ -34,6 +34,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.SimpleFileVisitor;
@@ -150,6 +151,27 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Copies the files with the given relative {@code paths} from {@code from} directory to {@code
+   * to} directory. Paths that don't exist in {@code from} are skipped. Symlinks are copied as
+   * symlinks.
+   */
+  public static void copyFiles(Path from, Path to, Iterable<String> paths) throws IOException {
+    for (String path : paths) {
+      Path file = from.resolve(checkNormalizedRelative(path));
+      if (!Files.exists(file, LinkOption.NOFOLLOW_LINKS)) {
+        continue;
+      }
+      Path destFile = to.resolve(path);
+      Files.createDirectories(destFile.getParent());
+      if (Files.isSymbolicLink(file)) {
+        Files.createSymbolicLink(destFile, Files.readSymbolicLink(file));
+      } else {
+        Files.copy(file, destFile, StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+  }
+
   /**
    * Adds the given permissions to the matching files under the given path.
    */
@@ -454,6 +476,17 @@ public final class FileUtil {
     }
   }
 
+  /**
+   * Returns true if the owner can execute {@code path}, like git checks for the executable mode of
+   * a file. For Windows type filesystems, it uses {@link Files#isExecutable}.
+   */
+  public static boolean isExecutable(Path path) throws IOException {
+    if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+      return Files.getPosixFilePermissions(path).contains(PosixFilePermission.OWNER_EXECUTE);
+    }
+    return Files.isExecutable(path);
+  }
+
   private static final int REPO_FOLDER_NAME_LIMIT = 100;
   private static final PercentEscaper PERCENT_ESCAPER = new PercentEscaper(
       "-_", /*plusForSpace=*/ true);
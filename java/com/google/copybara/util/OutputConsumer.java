@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+
+/**
+ * Receives the stdout of a command while it runs. See {@link
+ * CommandRunner#executeStreaming(OutputConsumer)}.
+ */
+@FunctionalInterface
+public interface OutputConsumer {
+
+  /**
+   * Consumes the next {@code length} bytes of output. Returns false to discard the rest of the
+   * output and stop the command.
+   */
+  boolean consume(byte[] bytes, int offset, int length) throws IOException;
+
+  /** Called once the command finished successfully, after all its output was consumed. */
+  default void finish() throws IOException {
+  }
+
+  /**
+   * Returns a consumer that passes the output to {@code consumer} line by line, without the line
+   * separators.
+   */
+  static OutputConsumer lines(RecordConsumer consumer) {
+    return records("\n", consumer);
+  }
+
+  /**
+   * Returns a consumer that splits the output in the records separated by {@code separator} and
+   * passes them to {@code consumer} as UTF-8 text. The text after the last separator is passed
+   * only if it is not empty.
+   */
+  static OutputConsumer records(String separator, RecordConsumer consumer) {
+    return new RecordSplitter(separator.getBytes(UTF_8), consumer);
+  }
+
+  /** Receives the records of the output of a command. */
+  @FunctionalInterface
+  interface RecordConsumer {
+
+    /** Returns false to discard the rest of the output and stop the command. */
+    boolean accept(String record) throws IOException;
+  }
+}
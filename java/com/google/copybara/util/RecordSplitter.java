@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.copybara.util.OutputConsumer.RecordConsumer;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Splits the output of a command in records while it is read. Only the bytes of the current
+ * record are kept in memory.
+ *
+ * <p>The separator is searched in the bytes, so it should be ASCII in order to never match part of
+ * a multi-byte UTF-8 character.
+ */
+final class RecordSplitter implements OutputConsumer {
+
+  private final byte[] separator;
+  private final RecordConsumer consumer;
+  private byte[] buffer = new byte[8 * 1024];
+  private int end;
+  private boolean stopped;
+
+  RecordSplitter(byte[] separator, RecordConsumer consumer) {
+    Preconditions.checkArgument(separator.length > 0, "Empty separator");
+    this.separator = separator;
+    this.consumer = Preconditions.checkNotNull(consumer);
+  }
+
+  @Override
+  public boolean consume(byte[] bytes, int offset, int length) throws IOException {
+    if (stopped) {
+      return false;
+    }
+    if (end + length > buffer.length) {
+      buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + length));
+    }
+    // The separator might be split between the previous bytes and the new ones
+    int searchFrom = Math.max(0, end - separator.length + 1);
+    System.arraycopy(bytes, offset, buffer, end, length);
+    end += length;
+
+    int start = 0;
+    int index;
+    while ((index = indexOf(Math.max(start, searchFrom))) != -1) {
+      String record = new String(buffer, start, index - start, UTF_8);
+      start = index + separator.length;
+      if (!consumer.accept(record)) {
+        stopped = true;
+        return false;
+      }
+    }
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, end - start);
+      end -= start;
+    }
+    return true;
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (!stopped && end > 0) {
+      String record = new String(buffer, 0, end, UTF_8);
+      end = 0;
+      consumer.accept(record);
+    }
+  }
+
+  private int indexOf(int from) {
+    outer:
+    for (int i = from; i <= end - separator.length; i++) {
+      for (int j = 0; j < separator.length; j++) {
+        if (buffer[i + j] != separator[j]) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Striped;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Fetches that are done once and then shared by several migrations, like the ones run together by
+ * the 'batch' command, so that migrations that read the same repository don't fetch it again.
+ *
+ * <p>A fetch requested while the same one is running waits for it and gets its result. Failed
+ * fetches are not shared: the next request fetches again.
+ *
+ * <p>Migrations running at the same time can read the same cached repository, but the operations
+ * that write its git directory, like fetches and checkouts (that write its index), are run one at
+ * a time with {@link #exclusive(Path, Callable)}.
+ */
+public final class SharedFetches {
+
+  /** Doesn't share anything: every fetch is run. */
+  public static final SharedFetches NONE = new SharedFetches(/*shared=*/ false);
+
+  /** Git directories are shared by all the migrations of the JVM. */
+  private static final Striped<Lock> REPO_LOCKS = Striped.lazyWeakLock(/*stripes=*/ 256);
+
+  private final boolean shared;
+  private final ConcurrentMap<String, FutureTask<Object>> fetches = new ConcurrentHashMap<>();
+
+  public SharedFetches() {
+    this(/*shared=*/ true);
+  }
+
+  private SharedFetches(boolean shared) {
+    this.shared = shared;
+  }
+
+  /**
+   * Returns the result of the fetch identified by {@code key}, running {@code fetch} if it wasn't
+   * done yet. The key needs to identify the repository and the references being fetched.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T fetch(String key, Callable<T> fetch) throws RepoException, ValidationException {
+    Preconditions.checkNotNull(key);
+    if (!shared) {
+      return call(fetch);
+    }
+    FutureTask<Object> task = new FutureTask<>(fetch::call);
+    FutureTask<Object> existing = fetches.putIfAbsent(key, task);
+    if (existing == null) {
+      existing = task;
+      task.run();
+    }
+    try {
+      return (T) existing.get();
+    } catch (ExecutionException e) {
+      fetches.remove(key, existing);
+      Throwables.propagateIfPossible(e.getCause(), RepoException.class, ValidationException.class);
+      throw new RuntimeException("Unexpected exception fetching " + key, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RepoException("Interrupted while waiting for the fetch of " + key, e);
+    }
+  }
+
+  /**
+   * Runs {@code action}, that writes the git directory {@code gitDir}, while no other migration of
+   * the JVM is writing it.
+   */
+  public static <T> T exclusive(Path gitDir, Callable<T> action)
+      throws RepoException, ValidationException {
+    Lock lock = REPO_LOCKS.get(gitDir.toAbsolutePath().normalize());
+    lock.lock();
+    try {
+      return call(action);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private static <T> T call(Callable<T> fetch) throws RepoException, ValidationException {
+    try {
+      return fetch.call();
+    } catch (Exception e) {
+      Throwables.propagateIfPossible(e, RepoException.class, ValidationException.class);
+      throw new RuntimeException("Unexpected exception", e);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.google.common.io.MoreFiles;
+import com.google.copybara.util.DiffUtil.DiffFile;
+import com.google.copybara.util.DiffUtil.DiffFile.Operation;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+
+/**
+ * Finds the files that changed between two directory trees, like {@code git diff --no-index
+ * --name-status --no-renames}, without running git.
+ *
+ * <p>Both trees are walked in parallel. Files with different sizes are different without reading
+ * them, and files with the same size are compared byte by byte. Only regular files and symlinks are
+ * compared: Empty directories are ignored. Symlinks are compared by their target.
+ */
+final class TreeDiffer {
+
+  private enum Kind {
+    DIRECTORY, FILE, SYMLINK
+  }
+
+  private final List<DiffFile> result = new ArrayList<>();
+
+  private TreeDiffer() {}
+
+  /**
+   * Returns the files that changed from {@code one} to {@code other}, sorted by name. Names are
+   * relative to {@code one} and {@code other}.
+   */
+  static ImmutableList<DiffFile> diffFiles(Path one, Path other) throws IOException {
+    TreeDiffer differ = new TreeDiffer();
+    differ.diffDirectories(one, other, "");
+    return ImmutableList.sortedCopyOf(
+        Ordering.natural().onResultOf(DiffFile::getName), differ.result);
+  }
+
+  private void diffDirectories(Path one, Path other, String prefix) throws IOException {
+    TreeMap<String, BasicFileAttributes> oneEntries = list(one);
+    TreeMap<String, BasicFileAttributes> otherEntries = list(other);
+    TreeSet<String> names = new TreeSet<>(oneEntries.keySet());
+    names.addAll(otherEntries.keySet());
+    for (String name : names) {
+      Kind oneKind = kind(oneEntries.get(name));
+      Kind otherKind = kind(otherEntries.get(name));
+      Path oneFile = one.resolve(name);
+      Path otherFile = other.resolve(name);
+      String path = prefix + name;
+      if (oneKind == Kind.DIRECTORY && otherKind == Kind.DIRECTORY) {
+        diffDirectories(oneFile, otherFile, path + "/");
+        continue;
+      }
+      if (oneKind != null && otherKind != null
+          && oneKind != Kind.DIRECTORY && otherKind != Kind.DIRECTORY) {
+        if (!sameContent(oneKind, oneFile, oneEntries.get(name).size(),
+            otherKind, otherFile, otherEntries.get(name).size())) {
+          result.add(new DiffFile(path, Operation.MODIFIED));
+        }
+        continue;
+      }
+      // The path only exists in one of the trees, or is a directory in one and a file in the other
+      if (oneKind != null) {
+        addAll(oneKind, oneFile, path, Operation.DELETE);
+      }
+      if (otherKind != null) {
+        addAll(otherKind, otherFile, path, Operation.ADD);
+      }
+    }
+  }
+
+  private void addAll(Kind kind, Path file, String path, Operation operation)
+      throws IOException {
+    if (kind != Kind.DIRECTORY) {
+      result.add(new DiffFile(path, operation));
+      return;
+    }
+    TreeMap<String, BasicFileAttributes> entries = list(file);
+    for (String name : entries.keySet()) {
+      Kind childKind = kind(entries.get(name));
+      if (childKind != null) {
+        addAll(childKind, file.resolve(name), path + "/" + name, operation);
+      }
+    }
+  }
+
+  private static boolean sameContent(Kind oneKind, Path one, long oneSize,
+      Kind otherKind, Path other, long otherSize) throws IOException {
+    if (oneKind != otherKind) {
+      return false;
+    }
+    if (oneKind == Kind.SYMLINK) {
+      return Files.readSymbolicLink(one).equals(Files.readSymbolicLink(other));
+    }
+    // The sizes come from the directory listing, so different files are found without more I/O
+    return oneSize == otherSize
+        && FileUtil.isExecutable(one) == FileUtil.isExecutable(other)
+        && MoreFiles.asByteSource(one).contentEquals(MoreFiles.asByteSource(other));
+  }
+
+  private static TreeMap<String, BasicFileAttributes> list(Path directory) throws IOException {
+    TreeMap<String, BasicFileAttributes> entries = new TreeMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path entry : stream) {
+        entries.put(entry.getFileName().toString(),
+            Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+      }
+    }
+    return entries;
+  }
+
+  @Nullable
+  private static Kind kind(@Nullable BasicFileAttributes attributes) {
+    if (attributes == null) {
+      return null;
+    }
+    if (attributes.isSymbolicLink()) {
+      return Kind.SYMLINK;
+    }
+    if (attributes.isDirectory()) {
+      return Kind.DIRECTORY;
+    }
+    // Like git, ignore other special files
+    return attributes.isRegularFile() ? Kind.FILE : null;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+/**
+ * The content hashes of the files of a directory tree. Can be used for finding the files that
+ * changed between two trees without keeping a copy of one of them.
+ *
+ * <p>Like git, only regular files and symlinks are considered: Empty directories are ignored.
+ * Symlinks are compared by their target, not by the content of the file they point to.
+ */
+public final class TreeFingerprint {
+
+  private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+
+  private final ImmutableMap<String, FileFingerprint> files;
+
+  private TreeFingerprint(ImmutableMap<String, FileFingerprint> files) {
+    this.files = files;
+  }
+
+  /**
+   * Computes the fingerprint of the files under {@code root}.
+   *
+   * @param failOutsideSymlinks if an {@link AbsoluteSymlinksNotAllowed} should be thrown for
+   *     symlinks that point outside of {@code root}, like {@link FileUtil#copyFilesRecursively}
+   *     does with {@link FileUtil.CopySymlinkStrategy#FAIL_OUTSIDE_SYMLINKS}
+   */
+  public static TreeFingerprint of(Path root, boolean failOutsideSymlinks) throws IOException {
+    Preconditions.checkArgument(Files.isDirectory(root), "%s is not a directory", root);
+    PathMatcher rootMatcher = Glob.ALL_FILES.relativeTo(root.normalize());
+    ImmutableMap.Builder<String, FileFingerprint> files = ImmutableMap.builder();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        String relative = root.relativize(file).toString();
+        if (attrs.isSymbolicLink()) {
+          if (failOutsideSymlinks) {
+            FileUtil.ResolvedSymlink resolved = FileUtil.resolveSymlink(rootMatcher, file);
+            if (!resolved.isAllUnderRoot()) {
+              throw new AbsoluteSymlinksNotAllowed(String.format(
+                  "Symlink '%s' is absolute or escaped the root: '%s'.",
+                  file, resolved.getRegularFile()), file, resolved.getRegularFile());
+            }
+          }
+          String target = Files.readSymbolicLink(file).toString();
+          files.put(relative, new FileFingerprint(/*symlink=*/ true, /*executable=*/ false,
+              HASH_FUNCTION.hashString(target, UTF_8)));
+        } else if (attrs.isRegularFile()) {
+          files.put(relative, new FileFingerprint(/*symlink=*/ false, FileUtil.isExecutable(file),
+              MoreFiles.asByteSource(file).hash(HASH_FUNCTION)));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return new TreeFingerprint(files.build());
+  }
+
+  /**
+   * Returns the paths, relative to the root, of the files that are different in {@code other}.
+   * This includes files that only exist in one of the trees.
+   */
+  public ImmutableSortedSet<String> changedFiles(TreeFingerprint other) {
+    ImmutableSortedSet.Builder<String> result = ImmutableSortedSet.naturalOrder();
+    for (String path : Sets.union(files.keySet(), other.files.keySet())) {
+      if (!Objects.equals(files.get(path), other.files.get(path))) {
+        result.add(path);
+      }
+    }
+    return result.build();
+  }
+
+  private static final class FileFingerprint {
+
+    private final boolean symlink;
+    private final boolean executable;
+    private final HashCode hash;
+
+    private FileFingerprint(boolean symlink, boolean executable, HashCode hash) {
+      this.symlink = symlink;
+      this.executable = executable;
+      this.hash = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof FileFingerprint)) {
+        return false;
+      }
+      FileFingerprint that = (FileFingerprint) o;
+      return symlink == that.symlink && executable == that.executable && hash.equals(that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(symlink, executable, hash);
+    }
+  }
+}
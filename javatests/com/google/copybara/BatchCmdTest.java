@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.copybara.config.ConfigValidator;
+import com.google.copybara.exception.EmptyChangeException;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.monitor.EventMonitor.BatchMigrationFinishedEvent;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.testing.SkylarkTestExecutor;
+import com.google.copybara.testing.TestingEventMonitor;
+import com.google.copybara.util.ExitCode;
+import com.google.copybara.util.console.Message.MessageType;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class BatchCmdTest {
+
+  private static final String CONFIG = ""
+      + workflow("a", "https://example.com/foo", "https://example.com/dest1")
+      + workflow("b", "https://example.com/foo", "https://example.com/dest2")
+      + workflow("c", "https://example.com/bar", "https://example.com/dest1");
+
+  private OptionsBuilder optionsBuilder;
+  private TestingConsole console;
+  private TestingEventMonitor eventMonitor;
+  private SkylarkTestExecutor skylark;
+  private Path temp;
+
+  private final List<String> ran = Collections.synchronizedList(new ArrayList<>());
+  private final Set<Path> workdirs = ConcurrentHashMap.newKeySet();
+  private final Map<String, AtomicInteger> runningByDestination = new ConcurrentHashMap<>();
+  private final AtomicInteger maxRunningByDestination = new AtomicInteger();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  @Before
+  public void setUp() throws Exception {
+    console = new TestingConsole();
+    temp = Files.createTempDirectory("temp");
+    optionsBuilder = new OptionsBuilder();
+    optionsBuilder.setConsole(console).setOutputRootToTmpDir();
+    optionsBuilder.batch.threads = 3;
+    eventMonitor = new TestingEventMonitor();
+    optionsBuilder.general.enableEventMonitor("just testing", eventMonitor);
+    skylark = new SkylarkTestExecutor(optionsBuilder);
+  }
+
+  @Test
+  public void testRunsAllMigrations() throws Exception {
+    ExitCode exitCode = runBatch(ImmutableList.of(), (name) -> ExitCode.SUCCESS);
+
+    assertThat(exitCode).isEqualTo(ExitCode.SUCCESS);
+    assertThat(ran).containsExactly("a", "b", "c");
+    assertThat(eventMonitor.batchMigrationFinishedEvents.stream()
+        .map(BatchMigrationFinishedEvent::getMigrationName)).containsExactly("a", "b", "c");
+    // 'a' and 'c' write the same destination
+    assertThat(maxRunningByDestination.get()).isEqualTo(1);
+    // The config is loaded once and every migration has its own workdir
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(workdirs).hasSize(3);
+  }
+
+  @Test
+  public void testMigrationsReadingTheSameOriginRunInParallel() throws Exception {
+    CountDownLatch bothRunning = new CountDownLatch(2);
+    ExitCode exitCode = runBatch(ImmutableList.of("a", "b"), (name) -> {
+      bothRunning.countDown();
+      // 'a' and 'b' read the same origin. They would never finish if they were serialized.
+      return bothRunning.await(10, TimeUnit.SECONDS) ? ExitCode.SUCCESS : ExitCode.INTERRUPTED;
+    });
+
+    assertThat(exitCode).isEqualTo(ExitCode.SUCCESS);
+    assertThat(ran).containsExactly("a", "b");
+  }
+
+  @Test
+  public void testMigrationExceptionsAreExitCodes() throws Exception {
+    ExitCode exitCode = runBatch(ImmutableList.of("a", "b"), (name) -> {
+      if (name.equals("a")) {
+        throw new EmptyChangeException("Nothing to migrate");
+      }
+      throw new RepoException("Cannot fetch");
+    });
+
+    assertThat(exitCode).isEqualTo(ExitCode.REPOSITORY_ERROR);
+    assertThat(eventMonitor.batchMigrationFinishedEvents.stream()
+        .filter(e -> e.getMigrationName().equals("a"))
+        .findFirst()
+        .get()
+        .getExitCode()).isEqualTo(ExitCode.NO_OP);
+    console.assertThat().onceInLog(MessageType.ERROR, "\\[b\\] Cannot fetch");
+  }
+
+  @Test
+  public void testRunsSelectedMigrations() throws Exception {
+    ExitCode exitCode = runBatch(ImmutableList.of("c", "a"), (name) -> ExitCode.NO_OP);
+
+    assertThat(exitCode).isEqualTo(ExitCode.NO_OP);
+    assertThat(ran).containsExactly("a", "c");
+  }
+
+  @Test
+  public void testReportsFirstFailure() throws Exception {
+    ExitCode exitCode = runBatch(ImmutableList.of(), (name) -> {
+      if (name.equals("a")) {
+        return ExitCode.NO_OP;
+      }
+      if (name.equals("b")) {
+        return ExitCode.REPOSITORY_ERROR;
+      }
+      throw new IllegalStateException("Boom");
+    });
+
+    assertThat(exitCode).isEqualTo(ExitCode.REPOSITORY_ERROR);
+    assertThat(ran).containsExactly("a", "b", "c");
+    BatchMigrationFinishedEvent last = eventMonitor.batchMigrationFinishedEvents.stream()
+        .filter(e -> e.getMigrationName().equals("c"))
+        .findFirst()
+        .get();
+    assertThat(last.getExitCode()).isEqualTo(ExitCode.INTERNAL_ERROR);
+    console.assertThat().onceInLog(MessageType.ERROR, "\\[c\\] Unexpected error: Boom");
+  }
+
+  @Test
+  public void testUnknownMigration() {
+    ValidationException e = assertThrows(ValidationException.class,
+        () -> runBatch(ImmutableList.of("a", "foo"), (name) -> ExitCode.SUCCESS));
+    assertThat(e).hasMessageThat().contains("foo");
+    assertThat(ran).isEmpty();
+  }
+
+  private static String workflow(String name, String originUrl, String destinationUrl) {
+    return ""
+        + "core.workflow(\n"
+        + "    name = '" + name + "',\n"
+        + "    origin = git.origin(url = '" + originUrl + "', ref = 'main'),\n"
+        + "    destination = git.destination(url = '" + destinationUrl + "'),\n"
+        + "    authoring = authoring.pass_thru('example <example@example.com>'),\n"
+        + ")\n";
+  }
+
+  private interface FakeMigration {
+    ExitCode run(String name) throws Exception;
+  }
+
+  /**
+   * Runs the batch with a runner that records the migrations and returns the exit code of
+   * {@code fake}, by throwing the exception 'migrate' would throw for it.
+   */
+  private ExitCode runBatch(ImmutableList<String> migrations, FakeMigration fake)
+      throws Exception {
+    ModuleSet moduleSet = skylark.createModuleSet();
+    BatchCmd cmd = new BatchCmd(
+        new ConfigValidator() {},
+        migration -> {},
+        (configPath, sourceRef) -> {
+          loads.incrementAndGet();
+          return new ConfigLoader(moduleSet,
+              skylark.createConfigFile("copy.bara.sky", CONFIG),
+              optionsBuilder.general.getStarlarkMode());
+        },
+        (migration, workdir) -> {
+          assertThat(workdirs.add(workdir)).isTrue();
+          String destination =
+              Iterables.getOnlyElement(migration.getDestinationDescription().get("url"));
+          AtomicInteger running =
+              runningByDestination.computeIfAbsent(destination, k -> new AtomicInteger());
+          maxRunningByDestination.accumulateAndGet(running.incrementAndGet(), Math::max);
+          try {
+            ran.add(migration.getName());
+            ExitCode exitCode = fake.run(migration.getName());
+            if (exitCode == ExitCode.NO_OP) {
+              throw new EmptyChangeException("No changes");
+            }
+            if (exitCode == ExitCode.REPOSITORY_ERROR) {
+              throw new RepoException("Repo error");
+            }
+            assertThat(exitCode).isEqualTo(ExitCode.SUCCESS);
+          } catch (RepoException | ValidationException | RuntimeException e) {
+            throw e;
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          } finally {
+            running.decrementAndGet();
+          }
+        });
+    return cmd.run(new CommandEnv(temp, optionsBuilder.build(),
+        ImmutableList.<String>builder().add("copy.bara.sky").addAll(migrations).build()));
+  }
+}
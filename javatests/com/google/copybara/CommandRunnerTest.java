@@ -23,26 +23,32 @@ import static org.junit.Assert.assertThrows;
 
 import com.beust.jcommander.internal.Lists;
 import com.google.common.base.Strings;
+import com.google.copybara.util.BadExitStatusWithOutputException;
 import com.google.copybara.util.CommandOutputWithStatus;
 import com.google.copybara.util.CommandRunner;
 import com.google.copybara.util.CommandRunner.CommandExecutor;
 import com.google.copybara.util.CommandTimeoutException;
+import com.google.copybara.util.OutputConsumer;
 import com.google.copybara.shell.AbnormalTerminationException;
 import com.google.copybara.shell.Command;
 import com.google.copybara.shell.CommandException;
 import com.google.copybara.shell.Killable;
 import com.google.copybara.shell.KillableObserver;
 import com.google.copybara.shell.TerminationStatus;
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.logging.StreamHandler;
@@ -262,6 +268,122 @@ public class CommandRunnerTest {
     assertThat(e).hasMessageThat().contains("OH NOES!");
   }
 
+  @Test
+  public void testStreaming() throws Exception {
+    Command command = bashCommand(""
+        + "echo hello\n"
+        + "echo >&2 world\n"
+        + "printf 'foo\\nbar'\n");
+    List<String> lines = new ArrayList<>();
+    CommandOutputWithStatus result = new CommandRunner(command)
+        .executeStreaming(OutputConsumer.lines(line -> {
+          lines.add(line);
+          return true;
+        }));
+
+    assertThat(result.getTerminationStatus().success()).isTrue();
+    assertThat(result.getStderr()).isEqualTo("world\n");
+    assertThat(lines).containsExactly("hello", "foo", "bar").inOrder();
+  }
+
+  @Test
+  public void testStreamingLargeOutput() throws Exception {
+    Command command = bashCommand("seq 1 100000\n");
+    AtomicInteger lines = new AtomicInteger();
+    new CommandRunner(command).executeStreaming(OutputConsumer.lines(line -> {
+      assertThat(line).isEqualTo(Integer.toString(lines.incrementAndGet()));
+      return true;
+    }));
+
+    assertThat(lines.get()).isEqualTo(100000);
+  }
+
+  @Test
+  public void testStreamingStopKillsTheCommand() throws Exception {
+    Command command = bashCommand("while true; do echo foo; done\n");
+    List<String> lines = new ArrayList<>();
+    CommandOutputWithStatus result = new CommandRunner(command, Duration.ofSeconds(90))
+        .executeStreaming(OutputConsumer.lines(line -> {
+          lines.add(line);
+          return lines.size() < 3;
+        }));
+
+    assertThat(result.getTerminationStatus().success()).isFalse();
+    assertThat(lines).containsExactly("foo", "foo", "foo");
+  }
+
+  @Test
+  public void testStreamingConsumerError() throws Exception {
+    Command command = bashCommand("while true; do echo foo; done\n");
+    IOException e = assertThrows(IOException.class,
+        () -> new CommandRunner(command, Duration.ofSeconds(90))
+            .executeStreaming(OutputConsumer.lines(line -> {
+              throw new IOException("Cannot parse " + line);
+            })));
+
+    assertThat(e).hasMessageThat().isEqualTo("Cannot parse foo");
+  }
+
+  @Test
+  public void testStreamingBadExitStatus() throws Exception {
+    Command command = bashCommand(""
+        + "echo hello\n"
+        + "echo >&2 error\n"
+        + "exit 1\n");
+    List<String> lines = new ArrayList<>();
+    BadExitStatusWithOutputException e = assertThrows(BadExitStatusWithOutputException.class,
+        () -> new CommandRunner(command).executeStreaming(OutputConsumer.lines(line -> {
+          lines.add(line);
+          return true;
+        })));
+
+    assertThat(e.getOutput().getStderr()).isEqualTo("error\n");
+    assertThat(e.getOutput().getTerminationStatus().getExitCode()).isEqualTo(1);
+    // Only complete lines are passed if the command fails
+    assertThat(lines).containsExactly("hello");
+  }
+
+  @Test
+  public void testReading() throws Exception {
+    Command command = bashCommand("seq 1 100000\n");
+    List<String> lines = new ArrayList<>();
+    CommandOutputWithStatus result = new CommandRunner(command).executeReading(stdout -> {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(stdout, UTF_8));
+      lines.add(reader.readLine());
+      lines.add(reader.readLine());
+      // The rest of the output is discarded, without blocking the command
+      return true;
+    });
+
+    assertThat(result.getTerminationStatus().success()).isTrue();
+    assertThat(lines).containsExactly("1", "2").inOrder();
+  }
+
+  @Test
+  public void testReadingStopKillsTheCommand() throws Exception {
+    Command command = bashCommand("while true; do echo foo; done\n");
+    CommandOutputWithStatus result = new CommandRunner(command, Duration.ofSeconds(90))
+        .executeReading(stdout -> stdout.read() != 'f');
+
+    assertThat(result.getTerminationStatus().success()).isFalse();
+  }
+
+  @Test
+  public void testRecordsSplitBetweenChunks() throws Exception {
+    List<String> records = new ArrayList<>();
+    OutputConsumer consumer = OutputConsumer.records("\0--", record -> {
+      records.add(record);
+      return true;
+    });
+    byte[] output = "first\0--second\0--\0--ünïcödé".getBytes(UTF_8);
+    for (int i = 0; i < output.length; i++) {
+      assertThat(consumer.consume(output, i, 1)).isTrue();
+    }
+    consumer.finish();
+
+    assertThat(records).containsExactly("first", "second", "", "ünïcödé").inOrder();
+  }
+
   private CommandOutputWithStatus runCommand(CommandRunner commandRunner) throws CommandException {
     Logger logger = Logger.getLogger(CommandRunner.class.getName());
     boolean useParentLogger = logger.getUseParentHandlers();
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LocalParallelizerTest {
+
+  private static final ImmutableList<Integer> ELEMENTS =
+      IntStream.range(0, 1000).boxed().collect(ImmutableList.toImmutableList());
+
+  @Test
+  public void testKeepsOrder() throws Exception {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10);
+
+    List<List<Integer>> result = parallelizer.run(ELEMENTS, ImmutableList::copyOf);
+
+    assertThat(result.size()).isGreaterThan(1);
+    assertThat(Iterables.concat(result)).containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testSequentialBelowMinSize() throws Exception {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10_000);
+
+    List<List<Integer>> result = parallelizer.run(ELEMENTS, ImmutableList::copyOf);
+
+    assertThat(result).containsExactly(ELEMENTS);
+  }
+
+  @Test
+  public void testCostlyElementsGetTheirOwnBatch() throws Exception {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10);
+
+    List<List<Integer>> result = parallelizer.run(
+        ELEMENTS, e -> e % 100 == 0 ? 1_000_000_000L : 1, ImmutableList::copyOf);
+
+    List<List<Integer>> costly = new ArrayList<>();
+    for (List<Integer> batch : result) {
+      if (batch.stream().anyMatch(e -> e % 100 == 0)) {
+        costly.add(batch);
+      }
+    }
+    assertThat(costly).hasSize(10);
+    for (List<Integer> batch : costly) {
+      assertThat(batch).hasSize(1);
+    }
+    assertThat(Iterables.concat(result)).containsExactlyElementsIn(ELEMENTS).inOrder();
+  }
+
+  @Test
+  public void testPropagatesValidationException() {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10);
+
+    ValidationException e = assertThrows(ValidationException.class,
+        () -> parallelizer.run(ELEMENTS, batch -> {
+          if (Iterables.contains(batch, 500)) {
+            throw new ValidationException("Failed batch");
+          }
+          return true;
+        }));
+    assertThat(e).hasMessageThat().isEqualTo("Failed batch");
+  }
+
+  @Test
+  public void testInterrupted() {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10);
+
+    Thread.currentThread().interrupt();
+    try {
+      RepoException e = assertThrows(RepoException.class,
+          () -> parallelizer.run(ELEMENTS, batch ->
+              ImmutableList.copyOf(batch).stream().map(String::valueOf)
+                  .collect(Collectors.joining())));
+      assertThat(e).hasCauseThat().isInstanceOf(InterruptedException.class);
+      assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    } finally {
+      Thread.interrupted();
+    }
+  }
+
+  @Test
+  public void testInterruptedWaitsForRunningBatches() throws Exception {
+    LocalParallelizer parallelizer = new LocalParallelizer(4, 10);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger finished = new AtomicInteger();
+    AtomicReference<Throwable> thrown = new AtomicReference<>();
+    AtomicInteger runningAfterReturn = new AtomicInteger(-1);
+
+    Thread caller = new Thread(() -> {
+      try {
+        parallelizer.run(ELEMENTS, batch -> {
+          running.incrementAndGet();
+          try {
+            started.countDown();
+            release.await();
+          } catch (InterruptedException e) {
+            throw new AssertionError(e);
+          } finally {
+            running.decrementAndGet();
+            finished.incrementAndGet();
+          }
+          return true;
+        });
+      } catch (Exception e) {
+        thrown.set(e);
+      } finally {
+        runningAfterReturn.set(running.get());
+      }
+    });
+    caller.start();
+    started.await();
+    caller.interrupt();
+
+    // The running batches are still blocked, so run() cannot return yet
+    caller.join(200);
+    assertThat(caller.isAlive()).isTrue();
+
+    release.countDown();
+    caller.join(10_000);
+    assertThat(caller.isAlive()).isFalse();
+    assertThat(thrown.get()).isInstanceOf(RepoException.class);
+    assertThat(thrown.get()).hasCauseThat().isInstanceOf(InterruptedException.class);
+    assertThat(runningAfterReturn.get()).isEqualTo(0);
+    // Batches that didn't start before the interruption were skipped
+    assertThat(finished.get()).isLessThan(16);
+  }
+}
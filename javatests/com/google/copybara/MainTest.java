@@ -19,6 +19,9 @@ package com.google.copybara;
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.copybara.exception.ValidationException;
@@ -165,6 +168,28 @@ public class MainTest {
     assertThat(called).isTrue();
   }
 
+  @Test
+  public void testWithoutPositionalArgs() {
+    TestFlags flags = new TestFlags();
+    JCommander jCommander = new JCommander(ImmutableList.of(flags, new MainArguments()));
+    String[] args = {
+        "--foo", "main", "main", "--bar", "--work-dir", "/tmp/foo", "--foo=other", "main"};
+    jCommander.parse(args);
+
+    assertThat(Main.withoutPositionalArgs(jCommander, args))
+        .containsExactly("--foo", "main", "--bar", "--foo=other").inOrder();
+  }
+
+  @Parameters(separators = "=")
+  private static final class TestFlags {
+
+    @Parameter(names = "--foo")
+    String foo;
+
+    @Parameter(names = "--bar")
+    boolean bar;
+  }
+
   @Test
   public void testInvalidForcedAuthor() throws IOException {
     ImmutableMap<String, String> envWithHome =
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.copybara.config.ConfigFile;
+import com.google.copybara.config.Migration;
+import com.google.copybara.util.console.Message.MessageType;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RepoAdmissionTest {
+
+  private RepoAdmission admission;
+  private TestingConsole console;
+  private ExecutorService executor;
+
+  @Before
+  public void setup() {
+    admission = new RepoAdmission(/*stripes=*/ 16);
+    console = new TestingConsole();
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testSameRepoWaits() throws Exception {
+    ImmutableList<Lock> first =
+        admission.admit(migration("https://example.com/foo", "https://example.com/bar"), console);
+
+    Future<?> second = executor.submit(() -> {
+      ImmutableList<Lock> locks =
+          admission.admit(migration("https://example.com/baz", "https://example.com/foo"),
+              console);
+      RepoAdmission.release(locks);
+    });
+    assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+
+    RepoAdmission.release(first);
+    second.get(10, TimeUnit.SECONDS);
+    console.assertThat()
+        .onceInLog(MessageType.PROGRESS, "Waiting for other migrations using .*foo.*");
+  }
+
+  @Test
+  public void testDifferentReposDontWait() throws Exception {
+    ImmutableList<Lock> first =
+        admission.admit(migration("https://example.com/foo", "https://example.com/bar"), console);
+
+    executor.submit(() -> {
+      RepoAdmission.release(
+          admission.admit(migration("https://example.com/baz", "https://example.com/qux"),
+              console));
+    }).get(10, TimeUnit.SECONDS);
+
+    RepoAdmission.release(first);
+  }
+
+  @Test
+  public void testSameOriginDoesntWait() throws Exception {
+    ImmutableList<Lock> first =
+        admission.admit(migration("https://example.com/foo", "https://example.com/bar"), console);
+
+    executor.submit(() -> {
+      RepoAdmission.release(
+          admission.admit(migration("https://example.com/foo", "https://example.com/baz"),
+              console));
+    }).get(10, TimeUnit.SECONDS);
+
+    RepoAdmission.release(first);
+  }
+
+  @Test
+  public void testSameDestinationWaits() throws Exception {
+    ImmutableList<Lock> first =
+        admission.admit(migration("https://example.com/foo", "https://example.com/bar"), console);
+
+    Future<?> second = executor.submit(() -> {
+      RepoAdmission.release(
+          admission.admit(migration("https://example.com/baz", "https://example.com/bar"),
+              console));
+    });
+    assertThrows(TimeoutException.class, () -> second.get(200, TimeUnit.MILLISECONDS));
+
+    RepoAdmission.release(first);
+    second.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testSameRepoInOriginAndDestination() throws Exception {
+    ImmutableList<Lock> locks =
+        admission.admit(migration("https://example.com/foo", "https://example.com/foo"), console);
+    RepoAdmission.release(locks);
+
+    // The lock was fully released, so other threads can use the repo
+    executor.submit(() -> {
+      RepoAdmission.release(
+          admission.admit(migration("https://example.com/foo", "https://example.com/bar"),
+              console));
+    }).get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testMigrationWithoutRepos() {
+    assertThat(admission.admit(migration(/*originUrl=*/ null, /*destinationUrl=*/ null), console))
+        .isEmpty();
+  }
+
+  private static Migration migration(String originUrl, String destinationUrl) {
+    return new Migration() {
+      @Override
+      public void run(Path workdir, ImmutableList<String> sourceRefs) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public String getName() {
+        return "test";
+      }
+
+      @Override
+      public String getDescription() {
+        return null;
+      }
+
+      @Override
+      public String getModeString() {
+        return "test";
+      }
+
+      @Override
+      public ConfigFile getMainConfigFile() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public ImmutableSetMultimap<String, String> getOriginDescription() {
+        return describe(originUrl);
+      }
+
+      @Override
+      public ImmutableSetMultimap<String, String> getDestinationDescription() {
+        return describe(destinationUrl);
+      }
+    };
+  }
+
+  private static ImmutableSetMultimap<String, String> describe(String url) {
+    return url == null
+        ? ImmutableSetMultimap.of("type", "folder")
+        : ImmutableSetMultimap.of("type", "git", "url", url);
+  }
+}
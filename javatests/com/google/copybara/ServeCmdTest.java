@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.CharStreams;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.util.DirFactory;
+import com.google.copybara.util.ExitCode;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ServeCmdTest {
+
+  private static final long TIMEOUT_SECONDS = 30;
+  private static final String TOKEN = ServeCmd.newToken();
+
+  private final List<HttpServer> servers = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    for (HttpServer server : servers) {
+      ServeCmd.stop(server, /*delaySeconds=*/ 0);
+    }
+  }
+
+  @Test
+  public void testDispatchesRequest() throws Exception {
+    List<String> args = new ArrayList<>();
+    Map<String, String> requestEnvironment = new HashMap<>();
+    HttpServer server = start(/*threads=*/ 1, (requestArgs, environment, console, request) -> {
+      args.addAll(ImmutableList.copyOf(requestArgs));
+      requestEnvironment.putAll(environment);
+      assertThat(request.getTempDirName()).startsWith("request-");
+      console.info("Hello from the request");
+      return ExitCode.NO_OP;
+    }, ImmutableMap.of("FOO", "bar"));
+
+    HttpURLConnection connection = post(server, "/some/dir", "info", "copy.bara.sky", "default");
+
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    List<String> lines = readLines(connection);
+    assertThat(lines.get(0)).endsWith("INFO: Hello from the request");
+    assertThat(lines.get(1)).isEqualTo(ServeCmd.EXIT_CODE_PREFIX + ExitCode.NO_OP.getCode());
+    assertThat(args).containsExactly("info", "copy.bara.sky", "default").inOrder();
+    assertThat(requestEnvironment).containsEntry("FOO", "bar");
+    assertThat(requestEnvironment).containsEntry("PWD", "/some/dir");
+  }
+
+  @Test
+  public void testOnlyPostIsAllowed() throws Exception {
+    HttpServer server = start(/*threads=*/ 1, (requestArgs, environment, console, request) -> {
+      throw new AssertionError("Unexpected request");
+    }, ImmutableMap.of());
+
+    HttpURLConnection connection = (HttpURLConnection) runUrl(server).openConnection();
+    connection.setRequestProperty(ServeCmd.TOKEN_HEADER, TOKEN);
+
+    assertThat(connection.getResponseCode()).isEqualTo(405);
+  }
+
+  @Test
+  public void testRejectsRequestsWithoutTheToken() throws Exception {
+    HttpServer server = start(/*threads=*/ 1, (requestArgs, environment, console, request) -> {
+      throw new AssertionError("Unexpected request");
+    }, ImmutableMap.of());
+
+    assertThat(postWithToken(server, /*token=*/ null, "info").getResponseCode())
+        .isEqualTo(401);
+    assertThat(postWithToken(server, ServeCmd.newToken(), "info").getResponseCode())
+        .isEqualTo(401);
+  }
+
+  @Test
+  public void testStreamsOutputWhileRunning() throws Exception {
+    CountDownLatch firstLineRead = new CountDownLatch(1);
+    HttpServer server = start(/*threads=*/ 1, (requestArgs, environment, console, request) -> {
+      console.info("First line");
+      try {
+        // The client needs to receive the first line before the request finishes
+        return firstLineRead.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            ? ExitCode.SUCCESS
+            : ExitCode.INTERNAL_ERROR;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return ExitCode.INTERRUPTED;
+      }
+    }, ImmutableMap.of());
+
+    HttpURLConnection connection = post(server, /*cwd=*/ null, "info");
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(connection.getInputStream(), UTF_8))) {
+      assertThat(reader.readLine()).endsWith("INFO: First line");
+      firstLineRead.countDown();
+      assertThat(reader.readLine())
+          .isEqualTo(ServeCmd.EXIT_CODE_PREFIX + ExitCode.SUCCESS.getCode());
+    }
+  }
+
+  @Test
+  public void testRunsRequestsConcurrently() throws Exception {
+    CyclicBarrier bothRunning = new CyclicBarrier(2);
+    List<Integer> requestIds = Collections.synchronizedList(new ArrayList<>());
+    HttpServer server = start(/*threads=*/ 2, (requestArgs, environment, console, request) -> {
+      requestIds.add(System.identityHashCode(request));
+      try {
+        // Only finishes if the other request runs at the same time
+        bothRunning.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return ExitCode.SUCCESS;
+      } catch (Exception e) {
+        return ExitCode.INTERNAL_ERROR;
+      }
+    }, ImmutableMap.of());
+
+    ExecutorService clients = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<List<String>>> responses = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        responses.add(clients.submit(() -> readLines(post(server, /*cwd=*/ null, "info"))));
+      }
+      for (Future<List<String>> response : responses) {
+        assertThat(response.get(TIMEOUT_SECONDS * 2, TimeUnit.SECONDS))
+            .containsExactly(ServeCmd.EXIT_CODE_PREFIX + ExitCode.SUCCESS.getCode());
+      }
+    } finally {
+      clients.shutdownNow();
+    }
+    // Each request has its own state
+    assertThat(requestIds).containsNoDuplicates();
+  }
+
+  /**
+   * Runs the request with {@link Main}, like 'serve' does, and checks that only the temp
+   * directories of the request are deleted. The other resources of the request, like the git
+   * processes, are closed by Main too, when it closes the options.
+   */
+  @Test
+  public void testDeletesTheTempDirsOfTheRequest() throws Exception {
+    Path outputRoot = Files.createTempDirectory("output");
+    Path otherRequestTemp =
+        Files.createDirectories(outputRoot.resolve(DirFactory.TMP).resolve("request-other"));
+    List<Path> requestTemps = new ArrayList<>();
+    ServeCmd.RequestRunner runner = (requestArgs, environment, console, request) ->
+        new Main(environment) {
+          @Override
+          protected void initEnvironment(Options options, CopybaraCmd copybaraCmd,
+              ImmutableList<String> rawArgs)
+              throws ValidationException, IOException, RepoException {
+            super.initEnvironment(options, copybaraCmd, rawArgs);
+            requestTemps.add(
+                options.get(GeneralOptions.class).getDirFactory().newTempDir("request_file"));
+          }
+        }.runRequest(requestArgs, console, request);
+    HttpServer server = start(/*threads=*/ 1, runner,
+        ImmutableMap.of("HOME", Files.createTempDirectory("home").toString()));
+
+    List<String> lines = readLines(post(server, /*cwd=*/ null, "info",
+        outputRoot.resolve("does_not_exist/copy.bara.sky").toString(),
+        GeneralOptions.OUTPUT_ROOT_FLAG + "=" + outputRoot));
+
+    assertThat(lines).isNotEmpty();
+    assertThat(requestTemps).hasSize(1);
+    assertThat(requestTemps.get(0).toString()).contains("request-");
+    assertThat(Files.exists(requestTemps.get(0))).isFalse();
+    assertThat(Files.exists(otherRequestTemp)).isTrue();
+  }
+
+  @Test
+  public void testRejectsNonLoopbackClients() throws Exception {
+    FakeExchange exchange = new FakeExchange(
+        new InetSocketAddress(InetAddress.getByAddress(new byte[] {10, 1, 2, 3}), 12345));
+
+    assertRejected(exchange);
+  }
+
+  /**
+   * Browsers send the Origin header in cross-origin requests, even in the ones that don't need a
+   * preflight request, like a POST with a text/plain body.
+   */
+  @Test
+  public void testRejectsBrowserRequests() throws Exception {
+    FakeExchange exchange = new FakeExchange(loopbackAddress());
+    exchange.requestHeaders.set("Origin", "https://example.com");
+
+    assertRejected(exchange);
+  }
+
+  /**
+   * A page that rebinds its DNS name to the loopback address still sends its name as Host.
+   */
+  @Test
+  public void testRejectsNonLoopbackHosts() throws Exception {
+    FakeExchange exchange = new FakeExchange(loopbackAddress());
+    exchange.requestHeaders.set("Host", "attacker.example.com:7878");
+
+    assertRejected(exchange);
+  }
+
+  @Test
+  public void testAcceptsLoopbackHosts() throws Exception {
+    for (String host : ImmutableList.of("localhost:7878", "127.0.0.1:7878", "[::1]:7878")) {
+      FakeExchange exchange = new FakeExchange(loopbackAddress());
+      exchange.requestHeaders.set("Host", host);
+
+      new ServeCmd((requestArgs, environment, console, request) -> ExitCode.SUCCESS)
+          .handle(exchange, ImmutableMap.of(), TOKEN);
+
+      assertThat(exchange.responseCode).isEqualTo(200);
+    }
+  }
+
+  private static void assertRejected(FakeExchange exchange) throws IOException {
+    new ServeCmd((requestArgs, environment, console, request) -> {
+      throw new AssertionError("Unexpected request");
+    }).handle(exchange, ImmutableMap.of(), TOKEN);
+
+    assertThat(exchange.responseCode).isEqualTo(403);
+    assertThat(exchange.closed).isTrue();
+  }
+
+  private static InetSocketAddress loopbackAddress() {
+    return new InetSocketAddress(InetAddress.getLoopbackAddress(), 12345);
+  }
+
+  private HttpServer start(int threads, ServeCmd.RequestRunner runner,
+      Map<String, String> environment) throws IOException {
+    HttpServer server = new ServeCmd(runner).start(/*port=*/ 0, threads, environment, TOKEN);
+    servers.add(server);
+    return server;
+  }
+
+  private static URL runUrl(HttpServer server) throws IOException {
+    return new URL("http", InetAddress.getLoopbackAddress().getHostAddress(),
+        server.getAddress().getPort(), "/run");
+  }
+
+  private static HttpURLConnection post(HttpServer server, String cwd, String... args)
+      throws IOException {
+    return send(server, cwd, TOKEN, args);
+  }
+
+  private static HttpURLConnection postWithToken(HttpServer server, String token,
+      String... args) throws IOException {
+    return send(server, /*cwd=*/ null, token, args);
+  }
+
+  private static HttpURLConnection send(HttpServer server, String cwd, String token,
+      String[] args) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) runUrl(server).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setReadTimeout((int) TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS * 2));
+    if (cwd != null) {
+      connection.setRequestProperty(ServeCmd.CWD_HEADER, cwd);
+    }
+    if (token != null) {
+      connection.setRequestProperty(ServeCmd.TOKEN_HEADER, token);
+    }
+    try (OutputStream body = connection.getOutputStream()) {
+      body.write(String.join("\n", args).getBytes(UTF_8));
+    }
+    return connection;
+  }
+
+  private static List<String> readLines(HttpURLConnection connection) throws IOException {
+    try (InputStreamReader reader = new InputStreamReader(connection.getInputStream(), UTF_8)) {
+      return CharStreams.readLines(reader);
+    }
+  }
+
+  /** An exchange that records the response, for clients that cannot connect to the server. */
+  private static class FakeExchange extends HttpExchange {
+
+    private final InetSocketAddress remoteAddress;
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private final ByteArrayOutputStream responseBody = new ByteArrayOutputStream();
+    private int responseCode = -1;
+    private boolean closed;
+
+    FakeExchange(InetSocketAddress remoteAddress) {
+      this.remoteAddress = remoteAddress;
+      requestHeaders.set("Host", "localhost:7878");
+      requestHeaders.set(ServeCmd.TOKEN_HEADER, TOKEN);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+      return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+      return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+      return URI.create("/run");
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return "POST";
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+      return new ByteArrayInputStream("info".getBytes(UTF_8));
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+      return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long responseLength) {
+      responseCode = code;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+      return remoteAddress;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), 7878);
+    }
+
+    @Override
+    public String getProtocol() {
+      return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+      return null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setStreams(InputStream i, OutputStream o) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+      return null;
+    }
+  }
+}
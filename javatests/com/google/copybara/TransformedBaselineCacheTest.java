@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TransformedBaselineCacheTest {
+
+  private Path storage;
+  private Path baseline;
+
+  @Before
+  public void setup() throws Exception {
+    storage = Files.createTempDirectory("storage");
+    baseline = Files.createTempDirectory("baseline");
+    Files.createDirectories(baseline.resolve("foo"));
+    Files.write(baseline.resolve("foo/bar.txt"), "bar".getBytes(UTF_8));
+    Files.createSymbolicLink(baseline.resolve("link"), Paths.get("foo/bar.txt"));
+  }
+
+  @Test
+  public void testPutAndGet() throws Exception {
+    TransformedBaselineCache cache = new TransformedBaselineCache(storage, 10);
+    Path target = Files.createTempDirectory("target");
+    assertThat(cache.get("key", target)).isFalse();
+
+    cache.put("key", baseline);
+
+    assertThat(cache.get("other", target)).isFalse();
+    assertThat(cache.get("key", target)).isTrue();
+    assertThat(new String(Files.readAllBytes(target.resolve("foo/bar.txt")), UTF_8))
+        .isEqualTo("bar");
+    assertThat(Files.readSymbolicLink(target.resolve("link"))).isEqualTo(Paths.get("foo/bar.txt"));
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    TransformedBaselineCache cache = new TransformedBaselineCache(storage, 2);
+    cache.put("first", baseline);
+    cache.put("second", baseline);
+    Files.setLastModifiedTime(storage.resolve("first"), FileTime.fromMillis(1000));
+    Files.setLastModifiedTime(storage.resolve("second"), FileTime.fromMillis(2000));
+
+    cache.put("third", baseline);
+
+    assertThat(Files.exists(storage.resolve("first"))).isFalse();
+    assertThat(Files.exists(storage.resolve("second"))).isTrue();
+    assertThat(Files.exists(storage.resolve("third"))).isTrue();
+    // Evicted entries are moved away and then deleted
+    try (Stream<Path> entries = Files.list(storage)) {
+      assertThat(entries.map(p -> p.getFileName().toString())).containsExactly("second", "third");
+    }
+  }
+}
@@ -44,8 +44,10 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.jimfs.Jimfs;
 import com.google.copybara.DestinationEffect.Type;
+import com.google.copybara.Origin.Reader;
 import com.google.copybara.authoring.Author;
 import com.google.copybara.authoring.AuthorParser;
+import com.google.copybara.authoring.Authoring;
 import com.google.copybara.config.Config;
 import com.google.copybara.config.MapConfigFile;
 import com.google.copybara.config.Migration;
@@ -80,21 +82,28 @@ import com.google.copybara.util.console.Message;
 import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoField;
 import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 import javax.annotation.Nullable;
 import net.starlark.java.annot.StarlarkBuiltin;
@@ -531,6 +540,176 @@ public class WorkflowTest {
     assertThat(destination.processed).hasSize(18);
   }
 
+  @Test
+  public void iterativeWorkflowWithLookahead() throws Exception {
+    for (int timestamp = 0; timestamp < 20; timestamp++) {
+      origin.addSimpleChange(timestamp);
+    }
+    options.workflowOptions.iterativeLookahead = 3;
+    Workflow<?, ?> workflow = iterativeWorkflow(/*previousRef=*/ "4");
+
+    workflow.run(workdir, ImmutableList.of("HEAD"));
+    assertThat(destination.processed).hasSize(15);
+    int nextChange = 5;
+    for (ProcessedChange change : destination.processed) {
+      assertThat(change.getChangesSummary()).isEqualTo(nextChange + " change");
+      String asString = Integer.toString(nextChange);
+      assertThat(change.getOriginRef().asString()).isEqualTo(asString);
+      assertThat(change.numFiles()).isEqualTo(1);
+      assertThat(change.getContent("file.txt")).isEqualTo(PREFIX + asString);
+      nextChange++;
+    }
+    assertThat(eventMonitor.changeMigrationStartedEventCount()).isEqualTo(15);
+    assertThat(eventMonitor.changeMigrationFinishedEventCount()).isEqualTo(15);
+  }
+
+  @Test
+  public void iterativeWorkflowWithLookahead_limit() throws Exception {
+    for (int timestamp = 0; timestamp < 20; timestamp++) {
+      origin.addSimpleChange(timestamp);
+    }
+    options.workflowOptions.iterativeLookahead = 5;
+    options.workflowOptions.iterativeLimitChanges = 2;
+
+    iterativeWorkflow(/*previousRef=*/ "4").run(workdir, ImmutableList.of("HEAD"));
+    assertThat(destination.processed).hasSize(2);
+    assertThat(destination.processed.get(1).getOriginRef().asString()).isEqualTo("6");
+  }
+
+  @Test
+  public void iterativeWorkflowWithLookahead_transformationError() throws Exception {
+    passThruAuthoring();
+    origin.addSimpleChange(0, "first commit")
+        .addSimpleChange(1, "second commit")
+        .addSimpleChange(2, "third commit")
+        .addSimpleChange(3, "fourth commit");
+    options.workflowOptions.lastRevision = "0";
+    options.workflowOptions.iterativeLookahead = 2;
+
+    Config config = loadConfig(""
+        + "core.workflow(\n"
+        + "    name = 'default',\n"
+        + "    origin =  testing.origin(),\n"
+        + "    authoring = " + authoring + "\n,"
+        + "    destination = testing.destination(),\n"
+        + "    mode = 'ITERATIVE',\n"
+        + "    transformations = [\n"
+        + "        core.verify_match(regex = '^2$', paths = glob(['file.txt']),\n"
+        + "            verify_no_match = True),\n"
+        + "    ],\n"
+        + ")\n");
+
+    ValidationException e = assertThrows(ValidationException.class,
+        () -> config.getMigration("default").run(workdir, ImmutableList.of("HEAD")));
+    assertThat(e).hasMessageThat().contains("1 file(s) failed the validation");
+    // The change before the failing one is written, and the changes after it are not
+    assertThat(destination.processed).hasSize(1);
+    assertThat(destination.processed.get(0).getChangesSummary()).isEqualTo("second commit");
+    console().assertThat()
+        .onceInLog(MessageType.ERROR, "Migration of origin revision '2' failed with error: .*");
+  }
+
+  /**
+   * Dynamic transformations can read the destination, so changes are not prepared until the
+   * previous ones are written.
+   */
+  @Test
+  public void iterativeWorkflowWithLookahead_readsDestination() throws Exception {
+    passThruAuthoring();
+    origin.addSimpleChange(0, "first commit")
+        .addSimpleChange(1, "second commit")
+        .addSimpleChange(2, "third commit")
+        .addSimpleChange(3, "fourth commit");
+    options.workflowOptions.lastRevision = "0";
+    options.workflowOptions.iterativeLookahead = 2;
+    destination.onWrite(result -> destination.getEndpoint().add(result.getSummary()));
+
+    loadConfig(""
+        + "def record_written(ctx):\n"
+        + "  ctx.write_path(ctx.new_path('written.txt'),\n"
+        + "      ','.join(ctx.destination_api().get_messages))\n"
+        + "core.workflow(\n"
+        + "    name = 'default',\n"
+        + "    origin =  testing.origin(),\n"
+        + "    authoring = " + authoring + "\n,"
+        + "    destination = testing.destination(),\n"
+        + "    mode = 'ITERATIVE',\n"
+        + "    transformations = [record_written],\n"
+        + ")\n")
+        .getMigration("default").run(workdir, ImmutableList.of("HEAD"));
+
+    assertThat(destination.processed).hasSize(3);
+    assertThat(destination.processed.get(0).getContent("written.txt")).isEmpty();
+    assertThat(destination.processed.get(1).getContent("written.txt"))
+        .isEqualTo("second commit");
+    assertThat(destination.processed.get(2).getContent("written.txt"))
+        .isEqualTo("second commit,third commit");
+  }
+
+  /**
+   * Files that the transformations leave unchanged are not written again, for any change of an
+   * ITERATIVE migration, and reach the destination as they were checked out.
+   */
+  @Test
+  public void iterativeWorkflow_unchangedFilesAreNotWritten() throws Exception {
+    FileTime checkoutTime = FileTime.fromMillis(1000);
+    origin = new DummyOrigin() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public Reader<DummyRevision> newReader(Glob originFiles, Authoring authoring) {
+        Reader<DummyRevision> reader = super.newReader(originFiles, authoring);
+        // Backdates the checked out files, so that the files written later can be told apart
+        return (Reader<DummyRevision>) Proxy.newProxyInstance(Reader.class.getClassLoader(),
+            new Class<?>[] {Reader.class}, (proxy, method, args) -> {
+              Object result;
+              try {
+                result = method.invoke(reader, args);
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+              if (method.getName().equals("checkout")) {
+                List<Path> files;
+                try (Stream<Path> stream = Files.walk((Path) args[1])) {
+                  files = stream.filter(Files::isRegularFile).collect(Collectors.toList());
+                }
+                for (Path file : files) {
+                  Files.setLastModifiedTime(file, checkoutTime);
+                }
+              }
+              return result;
+            });
+      }
+    }.setAuthor(ORIGINAL_AUTHOR);
+    options.testingOptions.origin = origin;
+    origin.addSimpleChange(0)
+        .singleFileChange(1, "add unchanged.txt", "unchanged.txt", "no numbers here\n")
+        .addSimpleChange(2)
+        .addSimpleChange(3);
+    List<FileTime> unchangedTimes = new ArrayList<>();
+    List<FileTime> transformedTimes = new ArrayList<>();
+    destination.onWrite(result -> {
+      try {
+        unchangedTimes.add(
+            Files.getLastModifiedTime(result.getPath().resolve("unchanged.txt")));
+        transformedTimes.add(Files.getLastModifiedTime(result.getPath().resolve("file.txt")));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+
+    iterativeWorkflow(/*previousRef=*/ "1").run(workdir, ImmutableList.of("3"));
+
+    assertThat(destination.processed).hasSize(2);
+    for (ProcessedChange change : destination.processed) {
+      assertThat(change.getContent("unchanged.txt")).isEqualTo("no numbers here\n");
+      assertThat(change.getContent("file.txt")).startsWith(PREFIX);
+    }
+    // The core.replace didn't match the unchanged file for the first change, so it was skipped
+    // for the second one too. Neither of them wrote it.
+    assertThat(unchangedTimes).containsExactly(checkoutTime, checkoutTime);
+    assertThat(transformedTimes).doesNotContain(checkoutTime);
+  }
+
   @Test
   public void testIterativeModeWithLimit() throws Exception {
     for (int timestamp = 0; timestamp < 51; timestamp++) {
@@ -1860,6 +2039,65 @@ public class WorkflowTest {
     assertThat(diffFiles).isNull();
   }
 
+  @Test
+  public void changeRequestSmartPruneBaselineCache() throws Exception {
+    Path originPath = Files.createTempDirectory("origin");
+    GitRepository origin = GitRepository.newRepo(/*verbose*/ true, originPath, getGitEnv()).init();
+    options.setOutputRootToTmpDir();
+    Files.createDirectory(originPath.resolve("included"));
+    Files.write(originPath.resolve("included/foo.txt"), "a".getBytes(UTF_8));
+    origin.add().files("included/foo.txt").run();
+    origin.commit("Foo <foo@bara.com>", ZonedDateTime.now(ZoneId.systemDefault()),
+        "the baseline\n\n" + destination.getLabelNameWhenOrigin() + "=42");
+    Files.write(originPath.resolve("included/foo.txt"), "aa".getBytes(UTF_8));
+    origin.add().files("included/foo.txt").run();
+    origin.commit("Foo <foo@bara.com>", ZonedDateTime.now(ZoneId.systemDefault()), "the change");
+
+    String config = smartPruneConfig(origin, "b");
+    runSmartPrune(config);
+    console().assertThat()
+        .timesInLog(0, MessageType.INFO, ".*Using cached transformed baseline");
+
+    runSmartPrune(config);
+    console().assertThat()
+        .onceInLog(MessageType.INFO, ".*Using cached transformed baseline");
+
+    // A different config transforms the baseline again
+    runSmartPrune(smartPruneConfig(origin, "c"));
+    console().assertThat()
+        .onceInLog(MessageType.INFO, ".*Using cached transformed baseline");
+
+    // And so does a different set of flags
+    options.general.setCommandLine("Unknown version", ImmutableList.of("--some-flag"));
+    runSmartPrune(config);
+    console().assertThat()
+        .onceInLog(MessageType.INFO, ".*Using cached transformed baseline");
+
+    assertThat(destination.processed).hasSize(4);
+    assertThat(destination.processed.get(1).getAffectedFilesForSmartPrune()).hasSize(1);
+  }
+
+  private String smartPruneConfig(GitRepository origin, String replacement)
+      throws RepoException {
+    return ""
+        + "core.workflow(\n"
+        + "    name = 'default',\n"
+        + String.format("    origin = git.origin(url = 'file://%s', ref = '%s'),\n",
+            origin.getWorkTree(), origin.getPrimaryBranch())
+        + "    destination = testing.destination(),\n"
+        + "    authoring = " + authoring + ",\n"
+        + "    origin_files = glob(['included/**']),\n"
+        + "    mode = '" + WorkflowMode.CHANGE_REQUEST + "',\n"
+        + "    smart_prune = True,\n"
+        + "    transformations = [core.replace(before = 'a', after = '" + replacement + "')],\n"
+        + ")\n";
+  }
+
+  private void runSmartPrune(String config) throws Exception {
+    loadConfig(config).getMigration("default")
+        .run(Files.createTempDirectory("workdir"), ImmutableList.of());
+  }
+
   @Test
   public void smartPruneForDifferentWorkflowMode() throws Exception {
     smartPrune = true;
@@ -2367,6 +2605,12 @@ public class WorkflowTest {
     assertThat(thirdCommit.getAuthor().toString()).isEqualTo("Someone <someone@somewhere.com>");
   }
 
+  @Test
+  public void testMessageTransformerForIterativeWithMigrated_lookahead() throws Exception {
+    options.workflowOptions.iterativeLookahead = 2;
+    testMessageTransformerForIterativeWithMigrated();
+  }
+
   @Test
   public void testDateTimeOffset() throws Exception {
     runWorkflowForMessageTransform(WorkflowMode.ITERATIVE, ""
@@ -3230,6 +3474,73 @@ public class WorkflowTest {
     assertThat(destCommits.get(1).getBody()).contains("add foo");
   }
 
+  @Test
+  public void testIterativeBatchedPushReportsEffectsOncePushed() throws Exception {
+    Path originPath = Files.createTempDirectory("origin");
+    GitRepository origin = GitRepository.newRepo(/*verbose*/ true, originPath, getGitEnv()).init();
+    Path destinationPath = Files.createTempDirectory("destination");
+    GitRepository destRepo = GitRepository
+        .newBareRepo(destinationPath, getGitEnv(), true, DEFAULT_TIMEOUT, /*noVerify=*/ false)
+        .init();
+    String primaryBranch = destRepo.getPrimaryBranch();
+
+    String config = ""
+        + "def after(ctx):\n"
+        + "  for effect in ctx.effects:\n"
+        + "    ctx.console.info('Effect %s %s' % (effect.type, effect.destination_ref.id))\n"
+        + "\n"
+        + "core.workflow("
+        + "    name = 'default',"
+        + String.format("    origin = git.origin( url = 'file://%s', ref = '%s'),\n",
+            origin.getWorkTree(), origin.getPrimaryBranch())
+        + "    destination = git.destination("
+        + "                                  url = 'file://" + destRepo.getGitDir() + "',\n"
+        + "                                  fetch = '" + primaryBranch + "',\n"
+        + "                                  push = '" + primaryBranch + "',\n"
+        + "    ),\n"
+        + "    authoring = " + authoring + ","
+        + "    mode = '" + WorkflowMode.ITERATIVE + "',"
+        + "    after_migration = [after],"
+        + ")\n";
+
+    for (String change : ImmutableList.of("one", "two", "three")) {
+      Files.write(originPath.resolve("foo.txt"), change.getBytes(UTF_8));
+      origin.add().files("foo.txt").run();
+      origin.commit("Foo <foo@bara.com>", ZonedDateTime.now(ZoneId.systemDefault()), change);
+    }
+
+    options.gitDestination.committerName = "Foo";
+    options.gitDestination.committerEmail = "foo@foo.com";
+    options.gitDestination.pushBatchSize = 2;
+    options.gitDestination.pushBatchTime = Duration.ofHours(1);
+    options.setWorkdirToRealTempDir();
+    options.setHomeDir(Files.createTempDirectory("home").toString());
+    options.workflowOptions.initHistory = true;
+    loadConfig(config).getMigration("default").run(workdir, ImmutableList.of());
+
+    ImmutableList<GitLogEntry> destCommits = destRepo.log(primaryBranch).run();
+    assertThat(destCommits).hasSize(3);
+    // Each pushed commit is reported once, with its SHA-1 in the destination, both to the
+    // after_migration actions and to the monitor. The first two are pushed together and the last
+    // one by the final flush. Commits kept locally don't get events.
+    assertThat(eventMonitor.changeMigrationStartedEventCount()).isEqualTo(2);
+    assertThat(eventMonitor.changeMigrationFinishedEventCount()).isEqualTo(2);
+    List<String> reported = new ArrayList<>();
+    for (ChangeMigrationFinishedEvent event : eventMonitor.changeMigrationFinishedEvents) {
+      assertThat(event.getDestinationEffects()).isNotEmpty();
+      for (DestinationEffect effect : event.getDestinationEffects()) {
+        assertThat(effect.getType()).isEqualTo(Type.CREATED);
+        reported.add(effect.getDestinationRef().getId());
+      }
+    }
+    assertThat(reported).containsExactlyElementsIn(
+        destCommits.stream().map(c -> c.getCommit().getSha1()).collect(Collectors.toList()));
+    for (GitLogEntry commit : destCommits) {
+      console().assertThat()
+          .onceInLog(MessageType.INFO, "Effect CREATED " + commit.getCommit().getSha1());
+    }
+  }
+
   @Test
   @SuppressWarnings("unchecked")
   public void testInfoSkipsChangesThatDontAffectOriginPaths() throws Exception {
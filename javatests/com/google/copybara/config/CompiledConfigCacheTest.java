@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.config;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableMap;
+import net.starlark.java.eval.Module;
+import net.starlark.java.eval.StarlarkSemantics;
+import net.starlark.java.syntax.FileOptions;
+import net.starlark.java.syntax.Program;
+import net.starlark.java.syntax.SyntaxError;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CompiledConfigCacheTest {
+
+  private final CompiledConfigCache cache = new CompiledConfigCache(/*maxPrograms=*/ 10);
+
+  @Test
+  public void testSameFileIsCompiledOnce() throws Exception {
+    Program first = compile("copy.bara.sky", "x = foo", module("foo"));
+    Program second = compile("copy.bara.sky", "x = foo", module("foo"));
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(cache.hitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testChangedContentIsCompiledAgain() throws Exception {
+    Program first = compile("copy.bara.sky", "x = foo", module("foo"));
+    Program second = compile("copy.bara.sky", "x = foo + foo", module("foo"));
+
+    assertThat(second).isNotSameInstanceAs(first);
+    assertThat(cache.hitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testOtherPathIsCompiledAgain() throws Exception {
+    Program first = compile("copy.bara.sky", "x = foo", module("foo"));
+    Program second = compile("other.bara.sky", "x = foo", module("foo"));
+
+    assertThat(second).isNotSameInstanceAs(first);
+  }
+
+  @Test
+  public void testOtherPredeclaredNamesAreCompiledAgain() throws Exception {
+    compile("copy.bara.sky", "x = foo", module("foo"));
+
+    SyntaxError.Exception e = assertThrows(SyntaxError.Exception.class,
+        () -> compile("copy.bara.sky", "x = foo", module("bar")));
+    assertThat(e).hasMessageThat().contains("foo");
+  }
+
+  @Test
+  public void testSyntaxErrorsAreNotCached() throws Exception {
+    assertThrows(SyntaxError.Exception.class,
+        () -> compile("copy.bara.sky", "x = (", module("foo")));
+    assertThrows(SyntaxError.Exception.class,
+        () -> compile("copy.bara.sky", "x = (", module("foo")));
+    assertThat(cache.hitCount()).isEqualTo(0);
+  }
+
+  private Program compile(String path, String content, Module module)
+      throws SyntaxError.Exception {
+    return cache.compile(path, content.getBytes(UTF_8), FileOptions.DEFAULT, module);
+  }
+
+  private static Module module(String predeclared) {
+    return Module.withPredeclared(StarlarkSemantics.DEFAULT, ImmutableMap.of(predeclared, "value"));
+  }
+}
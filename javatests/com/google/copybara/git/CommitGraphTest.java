@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CommitGraphTest {
+
+  /**
+   * <pre>
+   *   m2
+   *   | \
+   *   |  b3
+   *   m1  |
+   *   | \ |
+   *   |  b2
+   *   a2  |
+   *   |  b1
+   *   | /
+   *   a1
+   *   |
+   *   (root, not in the graph)
+   * </pre>
+   */
+  private static final CommitGraph GRAPH = CommitGraph.builder()
+      .add("m2", ImmutableList.of("m1", "b3"))
+      .add("b3", ImmutableList.of("b2"))
+      .add("m1", ImmutableList.of("a2", "b2"))
+      .add("a2", ImmutableList.of("a1"))
+      .add("b2", ImmutableList.of("b1"))
+      .add("b1", ImmutableList.of("a1"))
+      .add("a1", ImmutableList.of("root"))
+      .build();
+
+  @Test
+  public void testReachableOnlyFrom() {
+    assertThat(GRAPH.reachableOnlyFrom("m1", "a2")).containsExactly("m1", "b2", "b1");
+    assertThat(GRAPH.reachableOnlyFrom("m2", "m1")).containsExactly("m2", "b3");
+    assertThat(GRAPH.reachableOnlyFrom("b3", "a2")).containsExactly("b3", "b2", "b1");
+  }
+
+  @Test
+  public void testReachableOnlyFromSameCommit() {
+    assertThat(GRAPH.reachableOnlyFrom("m1", "m1")).isEmpty();
+  }
+
+  @Test
+  public void testExcludeOutsideOfGraph() {
+    assertThat(GRAPH.reachableOnlyFrom("b2", "root")).containsExactly("b2", "b1", "a1");
+    assertThat(GRAPH.reachableOnlyFrom("root", "a1")).isEmpty();
+  }
+
+  @Test
+  public void testParentsNeedToGoAfterChildren() {
+    CommitGraph.Builder builder = CommitGraph.builder()
+        .add("parent", ImmutableList.of())
+        .add("child", ImmutableList.of("parent"));
+    assertThrows(IllegalArgumentException.class, builder::build);
+  }
+}
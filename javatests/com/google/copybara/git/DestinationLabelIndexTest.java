@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
+import static com.google.copybara.util.CommandRunner.DEFAULT_TIMEOUT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class DestinationLabelIndexTest {
+
+  private static final String URL = "https://example.com/repo";
+  private static final String REF = "refs/heads/main";
+
+  private GitRepository repository;
+  private Path workdir;
+  private Path storage;
+
+  @Before
+  public void setup() throws Exception {
+    workdir = Files.createTempDirectory("workdir");
+    storage = Files.createTempDirectory("storage");
+    repository = GitRepository
+        .newBareRepo(Files.createTempDirectory("gitdir"), getGitEnv(), /*verbose=*/true,
+            DEFAULT_TIMEOUT, /*noVerify=*/ false)
+        .withWorkTree(workdir);
+    repository.init();
+  }
+
+  @Test
+  public void testFindChange() throws Exception {
+    String first = commit("first\n\nGitOrigin-RevId: aaa\n");
+    commit("no labels");
+    String third = commit("third\n\nGitOrigin-RevId: bbb\nOther-Label=ccc\n");
+
+    DestinationLabelIndex index = load(/*firstParent=*/ false);
+    index.update(third);
+
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isEqualTo(first);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "bbb")).isEqualTo(third);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "ccc")).isNull();
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId", "Other-Label"), "ccc"))
+        .isEqualTo(third);
+    assertThat(index.findChanges("GitOrigin-RevId", ": ")).containsExactly(third, first).inOrder();
+    assertThat(index.findChanges("Other-Label", ": ")).isEmpty();
+  }
+
+  @Test
+  public void testNewestChangeWins() throws Exception {
+    commit("first\n\nGitOrigin-RevId: aaa\n");
+    String second = commit("second\n\nGitOrigin-RevId: aaa\n");
+
+    DestinationLabelIndex index = load(/*firstParent=*/ false);
+    index.update(second);
+
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isEqualTo(second);
+  }
+
+  @Test
+  public void testIncrementalUpdateIsPersisted() throws Exception {
+    String first = commit("first\n\nGitOrigin-RevId: aaa\n");
+    load(/*firstParent=*/ false).update(first);
+    String second = commit("second\n\nGitOrigin-RevId: bbb\n");
+    load(/*firstParent=*/ false).update(second);
+
+    DestinationLabelIndex index = load(/*firstParent=*/ false);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isEqualTo(first);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "bbb")).isEqualTo(second);
+  }
+
+  @Test
+  public void testRewrittenHistory() throws Exception {
+    String first = commit("first\n\nGitOrigin-RevId: aaa\n");
+    String second = commit("second\n\nGitOrigin-RevId: bbb\n");
+    DestinationLabelIndex index = load(/*firstParent=*/ false);
+    index.update(second);
+
+    repository.simpleCommand("reset", "--hard", first);
+    String rewritten = commit("rewritten\n\nGitOrigin-RevId: ccc\n");
+    index.update(rewritten);
+
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "bbb")).isNull();
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "ccc")).isEqualTo(rewritten);
+    assertThat(load(/*firstParent=*/ false)
+        .findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isEqualTo(first);
+  }
+
+  @Test
+  public void testInvalidFileIsIgnored() throws Exception {
+    String first = commit("first\n\nGitOrigin-RevId: aaa\n");
+    load(/*firstParent=*/ false).update(first);
+    try (Stream<Path> files = Files.list(storage)) {
+      for (Path file : files.collect(Collectors.toList())) {
+        Files.write(file, "garbage".getBytes(UTF_8));
+      }
+    }
+
+    DestinationLabelIndex index = load(/*firstParent=*/ false);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isNull();
+    index.update(first);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isEqualTo(first);
+  }
+
+  @Test
+  public void testConcurrentUpdatesLeaveAValidIndex() throws Exception {
+    String first = commit("first\n\nGitOrigin-RevId: aaa\n");
+    load(/*firstParent=*/ false).update(first);
+    List<String> tips = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      tips.add(commit("change " + i + "\n\nGitOrigin-RevId: " + i + "\n"));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(tips.size());
+    try {
+      List<Future<?>> updates = new ArrayList<>();
+      for (String tip : tips) {
+        // Each one starts from the index with only the first commit
+        DestinationLabelIndex index = load(/*firstParent=*/ false);
+        updates.add(executor.submit(() -> {
+          index.update(tip);
+          return null;
+        }));
+      }
+      for (Future<?> update : updates) {
+        update.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // The file has the index of one of the updates
+    DestinationLabelIndex index = load(/*firstParent=*/ false);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "aaa")).isEqualTo(first);
+    assertThat(index.findChange(ImmutableList.of("GitOrigin-RevId"), "0"))
+        .isEqualTo(tips.get(0));
+    try (Stream<Path> files = Files.list(storage)) {
+      assertThat(files.count()).isEqualTo(1);
+    }
+  }
+
+  private DestinationLabelIndex load(boolean firstParent) {
+    return DestinationLabelIndex.load(storage, URL, REF, repository, firstParent);
+  }
+
+  private String commit(String message) throws Exception {
+    Path file = workdir.resolve("file.txt");
+    Files.write(file, message.getBytes(UTF_8));
+    repository.add().files("file.txt").run();
+    repository.commit("Foo <bar@bara.com>",
+        ZonedDateTime.now(ZoneId.of("-07:00")).truncatedTo(ChronoUnit.SECONDS), message);
+    return repository.parseRef("HEAD");
+  }
+}
@@ -64,6 +64,9 @@ import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
@@ -631,6 +634,58 @@ public class GitDestinationTest {
     assertThat(status.getBaseline()).isEqualTo("foo");
   }
 
+  /**
+   * The label index finds the same status as 'git log --grep'. The files of a merge depend on
+   * following only the first parent or not.
+   */
+  @Test
+  public void getDestinationStatusWithLabelIndexMatchesGrep() throws Exception {
+    fetch = primaryBranch;
+    push = primaryBranch;
+    GitRepository repo = repo().withWorkTree(workdir);
+    commitWithLabel(repo, "dir/file", "1");
+    repo.simpleCommand("branch", "feature");
+    commitWithLabel(repo, "other/file", "2");
+    repo.forceCheckout("feature");
+    commitWithLabel(repo, "dir/file", "3");
+    commitWithLabel(repo, "other/file", "4");
+    repo.forceCheckout(primaryBranch);
+    repo.simpleCommand("merge", "--no-ff", "feature", "-m",
+        "merge\n\n" + DummyOrigin.LABEL_NAME + ": 5");
+    commitWithLabel(repo, "other/file", "6");
+
+    WriterContext writerContext =
+        new WriterContext("piper_to_github", "TEST", false, new DummyRevision("feature"),
+            Glob.ALL_FILES.roots());
+    for (boolean firstParent : ImmutableList.of(true, false)) {
+      options.gitDestination.lastRevFirstParent = firstParent;
+      for (String path : ImmutableList.of("dir/**", "other/**")) {
+        Glob glob = Glob.createGlob(ImmutableList.of(path));
+        options.git.destinationLabelIndex = false;
+        DestinationStatus grep = destination().newWriter(writerContext)
+            .getDestinationStatus(glob, DummyOrigin.LABEL_NAME);
+        options.git.destinationLabelIndex = true;
+        DestinationStatus indexed = destination().newWriter(writerContext)
+            .getDestinationStatus(glob, DummyOrigin.LABEL_NAME);
+
+        Truth.assertWithMessage("first parent: %s, path: %s", firstParent, path)
+            .that(indexed).isEqualTo(grep);
+        if (firstParent && path.equals("dir/**")) {
+          // The merge changes the file compared to its first parent
+          assertThat(indexed.getBaseline()).isEqualTo("5");
+        }
+      }
+    }
+  }
+
+  private void commitWithLabel(GitRepository repo, String path, String label) throws Exception {
+    Files.createDirectories(workdir.resolve(path).getParent());
+    Files.write(workdir.resolve(path), label.getBytes(UTF_8));
+    repo.add().files(path).run();
+    repo.simpleCommand("commit", "-m", "change " + label + "\n\n"
+        + DummyOrigin.LABEL_NAME + ": " + label);
+  }
+
   @Test
   public void processEmptyCommitWithExcludes() throws Exception {
     fetch = primaryBranch;
@@ -992,6 +1047,212 @@ public class GitDestinationTest {
     verifyDestinationStatus(repoBglob, repoBfirstRev);
   }
 
+  @Test
+  public void testSameWriterOnlyStagesChangedFiles() throws Exception {
+    fetch = primaryBranch;
+    push = primaryBranch;
+
+    Files.createDirectories(workdir.resolve("excluded"));
+    Files.write(workdir.resolve("excluded/one"), "Excluded".getBytes(UTF_8));
+    repo().withWorkTree(workdir).add().files("excluded/one").run();
+    repo().withWorkTree(workdir).simpleCommand("commit", "-m", "Initial commit");
+    Files.delete(workdir.resolve("excluded/one"));
+    Files.delete(workdir.resolve("excluded"));
+
+    Glob glob = Glob.createGlob(ImmutableList.of("**"), ImmutableList.of("excluded/**"));
+    Writer<GitRevision> writer = newWriter();
+    Files.createDirectories(workdir.resolve("foo/bar"));
+    Files.write(workdir.resolve("foo/one"), "First version".getBytes(UTF_8));
+    Files.write(workdir.resolve("foo/two"), "First version".getBytes(UTF_8));
+    Files.write(workdir.resolve("foo/bar/three"), "First version".getBytes(UTF_8));
+    Files.write(workdir.resolve("script.sh"), "echo hello".getBytes(UTF_8));
+    process(writer, glob, new DummyRevision("first"));
+    console.assertThat()
+        .timesInLog(0, MessageType.PROGRESS, "Git Destination: Adding changed files");
+
+    Files.write(workdir.resolve("foo/one"), "Second version".getBytes(UTF_8));
+    Files.delete(workdir.resolve("foo/two"));
+    Files.delete(workdir.resolve("foo/bar/three"));
+    Files.delete(workdir.resolve("foo/bar"));
+    Files.write(workdir.resolve("foo/bar"), "Now a file".getBytes(UTF_8));
+    Files.createSymbolicLink(workdir.resolve("link"), Paths.get("foo/one"));
+    Files.setPosixFilePermissions(workdir.resolve("script.sh"),
+        PosixFilePermissions.fromString("rwxr-xr-x"));
+    process(writer, glob, new DummyRevision("second"));
+    console.assertThat().onceInLog(MessageType.PROGRESS, "Git Destination: Adding changed files");
+
+    assertThatCheckout(repo(), primaryBranch)
+        .containsFile("excluded/one", "Excluded")
+        .containsFile("foo/one", "Second version")
+        .containsFile("foo/bar", "Now a file")
+        .containsFile("link", "Second version")
+        .containsFile("script.sh", "echo hello")
+        .containsNoMoreFiles();
+    String tree = git("--git-dir", repoGitDir.toString(), "ls-tree", "-r", primaryBranch);
+    assertThat(tree).containsMatch("120000 blob [0-9a-f]{40}\tlink");
+    assertThat(tree).containsMatch("100755 blob [0-9a-f]{40}\tscript.sh");
+    assertCommitHasOrigin(primaryBranch, "second");
+
+    assertThrows(EmptyChangeException.class,
+        () -> process(writer, glob, new DummyRevision("third")));
+
+    Files.delete(workdir.resolve("foo/bar"));
+    Files.createDirectories(workdir.resolve("foo/bar"));
+    Files.write(workdir.resolve("foo/bar/three"), "Third version".getBytes(UTF_8));
+    process(writer, glob, new DummyRevision("fourth"));
+    console.assertThat()
+        .timesInLog(3, MessageType.PROGRESS, "Git Destination: Adding changed files");
+
+    assertThatCheckout(repo(), primaryBranch)
+        .containsFile("excluded/one", "Excluded")
+        .containsFile("foo/one", "Second version")
+        .containsFile("foo/bar/three", "Third version")
+        .containsFile("link", "Second version")
+        .containsFile("script.sh", "echo hello")
+        .containsNoMoreFiles();
+    assertCommitCount(3, primaryBranch);
+  }
+
+  @Test
+  public void testSameWriterBatchesPushes() throws Exception {
+    fetch = primaryBranch;
+    push = primaryBranch;
+    options.gitDestination.pushBatchSize = 2;
+    options.gitDestination.pushBatchTime = Duration.ofHours(1);
+
+    Path file = workdir.resolve("test.txt");
+    Files.write(file, "Initial".getBytes(UTF_8));
+    repo().withWorkTree(workdir).add().files("test.txt").run();
+    repo().withWorkTree(workdir).simpleCommand("commit", "-m", "Initial commit");
+
+    Writer<GitRevision> writer = newWriter();
+    Files.write(file, "First".getBytes(UTF_8));
+    // Nothing is reported until the commit is pushed
+    assertThat(write(writer, new DummyRevision("first"))).isEmpty();
+    assertCommitCount(1, primaryBranch);
+
+    Files.write(file, "Second".getBytes(UTF_8));
+    ImmutableList<DestinationEffect> effects = write(writer, new DummyRevision("second"));
+    assertCommitCount(3, primaryBranch);
+    assertCommitHasOrigin(primaryBranch, "second");
+    console.assertThat()
+        .onceInLog(MessageType.PROGRESS, "Git Destination: Pushing 2 commit\\(s\\) to .*");
+    assertPushedEffects(effects, "first", "second");
+
+    Files.write(file, "Third".getBytes(UTF_8));
+    assertThat(write(writer, new DummyRevision("third"))).isEmpty();
+    assertCommitCount(3, primaryBranch);
+
+    effects = writer.flush(console);
+    assertCommitCount(4, primaryBranch);
+    assertCommitHasOrigin(primaryBranch, "third");
+    assertThatCheckout(repo(), primaryBranch)
+        .containsFile("test.txt", "Third")
+        .containsNoMoreFiles();
+    assertPushedEffects(effects, "third");
+
+    // Nothing left to push
+    assertThat(writer.flush(console)).isEmpty();
+    assertCommitCount(4, primaryBranch);
+  }
+
+  @Test
+  public void testBatchedPushRebasesAndPushesEachCommit() throws Exception {
+    fetch = primaryBranch;
+    push = primaryBranch;
+    options.gitDestination.pushBatchSize = 2;
+    options.gitDestination.pushBatchTime = Duration.ofHours(1);
+
+    Path file = workdir.resolve("test.txt");
+    Files.write(file, "Initial".getBytes(UTF_8));
+    repo().withWorkTree(workdir).add().files("test.txt").run();
+    repo().withWorkTree(workdir).simpleCommand("commit", "-m", "Initial commit");
+
+    Writer<GitRevision> writer = newWriter();
+    Files.write(file, "First".getBytes(UTF_8));
+    assertThat(write(writer, new DummyRevision("first"))).isEmpty();
+
+    // Somebody pushes to the destination while the commit is kept locally
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.write(scratchTree.resolve("other.txt"), "some content".getBytes(UTF_8));
+    repo().withWorkTree(scratchTree).add().files("other.txt").run();
+    repo().withWorkTree(scratchTree).simpleCommand("commit", "-m", "primary change");
+
+    Files.write(file, "Second".getBytes(UTF_8));
+    ImmutableList<DestinationEffect> effects = write(writer, new DummyRevision("second"));
+    console.assertThat()
+        .onceInLog(MessageType.WARNING, "(?s)Git Destination: Cannot push 2 commit\\(s\\),"
+            + " rebasing them and pushing them one by one: .*");
+    assertCommitCount(4, primaryBranch);
+    assertCommitHasOrigin(primaryBranch, "second");
+    assertThatCheckout(repo(), primaryBranch)
+        .containsFile("test.txt", "Second")
+        .containsFile("other.txt", "some content")
+        .containsNoMoreFiles();
+    // The effects have the SHA-1s of the rebased commits
+    assertPushedEffects(effects, "first", "second");
+
+    assertThat(writer.flush(console)).isEmpty();
+    assertCommitCount(4, primaryBranch);
+  }
+
+  @Test
+  public void testBatchedPushRebaseConflict() throws Exception {
+    fetch = primaryBranch;
+    push = primaryBranch;
+    options.gitDestination.pushBatchSize = 2;
+    options.gitDestination.pushBatchTime = Duration.ofHours(1);
+
+    Path file = workdir.resolve("test.txt");
+    Files.write(file, "Initial".getBytes(UTF_8));
+    repo().withWorkTree(workdir).add().files("test.txt").run();
+    repo().withWorkTree(workdir).simpleCommand("commit", "-m", "Initial commit");
+
+    Writer<GitRevision> writer = newWriter();
+    Files.write(file, "First".getBytes(UTF_8));
+    assertThat(write(writer, new DummyRevision("first"))).isEmpty();
+
+    // Somebody changes the same file in the destination
+    Path scratchTree = Files.createTempDirectory("GitDestinationTest-scratchTree");
+    Files.write(scratchTree.resolve("test.txt"), "Conflict".getBytes(UTF_8));
+    repo().withWorkTree(scratchTree).add().files("test.txt").run();
+    repo().withWorkTree(scratchTree).simpleCommand("commit", "-m", "primary change");
+
+    Files.write(file, "Second".getBytes(UTF_8));
+    RebaseConflictException e = assertThrows(RebaseConflictException.class,
+        () -> write(writer, new DummyRevision("second")));
+    assertThat(e).hasMessageThat().contains("Cannot rebase the commits");
+    assertCommitCount(2, primaryBranch);
+    assertThat(lastCommit(primaryBranch).getBody()).contains("primary change");
+
+    // The commits that failed are not pushed again
+    assertThat(writer.flush(console)).isEmpty();
+    assertCommitCount(2, primaryBranch);
+  }
+
+  private ImmutableList<DestinationEffect> write(Writer<GitRevision> writer,
+      DummyRevision originRef) throws ValidationException, RepoException, IOException {
+    return writer.write(TransformResults.of(workdir, originRef), destinationFiles, console);
+  }
+
+  /**
+   * Checks that {@code effects} are the effects of the last commits of the primary branch, and
+   * that those commits were migrated from {@code originRefs}.
+   */
+  private void assertPushedEffects(ImmutableList<DestinationEffect> effects,
+      String... originRefs) throws Exception {
+    ImmutableList<GitLogEntry> pushed =
+        repo().log(primaryBranch).withLimit(originRefs.length).run().reverse();
+    assertThat(effects).hasSize(originRefs.length);
+    for (int i = 0; i < originRefs.length; i++) {
+      DestinationEffect effect = effects.get(i);
+      assertThat(effect.getType()).isEqualTo(Type.CREATED);
+      assertThat(effect.getDestinationRef().getId()).isEqualTo(pushed.get(i).getCommit().getSha1());
+      assertThat(parseMessage(pushed.get(i).getBody()).labelsAsMultimap())
+          .containsEntry(DummyOrigin.LABEL_NAME, originRefs[i]);
+    }
+  }
+
   @Test
   public void previousImportReference_with_force() throws Exception {
     force = true;
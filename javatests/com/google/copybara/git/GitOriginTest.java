@@ -49,6 +49,7 @@ import com.google.copybara.exception.EmptyChangeException;
 import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitCredential.UserPassword;
+import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.RecordsProcessCallDestination;
 import com.google.copybara.testing.RecordsProcessCallDestination.ProcessedChange;
@@ -66,7 +67,9 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
@@ -1196,6 +1199,95 @@ public class GitOriginTest {
     assertThat(changes.get(1).getChangesSummary()).contains("i hope this is included@@@");
   }
 
+  @Test
+  public void branchCommitLogsMatchTheLogOfEachMerge() throws Exception {
+    long t = Instant.now().getEpochSecond();
+    git("checkout", "-b", "a");
+    commitFileAt(t + 1, "include/a1.txt");
+    commitFileAt(t + 2, "a2.txt");
+    git("checkout", defaultBranch);
+    commitFileAt(t + 3, "include/m1.txt");
+    gitAt(t + 4, "merge", "--no-ff", "-m", "merge a", "a");
+
+    // A branch with a merge of its own, started before the previous merge
+    git("checkout", "-b", "b", defaultBranch + "~1");
+    commitFileAt(t + 5, "include/b1.txt");
+    git("checkout", "-b", "c");
+    commitFileAt(t + 6, "c1.txt");
+    commitFileAt(t + 7, "include/c2.txt");
+    git("checkout", "b");
+    commitFileAt(t + 8, "b2.txt");
+    gitAt(t + 9, "merge", "--no-ff", "-m", "merge c", "c");
+    commitFileAt(t + 10, "include/b3.txt");
+    git("checkout", defaultBranch);
+    commitFileAt(t + 11, "include/m2.txt");
+    gitAt(t + 12, "merge", "--no-ff", "-m", "merge b", "b");
+
+    // A branch started from the first commit
+    git("checkout", "-b", "d", firstCommitRef);
+    commitFileAt(t + 13, "include/d1.txt");
+    git("checkout", defaultBranch);
+    gitAt(t + 14, "merge", "--no-ff", "-m", "merge d", "d");
+
+    moreOriginArgs = "include_branch_commit_logs = True";
+    origin = origin();
+    for (Glob files :
+        ImmutableList.of(Glob.ALL_FILES, createGlob(ImmutableList.of("include/**")))) {
+      originFiles = files;
+      ImmutableList<Change<GitRevision>> changes = newReader()
+          .changes(origin.resolve(firstCommitRef), origin.resolve("HEAD")).getChanges();
+
+      int merges = 0;
+      for (Change<GitRevision> change : changes) {
+        if (!change.isMerge()) {
+          continue;
+        }
+        merges++;
+        // What the branch commit log was when it ran 'git log firstParent..merge' for each merge
+        String expected = formatBranchCommitLog(repo
+            .log(change.getParents().get(0).getSha1() + ".." + change.getRevision().getSha1())
+            .withPaths(Glob.isEmptyRoot(files.roots()) ? ImmutableList.of() : files.roots())
+            .firstParent(false)
+            .run());
+        assertWithMessage(files + " " + change.getMessage())
+            .that(expected).contains(ChangeReader.BRANCH_COMMIT_LOG_HEADING);
+        assertWithMessage(files.toString()).that(change.getMessage()).endsWith(expected);
+      }
+      assertWithMessage(files.toString()).that(merges).isEqualTo(3);
+    }
+  }
+
+  private static String formatBranchCommitLog(ImmutableList<GitLogEntry> entries) {
+    if (entries.isEmpty()) {
+      return "";
+    }
+    // Without the merge itself
+    return "\n" + ChangeReader.BRANCH_COMMIT_LOG_HEADING + "\n"
+        + entries.subList(1, entries.size()).stream()
+            .map(e -> ""
+                + "commit " + e.getCommit().getSha1() + "\n"
+                + "Author:  " + e.getAuthor() + "\n"
+                + "Date:    " + e.getAuthorDate() + "\n"
+                + "\n"
+                + "    " + e.getBody().replace("\n", "    \n"))
+            .collect(Collectors.joining("\n"));
+  }
+
+  private void commitFileAt(long epochSeconds, String path) throws Exception {
+    writeFile(remote, path, path);
+    repo.add().files(path).run();
+    gitAt(epochSeconds, "commit", "-m", "change " + path);
+  }
+
+  /** Runs git with a fixed author and committer date, so that 'git log' has a stable order. */
+  private String gitAt(long epochSeconds, String... params) throws RepoException {
+    Map<String, String> env = new HashMap<>(options.general.getEnvironment());
+    env.put("GIT_AUTHOR_DATE", epochSeconds + " +0000");
+    env.put("GIT_COMMITTER_DATE", epochSeconds + " +0000");
+    return GitRepository.newRepo(/*verbose*/ true, remote, new GitEnvironment(env))
+        .git(remote, params).getStdout();
+  }
+
   @Test
   public void partialFetchFailsWithFetchingTheWholeRepo() throws Exception {
     RecordsProcessCallDestination destination = new RecordsProcessCallDestination();
@@ -40,11 +40,14 @@ import com.google.copybara.exception.RepoException;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.git.GitRepository.GitLogEntry;
 import com.google.copybara.git.GitRepository.GitObjectType;
+import com.google.copybara.git.GitRepository.IndexEntry;
+import com.google.copybara.git.GitRepository.LogCmd;
 import com.google.copybara.git.GitRepository.PushCmd;
 import com.google.copybara.git.GitRepository.StatusFile;
 import com.google.copybara.git.GitRepository.TreeElement;
 import com.google.copybara.testing.git.GitTestUtil;
 import com.google.copybara.util.CommandOutput;
+import com.google.copybara.util.Glob;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -58,6 +61,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
@@ -109,6 +113,28 @@ public class GitRepositoryTest {
     assertThat(ImmutableSet.of(after.values())).hasSize(1);
   }
 
+  @Test
+  public void testLsFiles() throws Exception {
+    Files.createDirectories(workdir.resolve("dir"));
+    Files.write(workdir.resolve("dir/foo.txt"), "foo".getBytes(UTF_8));
+    Files.write(workdir.resolve("with space.txt"), "bar".getBytes(UTF_8));
+    repository.add().all().run();
+
+    ImmutableList<IndexEntry> entries = repository.lsFiles();
+
+    assertThat(entries.stream().map(IndexEntry::getPath))
+        .containsExactly("dir/foo.txt", "with space.txt")
+        .inOrder();
+    ImmutableList<String> sha1s =
+        repository.hashObjects(ImmutableList.of("dir/foo.txt", "with space.txt"));
+    assertThat(entries.get(0).sameObject(
+        IndexEntry.file("dir/foo.txt", sha1s.get(0), /*executable=*/ false))).isTrue();
+    assertThat(entries.get(1).sameObject(
+        IndexEntry.file("with space.txt", sha1s.get(1), /*executable=*/ false))).isTrue();
+    assertThat(entries.get(1).sameObject(
+        IndexEntry.file("with space.txt", sha1s.get(1), /*executable=*/ true))).isFalse();
+  }
+
   @Test
   public void testShowDiff() throws Exception {
     GitRepository repo = repository.withWorkTree(workdir);
@@ -449,6 +475,34 @@ public class GitRepositoryTest {
     assertThat(paged.toString()).isEqualTo(singlePage.toString());
   }
 
+  @Test
+  public void testLogStreaming() throws Exception {
+    createGraphOfCommits();
+    LogCmd logCmd = repository.log(defaultBranch)
+        .includeFiles(true)
+        .includeMergeDiff(true)
+        .firstParent(false);
+    List<GitLogEntry> streamed = new ArrayList<>();
+    logCmd.run(entry -> streamed.add(entry));
+
+    assertThat(streamed.toString()).isEqualTo(logCmd.run().toString());
+
+    List<GitLogEntry> firstFive = new ArrayList<>();
+    logCmd.run(entry -> {
+      firstFive.add(entry);
+      return firstFive.size() < 5;
+    });
+    assertThat(firstFive.toString()).isEqualTo(streamed.subList(0, 5).toString());
+  }
+
+  @Test
+  public void testLogStreamingEmpty() throws Exception {
+    singleFileCommit("first", "foo.txt", "foo");
+    List<GitLogEntry> streamed = new ArrayList<>();
+    repository.log(defaultBranch).grep("does not match").run(entry -> streamed.add(entry));
+    assertThat(streamed).isEmpty();
+  }
+
   private void createGraphOfCommits() throws Exception {
     for (int i = 0; i < 10; i++) {
       singleFileCommit("main_" + i, "foo.txt", "foo_" + i);
@@ -994,6 +1048,67 @@ public class GitRepositoryTest {
     assertThat(repository.readFile("refs/heads/" + defaultBranch, "foo.txt")).isEqualTo("Hello");
   }
 
+  @Test
+  public void testReadFileMissing() throws Exception {
+    singleFileCommit("test", "foo.txt", "Hello");
+    RepoException e = assertThrows(RepoException.class,
+        () -> repository.readFile("refs/heads/" + defaultBranch, "bar.txt"));
+    assertThat(e).hasMessageThat().contains("Cannot read file 'bar.txt'");
+    // The reader can still be used after a missing object
+    assertThat(repository.readFile("refs/heads/" + defaultBranch, "foo.txt")).isEqualTo("Hello");
+  }
+
+  @Test
+  public void testCloseStopsObjectLookupProcesses() throws Exception {
+    singleFileCommit("test", "foo.txt", "Hello");
+    assertThat(repository.readFile("refs/heads/" + defaultBranch, "foo.txt")).isEqualTo("Hello");
+    repository.parseRef("HEAD");
+    ImmutableList<Process> processes = repository.getObjectLookup().runningProcesses();
+    assertThat(processes).hasSize(2);
+
+    repository.close();
+
+    for (Process process : processes) {
+      assertThat(process.waitFor(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(process.isAlive()).isFalse();
+    }
+    assertThat(repository.getObjectLookup().runningProcesses()).isEmpty();
+    // The repository can still be used after closing it
+    assertThat(repository.readFile("refs/heads/" + defaultBranch, "foo.txt")).isEqualTo("Hello");
+    repository.close();
+  }
+
+  @Test
+  public void testParseRefAfterNewCommits() throws Exception {
+    singleFileCommit("first", "foo.txt", "foo");
+    String first = repository.parseRef("HEAD");
+    singleFileCommit("second", "foo.txt", "bar");
+    String second = repository.parseRef("HEAD");
+
+    assertThat(second).isNotEqualTo(first);
+    assertThat(repository.parseRef("HEAD~1")).isEqualTo(first);
+    assertThat(repository.parseRef(first + ".." + second)).isEqualTo(second);
+    assertThat(repository.resolveReference(first).getSha1()).isEqualTo(first);
+    assertThrows(CannotResolveRevisionException.class, () -> repository.parseRef("not_a_ref"));
+  }
+
+  @Test
+  public void testCheckoutWritesRawBytes() throws Exception {
+    byte[] binary = new byte[] {(byte) 0xff, (byte) 0xfe, 0, '\n', (byte) 0xc3};
+    Path file = workdir.resolve("dir/binary.bin");
+    Files.createDirectories(file.getParent());
+    Files.write(file, binary);
+    repository.add().files("dir/binary.bin").run();
+    singleFileCommit("test", "excluded.txt", "foo");
+
+    Path destRoot = Files.createTempDirectory("checkout");
+    repository.checkout(Glob.createGlob(ImmutableList.of("dir/**")), destRoot,
+        repository.resolveReference("HEAD"));
+
+    assertThat(Files.readAllBytes(destRoot.resolve("dir/binary.bin"))).isEqualTo(binary);
+    assertThat(Files.exists(destRoot.resolve("excluded.txt"))).isFalse();
+  }
+
   @Test
   public void testEmptyCommitNoBaseline() throws Exception {
     GitRepository bare = GitRepository
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.copybara.testing.git.GitTestUtil.getGitEnv;
+import static com.google.copybara.testing.git.GitTestUtil.writeFile;
+import static com.google.copybara.util.CommandRunner.DEFAULT_TIMEOUT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.copybara.Change;
+import com.google.copybara.ChangeVisitable.VisitResult;
+import com.google.copybara.GeneralOptions;
+import com.google.copybara.testing.OptionsBuilder;
+import com.google.copybara.util.console.testing.TestingConsole;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitVisitorUtilTest {
+
+  private GitRepository repository;
+  private Path workdir;
+  private GeneralOptions generalOptions;
+  private TestingConsole console;
+
+  @Before
+  public void setup() throws Exception {
+    workdir = Files.createTempDirectory("workdir");
+    repository = GitRepository
+        .newBareRepo(Files.createTempDirectory("gitdir"), getGitEnv(), /*verbose=*/ true,
+            DEFAULT_TIMEOUT, /*noVerify=*/ false)
+        .withWorkTree(workdir);
+    repository.init();
+    console = new TestingConsole();
+    generalOptions = new OptionsBuilder().setConsole(console).build().get(GeneralOptions.class);
+  }
+
+  @Test
+  public void testVisitsNewestFirst() throws Exception {
+    commit("one");
+    commit("two");
+    commit("three");
+
+    assertThat(visit(repository, ChangeReader.Builder.forDestination(repository, console),
+        /*maxChanges=*/ 10)).containsExactly("three\n", "two\n", "one\n").inOrder();
+  }
+
+  @Test
+  public void testTerminateStopsVisit() throws Exception {
+    commit("one");
+    commit("two");
+    commit("three");
+
+    assertThat(visit(repository, ChangeReader.Builder.forDestination(repository, console),
+        /*maxChanges=*/ 2)).containsExactly("three\n", "two\n").inOrder();
+  }
+
+  /**
+   * Uses a git that keeps 'git log' running after printing the history, like a very long history
+   * would do. The visit only finishes quickly if 'git log' is stopped once the visitor terminates.
+   */
+  @Test
+  public void testTerminateStopsGitLog() throws Exception {
+    commit("one");
+    commit("two");
+    commit("three");
+    Path gitExecPath = Files.createTempDirectory("git_exec_path");
+    Path git = gitExecPath.resolve("git");
+    Files.write(git, (""
+        + "#!/bin/sh\n"
+        + "unset GIT_EXEC_PATH\n"
+        + "git \"$@\" || exit $?\n"
+        + "for arg in \"$@\"; do\n"
+        + "  if [ \"$arg\" = log ]; then\n"
+        + "    exec sleep 60\n"
+        + "  fi\n"
+        + "done\n").getBytes(UTF_8));
+    Files.setPosixFilePermissions(git, PosixFilePermissions.fromString("rwxr-xr-x"));
+    Map<String, String> env = new HashMap<>(getGitEnv().getEnvironment());
+    env.put("GIT_EXEC_PATH", gitExecPath.toString());
+    GitRepository slowLogRepo = GitRepository
+        .newBareRepo(repository.getGitDir(), new GitEnvironment(env), /*verbose=*/ true,
+            DEFAULT_TIMEOUT, /*noVerify=*/ false)
+        .withWorkTree(workdir);
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    assertThat(visit(slowLogRepo, ChangeReader.Builder.forDestination(slowLogRepo, console),
+        /*maxChanges=*/ 1)).containsExactly("three\n");
+    assertThat(stopwatch.elapsed()).isLessThan(Duration.ofSeconds(30));
+    slowLogRepo.close();
+  }
+
+  @Test
+  public void testBranchCommitLogsAreIncluded() throws Exception {
+    commit("first");
+    String defaultBranch = repository.simpleCommand("symbolic-ref", "--short", "HEAD")
+        .getStdout().trim();
+    repository.simpleCommand("checkout", "-b", "feature");
+    commit("feature change");
+    repository.simpleCommand("checkout", defaultBranch);
+    commit("main change");
+    repository.simpleCommand("merge", "--no-ff", "-m", "merge feature", "feature");
+
+    List<Change<?>> visited = new ArrayList<>();
+    GitVisitorUtil.visitChanges(
+        repository.resolveReference("HEAD"),
+        change -> {
+          visited.add(change);
+          return VisitResult.TERMINATE;
+        },
+        ChangeReader.Builder.forDestination(repository, console)
+            .setFirstParent(true)
+            .setIncludeBranchCommitLogs(true),
+        generalOptions,
+        "test");
+
+    // Terminating on the merge still gives it its branch commit log
+    assertThat(visited).hasSize(1);
+    assertThat(visited.get(0).isMerge()).isTrue();
+    assertThat(visited.get(0).getMessage()).contains(ChangeReader.BRANCH_COMMIT_LOG_HEADING);
+    assertThat(visited.get(0).getMessage()).contains("feature change");
+    assertThat(visited.get(0).getMessage()).doesNotContain("main change");
+  }
+
+  @Test
+  public void testPageSizeFlagIsStillAccepted() {
+    GitOptions gitOptions = new GitOptions(generalOptions);
+    new JCommander(gitOptions).parse("--git-visit-changes-page-size=5");
+    assertThat(gitOptions.visitChangePageSize).isEqualTo(5);
+
+    assertThrows(ParameterException.class,
+        () -> new JCommander(new GitOptions(generalOptions))
+            .parse("--git-visit-changes-page-size=0"));
+  }
+
+  private void commit(String message) throws Exception {
+    writeFile(workdir, "file.txt", message);
+    repository.add().files("file.txt").run();
+    repository.simpleCommand("commit", "-m", message);
+  }
+
+  private List<String> visit(GitRepository repo, ChangeReader.Builder queryChanges,
+      int maxChanges) throws Exception {
+    List<String> messages = new ArrayList<>();
+    GitVisitorUtil.visitChanges(
+        repo.resolveReference("HEAD"),
+        change -> {
+          messages.add(change.getMessage());
+          return messages.size() < maxChanges ? VisitResult.CONTINUE : VisitResult.TERMINATE;
+        },
+        queryChanges,
+        generalOptions,
+        "test");
+    return ImmutableList.copyOf(messages);
+  }
+}
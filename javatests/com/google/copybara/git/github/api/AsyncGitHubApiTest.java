@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.copybara.exception.RepoException;
+import com.google.copybara.exception.ValidationException;
+import com.google.copybara.profiler.Profiler;
+import java.lang.reflect.Type;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AsyncGitHubApiTest {
+
+  @Test
+  public void testRequestExceptionsAreRethrown() throws Exception {
+    AsyncGitHubApi api = new AsyncGitHubApi(
+        new GitHubApi(new FailingTransport(), new Profiler(Ticker.systemTicker())),
+        MoreExecutors.newDirectExecutorService());
+
+    ValidationException e = assertThrows(ValidationException.class,
+        () -> AsyncGitHubApi.getResult(api.getIssue("google/copybara", 1)));
+    assertThat(e).hasMessageThat().contains("Not available");
+  }
+
+  @Test
+  public void testGetResult() throws Exception {
+    assertThat(AsyncGitHubApi.getResult(Futures.immediateFuture("foo"))).isEqualTo("foo");
+    RepoException e = assertThrows(RepoException.class,
+        () -> AsyncGitHubApi.getResult(
+            Futures.immediateFailedFuture(new RepoException("Some error"))));
+    assertThat(e).hasMessageThat().isEqualTo("Some error");
+  }
+
+  private static class FailingTransport implements GitHubApiTransport {
+
+    @Override
+    public <T> T get(String path, Type responseType,
+        ImmutableListMultimap<String, String> headers) throws ValidationException {
+      throw new ValidationException("Not available: " + path);
+    }
+
+    @Override
+    public <T> T post(String path, Object request, Type responseType) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(String path) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
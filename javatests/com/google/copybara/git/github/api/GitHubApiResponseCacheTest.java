@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.copybara.git.github.api.GitHubApiResponseCache.CachedResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GitHubApiResponseCacheTest {
+
+  private Path storage;
+
+  @Before
+  public void setup() throws Exception {
+    storage = Files.createTempDirectory("cache").resolve("github_api_responses");
+  }
+
+  @Test
+  public void testGetAndPut() {
+    GitHubApiResponseCache cache = new GitHubApiResponseCache(storage, /*maxEntries=*/ 10);
+    assertThat(cache.get("foo")).isNull();
+
+    cache.put("foo", new CachedResponse("\"v1\"", /*lastModified=*/ null, /*link=*/ null, "{}"));
+
+    CachedResponse response = cache.get("foo");
+    assertThat(response.getEtag()).isEqualTo("\"v1\"");
+    assertThat(response.getBody()).isEqualTo("{}");
+  }
+
+  @Test
+  public void testOnlyTheUserCanReadTheStorage() throws Exception {
+    Files.createDirectories(storage,
+        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwxr-xr-x")));
+    GitHubApiResponseCache cache = new GitHubApiResponseCache(storage, /*maxEntries=*/ 10);
+
+    cache.put("foo", new CachedResponse(null, null, null, "{}"));
+
+    assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(storage)))
+        .isEqualTo("rwx------");
+  }
+
+  @Test
+  public void testEvictsTheLeastRecentlyUsedEntries() throws Exception {
+    GitHubApiResponseCache cache = new GitHubApiResponseCache(storage, /*maxEntries=*/ 20);
+    for (int i = 0; i < 20; i++) {
+      cache.put("entry" + i, new CachedResponse(null, null, null, "{}"));
+    }
+    assertThat(count()).isEqualTo(20);
+    // Replacing an entry doesn't add a new one
+    cache.put("entry0", new CachedResponse(null, null, null, "{\"a\": 1}"));
+    assertThat(count()).isEqualTo(20);
+    for (int i = 0; i < 20; i++) {
+      Files.setLastModifiedTime(storage.resolve("entry" + i), FileTime.fromMillis(i * 1000L));
+    }
+
+    cache.put("new", new CachedResponse(null, null, null, "{}"));
+
+    // A tenth of the entries are evicted at once
+    assertThat(count()).isEqualTo(18);
+    assertThat(cache.get("entry0")).isNull();
+    assertThat(cache.get("entry1")).isNull();
+    assertThat(cache.get("entry2")).isNotNull();
+    assertThat(cache.get("new")).isNotNull();
+  }
+
+  private long count() throws Exception {
+    try (Stream<Path> files = Files.list(storage)) {
+      return files.count();
+    }
+  }
+}
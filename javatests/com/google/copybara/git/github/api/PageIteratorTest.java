@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.git.github.api;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.copybara.exception.ValidationException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PageIteratorTest {
+
+  private static final String PREFIX = "https://api.github.com/";
+
+  private final List<String> fetched = new ArrayList<>();
+
+  @Test
+  public void testIteratesAllPages() throws Exception {
+    try (PageIterator<String> iterator = iterator(/*totalPages=*/ 3, /*maxPages=*/ 10)) {
+      assertThat(iterator.toList()).containsExactly("0a", "0b", "1a", "1b", "2a", "2b").inOrder();
+    }
+    assertThat(fetched).containsExactly("page/0", "page/1", "page/2").inOrder();
+  }
+
+  @Test
+  public void testMaxPages() throws Exception {
+    try (PageIterator<String> iterator = iterator(/*totalPages=*/ 3, /*maxPages=*/ 2)) {
+      assertThat(iterator.toList()).containsExactly("0a", "0b", "1a", "1b").inOrder();
+    }
+  }
+
+  @Test
+  public void testEarlyTermination() throws Exception {
+    try (PageIterator<String> iterator = iterator(/*totalPages=*/ 100, /*maxPages=*/ 100)) {
+      assertThat(iterator.next()).isEqualTo("0a");
+    }
+    // Only the next page is prefetched
+    assertThat(fetched).containsExactly("page/0", "page/1").inOrder();
+  }
+
+  @Test
+  public void testErrorsArePropagated() throws Exception {
+    PageIterator<String> iterator = new PageIterator<>("page/0", 10, (path, page) -> {
+      throw new ValidationException("Project not found");
+    }, MoreExecutors.newDirectExecutorService());
+
+    ValidationException e = assertThrows(ValidationException.class, iterator::hasNext);
+    assertThat(e).hasMessageThat().isEqualTo("Project not found");
+  }
+
+  private PageIterator<String> iterator(int totalPages, int maxPages) {
+    return new PageIterator<>("page/0", maxPages, (path, page) -> {
+      fetched.add(path);
+      PaginatedList<String> result = new PaginatedList<>();
+      result.add(page + "a");
+      result.add(page + "b");
+      return result.withPaginationInfo(PREFIX, page + 1 < totalPages
+          ? String.format("<%spage/%d>; rel=\"next\"", PREFIX, page + 1)
+          : null);
+    }, MoreExecutors.newDirectExecutorService());
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.http;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Range;
+import com.google.copybara.monitor.EventMonitor.ApiRateLimitEvent;
+import com.google.copybara.monitor.EventMonitor.EventMonitors;
+import com.google.copybara.profiler.Profiler;
+import com.google.copybara.testing.TestingEventMonitor;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RequestSchedulerTest {
+
+  private static final GenericUrl URL = new GenericUrl("https://api.github.com/foo");
+
+  private final Deque<MockLowLevelHttpResponse> responses = new ArrayDeque<>();
+  private final List<Long> sleeps = new ArrayList<>();
+  private final AtomicLong nowMillis = new AtomicLong(1_000_000);
+  private int requests;
+  private HttpRequestFactory requestFactory;
+  private TestingEventMonitor eventMonitor;
+  private RequestScheduler scheduler;
+
+  @Before
+  public void setup() {
+    requestFactory = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() {
+            requests++;
+            return responses.removeFirst();
+          }
+        };
+      }
+    }.createRequestFactory();
+    eventMonitor = new TestingEventMonitor();
+    scheduler = new RequestScheduler(/*maxConcurrentRequestsPerHost=*/ 2, /*maxRetries=*/ 2,
+        Duration.ofSeconds(1), Duration.ofMinutes(1), new Profiler(Ticker.systemTicker()),
+        new EventMonitors(ImmutableList.of(eventMonitor)),
+        millis -> {
+          sleeps.add(millis);
+          nowMillis.addAndGet(millis);
+        },
+        nowMillis::get);
+  }
+
+  @Test
+  public void testRetriesServerErrors() throws Exception {
+    responses.add(response(503));
+    responses.add(response(200));
+
+    assertThat(scheduler.execute(requestFactory.buildGetRequest(URL)).getStatusCode())
+        .isEqualTo(200);
+
+    assertThat(requests).isEqualTo(2);
+    assertThat(sleeps).hasSize(1);
+    assertThat(sleeps.get(0)).isIn(Range.closed(500L, 1000L));
+  }
+
+  @Test
+  public void testServerErrorsOfPostsAreNotRetried() throws Exception {
+    responses.add(response(503));
+
+    HttpResponseException e = assertThrows(HttpResponseException.class,
+        () -> scheduler.execute(requestFactory.buildPostRequest(URL,
+            ByteArrayContent.fromString("text/plain", "foo"))));
+
+    assertThat(e.getStatusCode()).isEqualTo(503);
+    assertThat(requests).isEqualTo(1);
+  }
+
+  @Test
+  public void testGivesUpAfterMaxRetries() throws Exception {
+    responses.add(response(500));
+    responses.add(response(500));
+    responses.add(response(500));
+
+    assertThrows(HttpResponseException.class,
+        () -> scheduler.execute(requestFactory.buildGetRequest(URL)));
+
+    assertThat(requests).isEqualTo(3);
+    assertThat(sleeps).hasSize(2);
+  }
+
+  @Test
+  public void testRetriesRateLimitedResponsesAfterReset() throws Exception {
+    responses.add(rateLimit(response(403), /*remaining=*/ 0, /*resetSeconds=*/ 1010));
+    responses.add(rateLimit(response(200), /*remaining=*/ 4999, /*resetSeconds=*/ 4600));
+
+    scheduler.execute(requestFactory.buildPostRequest(URL,
+        ByteArrayContent.fromString("text/plain", "foo")));
+
+    assertThat(sleeps).containsExactly(10_000L);
+    ApiRateLimitEvent last = eventMonitor.apiRateLimitEvents
+        .get(eventMonitor.apiRateLimitEvents.size() - 1);
+    assertThat(last.getHost()).isEqualTo("api.github.com");
+    assertThat(last.getRemaining()).isEqualTo(4999);
+    assertThat(last.getRequests()).isEqualTo(2);
+    assertThat(last.getRetries()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRetryAfter() throws Exception {
+    MockLowLevelHttpResponse secondaryLimit = response(403);
+    secondaryLimit.addHeader("Retry-After", "5");
+    responses.add(secondaryLimit);
+    responses.add(response(200));
+
+    scheduler.execute(requestFactory.buildGetRequest(URL));
+
+    assertThat(sleeps).containsExactly(5_000L);
+  }
+
+  @Test
+  public void testDoesNotWaitLongerThanMaxWait() throws Exception {
+    responses.add(rateLimit(response(403), /*remaining=*/ 0, /*resetSeconds=*/ 4600));
+
+    assertThrows(HttpResponseException.class,
+        () -> scheduler.execute(requestFactory.buildGetRequest(URL)));
+
+    assertThat(sleeps).isEmpty();
+  }
+
+  @Test
+  public void testThrottlesWhenQuotaIsExhausted() throws Exception {
+    responses.add(rateLimit(response(200), /*remaining=*/ 0, /*resetSeconds=*/ 1020));
+    responses.add(response(200));
+
+    scheduler.execute(requestFactory.buildGetRequest(URL));
+    assertThat(sleeps).isEmpty();
+    scheduler.execute(requestFactory.buildGetRequest(URL));
+
+    assertThat(sleeps).containsExactly(20_000L);
+    assertThat(eventMonitor.apiRateLimitEvents.get(1).getThrottledRequests()).isEqualTo(1);
+  }
+
+  @Test
+  public void testSpreadsRequestsWhenQuotaIsLow() throws Exception {
+    responses.add(rateLimit(response(200), /*remaining=*/ 10, /*resetSeconds=*/ 1100));
+    responses.add(response(200));
+    responses.add(response(200));
+
+    scheduler.execute(requestFactory.buildGetRequest(URL));
+    scheduler.execute(requestFactory.buildGetRequest(URL));
+    scheduler.execute(requestFactory.buildGetRequest(URL));
+
+    // 100 seconds until the reset for 10 requests
+    assertThat(sleeps).containsExactly(10_000L);
+  }
+
+  @Test
+  public void testRequestsAreNotRetriedByDefault() throws Exception {
+    responses.add(response(503));
+
+    assertThrows(HttpResponseException.class,
+        () -> RequestScheduler.direct(
+            new Profiler(Ticker.systemTicker()), new EventMonitors(ImmutableList.of()))
+            .execute(requestFactory.buildGetRequest(URL)));
+  }
+
+  private static MockLowLevelHttpResponse response(int statusCode) {
+    return new MockLowLevelHttpResponse().setStatusCode(statusCode).setContent("{}");
+  }
+
+  private static MockLowLevelHttpResponse rateLimit(MockLowLevelHttpResponse response,
+      int remaining, long resetSeconds) {
+    response.addHeader("X-RateLimit-Limit", "5000");
+    response.addHeader("X-RateLimit-Remaining", Integer.toString(remaining));
+    response.addHeader("X-RateLimit-Reset", Long.toString(resetSeconds));
+    return response;
+  }
+}
@@ -30,6 +30,7 @@ import com.google.copybara.DestinationEffect.Type;
 import com.google.copybara.Info;
 import com.google.copybara.Info.MigrationReference;
 import com.google.copybara.authoring.Author;
+import com.google.copybara.monitor.EventMonitor.ApiRateLimitEvent;
 import com.google.copybara.monitor.EventMonitor.ChangeMigrationFinishedEvent;
 import com.google.copybara.monitor.EventMonitor.ChangeMigrationStartedEvent;
 import com.google.copybara.monitor.EventMonitor.InfoFinishedEvent;
@@ -38,6 +39,7 @@ import com.google.copybara.monitor.EventMonitor.MigrationStartedEvent;
 import com.google.copybara.testing.DummyRevision;
 import com.google.copybara.util.ExitCode;
 import com.google.copybara.util.console.testing.TestingConsole;
+import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import org.junit.Before;
@@ -81,6 +83,8 @@ public class ConsoleEventMonitorTest {
         ImmutableMultimap.of("dest", "bar"), ImmutableList.of(workflow));
     eventMonitor.onInfoFinished(new InfoFinishedEvent(info,
         ImmutableMap.of("foo_a", "foo_b")));
+    eventMonitor.onApiRateLimit(new ApiRateLimitEvent("api.github.com", 5000, 4999,
+        Instant.ofEpochSecond(1000), /*requests=*/ 1, /*retries=*/ 0, /*throttledRequests=*/ 0));
     console
         .assertThat()
         .equalsNext(VERBOSE, "onMigrationStarted(): MigrationStartedEvent")
@@ -91,6 +95,8 @@ public class ConsoleEventMonitorTest {
             VERBOSE, "onChangeMigrationFinished[(][)]: ChangeMigrationFinishedEvent[{].*[}]")
         .matchesNext(VERBOSE, "onInfoFinished[(][)]: InfoFinishedEvent[{].*(origin).*"
             + "(foo).*(dest).*(bar).*(foo_a).*(foo_b).*[}]")
+        .matchesNext(VERBOSE, "onApiRateLimit[(][)]: ApiRateLimitEvent[{]host=api.github.com,"
+            + " limit=5000, remaining=4999, .*[}]")
         .containsNoMoreMessages();
   }
 
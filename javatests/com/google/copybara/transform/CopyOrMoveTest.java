@@ -18,17 +18,21 @@ package com.google.copybara.transform;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.testing.FileSubjects.assertThatPath;
+import static com.google.copybara.treestate.TreeStateUtil.isCachedTreeState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertThrows;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.jimfs.Jimfs;
 import com.google.copybara.NonReversibleValidationException;
+import com.google.copybara.TransformWork;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
 import com.google.copybara.testing.OptionsBuilder;
 import com.google.copybara.testing.SkylarkTestExecutor;
 import com.google.copybara.testing.TransformWorks;
+import com.google.copybara.treestate.TreeState.FileState;
+import com.google.copybara.util.Glob;
 import com.google.copybara.util.console.Message.MessageType;
 import com.google.copybara.util.console.testing.TestingConsole;
 import java.io.IOException;
@@ -141,6 +145,27 @@ public class CopyOrMoveTest {
     Files.write(path, new byte[]{});
   }
 
+  @Test
+  public void testMoveNotifiesTreeState() throws Exception {
+    CopyOrMove mover = skylark.eval("m", ""
+        + "m = core.move(before = 'one', after = 'two')");
+    touch("one/file1");
+    touch("one/sub/file2");
+    touch("other");
+    TransformWork work = TransformWorks.of(checkoutDir, "testmsg", console);
+    work.getTreeState().find(Glob.ALL_FILES.relativeTo(checkoutDir));
+
+    mover.transform(work);
+
+    TransformWork next = work.withUpdatedTreeState();
+    assertThat(isCachedTreeState(next.getTreeState())).isTrue();
+    assertThat(next.getTreeState().find(Glob.ALL_FILES.relativeTo(checkoutDir)))
+        .containsExactly(
+            new FileState(checkoutDir.resolve("two/file1")),
+            new FileState(checkoutDir.resolve("two/sub/file2")),
+            new FileState(checkoutDir.resolve("other")));
+  }
+
   @Test
   public void testMoveAndItsReverseWithPaths() throws Exception {
     CopyOrMove mover = skylark.eval("m", "m = "
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.transform;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.BitSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public final class LiteralPrefilterTest {
+
+  @Test
+  public void testFromRegexLongestLiteral() {
+    assertThat(literalOf("foo")).isEqualTo("foo");
+    assertThat(literalOf("foo.*barbaz")).isEqualTo("barbaz");
+    assertThat(literalOf("^import com\\.google")).isEqualTo("import com.google");
+    assertThat(literalOf("[abc]xyz")).isEqualTo("xyz");
+    assertThat(literalOf("x(foo)yy")).isEqualTo("yy");
+    assertThat(literalOf("\\Qa.b\\E")).isEqualTo("a.b");
+  }
+
+  @Test
+  public void testFromRegexQuantifiers() {
+    assertThat(literalOf("abc?d")).isEqualTo("ab");
+    assertThat(literalOf("abcd*")).isEqualTo("abc");
+    assertThat(literalOf("ab+c")).isEqualTo("ab");
+    assertThat(literalOf("x{2}abc")).isEqualTo("abc");
+  }
+
+  @Test
+  public void testFromRegexUnsupported() {
+    assertThat(LiteralPrefilter.fromRegex("").isNone()).isTrue();
+    assertThat(LiteralPrefilter.fromRegex("foo|bar").isNone()).isTrue();
+    assertThat(LiteralPrefilter.fromRegex("(?i)foo").isNone()).isTrue();
+    assertThat(LiteralPrefilter.fromRegex("\\pLfoo").isNone()).isTrue();
+    assertThat(LiteralPrefilter.fromRegex(".*").isNone()).isTrue();
+  }
+
+  @Test
+  public void testMayMatch() {
+    LiteralPrefilter prefilter = LiteralPrefilter.anyOf(ImmutableList.of("TODO", "NOTE"));
+    assertThat(prefilter.mayMatch("// NOTE(foo): bar")).isTrue();
+    assertThat(prefilter.mayMatch("// FIXME(foo): bar")).isFalse();
+    assertThat(LiteralPrefilter.NONE.mayMatch("anything")).isTrue();
+    assertThat(LiteralPrefilter.anyOf(ImmutableList.of("")).isNone()).isTrue();
+  }
+
+  @Test
+  public void testIndex() {
+    LiteralIndex index = new LiteralIndex(ImmutableList.of(
+        LiteralPrefilter.anyOf(ImmutableList.of("he", "she")),
+        LiteralPrefilter.anyOf(ImmutableList.of("hers")),
+        LiteralPrefilter.NONE,
+        LiteralPrefilter.anyOf(ImmutableList.of("his"))));
+
+    assertThat(index.mayMatch("ushers")).isEqualTo(bits(0, 1, 2));
+    assertThat(index.mayMatch("ahishe")).isEqualTo(bits(0, 2, 3));
+    assertThat(index.mayMatch("nothing")).isEqualTo(bits(2));
+  }
+
+  @Test
+  public void testIndexSameAsContains() {
+    ImmutableList<String> literals = ImmutableList.of("aab", "ab", "bab", "b", "abba", "baa");
+    ImmutableList.Builder<LiteralPrefilter> prefilters = ImmutableList.builder();
+    for (String literal : literals) {
+      prefilters.add(LiteralPrefilter.anyOf(ImmutableList.of(literal)));
+    }
+    LiteralIndex index = new LiteralIndex(prefilters.build());
+    for (String text : ImmutableList.of("", "a", "aaab", "abab", "babba", "aaaa", "abaa")) {
+      BitSet expected = new BitSet();
+      for (int i = 0; i < literals.size(); i++) {
+        expected.set(i, text.contains(literals.get(i)));
+      }
+      assertThat(index.mayMatch(text)).isEqualTo(expected);
+    }
+  }
+
+  @Test
+  public void testIndexCharsPastTheRootTable() {
+    LiteralIndex index = new LiteralIndex(ImmutableList.of(
+        LiteralPrefilter.anyOf(ImmutableList.of("ab")),
+        LiteralPrefilter.anyOf(ImmutableList.of("\u00e9t\u00e9")),
+        LiteralPrefilter.NONE));
+
+    assertThat(index.mayMatch("\u4e2d\u00e9t\u00e9 \u00e9")).isEqualTo(bits(1, 2));
+    assertThat(index.mayMatch("\u00e9ab\uffff")).isEqualTo(bits(0, 2));
+    assertThat(index.mayMatch("\u4e2d\u6587")).isEqualTo(bits(2));
+    assertThat(new LiteralIndex(ImmutableList.of(LiteralPrefilter.NONE)).mayMatch("\u00e9"))
+        .isEqualTo(bits(0));
+  }
+
+  private static String literalOf(String regex) {
+    return LiteralPrefilter.fromRegex(regex).getLiterals().iterator().next();
+  }
+
+  private static BitSet bits(int... indexes) {
+    BitSet result = new BitSet();
+    for (int index : indexes) {
+      result.set(index);
+    }
+    return result;
+  }
+}
@@ -21,6 +21,7 @@ import static com.google.copybara.testing.FileSubjects.assertThatPath;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.assertThrows;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.jimfs.Jimfs;
 import com.google.copybara.Transformation;
 import com.google.copybara.exception.ValidationException;
@@ -813,6 +814,44 @@ public final class ReplaceTest {
         .containsFile("i-exist", "abc");
   }
 
+  @Test
+  public void testJoinedReplacesSameAsSequential() throws Exception {
+    Replace first = eval("core.replace(before = 'foo', after = 'bar')");
+    Replace second = eval("core.replace(before = 'bar', after = 'baz',"
+        + " paths = glob(['**.java']))");
+    Replace third = eval("core.replace(before = 'baz', after = 'foo', first_only = True)");
+    assertThat(first.canJoin(second)).isTrue();
+    assertThat(first.join(second)).isInstanceOf(ReplaceBatch.class);
+
+    prepareGlobTree();
+    writeFile(checkoutDir.resolve("folder/other.java"), "baz baz\nbar");
+    new Sequence(options.general.profiler(), /*joinTransformations=*/true,
+        ImmutableList.of(first, second, third))
+        .transform(TransformWorks.of(checkoutDir, "testmsg", console));
+
+    assertThatPath(checkoutDir)
+        .containsFile("file1.txt", "bar")
+        .containsFile("file1.java", "foo")
+        .containsFile("folder/file1.txt", "bar")
+        .containsFile("folder/file1.java", "foo")
+        .containsFile("folder/subfolder/file1.java", "foo")
+        .containsFile("folder/other.java", "foo baz\nfoo");
+  }
+
+  @Test
+  public void testJoinedReplacesReportNoop() throws Exception {
+    Replace first = eval("core.replace(before = 'foo', after = 'bar')");
+    Replace noop = eval("core.replace(before = 'not found', after = 'bar')");
+    writeFile(checkoutDir.resolve("file1.txt"), "foo");
+    Sequence sequence = new Sequence(options.general.profiler(), /*joinTransformations=*/true,
+        ImmutableList.of(first, noop));
+
+    VoidOperationException thrown = assertThrows(VoidOperationException.class,
+        () -> sequence.transform(TransformWorks.of(checkoutDir, "testmsg", console)));
+    assertThat(thrown).hasMessageThat().contains("not found");
+    assertThatPath(checkoutDir).containsFile("file1.txt", "bar");
+  }
+
   private <T extends Transformation> T eval(String replace) throws ValidationException {
     return skylark.eval("r", "r = " + replace);
   }
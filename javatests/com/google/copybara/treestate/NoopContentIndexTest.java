@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.treestate;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Jimfs;
+import com.google.copybara.treestate.TreeState.FileState;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NoopContentIndexTest {
+
+  private final Object transformation = new Object();
+  private Path checkoutDir;
+
+  @Before
+  public void setup() throws IOException {
+    FileSystem fs = Jimfs.newFileSystem();
+    checkoutDir = fs.getPath("/test-checkoutDir");
+    Files.createDirectories(checkoutDir);
+  }
+
+  @Test
+  public void testUnknownHashIsNotNoop() throws IOException {
+    NoopContentIndex index = new NoopContentIndex(100);
+    FileState file = file("foo", "hello");
+    index.recordNoop(transformation, file);
+    assertThat(index.isNoop(transformation, file)).isFalse();
+  }
+
+  @Test
+  public void testSameContentIsNoop() throws IOException {
+    NoopContentIndex index = new NoopContentIndex(100);
+    FileState file = file("foo", "hello");
+    file.getContentHash();
+    index.recordNoop(transformation, file);
+
+    // Same content in a different checkout
+    FileState other = file("bar", "hello");
+    other.getContentHash();
+    assertThat(index.isNoop(transformation, other)).isTrue();
+    assertThat(index.isNoop(new Object(), other)).isFalse();
+
+    FileState different = file("baz", "bye");
+    different.getContentHash();
+    assertThat(index.isNoop(transformation, different)).isFalse();
+  }
+
+  @Test
+  public void testDisabled() throws IOException {
+    FileState file = file("foo", "hello");
+    file.getContentHash();
+    NoopContentIndex.DISABLED.recordNoop(transformation, file);
+    assertThat(NoopContentIndex.DISABLED.isEnabled()).isFalse();
+    assertThat(NoopContentIndex.DISABLED.isNoop(transformation, file)).isFalse();
+  }
+
+  private FileState file(String path, String content) throws IOException {
+    Path file = checkoutDir.resolve(path);
+    Files.write(file, content.getBytes(UTF_8));
+    return new FileState(file);
+  }
+}
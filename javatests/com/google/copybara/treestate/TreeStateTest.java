@@ -18,13 +18,19 @@ package com.google.copybara.treestate;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.copybara.treestate.TreeStateUtil.isCachedTreeState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashCode;
 import com.google.common.jimfs.Jimfs;
+import com.google.copybara.treestate.TreeState.FileState;
 import com.google.copybara.util.Glob;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -93,4 +99,56 @@ public class TreeStateTest {
     // This TreeState has not been used or notified. Should return a FS based one.
     assertThat(isCachedTreeState(treeState.newTreeState())).isFalse();
   }
+
+  @Test
+  public void testNotifyAddAndDeleteKeepsCache() throws IOException {
+    Files.write(checkoutDir.resolve("foo"), new byte[]{1});
+    Files.write(checkoutDir.resolve("bar"), new byte[]{2});
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    PathMatcher allFiles = Glob.ALL_FILES.relativeTo(checkoutDir);
+    assertThat(treeState.find(allFiles))
+        .containsExactly(fileState("foo"), fileState("bar"));
+
+    treeState.notifyDelete(ImmutableList.of(fileState("foo")));
+    treeState.notifyAdd(ImmutableList.of(fileState("baz")));
+
+    TreeState cached = treeState.newTreeState();
+    assertThat(isCachedTreeState(cached)).isTrue();
+    assertThat(cached.find(allFiles))
+        .containsExactly(fileState("bar"), fileState("baz"));
+  }
+
+  @Test
+  public void testFileStateAttributes() throws IOException {
+    Files.write(checkoutDir.resolve("foo"), "hello".getBytes(UTF_8));
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    FileState file = Iterables.getOnlyElement(
+        treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir)));
+    assertThat(file.getSize()).isEqualTo(5L);
+    assertThat(file.getLastModifiedMillis()).isNotEqualTo(FileState.UNKNOWN);
+    assertThat(file.getContentHashIfPresent()).isNull();
+    assertThat(file.getContentHash())
+        .isEqualTo(file.hashContent("hello".getBytes(UTF_8)));
+  }
+
+  @Test
+  public void testModifyInvalidatesContentHash() throws IOException {
+    Files.write(checkoutDir.resolve("foo"), "hello".getBytes(UTF_8));
+    TreeState treeState = new FileSystemTreeState(checkoutDir);
+    FileState file = Iterables.getOnlyElement(
+        treeState.find(Glob.ALL_FILES.relativeTo(checkoutDir)));
+    HashCode before = file.getContentHash();
+
+    Files.write(file.getPath(), "bye".getBytes(UTF_8));
+    treeState.notifyModify(ImmutableList.of(file));
+
+    assertThat(file.getContentHashIfPresent()).isNull();
+    FileState cached = Iterables.getOnlyElement(
+        treeState.newTreeState().find(Glob.ALL_FILES.relativeTo(checkoutDir)));
+    assertThat(cached.getContentHash()).isNotEqualTo(before);
+  }
+
+  private FileState fileState(String path) {
+    return new FileState(checkoutDir.resolve(path));
+  }
 }
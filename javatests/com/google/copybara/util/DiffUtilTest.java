@@ -22,6 +22,7 @@ import static org.junit.Assert.assertThrows;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.copybara.util.DiffUtil.DiffFile;
 import com.google.copybara.util.DiffUtil.DiffFile.Operation;
@@ -29,6 +30,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -138,6 +142,56 @@ public class DiffUtilTest {
     assertThat(byName.get("moved_new_name.txt").getOperation()).isEqualTo(Operation.ADD);
     assertThat(byName.get("added.txt").getOperation()).isEqualTo(Operation.ADD);
   }
+  @Test
+  public void testDiffFiles_directoryReplacedByFile() throws Exception {
+    writeFile(left, "foo/bar.txt", "bar");
+    writeFile(left, "foo/baz/qux.txt", "qux");
+    writeFile(right, "foo", "foo");
+    writeFile(left, "other.txt", "same");
+    writeFile(right, "other.txt", "same");
+
+    ImmutableList<DiffFile> result = DiffUtil.diffFiles(left, right, VERBOSE, System.getenv());
+    ImmutableMap<String, DiffFile> byName = Maps.uniqueIndex(result, DiffFile::getName);
+
+    assertThat(byName.keySet()).containsExactly("foo", "foo/bar.txt", "foo/baz/qux.txt");
+    assertThat(byName.get("foo").getOperation()).isEqualTo(Operation.ADD);
+    assertThat(byName.get("foo/bar.txt").getOperation()).isEqualTo(Operation.DELETE);
+    assertThat(byName.get("foo/baz/qux.txt").getOperation()).isEqualTo(Operation.DELETE);
+  }
+
+  @Test
+  public void testDiffFiles_executableBit() throws Exception {
+    writeFile(left, "script.sh", "echo");
+    writeFile(right, "script.sh", "echo");
+    FileUtil.addPermissions(right.resolve("script.sh"),
+        ImmutableSet.of(PosixFilePermission.OWNER_EXECUTE));
+
+    ImmutableList<DiffFile> result = DiffUtil.diffFiles(left, right, VERBOSE, System.getenv());
+
+    assertThat(result).hasSize(1);
+    assertThat(result.get(0).getName()).isEqualTo("script.sh");
+    assertThat(result.get(0).getOperation()).isEqualTo(Operation.MODIFIED);
+  }
+
+  @Test
+  public void testDiffOnlyIncludesChangedFiles() throws Exception {
+    writeFile(left, "unchanged.txt", "foo");
+    writeFile(right, "unchanged.txt", "foo");
+    writeFile(left, "dir/modified.txt", "foo-left");
+    writeFile(right, "dir/modified.txt", "foo-right");
+
+    String diff = new String(DiffUtil.diff(left, right, VERBOSE, System.getenv()),
+        StandardCharsets.UTF_8);
+
+    assertThat(diff).contains("diff --git a/left/dir/modified.txt b/right/dir/modified.txt");
+    assertThat(diff).doesNotContain("unchanged.txt");
+    // The temporary directories used for the diff are removed
+    try (Stream<Path> files = Files.list(tmpFolder.getRoot().toPath())) {
+      assertThat(files.map(f -> f.getFileName().toString()).collect(Collectors.toList()))
+          .containsExactly("left", "right");
+    }
+  }
+
   /**
    * Don't treat origin/destination folders as flags or other special argument. This means that
    * we run 'git options -- origin dest' instead of 'git options origin dest' that is
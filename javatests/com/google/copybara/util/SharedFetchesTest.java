@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.copybara.exception.RepoException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SharedFetchesTest {
+
+  @Test
+  public void testFetchIsShared() throws Exception {
+    SharedFetches fetches = new SharedFetches();
+    AtomicInteger count = new AtomicInteger();
+
+    assertThat(fetches.fetch("repo master", count::incrementAndGet)).isEqualTo(1);
+    assertThat(fetches.fetch("repo master", count::incrementAndGet)).isEqualTo(1);
+    assertThat(fetches.fetch("repo other", count::incrementAndGet)).isEqualTo(2);
+    assertThat(count.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void testConcurrentFetchWaits() throws Exception {
+    SharedFetches fetches = new SharedFetches();
+    AtomicInteger count = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> first = executor.submit(() -> fetches.fetch("repo master", () -> {
+        started.countDown();
+        release.await();
+        return count.incrementAndGet();
+      }));
+      started.await();
+      Thread second = new Thread(release::countDown);
+      second.start();
+
+      assertThat(fetches.fetch("repo master", count::incrementAndGet)).isEqualTo(1);
+      assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(1);
+      assertThat(count.get()).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailedFetchIsNotShared() throws Exception {
+    SharedFetches fetches = new SharedFetches();
+    RepoException e = assertThrows(RepoException.class, () -> fetches.fetch("repo master", () -> {
+      throw new RepoException("Cannot fetch");
+    }));
+    assertThat(e).hasMessageThat().isEqualTo("Cannot fetch");
+
+    assertThat(fetches.fetch("repo master", () -> "fetched")).isEqualTo("fetched");
+  }
+
+  @Test
+  public void testNoneDoesntShare() throws Exception {
+    AtomicInteger count = new AtomicInteger();
+
+    assertThat(SharedFetches.NONE.fetch("repo master", count::incrementAndGet)).isEqualTo(1);
+    assertThat(SharedFetches.NONE.fetch("repo master", count::incrementAndGet)).isEqualTo(2);
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2020 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.copybara.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TreeFingerprintTest {
+
+  private Path one;
+  private Path other;
+
+  @Before
+  public void setup() throws Exception {
+    one = Files.createTempDirectory("one");
+    other = Files.createTempDirectory("other");
+  }
+
+  @Test
+  public void testSameTrees() throws Exception {
+    writeFile(one, "foo/bar.txt", "bar");
+    writeFile(other, "foo/bar.txt", "bar");
+    Files.createDirectories(other.resolve("empty"));
+
+    assertThat(fingerprint(one).changedFiles(fingerprint(other))).isEmpty();
+  }
+
+  @Test
+  public void testChangedFiles() throws Exception {
+    writeFile(one, "same.txt", "same");
+    writeFile(other, "same.txt", "same");
+    writeFile(one, "modified.txt", "one");
+    writeFile(other, "modified.txt", "other");
+    writeFile(one, "deleted.txt", "deleted");
+    writeFile(other, "added.txt", "added");
+
+    assertThat(fingerprint(one).changedFiles(fingerprint(other)))
+        .containsExactly("added.txt", "deleted.txt", "modified.txt")
+        .inOrder();
+  }
+
+  @Test
+  public void testExecutableBit() throws Exception {
+    writeFile(one, "script.sh", "echo");
+    writeFile(other, "script.sh", "echo");
+    FileUtil.addPermissions(other.resolve("script.sh"),
+        ImmutableSet.of(PosixFilePermission.OWNER_EXECUTE));
+
+    assertThat(fingerprint(one).changedFiles(fingerprint(other))).containsExactly("script.sh");
+  }
+
+  @Test
+  public void testSymlinksAreComparedByTarget() throws Exception {
+    writeFile(one, "a.txt", "content");
+    writeFile(one, "b.txt", "content");
+    Files.createSymbolicLink(one.resolve("link"), Paths.get("a.txt"));
+    writeFile(other, "a.txt", "content");
+    writeFile(other, "b.txt", "content");
+    Files.createSymbolicLink(other.resolve("link"), Paths.get("b.txt"));
+
+    assertThat(fingerprint(one).changedFiles(fingerprint(other))).containsExactly("link");
+  }
+
+  @Test
+  public void testOutsideSymlink() throws Exception {
+    Path outside = Files.createTempFile("outside", ".txt");
+    Files.createSymbolicLink(one.resolve("link"), outside);
+
+    assertThrows(AbsoluteSymlinksNotAllowed.class,
+        () -> TreeFingerprint.of(one, /*failOutsideSymlinks=*/ true));
+    assertThat(TreeFingerprint.of(one, /*failOutsideSymlinks=*/ false)
+        .changedFiles(fingerprint(other))).containsExactly("link");
+  }
+
+  private static TreeFingerprint fingerprint(Path root) throws IOException {
+    return TreeFingerprint.of(root, /*failOutsideSymlinks=*/ true);
+  }
+
+  private static void writeFile(Path root, String path, String content) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, content.getBytes(UTF_8));
+  }
+}